@@ -4,13 +4,23 @@
  */
 package com.intel.mtwilson;
 
+import com.intel.dcsg.cpg.configuration.CommonsConfigurationAdapter;
 import com.intel.dcsg.cpg.configuration.Configuration;
+import com.intel.dcsg.cpg.configuration.LayeredConfiguration;
 import com.intel.dcsg.cpg.configuration.PropertiesConfiguration;
+import com.intel.dcsg.cpg.objectpool.BoundedObjectPool;
+import com.intel.dcsg.cpg.objectpool.ObjectPool;
+import com.intel.dcsg.cpg.util.jdbc.PoolingDataSource;
 import com.intel.mtwilson.configuration.ConfigurationFactory;
+import com.intel.mtwilson.util.dbcp.DataSourceFactory;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
 
 /**
  *
@@ -20,6 +30,7 @@ public class MyJdbc {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(MyJdbc.class);
     private Configuration conf;
     private MyConfiguration config = new MyConfiguration(null);
+    private static volatile DataSource dataSource = null;
     
     public MyJdbc(MyConfiguration config) {
         conf = new PropertiesConfiguration(config.getProperties("mtwilson.db.protocol", "mtwilson.db.driver", "mtwilson.db.host", "mtwilson.db.port", "mtwilson.db.schema", "mtwilson.db.user", "mtwilson.db.password"));
@@ -163,13 +174,145 @@ public class MyJdbc {
      * Use this static method to replace "My.jdbc().connection()" with
      * "MyJdbc.openConnection()" in code that would depend on mtwilson-my
      * but is not allowed due to its location in the architecture.
+     * 
+     * The connection is borrowed from the process-wide pool returned by
+     * getDataSource(); calling close() on it returns it to the pool.
+     * 
      * @return
      * @throws IOException
      * @throws ClassNotFoundException
      * @throws SQLException 
      */
     public static Connection openConnection() throws IOException, ClassNotFoundException, SQLException {
-        MyJdbc jdbc = new MyJdbc();
-        return jdbc.connection();
+        return getDataSource().getConnection();
+    }
+    
+    /**
+     * Returns a process-wide pooled data source, created on first use
+     * from the current configuration. The pool is configured with the
+     * dbcp.* settings described in DataSourceFactory.createBoundedObjectPool;
+     * if dbcp.validation.query is not set, connections are validated 
+     * with "SELECT 1".
+     * 
+     * @return
+     * @throws IOException if the configuration cannot be loaded
+     */
+    public static DataSource getDataSource() throws IOException {
+        DataSource current = dataSource;
+        if( current == null ) {
+            synchronized(MyJdbc.class) {
+                if( dataSource == null ) {
+                    dataSource = new MyJdbc().createPooledDataSource();
+                }
+                current = dataSource;
+            }
+        }
+        return current;
+    }
+    
+    /**
+     * Closes the process-wide pool so that the next call to getDataSource()
+     * creates a new one, for example after the database settings changed.
+     * Connections currently borrowed are closed when they are returned.
+     * JdbiUtil.getDBI() compares the data source it was created with to
+     * getDataSource(), so it switches to the new pool too.
+     */
+    public static void closeDataSource() {
+        DataSource current;
+        synchronized(MyJdbc.class) {
+            current = dataSource;
+            dataSource = null;
+        }
+        if( current instanceof PoolingDataSource ) {
+            ObjectPool<Connection> pool = ((PoolingDataSource)current).getConnectionPool();
+            if( pool instanceof BoundedObjectPool ) {
+                ((BoundedObjectPool<?>)pool).close();
+            }
+        }
+    }
+    
+    /**
+     * Creates a new pool of connections to the database described by this
+     * instance's configuration. Most callers should use the shared
+     * getDataSource() instead.
+     * 
+     * @return 
+     */
+    public DataSource createPooledDataSource() {
+        PropertiesConfiguration defaults = new PropertiesConfiguration();
+        defaults.set("dbcp.validation.query", "SELECT 1");
+        LayeredConfiguration poolConfiguration = new LayeredConfiguration(conf, defaults);
+        log.debug("Creating connection pool for {}", url());
+        return DataSourceFactory.createBoundedObjectPool(new DriverManagerDataSource(this), new CommonsConfigurationAdapter(poolConfiguration));
+    }
+    
+    /**
+     * An unpooled data source that opens a new connection with 
+     * DriverManager on every call; the pool uses it to create connections.
+     */
+    public static class DriverManagerDataSource implements DataSource {
+        private final MyJdbc jdbc;
+        private PrintWriter logWriter = null;
+        private int loginTimeout = 0;
+
+        public DriverManagerDataSource(MyJdbc jdbc) {
+            this.jdbc = jdbc;
+        }
+        
+        @Override
+        public Connection getConnection() throws SQLException {
+            try {
+                return jdbc.connection();
+            }
+            catch(ClassNotFoundException e) {
+                throw new SQLException("Cannot load JDBC driver", e);
+            }
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            try {
+                Class.forName(jdbc.driver());
+            }
+            catch(ClassNotFoundException e) {
+                throw new SQLException("Cannot load JDBC driver", e);
+            }
+            return DriverManager.getConnection(jdbc.url(), username, password);
+        }
+
+        @Override
+        public PrintWriter getLogWriter() throws SQLException {
+            return logWriter;
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) throws SQLException {
+            this.logWriter = out;
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) throws SQLException {
+            this.loginTimeout = seconds;
+        }
+
+        @Override
+        public int getLoginTimeout() throws SQLException {
+            return loginTimeout;
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            throw new SQLException("Not a wrapper");
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) throws SQLException {
+            return false;
+        }
     }
 }
@@ -5,7 +5,6 @@
 package com.intel.mtwilson.configuration;
 
 import com.intel.dcsg.cpg.configuration.Configuration;
-import com.intel.dcsg.cpg.configuration.ReadonlyConfiguration;
 import com.intel.dcsg.cpg.io.FileResource;
 import com.intel.dcsg.cpg.io.pem.Pem;
 import com.intel.mtwilson.Environment;
@@ -19,14 +18,20 @@ import org.apache.commons.io.IOUtils;
  * The ConfigurationFactory is used to locate and read the application's
  * configuration file, which may be encrypted.
  *
+ * The configuration is kept as an immutable snapshot by a
+ * ConfigurationMonitor which reloads it in the background when the file
+ * changes, so callers that get the configuration for each request see
+ * changes without a restart. The check interval in milliseconds is set
+ * with the system property mtwilson.configuration.reload.interval
+ * (default 10000, 0 to disable).
+ *
  * @author jbuhacoff
  */
 public class ConfigurationFactory {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ConfigurationFactory.class);
     private static final String PASSWORD = "PASSWORD"; // transforms into MTWILSON_PASSWORD, KMS_PASSWORD, etc. environment variables
-    private static ConfigurationProvider provider;
-    private static Configuration configuration;
+    private static volatile ConfigurationMonitor monitor;
 
     public static File getConfigurationFile() {
         String path = Folders.configuration();
@@ -35,23 +40,51 @@ public class ConfigurationFactory {
         return file;
     }
 
+    private static ConfigurationMonitor getMonitor() {
+        ConfigurationMonitor current = monitor;
+        if (current == null) {
+            synchronized (ConfigurationFactory.class) {
+                if (monitor == null) {
+                    ConfigurationMonitor created = new ConfigurationMonitor(getConfigurationFile());
+                    long interval = Long.valueOf(System.getProperty("mtwilson.configuration.reload.interval", "10000"));
+                    if (interval > 0) {
+                        created.start(interval);
+                    }
+                    monitor = created;
+                }
+                current = monitor;
+            }
+        }
+        return current;
+    }
+
     /**
      * Get a read-only view of the current configuration. If you need to edit
      * the configuration, use {@code getConfigurationProvider()} instead.
+     * 
+     * The returned instance is an immutable snapshot; call this method
+     * again to get the latest configuration after it is reloaded.
      *
      * @return
      * @throws IOException
      */
     public static Configuration getConfiguration() throws IOException {
-        if (configuration == null) {
-            // because extensions cache may not be loaded at this time,
-            // any plugins that implement configuration providers must
-            // register themselves via the Java Service Provider Interface
+        // because extensions cache may not be loaded at this time,
+        // any plugins that implement configuration providers must
+        // register themselves via the Java Service Provider Interface
+        return getMonitor().getConfiguration();
+    }
 
-            // find the appropriate provider and store a read-only configuration
-            configuration = new ReadonlyConfiguration(getConfigurationProvider().load());
-        }
-        return configuration;
+    /**
+     * Reloads the configuration file now instead of waiting for the
+     * background check, for example after saving changes with the
+     * configuration provider.
+     *
+     * @return the new configuration snapshot
+     * @throws IOException
+     */
+    public static Configuration reloadConfiguration() throws IOException {
+        return getMonitor().reload();
     }
 
     /**
@@ -59,18 +92,14 @@ public class ConfigurationFactory {
      * from which you can load and reload
      * the configuration, and store any changes to the configuration.
      * The configuration provider instance is cached, so subsequent calls to
-     * this method will return the same instance.
+     * this method will return the same instance until the configuration
+     * file is reloaded.
      *
      * @return
      * @throws IOException
      */
     public static ConfigurationProvider getConfigurationProvider() throws IOException {
-        if (provider == null) {
-            // locate the configuration file
-            File file = getConfigurationFile();
-            provider = createConfigurationProvider(file);
-        }
-        return provider;
+        return getMonitor().getConfigurationProvider();
     }
 
     /**
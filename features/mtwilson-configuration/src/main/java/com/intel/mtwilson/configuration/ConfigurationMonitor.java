@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.configuration;
+
+import com.intel.dcsg.cpg.configuration.Configuration;
+import com.intel.dcsg.cpg.configuration.MapConfiguration;
+import com.intel.dcsg.cpg.configuration.ReadonlyConfiguration;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps an immutable snapshot of a configuration file and replaces it when
+ * the file changes.
+ *
+ * The snapshot is a complete copy of the configuration in a HashMap, so
+ * lookups do not lock and do not go back to the provider. A reload builds
+ * a new snapshot from the file, plaintext or encrypted, and then publishes
+ * it with a single volatile write; readers see either the old snapshot or
+ * the new one, never a mix. Callers that need several related settings to
+ * be consistent should get the configuration once and read all of them
+ * from that instance.
+ *
+ * When started, a background thread checks the modification time and size
+ * of the file at the given interval and reloads it when either changes. If
+ * the file cannot be read, for example while it is being written, the
+ * current snapshot is kept and the file is checked again at the next
+ * interval.
+ *
+ * @author jbuhacoff
+ */
+public class ConfigurationMonitor {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ConfigurationMonitor.class);
+    private final File file;
+    private final Object lock = new Object();
+    private volatile ConfigurationProvider provider;
+    private volatile Configuration configuration;
+    private final AtomicLong reloadCount = new AtomicLong(0);
+    // state of the file when the current snapshot was loaded, guarded by lock
+    private boolean exists;
+    private long lastModified;
+    private long length;
+    private ScheduledExecutorService executor; // guarded by lock
+
+    public ConfigurationMonitor(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * The provider is created the first time it is needed, and created again
+     * when the configuration is reloaded because the file may have been
+     * created or encrypted since the last time.
+     *
+     * @return the provider for the configuration file
+     * @throws IOException
+     */
+    public ConfigurationProvider getConfigurationProvider() throws IOException {
+        ConfigurationProvider current = provider;
+        if (current == null) {
+            synchronized (lock) {
+                if (provider == null) {
+                    provider = ConfigurationFactory.createConfigurationProvider(file);
+                }
+                current = provider;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Get the current snapshot. After the first call this is a single
+     * volatile read.
+     *
+     * @return read-only snapshot of the configuration
+     * @throws IOException if the configuration was never loaded and cannot be loaded now
+     */
+    public Configuration getConfiguration() throws IOException {
+        Configuration current = configuration;
+        if (current == null) {
+            synchronized (lock) {
+                if (configuration == null) {
+                    reload();
+                }
+                current = configuration;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Loads the configuration file and publishes a new snapshot.
+     *
+     * @return the new snapshot
+     * @throws IOException if the configuration cannot be loaded; the current snapshot is not changed
+     */
+    public Configuration reload() throws IOException {
+        synchronized (lock) {
+            // record the state of the file before reading it, so if it is changed while we read it we will notice on the next check
+            boolean fileExists = file.exists();
+            long fileLastModified = file.lastModified();
+            long fileLength = file.length();
+            ConfigurationProvider current = ConfigurationFactory.createConfigurationProvider(file); // the file may have been created, deleted, or encrypted since the last time
+            Configuration snapshot = snapshot(current.load());
+            provider = current;
+            configuration = snapshot;
+            exists = fileExists;
+            lastModified = fileLastModified;
+            length = fileLength;
+            reloadCount.incrementAndGet();
+            log.debug("Loaded configuration {} with {} keys", file.getAbsolutePath(), snapshot.keys().size());
+            return snapshot;
+        }
+    }
+
+    /**
+     * Reloads the configuration if the file was created, deleted, or
+     * modified since it was last loaded.
+     *
+     * @return true if a new snapshot was published
+     * @throws IOException if the file was modified but cannot be loaded
+     */
+    public boolean reloadIfModified() throws IOException {
+        synchronized (lock) {
+            if (configuration != null && file.exists() == exists && file.lastModified() == lastModified && file.length() == length) {
+                return false;
+            }
+            reload();
+            return true;
+        }
+    }
+
+    /**
+     *
+     * @return number of snapshots published since this monitor was created
+     */
+    public long getReloadCount() {
+        return reloadCount.get();
+    }
+
+    /**
+     * Starts checking the file for changes in a background thread.
+     *
+     * @param intervalMillis time between checks
+     */
+    public void start(long intervalMillis) {
+        synchronized (lock) {
+            if (executor != null) {
+                return;
+            }
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "configuration-monitor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (reloadIfModified()) {
+                            log.info("Reloaded configuration {}", file.getAbsolutePath());
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        log.warn("Cannot reload configuration {}: {}", file.getAbsolutePath(), e.getMessage());
+                    }
+                }
+            }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void stop() {
+        synchronized (lock) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
+    }
+
+    /**
+     * Creates an immutable copy of the given configuration.
+     *
+     * @param configuration
+     * @return read-only configuration that does not change when the given configuration changes
+     */
+    public static Configuration snapshot(Configuration configuration) {
+        HashMap<String, String> map = new HashMap<>();
+        for (String key : configuration.keys()) {
+            String value = configuration.get(key);
+            if (value != null) {
+                map.put(key, value);
+            }
+        }
+        return new ReadonlyConfiguration(new MapConfiguration(Collections.unmodifiableMap(map), false));
+    }
+}
@@ -8,6 +8,7 @@ import com.intel.dcsg.cpg.configuration.Configuration;
 import com.intel.dcsg.cpg.configuration.PropertiesConfiguration;
 import com.intel.dcsg.cpg.io.Resource;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Date;
 import java.util.Properties;
@@ -33,7 +34,9 @@ public class ResourceConfigurationProvider implements ConfigurationProvider {
     @Override
     public Configuration load() throws IOException {
         Properties p = new Properties();
-        p.load(getResource().getInputStream());
+        try (InputStream in = getResource().getInputStream()) {
+            p.load(in);
+        }
         return new PropertiesConfiguration(p);
     }
 
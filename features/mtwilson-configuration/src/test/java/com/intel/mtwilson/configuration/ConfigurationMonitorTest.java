@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.configuration;
+
+import com.intel.dcsg.cpg.configuration.Configuration;
+import com.intel.dcsg.cpg.configuration.ReadonlyConfiguration;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class ConfigurationMonitorTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ConfigurationMonitorTest.class);
+    private static final int KEYS = 100;
+    private static final int LOOKUPS = 1000000;
+
+    private File createFile(String name) {
+        File file = new File("target" + File.separator + name);
+        file.getParentFile().mkdirs();
+        file.delete();
+        return file;
+    }
+
+    // writes every key with the same value
+    private void write(File file, String value) throws IOException {
+        Properties properties = new Properties();
+        for (int i = 0; i < KEYS; i++) {
+            properties.setProperty("key" + i, value);
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            properties.store(out, "test");
+        }
+    }
+
+    @Test
+    public void testReloadIfModified() throws IOException {
+        File file = createFile("monitor-test.properties");
+        write(file, "1");
+        ConfigurationMonitor monitor = new ConfigurationMonitor(file);
+        Configuration first = monitor.getConfiguration();
+        assertEquals("1", first.get("key0"));
+        assertFalse(monitor.reloadIfModified());
+        write(file, "22");
+        file.setLastModified(file.lastModified() + 2000); // in case the filesystem has one second resolution
+        assertTrue(monitor.reloadIfModified());
+        Configuration second = monitor.getConfiguration();
+        assertEquals("22", second.get("key0"));
+        assertEquals("1", first.get("key0")); // snapshots do not change
+        assertEquals(2, monitor.getReloadCount());
+        try {
+            second.set("key0", "3");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            log.debug("Snapshot is read-only");
+        }
+    }
+
+    @Test
+    public void testMissingFileIsEmpty() throws IOException {
+        File file = createFile("monitor-missing.properties");
+        ConfigurationMonitor monitor = new ConfigurationMonitor(file);
+        assertTrue(monitor.getConfiguration().keys().isEmpty());
+        write(file, "1");
+        assertTrue(monitor.reloadIfModified());
+        assertEquals("1", monitor.getConfiguration().get("key99"));
+    }
+
+    /**
+     * Readers check that all the keys in each snapshot they get have the
+     * same value while the file is rewritten and reloaded, so a reader that
+     * saw a partially applied reload would find two different values.
+     */
+    @Test
+    public void testConcurrentReadersSeeCompleteSnapshot() throws Exception {
+        final File file = createFile("monitor-concurrent.properties");
+        write(file, "0");
+        final ConfigurationMonitor monitor = new ConfigurationMonitor(file);
+        monitor.getConfiguration();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        ArrayList<Future<Integer>> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            readers.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    int snapshots = 0;
+                    while (!done.get()) {
+                        Configuration configuration = monitor.getConfiguration();
+                        String expected = configuration.get("key0");
+                        for (int k = 1; k < KEYS; k++) {
+                            assertEquals(expected, configuration.get("key" + k));
+                        }
+                        snapshots++;
+                    }
+                    return snapshots;
+                }
+            }));
+        }
+        for (int i = 1; i <= 200; i++) {
+            write(file, String.valueOf(i));
+            monitor.reload();
+        }
+        done.set(true);
+        int total = 0;
+        for (Future<Integer> reader : readers) {
+            total += reader.get(); // throws ExecutionException if a reader saw a partial reload
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        log.debug("Readers checked {} snapshots during {} reloads", total, monitor.getReloadCount());
+        assertEquals("200", monitor.getConfiguration().get("key0"));
+    }
+
+    /**
+     * Compares the cost of a lookup in the read-only view of the loaded
+     * Properties that ConfigurationFactory used to return, which
+     * synchronizes on every get, with a lookup in the snapshot.
+     */
+    @Test
+    public void testLookupCost() throws IOException {
+        File file = createFile("monitor-lookup.properties");
+        write(file, "value");
+        ConfigurationMonitor monitor = new ConfigurationMonitor(file);
+        Configuration previous = new ReadonlyConfiguration(new ResourceConfigurationProvider(new com.intel.dcsg.cpg.io.FileResource(file)).load());
+        int found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            if (previous.get("key" + (i % KEYS)) != null) {
+                found++;
+            }
+        }
+        long previousNanos = (System.nanoTime() - start) / LOOKUPS;
+        start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            if (monitor.getConfiguration().get("key" + (i % KEYS)) != null) {
+                found++;
+            }
+        }
+        long snapshotNanos = (System.nanoTime() - start) / LOOKUPS;
+        assertEquals(2 * LOOKUPS, found);
+        log.debug("Properties: {} ns per lookup", previousNanos);
+        log.debug("Snapshot: {} ns per lookup", snapshotNanos);
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.core.data.bundle;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+
+/**
+ * A bundle that can provide its entries as streams, for entries that may
+ * be too large to keep in memory.
+ * 
+ * This is separate from Bundle so that existing Bundle implementations
+ * do not need to change.
+ *
+ * @author jbuhacoff
+ */
+public interface StreamingBundle extends Bundle {
+    
+    /**
+     * Use this instead of getBytes for entries that may be too large to
+     * keep in memory. The caller must close the stream.
+     * 
+     * @param path
+     * @return stream of the raw content at this path
+     * @throws FileNotFoundException if path is not found in bundle
+     */
+    InputStream getInputStream(String path) throws FileNotFoundException;
+    
+    /**
+     * 
+     * @param path
+     * @return size in bytes of the content at this path
+     * @throws FileNotFoundException if path is not found in bundle
+     */
+    long getSize(String path) throws FileNotFoundException;
+}
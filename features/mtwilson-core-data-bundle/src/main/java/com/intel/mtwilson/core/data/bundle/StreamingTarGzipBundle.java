@@ -0,0 +1,504 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.core.data.bundle;
+
+import com.intel.mtwilson.util.archive.TarGzipBuilder;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+
+/**
+ * A .tgz bundle that does not keep large entries in memory.
+ *
+ * read() makes a single pass over the archive. Entries up to the memory
+ * threshold are kept in memory like in TarGzipBundle. Larger entries are
+ * appended to one temporary spool file and only their offset and size are
+ * kept, so there is no limit on entry size. getInputStream() returns a
+ * stream that reads the entry from memory or from the spool file when it
+ * is read. The spool file is deleted by close().
+ *
+ * write() copies each entry from its source into the archive: from memory,
+ * from the spool file, or from a file added with set(String, File).
+ *
+ * getBytes(), getString() and entries() still return whole entries in
+ * memory, so callers handling large entries should use getInputStream()
+ * and getSize() instead.
+ *
+ * Note: like TarGzipBundle this class only reads regular files from the
+ * archive.
+ *
+ * @author jbuhacoff
+ */
+public class StreamingTarGzipBundle implements StreamingBundle {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(StreamingTarGzipBundle.class);
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    public static final long DEFAULT_MEMORY_THRESHOLD = 1024 * 1024;
+    private Charset charset = Charset.forName("UTF-8");
+    private final LinkedHashMap<String, Content> bundle = new LinkedHashMap<>();
+    private final long memoryThreshold;
+    private final File tempDirectory;
+    private File spoolFile = null;
+    private RandomAccessFile spoolRandomAccessFile = null;
+    private FileChannel spool = null;
+    private long spoolSize = 0;
+    private boolean closed = false;
+
+    public StreamingTarGzipBundle() {
+        this(DEFAULT_MEMORY_THRESHOLD, null);
+    }
+
+    /**
+     *
+     * @param memoryThreshold entries larger than this number of bytes are kept in the temporary spool file
+     * @param tempDirectory where to create the spool file, or null for the default temporary directory
+     */
+    public StreamingTarGzipBundle(long memoryThreshold, File tempDirectory) {
+        this.memoryThreshold = memoryThreshold;
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Source of the content of one entry.
+     */
+    private abstract static class Content {
+        abstract long size();
+        abstract InputStream openStream() throws IOException;
+    }
+
+    private static class MemoryContent extends Content {
+        private final byte[] content;
+
+        public MemoryContent(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        long size() {
+            return content.length;
+        }
+
+        @Override
+        InputStream openStream() {
+            return new ByteArrayInputStream(content);
+        }
+    }
+
+    private static class FileContent extends Content {
+        private final File file;
+        private final long size;
+
+        public FileContent(File file) {
+            this.file = file;
+            this.size = file.length();
+        }
+
+        @Override
+        long size() {
+            return size;
+        }
+
+        @Override
+        InputStream openStream() throws IOException {
+            return new FileInputStream(file);
+        }
+    }
+
+    private class SpoolContent extends Content {
+        private final long offset;
+        private final long size;
+
+        public SpoolContent(long offset, long size) {
+            this.offset = offset;
+            this.size = size;
+        }
+
+        @Override
+        long size() {
+            return size;
+        }
+
+        @Override
+        InputStream openStream() throws IOException {
+            if (closed) {
+                throw new IOException("Bundle is closed");
+            }
+            return new BufferedInputStream(new SpoolInputStream(spool, offset, size), BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Reads a range of the spool file with positional reads, so any number
+     * of streams can be open at the same time.
+     */
+    private static class SpoolInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        public SpoolInputStream(FileChannel channel, long offset, long size) {
+            this.channel = channel;
+            this.position = offset;
+            this.end = offset + size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int length = read(one, 0, 1);
+            return length == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= end) {
+                return -1;
+            }
+            int max = (int) Math.min(len, end - position);
+            int length = channel.read(ByteBuffer.wrap(b, off, max), position);
+            if (length > 0) {
+                position += length;
+            }
+            return length;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Bundle is closed");
+        }
+    }
+
+    private void openSpool() throws IOException {
+        if (spool == null) {
+            spoolFile = File.createTempFile("bundle", ".spool", tempDirectory);
+            spoolRandomAccessFile = new RandomAccessFile(spoolFile, "rw");
+            spool = spoolRandomAccessFile.getChannel();
+            log.debug("Created spool file {}", spoolFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Appends the rest of the input stream to the spool file.
+     *
+     * @param in
+     * @return the spooled content
+     * @throws IOException
+     */
+    private SpoolContent spool(InputStream in) throws IOException {
+        openSpool();
+        long offset = spoolSize;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+            while (byteBuffer.hasRemaining()) {
+                spoolSize += spool.write(byteBuffer, spoolSize);
+            }
+        }
+        return new SpoolContent(offset, spoolSize - offset);
+    }
+
+    /**
+     * Reads the content of the given input stream (which should be a .tgz
+     * stream) and adds them to the bundle. You can call this multiple times in
+     * order to continue adding more content to the bundle.
+     *
+     * @param in
+     * @throws IOException
+     */
+    @Override
+    public void read(InputStream in) throws IOException {
+        if (in == null) {
+            throw new NullPointerException();
+        }
+        checkOpen();
+        try (GzipCompressorInputStream gzip = new GzipCompressorInputStream(in)) {
+            try (TarArchiveInputStream tar = new TarArchiveInputStream(gzip)) {
+                TarArchiveEntry entry;
+                while ((entry = tar.getNextTarEntry()) != null) {
+                    log.debug("name = {}", entry.getName());
+                    if (!tar.canReadEntryData(entry)) {
+                        log.warn("Cannot read entry data for: {}", entry.getName());
+                        continue;
+                    }
+                    if (entry.isFile()) {
+                        String path = entry.getName();
+                        if (entry.getSize() <= memoryThreshold) {
+                            byte[] content = new byte[(int) entry.getSize()];
+                            new DataInputStream(tar).readFully(content); // the tar stream ends at the end of each entry
+                            bundle.put(path, new MemoryContent(content));
+                        } else {
+                            bundle.put(path, spool(tar));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void write(OutputStream out) throws IOException {
+        if (out == null) {
+            throw new NullPointerException();
+        }
+        checkOpen();
+        try (TarGzipBuilder builder = new TarGzipBuilder(out)) {
+            for (Map.Entry<String, Content> entry : bundle.entrySet()) {
+                try (InputStream in = entry.getValue().openStream()) {
+                    builder.add(entry.getKey(), in, entry.getValue().size());
+                }
+            }
+        }
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return list().iterator();
+    }
+
+    /**
+     *
+     * @return a read-only set of all paths in the bundle
+     */
+    @Override
+    public Collection<String> list() {
+        return Collections.unmodifiableSet(bundle.keySet());
+    }
+
+    /**
+     * Each entry's content is read into memory when the iterator reaches
+     * it, so the entries are not all in memory at the same time unless the
+     * caller keeps them.
+     *
+     * @return a read-only view of all entries in the bundle
+     */
+    @Override
+    public Iterable<Entry> entries() {
+        return new Iterable<Entry>() {
+            @Override
+            public Iterator<Entry> iterator() {
+                final Iterator<String> paths = list().iterator();
+                return new Iterator<Entry>() {
+                    @Override
+                    public boolean hasNext() {
+                        return paths.hasNext();
+                    }
+
+                    @Override
+                    public Entry next() {
+                        return getEntry(paths.next());
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public Charset getCharset() {
+        return charset;
+    }
+
+    @Override
+    public boolean contains(String path) {
+        return bundle.containsKey(path);
+    }
+
+    /**
+     *
+     * @param path
+     * @return the size of the entry in bytes
+     * @throws FileNotFoundException if path is not found in bundle
+     */
+    @Override
+    public long getSize(String path) throws FileNotFoundException {
+        Content content = bundle.get(path);
+        if (content == null) {
+            throw new FileNotFoundException(path);
+        }
+        return content.size();
+    }
+
+    /**
+     * The caller must close the stream. The stream cannot be read after
+     * the bundle is closed.
+     *
+     * @param path
+     * @return a stream of the entry content
+     * @throws FileNotFoundException if path is not found in bundle
+     */
+    @Override
+    public InputStream getInputStream(String path) throws FileNotFoundException {
+        Content content = bundle.get(path);
+        if (content == null) {
+            throw new FileNotFoundException(path);
+        }
+        try {
+            return content.openStream();
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read entry: " + path, e);
+        }
+    }
+
+    /**
+     * @param path
+     * @return raw content bytes at this path
+     * @throws FileNotFoundException if path is not found in bundle
+     * @throws UnsupportedOperationException if the entry is too large for a byte array; use getInputStream instead
+     */
+    @Override
+    public byte[] getBytes(String path) throws FileNotFoundException {
+        Content content = bundle.get(path);
+        if (content == null) {
+            throw new FileNotFoundException(path);
+        }
+        if (content instanceof MemoryContent) {
+            return ((MemoryContent) content).content;
+        }
+        if (content.size() > MAX_ARRAY_SIZE) {
+            throw new UnsupportedOperationException("Entry too large for byte array, use getInputStream: " + path);
+        }
+        byte[] bytes = new byte[(int) content.size()];
+        try (InputStream in = content.openStream()) {
+            new DataInputStream(in).readFully(bytes);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read entry: " + path, e);
+        }
+        return bytes;
+    }
+
+    @Override
+    public String getString(String path) throws FileNotFoundException {
+        return new String(getBytes(path), charset);
+    }
+
+    @Override
+    public boolean isEditable() {
+        return true;
+    }
+
+    @Override
+    public void set(String path, byte[] content) {
+        bundle.put(path, new MemoryContent(content));
+    }
+
+    @Override
+    public void set(String path, String content) {
+        bundle.put(path, new MemoryContent(content.getBytes(charset)));
+    }
+
+    /**
+     * Adds the file to the bundle without reading it. The file is read by
+     * write(), so it must not be changed or deleted before then.
+     *
+     * @param path
+     * @param file
+     */
+    public void set(String path, File file) {
+        bundle.put(path, new FileContent(file));
+    }
+
+    /**
+     * Copies the rest of the stream into the temporary spool file. The
+     * caller is responsible for closing the stream.
+     *
+     * @param path
+     * @param in
+     * @throws IOException
+     */
+    public void set(String path, InputStream in) throws IOException {
+        checkOpen();
+        bundle.put(path, spool(in));
+    }
+
+    @Override
+    public Entry getEntry(String path) {
+        if (!bundle.containsKey(path)) {
+            return null;
+        }
+        try {
+            return new Entry(path, getBytes(path));
+        } catch (FileNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void setEntry(Entry entry) {
+        set(entry.getPath(), entry.getContent());
+    }
+
+    /**
+     * Deletes the temporary spool file created during read().
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (spool != null) {
+            spoolRandomAccessFile.close();
+            if (!spoolFile.delete()) {
+                log.warn("Cannot delete spool file {}", spoolFile.getAbsolutePath());
+            }
+            spool = null;
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public Namespace namespace(String namespace) {
+        return new TarGzipNamespace(namespace, this);
+    }
+}
@@ -24,6 +24,9 @@ import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
  * Note: this class does not support the presence of non-regular files and
  * directories in the .tgz archive -- block devices, links, etc. may cause
  * faults.
+ * 
+ * All entries are kept in memory; see StreamingTarGzipBundle for bundles
+ * with large entries.
  *
  * @author jbuhacoff
  */
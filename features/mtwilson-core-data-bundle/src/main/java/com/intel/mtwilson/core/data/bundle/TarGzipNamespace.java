@@ -19,9 +19,9 @@ public class TarGzipNamespace implements Namespace {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TarGzipNamespace.class);
 
     private final String name;
-    private final TarGzipBundle bundle;
+    private final Bundle bundle;
 
-    public TarGzipNamespace(String name, TarGzipBundle bundle) {
+    public TarGzipNamespace(String name, Bundle bundle) {
         this.name = name;
         this.bundle = bundle;
     }
@@ -82,6 +82,12 @@ public class TarGzipNamespace implements Namespace {
     }
     
     public boolean isClosed() {
-        return bundle.isClosed();
+        if( bundle instanceof StreamingTarGzipBundle ) {
+            return ((StreamingTarGzipBundle)bundle).isClosed();
+        }
+        if( bundle instanceof TarGzipBundle ) {
+            return ((TarGzipBundle)bundle).isClosed();
+        }
+        return false;
     }
 }
@@ -6,7 +6,7 @@ package com.intel.mtwilson.core.data.bundle.jaxrs;
 
 import com.intel.dcsg.cpg.extensions.Extensions;
 import com.intel.mtwilson.core.data.bundle.Contributor;
-import com.intel.mtwilson.core.data.bundle.TarGzipBundle;
+import com.intel.mtwilson.core.data.bundle.StreamingTarGzipBundle;
 import com.intel.mtwilson.launcher.ws.ext.V2;
 import java.io.IOException;
 import java.io.InputStream;
@@ -33,8 +33,7 @@ public class DataBundleFileUpload {
     @POST
     @Consumes(MediaType.MULTIPART_FORM_DATA)
     public void uploadDataBundle(@FormDataParam("file") InputStream file, @FormDataParam("file") FormDataContentDisposition fileInfo) {
-        try {
-            TarGzipBundle bundle = new TarGzipBundle();
+        try (StreamingTarGzipBundle bundle = new StreamingTarGzipBundle()) {
             bundle.read(file);
             List<Contributor> contributors = Extensions.findAll(Contributor.class);
             for (Contributor contributor : contributors) {
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.core.data.bundle;
+
+import com.intel.mtwilson.util.archive.TarGzipBuilder;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The surefire configuration runs this class in its own execution with
+ * -Xmx64m, so the spooled entries and the 4GB round trip fail if any part
+ * of them keeps an entry in memory. The other tests in this module keep
+ * the default heap. The 4GB round trip only runs with
+ * -Dmtwilson.test.large=true
+ *
+ * @author jbuhacoff
+ */
+public class StreamingBundleTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(StreamingBundleTest.class);
+
+    /**
+     * Generates compressible content of the given size on the fly and
+     * computes its CRC32.
+     */
+    private static class GeneratedInputStream extends InputStream {
+        private final long size;
+        private long position = 0;
+        private final CRC32 crc = new CRC32();
+
+        public GeneratedInputStream(long size) {
+            this.size = size;
+        }
+
+        private byte next() {
+            return (byte) ('a' + (position % 61) % 26 + (position >>> 20) % 7);
+        }
+
+        @Override
+        public int read() {
+            if (position >= size) {
+                return -1;
+            }
+            byte b = next();
+            crc.update(b);
+            position++;
+            return b & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= size) {
+                return -1;
+            }
+            int length = (int) Math.min(len, size - position);
+            for (int i = 0; i < length; i++) {
+                b[off + i] = next();
+                position++;
+            }
+            crc.update(b, off, length);
+            return length;
+        }
+
+        public long getCrc() {
+            return crc.getValue();
+        }
+    }
+
+    private static long crc(InputStream in) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+            crc.update(buffer, 0, length);
+        }
+        return crc.getValue();
+    }
+
+    @Test
+    public void testSmallAndSpooledEntries() throws IOException {
+        byte[] large = new byte[100000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) i;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TarGzipBuilder tgz = new TarGzipBuilder(out)) {
+            tgz.add("small.txt", "hello");
+            tgz.add("ns/large.bin", large);
+        }
+        try (StreamingTarGzipBundle bundle = new StreamingTarGzipBundle(1024, null)) {
+            bundle.read(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals("hello", bundle.getString("small.txt"));
+            assertEquals(large.length, bundle.getSize("ns/large.bin"));
+            assertArrayEquals(large, bundle.getBytes("ns/large.bin"));
+            assertArrayEquals(large, bundle.namespace("ns").get("large.bin"));
+            bundle.set("added.txt", new ByteArrayInputStream(large));
+            ByteArrayOutputStream copy = new ByteArrayOutputStream();
+            bundle.write(copy);
+            TarGzipBundle bundle2 = new TarGzipBundle();
+            bundle2.read(new ByteArrayInputStream(copy.toByteArray()));
+            assertEquals(3, bundle2.list().size());
+            assertArrayEquals(large, bundle2.getBytes("ns/large.bin"));
+            assertArrayEquals(large, bundle2.getBytes("added.txt"));
+        }
+    }
+
+    /**
+     * Takes about 100 seconds and 5GB of temporary disk space, so it only
+     * runs with -Dmtwilson.test.large=true
+     */
+    @Test
+    public void testRoundTrip4GB() throws IOException {
+        Assume.assumeTrue("set mtwilson.test.large=true to run", Boolean.getBoolean("mtwilson.test.large"));
+        long size = 4L * 1024 * 1024 * 1024 + 1;
+        File directory = new File(System.getProperty("java.io.tmpdir"));
+        Assume.assumeTrue("needs 5GB of temporary disk space", directory.getUsableSpace() > size + 1024L * 1024 * 1024);
+        File original = File.createTempFile("bundle", ".tgz");
+        File copy = File.createTempFile("bundle-copy", ".tgz");
+        try {
+            long start = System.currentTimeMillis();
+            GeneratedInputStream content = new GeneratedInputStream(size);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(original)); TarGzipBuilder tgz = new TarGzipBuilder(out)) {
+                tgz.add("small.txt", "hello");
+                tgz.add("large/content.bin", content, size);
+            }
+            log.debug("Created {} byte bundle in {} ms", original.length(), System.currentTimeMillis() - start);
+
+            start = System.currentTimeMillis();
+            try (StreamingTarGzipBundle bundle = new StreamingTarGzipBundle()) {
+                try (InputStream in = new BufferedInputStream(new FileInputStream(original))) {
+                    bundle.read(in);
+                }
+                assertEquals("hello", bundle.getString("small.txt"));
+                assertEquals(size, bundle.getSize("large/content.bin"));
+                try (InputStream in = bundle.getInputStream("large/content.bin")) {
+                    assertEquals(content.getCrc(), crc(in));
+                }
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(copy))) {
+                    bundle.write(out);
+                }
+            }
+            log.debug("Read and wrote bundle in {} ms", System.currentTimeMillis() - start);
+
+            try (StreamingTarGzipBundle bundle = new StreamingTarGzipBundle()) {
+                try (InputStream in = new BufferedInputStream(new FileInputStream(copy))) {
+                    bundle.read(in);
+                }
+                assertEquals(size, bundle.getSize("large/content.bin"));
+                try (InputStream in = bundle.getInputStream("large/content.bin")) {
+                    assertEquals(content.getCrc(), crc(in));
+                }
+            }
+        } finally {
+            original.delete();
+            copy.delete();
+        }
+    }
+}
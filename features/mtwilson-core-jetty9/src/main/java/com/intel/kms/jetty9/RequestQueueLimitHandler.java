@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2014 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.kms.jetty9;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * Rejects requests with 503 Service Unavailable while more than the
+ * configured number of tasks are waiting for a thread, so that under
+ * overload clients get a quick answer they can retry instead of waiting
+ * behind an ever longer queue.
+ *
+ * The check is made when the request reaches a thread, and rejecting it
+ * is much cheaper than handling it, so the queue drains quickly once it
+ * is over the limit.
+ *
+ * @author jbuhacoff
+ */
+public class RequestQueueLimitHandler extends HandlerWrapper {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(RequestQueueLimitHandler.class);
+    private final QueuedThreadPool threadPool;
+    private final int maxQueued;
+    private final int retryAfter;
+    private final AtomicLong rejected = new AtomicLong(0);
+
+    /**
+     *
+     * @param threadPool the server thread pool
+     * @param maxQueued requests are rejected while more than this number of tasks are waiting for a thread
+     * @param retryAfter seconds for the Retry-After header of rejected requests
+     */
+    public RequestQueueLimitHandler(QueuedThreadPool threadPool, int maxQueued, int retryAfter) {
+        this.threadPool = threadPool;
+        this.maxQueued = maxQueued;
+        this.retryAfter = retryAfter;
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+        int queued = threadPool.getQueueSize();
+        if (queued > maxQueued) {
+            long count = rejected.incrementAndGet();
+            if (count % 1000 == 1) {
+                log.warn("Rejecting requests: {} tasks waiting for a thread, {} requests rejected so far", queued, count);
+            }
+            baseRequest.setHandled(true);
+            response.setHeader("Retry-After", String.valueOf(retryAfter));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        super.handle(target, baseRequest, request, response);
+    }
+
+    /**
+     *
+     * @return number of requests rejected since the server started
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+}
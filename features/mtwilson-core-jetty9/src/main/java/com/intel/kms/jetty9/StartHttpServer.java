@@ -15,15 +15,19 @@ import com.intel.mtwilson.util.crypto.keystore.PasswordKeyStore;
 import java.io.File;
 import java.io.IOException;
 import java.security.KeyStoreException;
+import java.util.Comparator;
 import org.eclipse.jetty.server.ConnectionFactory;
 import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.HttpConfiguration;
 import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.SecureRequestCustomizer;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.servlets.gzip.GzipHandler;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.webapp.WebAppContext;
 
 /**
@@ -55,6 +59,27 @@ import org.eclipse.jetty.webapp.WebAppContext;
  * line with -Djavax.net.ssl.keyStore=keystore.jks and
  * -Djavax.net.ssl.keyStorePassword=password.
  *
+ * Thread pool and connectors:
+ * jetty.threads.min (default 8), jetty.threads.max (default 200),
+ * jetty.threads.idle.timeout in milliseconds (default 60000),
+ * jetty.acceptors and jetty.selectors (default chosen by jetty from the
+ * number of processors), jetty.idle.timeout for connections in
+ * milliseconds (default 30000), jetty.accept.queue.size (default 0 for the
+ * operating system default).
+ *
+ * Overload: when jetty.request.queue.max is more than zero, requests are
+ * rejected with 503 while more than that number of tasks are waiting for a
+ * thread; jetty.request.retry.after is the Retry-After value in seconds
+ * (default 5). The default 0 does not limit the queue.
+ *
+ * Compression: jetty.gzip.enabled (default false), jetty.gzip.min.size in
+ * bytes (default 1024), jetty.gzip.mime.types (comma-separated).
+ *
+ * HTTP/2: jetty.http2.enabled (default false) offers h2 with ALPN on the
+ * https connector. It needs the jetty http2-server and alpn-server modules
+ * and an ALPN implementation for the JVM on the classpath; when they are
+ * not available the https connector uses HTTP/1.1 only.
+ *
  * @author jbuhacoff
  */
 public class StartHttpServer implements Runnable {
@@ -63,6 +88,20 @@ public class StartHttpServer implements Runnable {
     // configuration keys
     public final static String JETTY_HYPERTEXT = "jetty.hypertext";
     public final static String JETTY_WEBXML = "jetty.webxml";
+    public final static String JETTY_THREADS_MIN = "jetty.threads.min";
+    public final static String JETTY_THREADS_MAX = "jetty.threads.max";
+    public final static String JETTY_THREADS_IDLE_TIMEOUT = "jetty.threads.idle.timeout";
+    public final static String JETTY_ACCEPTORS = "jetty.acceptors";
+    public final static String JETTY_SELECTORS = "jetty.selectors";
+    public final static String JETTY_IDLE_TIMEOUT = "jetty.idle.timeout";
+    public final static String JETTY_ACCEPT_QUEUE_SIZE = "jetty.accept.queue.size";
+    public final static String JETTY_REQUEST_QUEUE_MAX = "jetty.request.queue.max";
+    public final static String JETTY_REQUEST_RETRY_AFTER = "jetty.request.retry.after";
+    public final static String JETTY_GZIP_ENABLED = "jetty.gzip.enabled";
+    public final static String JETTY_GZIP_MIN_SIZE = "jetty.gzip.min.size";
+    public final static String JETTY_GZIP_MIME_TYPES = "jetty.gzip.mime.types";
+    public final static String JETTY_HTTP2_ENABLED = "jetty.http2.enabled";
+    public final static String DEFAULT_GZIP_MIME_TYPES = "text/html,text/plain,text/xml,text/css,application/javascript,application/json,application/xml,image/svg+xml";
     public static final Server jetty = new Server();
     private Configuration configuration;
 
@@ -91,6 +130,101 @@ public class StartHttpServer implements Runnable {
         return Integer.valueOf(configuration.get(JettyPorts.JETTY_SECURE_PORT, "443"));
     }
 
+    private int getInt(String key, int defaultValue) {
+        return Integer.valueOf(configuration.get(key, String.valueOf(defaultValue)));
+    }
+
+    private boolean getBoolean(String key) {
+        return Boolean.valueOf(configuration.get(key, "false"));
+    }
+
+    /**
+     * The queue of the thread pool is left unbounded: a full bounded queue
+     * makes jetty close new connections instead of answering them, so
+     * jetty.request.queue.max is enforced by RequestQueueLimitHandler, which
+     * replies 503 Service Unavailable instead.
+     *
+     * The pool must not be started yet.
+     *
+     * @param threadPool
+     * @return the same thread pool configured with the jetty.threads.* settings
+     */
+    public QueuedThreadPool configureThreadPool(QueuedThreadPool threadPool) {
+        int minThreads = getInt(JETTY_THREADS_MIN, 8);
+        int maxThreads = getInt(JETTY_THREADS_MAX, 200);
+        int idleTimeout = getInt(JETTY_THREADS_IDLE_TIMEOUT, 60000);
+        log.debug("Thread pool min {} max {} idle timeout {}", minThreads, maxThreads, idleTimeout);
+        threadPool.setMinThreads(minThreads);
+        threadPool.setMaxThreads(maxThreads); // also lowers min threads if it is more than max threads, like the QueuedThreadPool constructor
+        threadPool.setIdleTimeout(idleTimeout);
+        return threadPool;
+    }
+
+    /**
+     *
+     * @param server
+     * @param factories
+     * @return a connector configured with the jetty.acceptors, jetty.selectors, jetty.idle.timeout and jetty.accept.queue.size settings
+     */
+    public ServerConnector createConnector(Server server, ConnectionFactory... factories) {
+        ServerConnector connector = new ServerConnector(server, null, null, null, getInt(JETTY_ACCEPTORS, -1), getInt(JETTY_SELECTORS, -1), factories); // null executor, scheduler and buffer pool use the server defaults
+        connector.setIdleTimeout(getInt(JETTY_IDLE_TIMEOUT, 30000));
+        connector.setAcceptQueueSize(getInt(JETTY_ACCEPT_QUEUE_SIZE, 0));
+        return connector;
+    }
+
+    /**
+     * Wraps the application handler with the optional gzip and request
+     * queue limit handlers. The queue limit is outermost so rejected
+     * requests do not reach the other handlers.
+     *
+     * @param threadPool the server thread pool
+     * @param handler the application handler
+     * @return the handler to set on the server
+     */
+    public Handler createHandler(QueuedThreadPool threadPool, Handler handler) {
+        if (getBoolean(JETTY_GZIP_ENABLED)) {
+            GzipHandler gzip = new GzipHandler();
+            gzip.setMinGzipSize(getInt(JETTY_GZIP_MIN_SIZE, 1024));
+            gzip.setMimeTypes(configuration.get(JETTY_GZIP_MIME_TYPES, DEFAULT_GZIP_MIME_TYPES));
+            gzip.setHandler(handler);
+            handler = gzip;
+            log.debug("Response compression enabled");
+        }
+        int maxQueued = getInt(JETTY_REQUEST_QUEUE_MAX, 0);
+        if (maxQueued > 0) {
+            RequestQueueLimitHandler limit = new RequestQueueLimitHandler(threadPool, maxQueued, getInt(JETTY_REQUEST_RETRY_AFTER, 5));
+            limit.setHandler(handler);
+            handler = limit;
+        }
+        return handler;
+    }
+
+    /**
+     * The HTTP/2 classes are loaded by name because they require a newer
+     * jetty and JVM than the rest of this feature; when they are not
+     * available this returns null and the caller uses HTTP/1.1 only.
+     *
+     * @param sslContextFactory
+     * @param httpsConfiguration
+     * @return connection factories for h2 and http/1.1 with ALPN, or null if HTTP/2 is not available
+     */
+    protected ConnectionFactory[] createHttp2ConnectionFactories(SslContextFactory sslContextFactory, HttpConfiguration httpsConfiguration) {
+        try {
+            ConnectionFactory h2 = (ConnectionFactory) Class.forName("org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory").getConstructor(HttpConfiguration.class).newInstance(httpsConfiguration);
+            Class<?> alpnClass = Class.forName("org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory");
+            ConnectionFactory alpn = (ConnectionFactory) alpnClass.getConstructor(String[].class).newInstance((Object) new String[]{"h2", "http/1.1"});
+            alpnClass.getMethod("setDefaultProtocol", String.class).invoke(alpn, "http/1.1");
+            // h2 clients reject cipher suites on the RFC 7540 black list, so those are ordered last
+            Object comparator = Class.forName("org.eclipse.jetty.http2.HTTP2Cipher").getField("COMPARATOR").get(null);
+            SslContextFactory.class.getMethod("setCipherComparator", Comparator.class).invoke(sslContextFactory, comparator);
+            return new ConnectionFactory[]{new SslConnectionFactory(sslContextFactory, "alpn"), alpn, h2, new HttpConnectionFactory(httpsConfiguration)};
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log.warn("HTTP/2 is not available, using HTTP/1.1: {}", e.toString());
+            return null;
+        }
+    }
+
     @Override
     public void run() {
         try {
@@ -217,6 +351,8 @@ public class StartHttpServer implements Runnable {
         webapp.setDefaultsDescriptor(null); // turn off jsp support
         webapp.setParentLoaderPriority(true);
 
+        QueuedThreadPool threadPool = configureThreadPool((QueuedThreadPool) jetty.getThreadPool()); // the default Server constructor creates a QueuedThreadPool
+
         // common configuration for http/https
         HttpConfiguration httpConfiguration = new HttpConfiguration();
         httpConfiguration.setSecureScheme("https");
@@ -230,7 +366,7 @@ public class StartHttpServer implements Runnable {
         httpsConfiguration.addCustomizer(new SecureRequestCustomizer()); // adds ssl session id's and certificate information to request attributes
 
         // http connector
-        ServerConnector http = new ServerConnector(jetty, new ConnectionFactory[]{new HttpConnectionFactory(httpConfiguration)});
+        ServerConnector http = createConnector(jetty, new HttpConnectionFactory(httpConfiguration));
         http.setPort(getHttpPort());
         log.debug("{}={}", JettyPorts.JETTY_PORT, http.getPort());
 
@@ -252,12 +388,19 @@ public class StartHttpServer implements Runnable {
                     "TLS_DHE_RSA_WITH_AES_128_CBC_SHA"
             );
             sslConnectionFactory.setRenegotiationAllowed(false);
-            ServerConnector https = new ServerConnector(jetty, new ConnectionFactory[]{new SslConnectionFactory(sslConnectionFactory, "http/1.1"), new HttpConnectionFactory(httpsConfiguration)});
+            ConnectionFactory[] httpsConnectionFactories = null;
+            if (getBoolean(JETTY_HTTP2_ENABLED)) {
+                httpsConnectionFactories = createHttp2ConnectionFactories(sslConnectionFactory, httpsConfiguration);
+            }
+            if (httpsConnectionFactories == null) {
+                httpsConnectionFactories = new ConnectionFactory[]{new SslConnectionFactory(sslConnectionFactory, "http/1.1"), new HttpConnectionFactory(httpsConfiguration)};
+            }
+            ServerConnector https = createConnector(jetty, httpsConnectionFactories);
             https.setPort(getHttpsPort());
             log.debug("{}={}", JettyPorts.JETTY_SECURE_PORT, https.getPort());
 
             jetty.setConnectors(new Connector[]{http, https});
-            jetty.setHandler(webapp);
+            jetty.setHandler(createHandler(threadPool, webapp));
 
             jetty.start();
             log.info("Started HTTP service: {}", jetty.getURI().toURL().toExternalForm());
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2014 Intel Corporation
+ * All rights reserved.
+ */
+package test.jetty9;
+
+import com.intel.dcsg.cpg.configuration.MapConfiguration;
+import com.intel.kms.jetty9.StartHttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Saturates a local server built with the StartHttpServer thread pool,
+ * connector and handler settings, with and without the request queue
+ * limit. The test checks that only the limited server rejects requests
+ * and that every rejection has a Retry-After header. The latency of
+ * successful requests depends on the machine, so it is logged for
+ * comparison but not asserted.
+ *
+ * @author jbuhacoff
+ */
+public class RequestQueueLimitTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(RequestQueueLimitTest.class);
+    private static final int CLIENTS = 96;
+    private static final int REQUESTS_PER_CLIENT = 20;
+    private static final long SERVICE_TIME = 20;
+
+    public static class SlowHandler extends AbstractHandler {
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+            try {
+                Thread.sleep(SERVICE_TIME);
+            } catch (InterruptedException e) {
+                throw new ServletException(e);
+            }
+            response.setContentType("text/plain");
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.getWriter().print("ok");
+            baseRequest.setHandled(true);
+        }
+    }
+
+    private static class Result {
+        private final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+        private final AtomicInteger rejected = new AtomicInteger(0);
+        private final AtomicInteger rejectedWithoutRetryAfter = new AtomicInteger(0);
+        private final AtomicInteger other = new AtomicInteger(0);
+
+        private long percentile(double p) {
+            ArrayList<Long> sorted = new ArrayList<>(latencies);
+            Collections.sort(sorted);
+            if (sorted.isEmpty()) {
+                return 0;
+            }
+            return sorted.get(Math.min(sorted.size() - 1, (int) Math.ceil(p * sorted.size()) - 1));
+        }
+    }
+
+    private Result run(int maxQueued) throws Exception {
+        HashMap<String, String> settings = new HashMap<>();
+        settings.put(StartHttpServer.JETTY_THREADS_MIN, "16");
+        settings.put(StartHttpServer.JETTY_THREADS_MAX, "16");
+        settings.put(StartHttpServer.JETTY_ACCEPTORS, "1");
+        settings.put(StartHttpServer.JETTY_SELECTORS, "1");
+        settings.put(StartHttpServer.JETTY_REQUEST_QUEUE_MAX, String.valueOf(maxQueued));
+        StartHttpServer starter = new StartHttpServer();
+        starter.setConfiguration(new MapConfiguration(settings));
+        Server server = new Server();
+        QueuedThreadPool threadPool = starter.configureThreadPool((QueuedThreadPool) server.getThreadPool());
+        ServerConnector connector = starter.createConnector(server, new HttpConnectionFactory());
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.setHandler(starter.createHandler(threadPool, new SlowHandler()));
+        server.start();
+        try {
+            final URL url = new URL("http://localhost:" + connector.getLocalPort() + "/");
+            final Result result = new Result();
+            ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+            ArrayList<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i++) {
+                futures.add(clients.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        for (int j = 0; j < REQUESTS_PER_CLIENT; j++) {
+                            long start = System.nanoTime();
+                            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                            int status = connection.getResponseCode();
+                            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                                if (in != null) {
+                                    IOUtils.toByteArray(in); // read to the end so the connection can be reused
+                                }
+                            }
+                            long elapsed = (System.nanoTime() - start) / 1000000;
+                            if (status == 200) {
+                                result.latencies.add(elapsed);
+                            } else if (status == 503) {
+                                if (!"5".equals(connection.getHeaderField("Retry-After"))) {
+                                    result.rejectedWithoutRetryAfter.incrementAndGet();
+                                }
+                                result.rejected.incrementAndGet();
+                            } else {
+                                result.other.incrementAndGet();
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            clients.shutdown();
+            log.info("Queue limit {}: {} ok, {} rejected, latency p50 {} ms p99 {} ms max {} ms", maxQueued == 0 ? "none" : maxQueued, result.latencies.size(), result.rejected.get(), result.percentile(0.5), result.percentile(0.99), result.percentile(1.0));
+            return result;
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testRejectWithRetryAfterUnderSaturation() throws Exception {
+        Result unlimited = run(0);
+        Result limited = run(16);
+        assertEquals(CLIENTS * REQUESTS_PER_CLIENT, unlimited.latencies.size());
+        assertEquals(0, unlimited.rejected.get());
+        assertEquals(0, unlimited.other.get());
+        // 96 clients and 14 worker threads with at most 16 queued requests
+        assertTrue(limited.rejected.get() > 0);
+        assertEquals(0, limited.rejectedWithoutRetryAfter.get());
+        assertEquals(0, limited.other.get());
+        assertEquals(CLIENTS * REQUESTS_PER_CLIENT, limited.latencies.size() + limited.rejected.get());
+    }
+}
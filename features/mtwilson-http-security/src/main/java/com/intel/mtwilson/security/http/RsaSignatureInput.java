@@ -62,6 +62,17 @@ X-Nonce: FaaKLOOuyG7/kLVD5vQ7iw==
      * @return 
      */
     private String document() {
+        return documentHeader() + valueOrEmptyString(body);
+    }
+    
+    /**
+     * The document to sign is this header followed by the request body, so
+     * a verifier can digest the header and then stream the body into the
+     * same digest instead of concatenating them.
+     * 
+     * @return the document without the body, ending with the blank line that separates it from the body
+     */
+    public String documentHeader() {
         String preamble = String.format("Request: %s %s\nRealm: %s\nFrom: %s\nSignature-Algorithm: %s\n",
             valueWithoutNewlinesOrEmptyString(httpMethod), 
             valueWithoutNewlinesOrEmptyString(url),
@@ -73,7 +84,7 @@ X-Nonce: FaaKLOOuyG7/kLVD5vQ7iw==
             httpHeaderList.add( String.format("%s: %s\n", headerName, valueWithoutNewlinesOrEmptyString(headers.get(headerName))) );
         }
         String httpHeaders = StringUtils.join(httpHeaderList, "");
-        return String.format("%s%s\n%s", preamble, httpHeaders, valueOrEmptyString(body));
+        return String.format("%s%s\n", preamble, httpHeaders);
     }
     
     /**
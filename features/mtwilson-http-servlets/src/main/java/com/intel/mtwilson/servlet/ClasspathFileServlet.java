@@ -5,11 +5,11 @@
 package com.intel.mtwilson.servlet;
 
 import java.io.*;
+import java.net.URL;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import org.apache.commons.io.IOUtils;
 
 /**
  *
@@ -24,31 +24,25 @@ public class ClasspathFileServlet extends HttpServlet {
      * "/www/index.html"
      */
     private String relativePath = "/www";  // should be changed to "/publicResources"
+    private final StaticContent content = new StaticContent();
 
     // wait for a GET from client, then perform these actions
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp)
             throws ServletException, IOException {
-        System.out.println("RequestURI: " + req.getRequestURI());  //  RequestURI: /file/index.html
-        System.out.println("ContextPath: " + req.getContextPath()); // ContextPath:  (empty when accessing /file/index.html)
-        System.out.println("PathInfo: " + req.getPathInfo()); // PathInfo: /index.html     (because this servlet is rooted at /file so this is relative to servlet)
-        System.out.println("PathTranslated: " + req.getPathTranslated());  // PathTranslated: null
-        System.out.println("RemoteAddr: " + req.getRemoteAddr()); // RemoteAddr: 127.0.0.1
-        System.out.println("Scheme: " + req.getScheme()); // Scheme: https
-        System.out.println("ServletPath: " + req.getServletPath()); // ServletPath: /file
-        System.out.println("ServerName: " + req.getServerName()); // ServerName: 127.0.0.1
+        log.debug("RequestURI: {}", req.getRequestURI());
 
         // no path separator because getPathInfo() always has leading slash
-        InputStream in = getClass().getResourceAsStream(relativePath + req.getPathInfo());
-        if (in == null) {
+        URL url = getClass().getResource(relativePath + req.getPathInfo());
+        if (url == null) {
             resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
         } else {
+            String contentType = getServletContext().getMimeType(url.getPath());
             try {
-                resp.setStatus(HttpServletResponse.SC_OK);
-                OutputStream out = resp.getOutputStream();
-                IOUtils.copy(in, out);
-            } finally {
-                try { in.close(); } catch (IOException e) { log.warn("Failed to close InputStream", e); }
+                content.send(req, resp, content.getResourceAsset(url), contentType);
+            } catch (FileNotFoundException e) {
+                log.debug("Resource is not a file: {}", url);
+                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
             }
         }
     }
@@ -12,9 +12,7 @@ import java.io.*;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.ServletOutputStream;
 import javax.servlet.ServletException;
-import org.apache.commons.io.IOUtils;
 
 /**
  * @author jbuhacoff
@@ -26,6 +24,7 @@ public class FileServlet extends HttpServlet {
     private String directory = null;
     private String prefixTarget = null;
 	private Configuration configuration = null;
+    private final StaticContent content = new StaticContent();
     
     /**
      * Only files inside this directory and sub-directories will be served.
@@ -36,6 +35,14 @@ public class FileServlet extends HttpServlet {
         this.directory = directory;
     }
     
+    /**
+     * 
+     * @return the cache used to send files, for changing its settings
+     */
+    public StaticContent getContent() {
+        return content;
+    }
+    
 @Override
 public void doGet(HttpServletRequest request, HttpServletResponse response) 
                                throws ServletException, IOException {
@@ -44,6 +51,8 @@ public void doGet(HttpServletRequest request, HttpServletResponse response)
         //setDirectory(My.configuration().getPortalHtml5Dir());
 		if( configuration == null ) { configuration = ConfigurationFactory.getConfiguration(); }
 		setDirectory(configuration.get("mtwilson.portal.html5.dir"));
+        content.setCacheControl(configuration.get("mtwilson.portal.html5.cache.control", StaticContent.DEFAULT_CACHE_CONTROL));
+        content.setMaxCachedFileSize(Integer.valueOf(configuration.get("mtwilson.portal.html5.cache.max.file.size", String.valueOf(StaticContent.DEFAULT_MAX_CACHED_FILE_SIZE))));
         log.info("Static content directory: {}", directory);
     }
     if( prefixTarget == null ) {
@@ -102,20 +111,12 @@ public void doGet(HttpServletRequest request, HttpServletResponse response)
         file = new File(target, "index.html5");
     }
 
-    // Get and set the type of the file; relies on the mime types defined in web.xml
+    // Get the type of the file; relies on the mime types defined in web.xml
     String contentType = getServletContext().getMimeType(file.getName());
-    response.setContentType(contentType);
     
-    // we set the content length only if it's less than max int, to avoid
-    // sending a bogus content length for a huge file (when it matters most!)
-    if( file.length() < Integer.MAX_VALUE ) {
-        response.setContentLength((int)file.length());
-    }
-
-    // read the file and send to the client
-    try(FileInputStream in = new FileInputStream(file);
-        ServletOutputStream out = response.getOutputStream()) {
-        IOUtils.copy(in, out);
+    // send the file, or a 304 if the client already has it; small files are sent from memory
+    try {
+        content.send(request, response, content.getFileAsset(file), contentType);
     }
     catch (FileNotFoundException e) {
         log.info("File not found: {}", file.getAbsolutePath());
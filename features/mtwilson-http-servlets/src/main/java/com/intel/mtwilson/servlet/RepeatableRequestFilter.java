@@ -4,8 +4,21 @@
  */
 package com.intel.mtwilson.servlet;
 
+import com.intel.dcsg.cpg.configuration.Configuration;
+import com.intel.mtwilson.configuration.ConfigurationFactory;
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -16,7 +29,7 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
-import org.apache.commons.io.IOUtils;
+import javax.servlet.http.HttpServletResponse;
 
 /**
  * On Tomcat 7 the ServletRequest we get is 
@@ -27,56 +40,423 @@ import org.apache.commons.io.IOUtils;
  * org.apache.catalina.connector.RequestFacade which
  * does not implement markSupported.
  * 
+ * The request body is read the first time getInputStream() or getReader()
+ * is called, so requests whose body is never read, or is only read by the
+ * container to parse form parameters, are not copied. The body is kept in
+ * memory up to a threshold and in a temporary file after that, so large
+ * uploads do not stay on the heap. Requests with a Content-Length larger
+ * than the maximum size are rejected with 413 Request Entity Too Large
+ * before the body is read; a body without Content-Length that turns out to
+ * be too large is rejected the same way if the response is not committed
+ * yet. Temporary files are deleted when the request ends.
+ * 
+ * Settings are read from the filter init parameters, then from the
+ * configuration, then the defaults are used:
+ * <pre>
+ * mtwilson.http.request.memory.threshold   bytes kept in memory, default 1 MB
+ * mtwilson.http.request.max.size           maximum body size in bytes, default 100 MB
+ * mtwilson.http.request.repeatable.paths   comma-separated path prefixes within the
+ *                                          context, like /v2/hosts; default is every request
+ * </pre>
+ * 
  * @author jbuhacoff
  */
 public class RepeatableRequestFilter implements Filter {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(RepeatableRequestFilter.class);
+    public static final String MEMORY_THRESHOLD = "mtwilson.http.request.memory.threshold";
+    public static final String MAX_SIZE = "mtwilson.http.request.max.size";
+    public static final String REPEATABLE_PATHS = "mtwilson.http.request.repeatable.paths";
+    public static final int DEFAULT_MEMORY_THRESHOLD = 1024 * 1024;
+    public static final long DEFAULT_MAX_SIZE = 100L * 1024 * 1024;
+    private int memoryThreshold = DEFAULT_MEMORY_THRESHOLD;
+    private long maxSize = DEFAULT_MAX_SIZE;
+    private String[] paths = new String[0]; // empty means every request is wrapped
+    private File directory = null; // null means the default temporary directory
 
     @Override
     public void init(FilterConfig fc) throws ServletException {
         log.debug("init");
+        Configuration configuration;
+        try {
+            configuration = ConfigurationFactory.getConfiguration();
+        } catch (IOException e) {
+            throw new ServletException("Cannot load configuration", e);
+        }
+        setMemoryThreshold(Integer.parseInt(getSetting(fc, configuration, MEMORY_THRESHOLD, String.valueOf(memoryThreshold))));
+        setMaxSize(Long.parseLong(getSetting(fc, configuration, MAX_SIZE, String.valueOf(maxSize))));
+        String pathsCsv = getSetting(fc, configuration, REPEATABLE_PATHS, "");
+        setPaths(pathsCsv.trim().isEmpty() ? new String[0] : pathsCsv.trim().split("\\s*,\\s*"));
+        log.debug("Request bodies up to {} bytes in memory, maximum {} bytes, paths {}", memoryThreshold, maxSize, Arrays.toString(paths));
+    }
+
+    private String getSetting(FilterConfig fc, Configuration configuration, String key, String defaultValue) {
+        String value = fc == null ? null : fc.getInitParameter(key);
+        if (value == null || value.isEmpty()) {
+            value = configuration.get(key, defaultValue);
+        }
+        return value;
+    }
+
+    /**
+     * 
+     * @param memoryThreshold request bodies up to this many bytes are kept in memory, larger ones in a temporary file
+     */
+    public void setMemoryThreshold(int memoryThreshold) {
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    public int getMemoryThreshold() {
+        return memoryThreshold;
+    }
+
+    /**
+     * 
+     * @param maxSize requests with a larger body are rejected with 413 Request Entity Too Large
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 
+     * @param paths prefixes of the paths within the context that need a repeatable request body; empty for every request
+     */
+    public void setPaths(String[] paths) {
+        this.paths = paths;
+    }
+
+    public String[] getPaths() {
+        return paths;
+    }
+
+    /**
+     * 
+     * @param directory for temporary files, or null for the default temporary directory
+     */
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    private boolean isRepeatablePath(HttpServletRequest request) {
+        if (paths.length == 0) {
+            return true;
+        }
+        String uri = request.getRequestURI();
+        String contextPath = request.getContextPath();
+        String path = contextPath != null && uri.startsWith(contextPath) ? uri.substring(contextPath.length()) : uri;
+        for (String prefix : paths) {
+            if (path.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
         log.debug("ServletRequest class {}", request.getClass().getName());
-        if (request instanceof HttpServletRequest) {
-            log.debug("Wrapping ServletRequest with RepeatableServletRequest");
-            chain.doFilter(new RepeatableServletRequest((HttpServletRequest) request), response);
-        } else {
+        if (!(request instanceof HttpServletRequest) || !isRepeatablePath((HttpServletRequest) request)) {
             log.debug("Not wrapping ServletRequest; continuing filter chain");
             chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        long contentLength = httpRequest.getContentLengthLong();
+        if (contentLength > maxSize) {
+            log.debug("Rejecting request with Content-Length {} larger than {}", contentLength, maxSize);
+            ((HttpServletResponse) response).sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            return;
+        }
+        log.debug("Wrapping ServletRequest with RepeatableServletRequest");
+        final RepeatableServletRequest repeatableRequest = new RepeatableServletRequest(httpRequest, memoryThreshold, maxSize, directory);
+        boolean async = false;
+        try {
+            chain.doFilter(repeatableRequest, response);
+            async = request.isAsyncStarted();
+            if (async) {
+                request.getAsyncContext().addListener(new CloseOnCompleteListener(repeatableRequest));
+            }
+        } catch (IOException | ServletException e) {
+            RequestEntityTooLargeException tooLarge = findTooLarge(e);
+            if (tooLarge == null || response.isCommitted()) {
+                throw e;
+            }
+            log.debug("Rejecting request: {}", tooLarge.getMessage());
+            ((HttpServletResponse) response).sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        } finally {
+            if (!async) {
+                repeatableRequest.close();
+            }
         }
     }
 
+    // servlets and frameworks may wrap the exception thrown while reading the body
+    private static RequestEntityTooLargeException findTooLarge(Throwable e) {
+        while (e != null) {
+            if (e instanceof RequestEntityTooLargeException) {
+                return (RequestEntityTooLargeException) e;
+            }
+            e = e.getCause();
+        }
+        return null;
+    }
+
     @Override
     public void destroy() {
         log.debug("destroy");
     }
 
-    public static class RepeatableServletRequest extends HttpServletRequestWrapper {
+    /**
+     * Deletes the temporary file of an asynchronous request when it ends.
+     */
+    private static class CloseOnCompleteListener implements AsyncListener {
+        private final RepeatableServletRequest request;
+
+        CloseOnCompleteListener(RepeatableServletRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+            request.close();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            request.close();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+
+    public static class RepeatableServletRequest extends HttpServletRequestWrapper implements Closeable {
 
-        private ByteArrayServletInputStream in = null;
+        private final int memoryThreshold;
+        private final long maxSize;
+        private final File directory;
+        private RepeatableBody body = null;
+        private ServletInputStream in = null;
+        private BufferedReader reader = null;
 
+        /**
+         * The body is read the first time it is requested and kept in
+         * memory up to the default threshold and in a temporary file
+         * after that, without a maximum size. Call close() when the
+         * request ends to delete the temporary file.
+         * 
+         * @param request 
+         */
         public RepeatableServletRequest(HttpServletRequest request) {
+            this(request, DEFAULT_MEMORY_THRESHOLD, Long.MAX_VALUE, null);
+        }
+
+        /**
+         * 
+         * @param request
+         * @param memoryThreshold bodies larger than this are written to a temporary file
+         * @param maxSize reading a larger body throws RequestEntityTooLargeException
+         * @param directory for the temporary file, or null for the default temporary directory
+         */
+        public RepeatableServletRequest(HttpServletRequest request, int memoryThreshold, long maxSize, File directory) {
             super(request);
+            this.memoryThreshold = memoryThreshold;
+            this.maxSize = maxSize;
+            this.directory = directory;
         }
 
         @Override
         public ServletInputStream getInputStream() throws IOException {
-            if (in == null) {
+            if (body == null) {
                 try (ServletInputStream stream = super.getInputStream()) {
                     log.debug("ServletInputStream markSupported? {}", stream.markSupported());
-                    byte[] entity = IOUtils.toByteArray(stream);
-                    in = new ByteArrayServletInputStream(entity);
+                    body = RepeatableBody.read(stream, getContentLengthLong(), memoryThreshold, maxSize, directory);
                 }
             }
+            if (in == null) {
+                in = body.openStream();
+            }
             if( in.isFinished() ) {
                 in.reset();
             }
             return in;
         }
+
+        /**
+         * Reads the same repeatable body as getInputStream(), decoded with
+         * the request character encoding or ISO-8859-1 if there is none.
+         * After the reader reaches the end, the next call returns a new
+         * reader from the start of the body.
+         */
+        @Override
+        public BufferedReader getReader() throws IOException {
+            if (reader == null || (in.isFinished() && !reader.ready())) {
+                String encoding = getCharacterEncoding();
+                reader = new BufferedReader(new InputStreamReader(getInputStream(), encoding == null ? "ISO-8859-1" : encoding));
+            }
+            return reader;
+        }
+
+        public RepeatableBody getBody() {
+            return body;
+        }
+
+        /**
+         * Deletes the temporary file, if any.
+         * 
+         * @throws IOException 
+         */
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+            if (body != null) {
+                body.close();
+            }
+        }
+    }
+
+    /**
+     * Thrown while reading a request body that is larger than the maximum size.
+     */
+    public static class RequestEntityTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public RequestEntityTooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A request body that can be read any number of times, kept in memory
+     * or in a temporary file.
+     */
+    public static class RepeatableBody implements Closeable {
+        private final byte[] memory; // null when the body is in a file
+        private final File file;
+        private final long length;
+
+        private RepeatableBody(byte[] memory, File file, long length) {
+            this.memory = memory;
+            this.file = file;
+            this.length = length;
+        }
+
+        /**
+         * Reads the input until the end but does not close it.
+         * 
+         * @param in
+         * @param contentLength expected length, or -1 if it is not known
+         * @param memoryThreshold bodies larger than this are written to a temporary file
+         * @param maxSize 
+         * @param directory for the temporary file, or null for the default temporary directory
+         * @return the body
+         * @throws RequestEntityTooLargeException if the body is larger than maxSize; no temporary file remains
+         * @throws IOException 
+         */
+        public static RepeatableBody read(InputStream in, long contentLength, int memoryThreshold, long maxSize, File directory) throws IOException {
+            byte[] buffer = new byte[contentLength >= 0 && contentLength <= memoryThreshold ? (int) contentLength : Math.min(memoryThreshold, 8192)];
+            int count = 0;
+            while (count < memoryThreshold) {
+                if (count == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, (int) Math.min(memoryThreshold, Math.max(8192, 2L * buffer.length)));
+                }
+                int n = in.read(buffer, count, buffer.length - count);
+                if (n == -1) {
+                    return inMemory(buffer, count, maxSize);
+                }
+                count += n;
+            }
+            int next = in.read();
+            if (next == -1) {
+                return inMemory(buffer, count, maxSize);
+            }
+            File file = File.createTempFile("request", ".body", directory);
+            boolean done = false;
+            try (OutputStream out = new FileOutputStream(file)) {
+                out.write(buffer, 0, count);
+                out.write(next);
+                long length = count + 1L;
+                byte[] chunk = new byte[8192];
+                int n;
+                while ((n = in.read(chunk)) != -1) {
+                    length += n;
+                    if (length > maxSize) {
+                        throw new RequestEntityTooLargeException(String.format("Request body is larger than %d bytes", maxSize));
+                    }
+                    out.write(chunk, 0, n);
+                }
+                log.debug("Request body of {} bytes is in temporary file {}", length, file.getAbsolutePath());
+                done = true;
+                return new RepeatableBody(null, file, length);
+            } finally {
+                if (!done && !file.delete()) {
+                    log.warn("Cannot delete temporary file {}", file.getAbsolutePath());
+                }
+            }
+        }
+
+        private static RepeatableBody inMemory(byte[] buffer, int count, long maxSize) throws RequestEntityTooLargeException {
+            if (count > maxSize) {
+                throw new RequestEntityTooLargeException(String.format("Request body is larger than %d bytes", maxSize));
+            }
+            return new RepeatableBody(buffer.length == count ? buffer : Arrays.copyOf(buffer, count), null, count);
+        }
+
+        public long length() {
+            return length;
+        }
+
+        public boolean isInMemory() {
+            return memory != null;
+        }
+
+        /**
+         * 
+         * @return the temporary file, or null if the body is in memory
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * 
+         * @return a new stream positioned at the start of the body, supporting mark and reset
+         * @throws IOException 
+         */
+        public ServletInputStream openStream() throws IOException {
+            if (memory != null) {
+                return new ByteArrayServletInputStream(memory);
+            }
+            return new FileServletInputStream(file, length);
+        }
+
+        /**
+         * Deletes the temporary file, if any. Streams opened from this body
+         * should be closed first.
+         */
+        @Override
+        public void close() {
+            if (file != null && file.exists() && !file.delete()) {
+                log.warn("Cannot delete temporary file {}", file.getAbsolutePath());
+            }
+        }
     }
 
     // tentative, not being used right now
@@ -122,6 +502,155 @@ public class RepeatableRequestFilter implements Filter {
         }
     }
 
+    /**
+     * Reads a file with a small buffer and supports mark and reset like
+     * ByteArrayInputStream: reset without a mark returns to the start. The
+     * file is opened on the first read and again after close, so the stream
+     * can be read again after a reader closes it.
+     */
+    public static class FileServletInputStream extends ServletInputStream {
+
+        private final File file;
+        private final long length;
+        private final byte[] buffer = new byte[8192];
+        private RandomAccessFile in = null;
+        private long bufferOffset = 0; // file position of buffer[0]; the file pointer is at bufferOffset + bufferLength
+        private int bufferLength = 0;
+        private int bufferPosition = 0;
+        private long markPosition = 0;
+
+        public FileServletInputStream(File file, long length) {
+            this.file = file;
+            this.length = length;
+        }
+
+        private long position() {
+            return bufferOffset + bufferPosition;
+        }
+
+        private RandomAccessFile file() throws IOException {
+            if (in == null) {
+                in = new RandomAccessFile(file, "r");
+                in.seek(bufferOffset + bufferLength);
+            }
+            return in;
+        }
+
+        private void seek(long position) throws IOException {
+            bufferOffset = position;
+            bufferLength = 0;
+            bufferPosition = 0;
+            if (in != null) {
+                in.seek(position);
+            }
+        }
+
+        // discards the buffered bytes that were already read
+        private void advance() {
+            bufferOffset += bufferLength;
+            bufferLength = 0;
+            bufferPosition = 0;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(Integer.MAX_VALUE, length - position());
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            markPosition = position();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = Math.max(0, Math.min(n, length - position()));
+            seek(position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return position() >= length;
+        }
+
+        @Override
+        public boolean isReady() {
+            return position() < length;
+        }
+
+        @Override
+        public void setReadListener(ReadListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (bufferPosition == bufferLength) {
+                advance();
+                int n = file().read(buffer);
+                if (n <= 0) {
+                    return -1;
+                }
+                bufferLength = n;
+            }
+            return buffer[bufferPosition++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b) throws IOException {
+            return read(b, 0, b.length);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (bufferPosition < bufferLength) {
+                int n = Math.min(len, bufferLength - bufferPosition);
+                System.arraycopy(buffer, bufferPosition, b, off, n);
+                bufferPosition += n;
+                return n;
+            }
+            advance();
+            if (len >= buffer.length) {
+                int n = file().read(b, off, len);
+                if (n > 0) {
+                    bufferOffset += n;
+                }
+                return n;
+            }
+            int n = file().read(buffer);
+            if (n <= 0) {
+                return -1;
+            }
+            bufferLength = n;
+            int copied = Math.min(len, n);
+            System.arraycopy(buffer, 0, b, off, copied);
+            bufferPosition = copied;
+            return copied;
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            seek(markPosition);
+        }
+    }
+
     /**
      * Wraps ByteArrayInputStream and extends ServletInputStream
      */
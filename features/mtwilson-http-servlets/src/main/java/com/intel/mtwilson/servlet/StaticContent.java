@@ -0,0 +1,475 @@
+/*
+ * Copyright (C) 2014 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Sends static files and classpath resources with caching headers, for
+ * FileServlet and ClasspathFileServlet.
+ *
+ * The metadata of each asset and the content of small assets are cached.
+ * File assets are checked against the modification time and length of the
+ * file on every request, which is much cheaper than opening and reading
+ * it; when either changes the asset is loaded again. Classpath resources
+ * inside jar files cannot change while the application is running, so they
+ * are loaded only once.
+ *
+ * Each asset has a strong ETag made from a SHA-256 digest of its content.
+ * Requests with a matching If-None-Match, or with If-Modified-Since when
+ * there is no If-None-Match, get a 304 response without content. A single
+ * byte range is supported; requests for several ranges get the whole
+ * asset, which RFC 7233 allows.
+ *
+ * If a file.gz or file.br sibling exists when the asset is loaded and it
+ * is not older than the file, it is sent with Content-Encoding to clients
+ * that accept that encoding. Range requests always get the uncompressed
+ * content.
+ *
+ * @author jbuhacoff
+ */
+public class StaticContent {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(StaticContent.class);
+    public static final String DEFAULT_CACHE_CONTROL = "no-cache"; // clients keep a copy but revalidate it with a conditional GET, which usually gets a 304
+    public static final int DEFAULT_MAX_CACHED_FILE_SIZE = 256 * 1024;
+    public static final long DEFAULT_MAX_CACHE_SIZE = 32 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private final ConcurrentHashMap<String, Asset> cache = new ConcurrentHashMap<>();
+    private final AtomicLong cacheSize = new AtomicLong(0);
+    private String cacheControl = DEFAULT_CACHE_CONTROL;
+    private int maxCachedFileSize = DEFAULT_MAX_CACHED_FILE_SIZE;
+    private long maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+
+    /**
+     * One representation of a file or resource. The content is null when
+     * the asset is too large to cache.
+     */
+    public static class Asset {
+        private final File file;
+        private final URL url;
+        private final long lastModified;
+        private final long length;
+        private final String etag;
+        private final byte[] content;
+        private final String encoding;
+        private Asset gzip = null;
+        private Asset br = null;
+
+        private Asset(File file, URL url, long lastModified, long length, String etag, byte[] content, String encoding) {
+            this.file = file;
+            this.url = url;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.etag = etag;
+            this.content = content;
+            this.encoding = encoding;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        public boolean isCached() {
+            return content != null;
+        }
+
+        private boolean isCurrent() {
+            if (file == null) {
+                return true;
+            }
+            return file.lastModified() == lastModified && file.length() == length
+                    && (gzip == null || gzip.isCurrent())
+                    && (br == null || br.isCurrent());
+        }
+
+        private InputStream openStream() throws IOException {
+            if (file != null) {
+                return new FileInputStream(file);
+            }
+            return url.openStream();
+        }
+
+        private long size() {
+            long size = content == null ? 0 : content.length;
+            if (gzip != null) {
+                size += gzip.size();
+            }
+            if (br != null) {
+                size += br.size();
+            }
+            return size;
+        }
+    }
+
+    public void setCacheControl(String cacheControl) {
+        this.cacheControl = cacheControl;
+    }
+
+    /**
+     * @param maxCachedFileSize assets up to this number of bytes are kept in memory; 0 to only cache metadata
+     */
+    public void setMaxCachedFileSize(int maxCachedFileSize) {
+        this.maxCachedFileSize = maxCachedFileSize;
+    }
+
+    /**
+     * @param maxCacheSize when the cached content reaches this number of bytes, new assets are cached without their content
+     */
+    public void setMaxCacheSize(long maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    /**
+     *
+     * @return number of bytes of content currently cached
+     */
+    public long getCacheSize() {
+        return cacheSize.get();
+    }
+
+    /**
+     *
+     * @param file an existing regular file
+     * @return the cached asset for the file, loaded again if the file changed
+     * @throws IOException
+     */
+    public Asset getFileAsset(File file) throws IOException {
+        String key = file.getPath();
+        Asset asset = cache.get(key);
+        if (asset != null && asset.isCurrent()) {
+            return asset;
+        }
+        Asset loaded = loadFile(file, null);
+        loaded.gzip = loadFileSibling(file, ".gz", "gzip");
+        loaded.br = loadFileSibling(file, ".br", "br");
+        replace(key, loaded);
+        return loaded;
+    }
+
+    /**
+     * Resources in a directory on the classpath are treated as files, so
+     * they are checked for changes like files.
+     *
+     * @param url of a classpath resource
+     * @return the cached asset for the resource
+     * @throws IOException
+     */
+    public Asset getResourceAsset(URL url) throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return getFileAsset(new File(url.toURI()));
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                log.debug("Cannot convert resource URL to file: {}", url, e);
+            }
+        }
+        String key = url.toExternalForm();
+        Asset asset = cache.get(key);
+        if (asset != null) {
+            return asset;
+        }
+        Asset loaded = loadResource(url, null);
+        loaded.gzip = loadResourceSibling(url, ".gz", "gzip");
+        loaded.br = loadResourceSibling(url, ".br", "br");
+        replace(key, loaded);
+        return loaded;
+    }
+
+    private void replace(String key, Asset loaded) {
+        Asset replaced = cache.put(key, loaded);
+        long size = loaded.size();
+        if (replaced != null) {
+            size -= replaced.size();
+        }
+        cacheSize.addAndGet(size);
+        log.debug("Loaded {} with ETag {} cached {}", key, loaded.etag, loaded.isCached());
+    }
+
+    private boolean isCacheable(long length) {
+        return length <= maxCachedFileSize && cacheSize.get() + length <= maxCacheSize;
+    }
+
+    private Asset loadFile(File file, String encoding) throws IOException {
+        // read the metadata before the content, so a change during the read is detected on the next request
+        long lastModified = file.lastModified();
+        long length = file.length();
+        try (InputStream in = new FileInputStream(file)) {
+            return load(file, null, in, lastModified, length, encoding);
+        }
+    }
+
+    private Asset loadFileSibling(File file, String extension, String encoding) throws IOException {
+        File sibling = new File(file.getPath() + extension);
+        if (!sibling.isFile() || sibling.lastModified() < file.lastModified()) {
+            return null;
+        }
+        return loadFile(sibling, encoding);
+    }
+
+    private Asset loadResource(URL url, String encoding) throws IOException {
+        URLConnection connection = url.openConnection();
+        long lastModified = connection.getLastModified();
+        long length = connection.getContentLengthLong();
+        try (InputStream in = connection.getInputStream()) {
+            return load(null, url, in, lastModified, length, encoding);
+        }
+    }
+
+    private Asset loadResourceSibling(URL url, String extension, String encoding) throws IOException {
+        URL sibling = new URL(url, url.getPath().substring(url.getPath().lastIndexOf('/') + 1) + extension);
+        try {
+            return loadResource(sibling, encoding);
+        } catch (IOException e) {
+            return null; // the resource does not have a precompressed sibling
+        }
+    }
+
+    /**
+     * Reads the content once to compute the ETag, and keeps it if it is
+     * small enough.
+     */
+    private Asset load(File file, URL url, InputStream in, long lastModified, long length, String encoding) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        boolean cacheable = length >= 0 && isCacheable(length);
+        ByteArrayOutputStream content = cacheable ? new ByteArrayOutputStream((int) length) : null;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, n);
+            if (content != null) {
+                content.write(buffer, 0, n);
+            }
+            total += n;
+        }
+        String etag = "\"" + Hex.encodeHexString(Arrays.copyOf(digest.digest(), 16)) + (encoding == null ? "" : "-" + encoding) + "\"";
+        return new Asset(file, url, lastModified, total, etag, content == null ? null : content.toByteArray(), encoding);
+    }
+
+    /**
+     * Sends the asset, or a 304 or 416 response, according to the
+     * conditional, range and encoding headers of the request.
+     *
+     * @param request
+     * @param response
+     * @param asset
+     * @param contentType may be null
+     * @throws IOException
+     */
+    public void send(HttpServletRequest request, HttpServletResponse response, Asset asset, String contentType) throws IOException {
+        String rangeHeader = request.getHeader("Range");
+        Asset selected = asset;
+        if (rangeHeader == null) {
+            String acceptEncoding = request.getHeader("Accept-Encoding");
+            if (asset.br != null && accepts(acceptEncoding, "br")) {
+                selected = asset.br;
+            } else if (asset.gzip != null && accepts(acceptEncoding, "gzip")) {
+                selected = asset.gzip;
+            }
+        }
+        if (asset.gzip != null || asset.br != null) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+        response.setHeader("ETag", selected.etag);
+        response.setDateHeader("Last-Modified", selected.lastModified);
+        if (cacheControl != null && !cacheControl.isEmpty()) {
+            response.setHeader("Cache-Control", cacheControl);
+        }
+        response.setHeader("Accept-Ranges", "bytes");
+
+        if (isNotModified(request, selected)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        if (contentType != null) {
+            response.setContentType(contentType);
+        }
+        if (selected.encoding != null) {
+            response.setHeader("Content-Encoding", selected.encoding);
+        }
+
+        long offset = 0;
+        long length = selected.length;
+        if (rangeHeader != null && isRangeCurrent(request, selected)) {
+            long[] range = parseRange(rangeHeader, selected.length);
+            if (range == null) {
+                response.setHeader("Content-Range", "bytes */" + selected.length);
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (range.length == 2) {
+                offset = range[0];
+                length = range[1] - range[0] + 1;
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + selected.length);
+            }
+        }
+        response.setContentLengthLong(length);
+
+        OutputStream out = response.getOutputStream();
+        if (selected.content != null) {
+            out.write(selected.content, (int) offset, (int) length);
+        } else {
+            try (InputStream in = selected.openStream()) {
+                IOUtils.copyLarge(in, out, offset, length, new byte[BUFFER_SIZE]);
+            }
+        }
+    }
+
+    /**
+     * If-None-Match takes precedence over If-Modified-Since as required by
+     * RFC 7232.
+     */
+    private static boolean isNotModified(HttpServletRequest request, Asset asset) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.equals("*") || weakEquals(tag, asset.etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+        return ifModifiedSince >= 0 && asset.lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * A range request with an If-Range that does not match the current
+     * asset gets the whole asset.
+     */
+    private static boolean isRangeCurrent(HttpServletRequest request, Asset asset) {
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(asset.etag); // If-Range requires the strong comparison
+        }
+        long date = getDateHeader(request, "If-Range");
+        return date >= 0 && asset.lastModified / 1000 == date / 1000;
+    }
+
+    private static boolean weakEquals(String tag, String etag) {
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        return tag.equals(etag);
+    }
+
+    private static long getDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            log.debug("Ignoring invalid {} header", name);
+            return -1;
+        }
+    }
+
+    /**
+     *
+     * @param acceptEncoding value of the Accept-Encoding header, may be null
+     * @param encoding
+     * @return true if the encoding is listed without q=0
+     */
+    static boolean accepts(String acceptEncoding, String encoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String item : acceptEncoding.split(",")) {
+            String[] parts = item.split(";");
+            if (!parts[0].trim().equalsIgnoreCase(encoding)) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     *
+     * @param header value of the Range header
+     * @param length of the asset
+     * @return the first and last byte position of a single satisfiable range,
+     * an empty array if the whole asset should be sent, or null if the range
+     * cannot be satisfied
+     */
+    static long[] parseRange(String header, long length) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            long first;
+            long last;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return null;
+                }
+                first = Math.max(0, length - suffix);
+                last = length - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+                if (last < first) {
+                    return new long[0]; // syntactically invalid, so the header is ignored
+                }
+            }
+            if (first >= length) {
+                return null;
+            }
+            last = Math.min(last, length - 1);
+            return new long[]{first, last};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2014 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class FileServletTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(FileServletTest.class);
+    private static final int PAGE_ASSETS = 20;
+    private File directory;
+    private FileServlet servlet;
+
+    @Before
+    public void createDirectory() throws IOException, ServletException {
+        directory = File.createTempFile("fileservlet", ".test");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+        servlet = new FileServlet();
+        servlet.setDirectory(directory.getAbsolutePath());
+        servlet.init(config());
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testConditionalGet() throws Exception {
+        FileUtils.writeStringToFile(new File(directory, "app.js"), "var app = {};", "UTF-8");
+        Response first = get(servlet, "/app.js", new HashMap<String, String>());
+        assertEquals(200, first.status);
+        assertEquals("var app = {};", first.body.toString("UTF-8"));
+        assertEquals("application/javascript", first.headers.get("Content-Type"));
+        assertNotNull(first.headers.get("ETag"));
+        assertNotNull(first.headers.get("Last-Modified"));
+        assertEquals("no-cache", first.headers.get("Cache-Control"));
+
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("If-None-Match", "\"other\", " + first.headers.get("ETag"));
+        Response second = get(servlet, "/app.js", headers);
+        assertEquals(304, second.status);
+        assertEquals(0, second.body.size());
+
+        headers.clear();
+        headers.put("If-Modified-Since", first.headers.get("Last-Modified"));
+        assertEquals(304, get(servlet, "/app.js", headers).status);
+
+        // a changed file gets a new ETag even when the client sends the old one
+        File file = new File(directory, "app.js");
+        FileUtils.writeStringToFile(file, "var app = {version: 2};", "UTF-8");
+        assertTrue(file.setLastModified(file.lastModified() + 2000));
+        headers.clear();
+        headers.put("If-None-Match", first.headers.get("ETag"));
+        Response third = get(servlet, "/app.js", headers);
+        assertEquals(200, third.status);
+        assertEquals("var app = {version: 2};", third.body.toString("UTF-8"));
+        assertNotEquals(first.headers.get("ETag"), third.headers.get("ETag"));
+    }
+
+    @Test
+    public void testRange() throws Exception {
+        FileUtils.writeStringToFile(new File(directory, "data.txt"), "0123456789abcdefghij", "UTF-8");
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("Range", "bytes=10-14");
+        Response partial = get(servlet, "/data.txt", headers);
+        assertEquals(206, partial.status);
+        assertEquals("abcde", partial.body.toString("UTF-8"));
+        assertEquals("bytes 10-14/20", partial.headers.get("Content-Range"));
+
+        headers.put("Range", "bytes=-3");
+        assertEquals("hij", get(servlet, "/data.txt", headers).body.toString("UTF-8"));
+
+        headers.put("Range", "bytes=20-");
+        Response unsatisfiable = get(servlet, "/data.txt", headers);
+        assertEquals(416, unsatisfiable.status);
+        assertEquals("bytes */20", unsatisfiable.headers.get("Content-Range"));
+
+        headers.put("Range", "bytes=0-1,5-6");
+        assertEquals(200, get(servlet, "/data.txt", headers).status);
+
+        headers.put("Range", "bytes=0-1");
+        headers.put("If-Range", "\"old\"");
+        assertEquals(200, get(servlet, "/data.txt", headers).status);
+    }
+
+    @Test
+    public void testPrecompressedSibling() throws Exception {
+        String text = "body { color: black; }";
+        FileUtils.writeStringToFile(new File(directory, "style.css"), text, "UTF-8");
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(text.getBytes("UTF-8"));
+        }
+        FileUtils.writeByteArrayToFile(new File(directory, "style.css.gz"), compressed.toByteArray());
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("Accept-Encoding", "gzip, deflate");
+        Response gzip = get(servlet, "/style.css", headers);
+        assertEquals("gzip", gzip.headers.get("Content-Encoding"));
+        assertEquals("Accept-Encoding", gzip.headers.get("Vary"));
+        assertEquals("text/css", gzip.headers.get("Content-Type"));
+        assertArrayEquals(compressed.toByteArray(), gzip.body.toByteArray());
+
+        headers.put("Accept-Encoding", "gzip;q=0");
+        Response identity = get(servlet, "/style.css", headers);
+        assertNull(identity.headers.get("Content-Encoding"));
+        assertEquals(text, identity.body.toString("UTF-8"));
+        assertNotEquals(gzip.headers.get("ETag"), identity.headers.get("ETag"));
+    }
+
+    @Test
+    public void testParseRange() {
+        assertArrayEquals(new long[]{0, 99}, StaticContent.parseRange("bytes=0-", 100));
+        assertArrayEquals(new long[]{90, 99}, StaticContent.parseRange("bytes=90-200", 100));
+        assertArrayEquals(new long[]{0, 99}, StaticContent.parseRange("bytes=-200", 100));
+        assertArrayEquals(new long[0], StaticContent.parseRange("bytes=5-1", 100));
+        assertArrayEquals(new long[0], StaticContent.parseRange("items=0-1", 100));
+        assertNull(StaticContent.parseRange("bytes=100-", 100));
+        assertTrue(StaticContent.accepts("br;q=1.0, gzip", "br"));
+        assertFalse(StaticContent.accepts("br;q=0, gzip", "br"));
+        assertFalse(StaticContent.accepts(null, "gzip"));
+    }
+
+    @Test
+    public void testClasspathResource() throws Exception {
+        ClasspathFileServlet classpathServlet = new ClasspathFileServlet();
+        classpathServlet.init(config());
+        Response first = get(classpathServlet, "/hello.txt", new HashMap<String, String>());
+        assertEquals(200, first.status);
+        assertEquals("hello from the classpath\n", first.body.toString("UTF-8"));
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("If-None-Match", first.headers.get("ETag"));
+        assertEquals(304, get(classpathServlet, "/hello.txt", headers).status);
+        assertEquals(404, get(classpathServlet, "/missing.txt", headers).status);
+    }
+
+    /**
+     * Compares a first page load with repeated loads that send the ETags
+     * from the first load, like a browser with the assets in its cache.
+     */
+    @Test
+    public void testRepeatedPageLoad() throws Exception {
+        Random random = new Random(1);
+        for (int i = 0; i < PAGE_ASSETS; i++) {
+            byte[] content = new byte[5000 + random.nextInt(100000)];
+            random.nextBytes(content);
+            FileUtils.writeByteArrayToFile(new File(directory, "asset" + i + ".js"), content);
+        }
+        HashMap<String, String> etags = new HashMap<>();
+        long firstBytes = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < PAGE_ASSETS; i++) {
+            Response response = get(servlet, "/asset" + i + ".js", new HashMap<String, String>());
+            firstBytes += response.body.size();
+            etags.put("/asset" + i + ".js", response.headers.get("ETag"));
+        }
+        log.info("First page load: {} requests {} bytes in {} us", PAGE_ASSETS, firstBytes, (System.nanoTime() - start) / 1000);
+
+        for (String mode : new String[]{"unconditional", "conditional"}) {
+            int loads = 200;
+            long bytes = 0;
+            start = System.nanoTime();
+            for (int load = 0; load < loads; load++) {
+                for (int i = 0; i < PAGE_ASSETS; i++) {
+                    String path = "/asset" + i + ".js";
+                    HashMap<String, String> headers = new HashMap<>();
+                    if (mode.equals("conditional")) {
+                        headers.put("If-None-Match", etags.get(path));
+                    }
+                    Response response = get(servlet, path, headers);
+                    bytes += response.body.size();
+                    if (mode.equals("conditional")) {
+                        assertEquals(304, response.status);
+                    }
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            log.info("Repeated page load, {}: {} requests/sec, {} bytes per page", mode, loads * PAGE_ASSETS * 1000000000L / elapsed, bytes / loads);
+        }
+    }
+
+    private static class Response {
+        private int status = 200;
+        private final HashMap<String, String> headers = new HashMap<>();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    }
+
+    private static Response get(HttpServlet servlet, String path, Map<String, String> headers) throws ServletException, IOException {
+        Response response = new Response();
+        servlet.service(request(path, headers), response(response));
+        return response;
+    }
+
+    private static SimpleDateFormat httpDateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
+    private static ServletConfig config() {
+        final ServletContext context = (ServletContext) Proxy.newProxyInstance(FileServletTest.class.getClassLoader(), new Class<?>[]{ServletContext.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getMimeType")) {
+                    String name = (String) args[0];
+                    if (name.endsWith(".js")) {
+                        return "application/javascript";
+                    }
+                    if (name.endsWith(".css")) {
+                        return "text/css";
+                    }
+                    return "text/plain";
+                }
+                if (method.getName().equals("log")) {
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        return (ServletConfig) Proxy.newProxyInstance(FileServletTest.class.getClassLoader(), new Class<?>[]{ServletConfig.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "getServletContext":
+                        return context;
+                    case "getServletName":
+                        return "test";
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    private static HttpServletRequest request(final String path, final Map<String, String> headers) {
+        return (HttpServletRequest) Proxy.newProxyInstance(FileServletTest.class.getClassLoader(), new Class<?>[]{HttpServletRequest.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+                switch (method.getName()) {
+                    case "getMethod":
+                        return "GET";
+                    case "getPathInfo":
+                        return path;
+                    case "getRequestURI":
+                        return "/static" + path;
+                    case "getQueryString":
+                        return null;
+                    case "getHeader":
+                        return headers.get((String) args[0]);
+                    case "getDateHeader":
+                        String value = headers.get((String) args[0]);
+                        return value == null ? -1L : httpDateFormat().parse(value).getTime();
+                    case "getProtocol":
+                        return "HTTP/1.1";
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    private static HttpServletResponse response(final Response response) {
+        final ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener listener) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void write(int b) {
+                response.body.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                response.body.write(b, off, len);
+            }
+        };
+        return (HttpServletResponse) Proxy.newProxyInstance(FileServletTest.class.getClassLoader(), new Class<?>[]{HttpServletResponse.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "setStatus":
+                    case "sendError":
+                        response.status = (Integer) args[0];
+                        return null;
+                    case "setHeader":
+                    case "addHeader":
+                        response.headers.put((String) args[0], (String) args[1]);
+                        return null;
+                    case "setDateHeader":
+                        response.headers.put((String) args[0], httpDateFormat().format(new Date((Long) args[1])));
+                        return null;
+                    case "setContentType":
+                        response.headers.put("Content-Type", (String) args[0]);
+                        return null;
+                    case "setContentLength":
+                    case "setContentLengthLong":
+                        response.headers.put("Content-Length", String.valueOf(args[0]));
+                        return null;
+                    case "getOutputStream":
+                        return out;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.servlet;
+
+import com.intel.mtwilson.servlet.RepeatableRequestFilter.RepeatableServletRequest;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class RepeatableRequestFilterTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(RepeatableRequestFilterTest.class);
+    private static final int UPLOADS = 8;
+    private static final long UPLOAD_SIZE = 50L * 1024 * 1024;
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("repeatable", ".test");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    @After
+    public void deleteDirectory() {
+        assertEquals(0, directory.list().length); // every temporary file was deleted
+        assertTrue(directory.delete());
+    }
+
+    private RepeatableRequestFilter createFilter(int memoryThreshold, long maxSize) {
+        RepeatableRequestFilter filter = new RepeatableRequestFilter();
+        filter.setMemoryThreshold(memoryThreshold);
+        filter.setMaxSize(maxSize);
+        filter.setDirectory(directory);
+        return filter;
+    }
+
+    @Test
+    public void testSmallBodyInMemory() throws Exception {
+        RepeatableRequestFilter filter = createFilter(1024, 1024 * 1024);
+        DigestTwiceChain chain = new DigestTwiceChain();
+        filter.doFilter(request("/v2/hosts", new GeneratedInputStream(100), 100), response(), chain);
+        assertTrue(chain.body.isInMemory());
+        assertEquals(100, chain.body.length());
+    }
+
+    @Test
+    public void testLargeBodyInTemporaryFile() throws Exception {
+        RepeatableRequestFilter filter = createFilter(1024, 1024 * 1024);
+        DigestTwiceChain chain = new DigestTwiceChain();
+        filter.doFilter(request("/v2/hosts", new GeneratedInputStream(100000), -1), response(), chain);
+        assertFalse(chain.body.isInMemory());
+        assertEquals(100000, chain.body.length());
+        assertFalse(chain.body.getFile().exists()); // deleted when the request ended
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        RepeatableRequestFilter filter = createFilter(1024, 10000);
+        DigestTwiceChain chain = new DigestTwiceChain();
+        AtomicInteger status = new AtomicInteger();
+        // rejected by the Content-Length header before reading
+        filter.doFilter(request("/v2/hosts", new GeneratedInputStream(20000), 20000), response(status), chain);
+        assertEquals(413, status.get());
+        assertNull(chain.body);
+        // rejected while reading a body without Content-Length
+        status.set(0);
+        filter.doFilter(request("/v2/hosts", new GeneratedInputStream(20000), -1), response(status), chain);
+        assertEquals(413, status.get());
+        assertNull(chain.body);
+        // exactly the maximum size is allowed
+        filter.doFilter(request("/v2/hosts", new GeneratedInputStream(10000), -1), response(status), chain);
+        assertEquals(10000, chain.body.length());
+    }
+
+    @Test
+    public void testPaths() throws Exception {
+        RepeatableRequestFilter filter = createFilter(1024, 1024 * 1024);
+        filter.setPaths(new String[]{"/v2/hosts", "/v2/data-bundle"});
+        DigestTwiceChain chain = new DigestTwiceChain();
+        filter.doFilter(request("/v2/data-bundle", new GeneratedInputStream(100), 100), response(), chain);
+        assertNotNull(chain.body);
+        chain.body = null;
+        filter.doFilter(request("/v2/users", new GeneratedInputStream(100), 100), response(), chain);
+        assertNull(chain.body); // not wrapped
+    }
+
+    /**
+     * A request whose body is not read by the application is not copied,
+     * so the container can still parse form parameters from it.
+     */
+    @Test
+    public void testBodyIsReadOnlyWhenRequested() throws Exception {
+        RepeatableRequestFilter filter = createFilter(1024, 1024 * 1024);
+        GeneratedInputStream generated = new GeneratedInputStream(100000);
+        final AtomicInteger wrapped = new AtomicInteger();
+        filter.doFilter(request("/v2/hosts", generated, 100000), response(), new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) {
+                assertTrue(request instanceof RepeatableServletRequest);
+                assertNull(((RepeatableServletRequest) request).getBody());
+                wrapped.incrementAndGet();
+            }
+        });
+        assertEquals(1, wrapped.get());
+        assertEquals(0, generated.position);
+    }
+
+    @Test
+    public void testReaderIsRepeatable() throws Exception {
+        RepeatableRequestFilter filter = createFilter(1024, 1024 * 1024);
+        final ArrayList<String> lines = new ArrayList<>();
+        filter.doFilter(request("/v2/hosts", new GeneratedInputStream(2000), 2000), response(), new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+                lines.add(IOUtils.toString(request.getReader()));
+                lines.add(IOUtils.toString(request.getReader()));
+                lines.add(IOUtils.toString(request.getInputStream(), "UTF-8"));
+            }
+        });
+        assertEquals(3, lines.size());
+        assertEquals(lines.get(0), lines.get(1));
+        assertEquals(lines.get(0), lines.get(2));
+    }
+
+    /**
+     * Uploads 50 MB bodies concurrently, reading each one twice, and
+     * compares the peak heap with a single upload copied into a byte array
+     * as before.
+     */
+    @Test
+    public void testConcurrentLargeUploadsPeakHeap() throws Exception {
+        long baseline = resetPeakHeap();
+        IOUtils.toByteArray(new GeneratedInputStream(UPLOAD_SIZE));
+        long byteArrayPeak = peakHeap() - baseline;
+        log.debug("One {} byte upload in a byte array: peak heap increase {} bytes", UPLOAD_SIZE, byteArrayPeak);
+
+        final RepeatableRequestFilter filter = createFilter(RepeatableRequestFilter.DEFAULT_MEMORY_THRESHOLD, 100L * 1024 * 1024);
+        ExecutorService executor = Executors.newFixedThreadPool(UPLOADS);
+        List<Future<byte[]>> results = new ArrayList<>();
+        baseline = resetPeakHeap();
+        long start = System.nanoTime();
+        for (int i = 0; i < UPLOADS; i++) {
+            results.add(executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    DigestTwiceChain chain = new DigestTwiceChain();
+                    filter.doFilter(request("/v2/data-bundle", new GeneratedInputStream(UPLOAD_SIZE), UPLOAD_SIZE), response(), chain);
+                    assertEquals(UPLOAD_SIZE, chain.body.length());
+                    return chain.digest;
+                }
+            }));
+        }
+        byte[] expected = null;
+        for (Future<byte[]> result : results) {
+            byte[] digest = result.get();
+            if (expected == null) {
+                expected = digest;
+            }
+            assertTrue(Arrays.equals(expected, digest));
+        }
+        long nanos = System.nanoTime() - start;
+        executor.shutdown();
+        long filterPeak = peakHeap() - baseline;
+        log.debug("{} concurrent {} byte uploads through the filter: peak heap increase {} bytes, {} ms", UPLOADS, UPLOAD_SIZE, filterPeak, nanos / 1000000);
+        assertTrue(filterPeak < UPLOAD_SIZE);
+    }
+
+    private List<MemoryPoolMXBean> heapPools() {
+        ArrayList<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    private long resetPeakHeap() {
+        System.gc();
+        long used = 0;
+        for (MemoryPoolMXBean pool : heapPools()) {
+            pool.resetPeakUsage();
+            used += pool.getUsage().getUsed();
+        }
+        return used;
+    }
+
+    // the sum of the peaks of each pool, which is at least the peak of the heap
+    private long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heapPools()) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    /**
+     * Reads the body to the end, resets it as X509AuthenticationFilter does,
+     * reads it again and checks both reads have the same digest.
+     */
+    private static class DigestTwiceChain implements FilterChain {
+        private RepeatableRequestFilter.RepeatableBody body;
+        private byte[] digest;
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+            if (!(request instanceof RepeatableServletRequest)) {
+                return;
+            }
+            try {
+                ServletInputStream in = request.getInputStream();
+                assertTrue(in.markSupported());
+                byte[] first = digest(in);
+                in.reset();
+                byte[] second = digest(request.getInputStream());
+                assertTrue(Arrays.equals(first, second));
+                body = ((RepeatableServletRequest) request).getBody();
+                if (!body.isInMemory()) {
+                    assertTrue(body.getFile().exists());
+                }
+                digest = first;
+            } catch (java.security.NoSuchAlgorithmException e) {
+                throw new ServletException(e);
+            }
+        }
+
+        private byte[] digest(InputStream in) throws IOException, java.security.NoSuchAlgorithmException {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                md.update(buffer, 0, n);
+            }
+            return md.digest();
+        }
+    }
+
+    private static HttpServletRequest request(final String path, final InputStream body, final long contentLength) {
+        final ServletInputStream in = new ServletInputStream() {
+            @Override
+            public boolean isFinished() {
+                return false;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(javax.servlet.ReadListener listener) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read() throws IOException {
+                return body.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return body.read(b, off, len);
+            }
+        };
+        return (HttpServletRequest) Proxy.newProxyInstance(RepeatableRequestFilterTest.class.getClassLoader(), new Class<?>[]{HttpServletRequest.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "getInputStream":
+                        return in;
+                    case "getContentLengthLong":
+                        return contentLength;
+                    case "getContentLength":
+                        return (int) contentLength;
+                    case "getRequestURI":
+                        return "/mtwilson" + path;
+                    case "getContextPath":
+                        return "/mtwilson";
+                    case "getMethod":
+                        return "POST";
+                    case "isAsyncStarted":
+                        return false;
+                    case "getCharacterEncoding":
+                        return "UTF-8";
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    private static HttpServletResponse response() {
+        return response(new AtomicInteger());
+    }
+
+    private static HttpServletResponse response(final AtomicInteger status) {
+        return (HttpServletResponse) Proxy.newProxyInstance(RepeatableRequestFilterTest.class.getClassLoader(), new Class<?>[]{HttpServletResponse.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("sendError") || method.getName().equals("setStatus")) {
+                    status.set((Integer) args[0]);
+                    return null;
+                }
+                if (method.getName().equals("isCommitted")) {
+                    return false;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /**
+     * Generates a body without holding it in memory.
+     */
+    private static class GeneratedInputStream extends InputStream {
+        private final long size;
+        private long position = 0;
+
+        GeneratedInputStream(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public int read() {
+            if (position >= size) {
+                return -1;
+            }
+            return (int) (position++ % 251);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= size) {
+                return -1;
+            }
+            int n = (int) Math.min(len, size - position);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = (byte) (position++ % 251);
+            }
+            return n;
+        }
+    }
+}
@@ -4,6 +4,7 @@
  */
 package com.intel.mtwilson.launcher;
 
+import com.intel.dcsg.cpg.extensions.ClassFileScanner;
 import com.intel.dcsg.cpg.extensions.ImplementationRegistrar;
 import com.intel.dcsg.cpg.extensions.Registrar;
 import com.intel.dcsg.cpg.extensions.Scanner;
@@ -22,6 +23,7 @@ public class ExtensionCacheLauncher extends ExtensionLauncher implements Runnabl
     
     private File cacheFile;
     private Registrar[] registrars;
+    private boolean scanClassFiles = false;
     
     /**
      * Initializes member variables parentClassLoader, 
@@ -62,6 +64,23 @@ public class ExtensionCacheLauncher extends ExtensionLauncher implements Runnabl
     public void setRegistrars(Registrar[] registrars) {
         this.registrars = registrars;
     }
+
+    public boolean isScanClassFiles() {
+        return scanClassFiles;
+    }
+
+    /**
+     * When true, the classes listed in the cache file are evaluated by
+     * reading their class files with ClassFileScanner instead of loading
+     * them, and matching extensions are loaded when they are first used.
+     * Only applies when all the registrars are supported by
+     * ClassFileScanner; otherwise every class is loaded as before.
+     * 
+     * @param scanClassFiles 
+     */
+    public void setScanClassFiles(boolean scanClassFiles) {
+        this.scanClassFiles = scanClassFiles;
+    }
     
     
     
@@ -78,8 +97,41 @@ public class ExtensionCacheLauncher extends ExtensionLauncher implements Runnabl
         
     }
     
+    private boolean isClassFileScannerSupported(Registrar[] registrars) {
+        for(Registrar registrar : registrars) {
+            if( !ClassFileScanner.isSupported(registrar) ) {
+                log.debug("Registrar {} requires loading classes", registrar.getClass().getName());
+                return false;
+            }
+        }
+        return true;
+    }
+    
     public void load(File cacheFile, Registrar[] registrars) throws IOException {
-        if( cacheFile.exists() ) {
+        if( cacheFile.exists() && scanClassFiles && isClassFileScannerSupported(registrars) ) {
+            long time0 = System.currentTimeMillis();
+            ClassFileScanner scanner = new ClassFileScanner(ExtensionCacheLauncher.class.getClassLoader()); // same class loader as Class.forName below
+            for(Registrar registrar : registrars) {
+                scanner.addRegistrar(registrar);
+            }
+            try(FileInputStream in = new FileInputStream(cacheFile)) {
+                String content = IOUtils.toString(in);
+                String[] lines = content.split("[\n\r]");
+                for(int i=0; i<lines.length; i++) {
+                    if( lines[i] == null || lines[i].trim().isEmpty() ) { continue; }
+                    String className = lines[i];
+                    try {
+                        scanner.scan(className);
+                    }
+                    catch(IOException e) {
+                        log.error("Cannot read class {}: {}", className, e.getMessage());
+                    }
+                }
+            }
+            long time1 = System.currentTimeMillis();
+            log.debug("Scanned {} extensions in {}ms", scanner.getScannedCount(), time1-time0);
+        }
+        else if( cacheFile.exists() ) {
             long time0 = System.currentTimeMillis();
             long count = 0;
             Scanner scanner = new Scanner(registrars);
@@ -6,6 +6,7 @@ package com.intel.mtwilson.launcher;
 
 import com.intel.dcsg.cpg.classpath.FileURLClassLoader;
 import com.intel.dcsg.cpg.classpath.JarClassIterator;
+import com.intel.dcsg.cpg.extensions.ClassFileScanner;
 import com.intel.dcsg.cpg.extensions.ImplementationRegistrar;
 import com.intel.dcsg.cpg.extensions.Registrar;
 import com.intel.dcsg.cpg.extensions.Scanner;
@@ -30,6 +31,7 @@ public class ExtensionDirectoryLauncher extends ExtensionLauncher implements Run
 //    private MultiJarFileClassLoader applicationClassLoader;
     private ClassLoader applicationClassLoader;
     private Registrar[] registrars;
+    private boolean scanClassFiles = false;
     
     /**
      * Initializes member variables parentClassLoader, 
@@ -95,6 +97,23 @@ public class ExtensionDirectoryLauncher extends ExtensionLauncher implements Run
     public void setRegistrars(Registrar[] registrars) {
         this.registrars = registrars;
     }
+
+    public boolean isScanClassFiles() {
+        return scanClassFiles;
+    }
+
+    /**
+     * When true, the extension jars are scanned with ClassFileScanner
+     * which reads the class files instead of loading every class, and
+     * matching extensions are loaded when they are first used.
+     * Only applies when all the registrars are supported by
+     * ClassFileScanner; otherwise every class is loaded as before.
+     * 
+     * @param scanClassFiles 
+     */
+    public void setScanClassFiles(boolean scanClassFiles) {
+        this.scanClassFiles = scanClassFiles;
+    }
     
     
     
@@ -150,8 +169,21 @@ public class ExtensionDirectoryLauncher extends ExtensionLauncher implements Run
         else {}
     }
     
+    private ClassFileScanner createClassFileScanner(Registrar[] registrars) {
+        ClassFileScanner scanner = new ClassFileScanner(applicationClassLoader);
+        for(Registrar registrar : registrars) {
+            if( !ClassFileScanner.isSupported(registrar) ) {
+                log.debug("Registrar {} requires loading classes", registrar.getClass().getName());
+                return null;
+            }
+            scanner.addRegistrar(registrar);
+        }
+        return scanner;
+    }
+    
     public void scan(File[] jars, Registrar[] registrars) {
         long time0 = System.currentTimeMillis();
+        ClassFileScanner classFileScanner = scanClassFiles ? createClassFileScanner(registrars) : null;
         CountingIterator<File> it = new CountingIterator<>(new ArrayIterator<>(jars)); // only scans directory for jar files; does NOT scan subdirectories
         for(int i=0; i<registrars.length; i++) { log.debug("Scanning with registrar {}", registrars[i].getClass().getName()); }
         while (it.hasNext()) {
@@ -162,6 +194,10 @@ public class ExtensionDirectoryLauncher extends ExtensionLauncher implements Run
                     ExtensionUtil.scan(registrar, new JarClassIterator(jar, applicationClassLoader));// we use our current classloader which means if any classes are already loaded we'll reuse them
                 }*/
 //                ExtensionUtil.scan(new JarClassIterator(jar, applicationClassLoader), registrars);
+                if( classFileScanner != null ) {
+                    classFileScanner.scan(jar);
+                    continue;
+                }
                 Scanner scanner = new Scanner(registrars);
                 scanner.setThrowExceptions(false);
                 scanner.setThrowErrors(false);
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.launcher;
+
+import com.intel.dcsg.cpg.classpath.JarClassIterator;
+import com.intel.dcsg.cpg.classpath.JarFileClassLoader;
+import com.intel.dcsg.cpg.extensions.ClassFileScanner;
+import com.intel.dcsg.cpg.extensions.DeferredExtensionProvider;
+import com.intel.dcsg.cpg.extensions.ImplementationRegistrar;
+import com.intel.dcsg.cpg.extensions.Scanner;
+import com.intel.dcsg.cpg.extensions.WhiteboardExtensionProvider;
+import java.io.File;
+import org.junit.Test;
+
+/**
+ * Compares the startup cost of scanning a jar for extensions by loading
+ * every class with JarClassIterator, as ExtensionDirectoryLauncher does by
+ * default, with reading the class files with ClassFileScanner.
+ *
+ * Each iteration uses a new JarFileClassLoader so classes are really loaded
+ * every time, as they would be when the application starts.
+ *
+ * @author jbuhacoff
+ */
+public class ExtensionScanBenchmarkTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ExtensionScanBenchmarkTest.class);
+    private static final int ITERATIONS = 10;
+
+    // a jar with a few hundred classes that is always on the test classpath
+    private File findJar() throws Exception {
+        for (Class<?> clazz : new Class<?>[]{Test.class, org.slf4j.Logger.class}) {
+            File file = new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (file.isFile() && file.getName().endsWith(".jar")) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testScanStartupTime() throws Exception {
+        File jar = findJar();
+        if (jar == null) {
+            log.warn("Cannot find a jar to scan");
+            return;
+        }
+        log.debug("Scanning {}", jar.getAbsolutePath());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            WhiteboardExtensionProvider.clearAll();
+            Scanner scanner = new Scanner(new ImplementationRegistrar());
+            scanner.scan(new JarClassIterator(jar, new JarFileClassLoader(jar)));
+        }
+        long loadingMillis = (System.nanoTime() - start) / ITERATIONS / 1000000;
+        int loadingRegistrations = WhiteboardExtensionProvider.getWhiteboard().size();
+        WhiteboardExtensionProvider.clearAll();
+
+        long scanned = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            DeferredExtensionProvider.clearAll();
+            ClassFileScanner scanner = new ClassFileScanner(new JarFileClassLoader(jar));
+            scanner.addImplementations();
+            scanner.scan(jar);
+            scanned = scanner.getScannedCount();
+        }
+        long headerMillis = (System.nanoTime() - start) / ITERATIONS / 1000000;
+        int headerRegistrations = DeferredExtensionProvider.getRegistry().size();
+        DeferredExtensionProvider.clearAll();
+
+        log.debug("Scanned {} classes", scanned);
+        log.debug("JarClassIterator: {} ms per jar, {} interfaces with extensions", loadingMillis, loadingRegistrations);
+        log.debug("ClassFileScanner: {} ms per jar, {} interfaces with extensions", headerMillis, headerRegistrations);
+    }
+}
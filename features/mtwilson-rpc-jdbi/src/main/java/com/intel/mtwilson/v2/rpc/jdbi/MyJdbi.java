@@ -4,9 +4,7 @@
  */
 package com.intel.mtwilson.v2.rpc.jdbi;
 
-import com.intel.mtwilson.MyJdbc;
-import com.intel.mtwilson.jdbi.util.ExistingConnectionFactory;
-import java.sql.Connection;
+import com.intel.mtwilson.jdbi.util.JdbiUtil;
 import java.sql.SQLException;
 import org.skife.jdbi.v2.DBI;
 import org.slf4j.Logger;
@@ -26,13 +24,17 @@ public class MyJdbi {
     T dao = dbi.open(clazz.getClass());
     return null;
   }*/
+ /**
+  * The DAO borrows a connection from the shared pool; the caller must
+  * close() the DAO to return it.
+  * 
+  * @return
+  * @throws SQLException 
+  */
  public static RpcDAO rpc() throws SQLException {
 //     createTables();
          try {
-             Connection connection = MyJdbc.openConnection();
-             log.debug("MyJdbi (mtwilson-core-rpc-jdbi) connection: {}", connection);
-        DBI dbi = new DBI(new ExistingConnectionFactory(connection));
-        log.debug("MyJdbi (mtwilson-core-rpc-jdbi) created DBI instance: {}", dbi);
+        DBI dbi = JdbiUtil.getDBI();
     return dbi.open(RpcDAO.class);
          }
          catch(Exception e) {
@@ -41,6 +41,70 @@ public interface RpcDAO {
     @SqlUpdate("update mw_rpc set Status=:status where ID=:id")
     void updateStatus(@Bind("id") UUID id, @Bind("status") String status);
     
+    /**
+     * Changes the status only if it currently has the expected value, so
+     * that when several nodes share the mw_rpc table only one of them
+     * can claim a queued RPC.
+     * 
+     * @param id
+     * @param expectedStatus
+     * @param status
+     * @return number of rows updated: 1 if the status was changed, 0 if the record does not exist or did not have the expected status
+     */
+    @SqlUpdate("update mw_rpc set Status=:status where ID=:id and Status=:expectedStatus")
+    int updateStatusIfEqual(@Bind("id") UUID id, @Bind("expectedStatus") String expectedStatus, @Bind("status") String status);
+    
+    /**
+     * Like updateStatusIfEqual, and also records which executor claimed the
+     * record and when, so that a claim left behind by a node that stopped
+     * can be detected. Requires the ClaimedBy and ClaimedOn columns, which
+     * are in the mw_rpc.sql scripts in this package for new installations
+     * and are added to existing installations by mw_rpc_claim.sql.
+     * Use findClaimedOnById to check if the columns are present.
+     * 
+     * @param id
+     * @param expectedStatus
+     * @param status
+     * @param claimedBy identifies the executor
+     * @param claimedOn milliseconds since the epoch
+     * @return number of rows updated: 1 if the record was claimed, 0 if the record does not exist or did not have the expected status
+     */
+    @SqlUpdate("update mw_rpc set Status=:status, ClaimedBy=:claimedBy, ClaimedOn=:claimedOn where ID=:id and Status=:expectedStatus")
+    int claim(@Bind("id") UUID id, @Bind("expectedStatus") String expectedStatus, @Bind("status") String status, @Bind("claimedBy") String claimedBy, @Bind("claimedOn") long claimedOn);
+    
+    /**
+     * 
+     * @param id
+     * @param status
+     * @param claimedBy
+     * @param claimedOn milliseconds since the epoch
+     * @return number of rows updated: 1 if the record still has the status and is claimed by the same executor, otherwise 0
+     */
+    @SqlUpdate("update mw_rpc set ClaimedOn=:claimedOn where ID=:id and Status=:status and ClaimedBy=:claimedBy")
+    int updateClaimedOn(@Bind("id") UUID id, @Bind("status") String status, @Bind("claimedBy") String claimedBy, @Bind("claimedOn") long claimedOn);
+    
+    /**
+     * Records without a ClaimedOn value, such as the ones created by
+     * BlockingRpc, are not changed.
+     * 
+     * @param expectedStatus
+     * @param status
+     * @param claimedBefore milliseconds since the epoch
+     * @return number of rows updated
+     */
+    @SqlUpdate("update mw_rpc set Status=:status where Status=:expectedStatus and ClaimedOn<:claimedBefore")
+    int updateStatusIfClaimedBefore(@Bind("expectedStatus") String expectedStatus, @Bind("status") String status, @Bind("claimedBefore") long claimedBefore);
+    
+    /**
+     * Throws an exception if the mw_rpc table does not have the ClaimedOn
+     * column.
+     * 
+     * @param id
+     * @return the time the record was claimed in milliseconds since the epoch, 0 if it was not claimed, or null if it does not exist
+     */
+    @SqlQuery("select ClaimedOn from mw_rpc where ID=:id")
+    Long findClaimedOnById(@Bind("id") UUID id);
+    
     @SqlUpdate("update mw_rpc set ProgressCurrent=:progressCurrent,ProgressMax=:progressMax where ID=:id")
     void updateProgress(@Bind("id") UUID id, @Bind("progressCurrent") Long progressCurrent, @Bind("progressMax") Long progressMax);
     
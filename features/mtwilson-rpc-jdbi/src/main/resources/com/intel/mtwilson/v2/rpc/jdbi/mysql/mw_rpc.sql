@@ -0,0 +1,13 @@
+-- mw_rpc for new installations; existing installations run mw_rpc_claim.sql
+CREATE TABLE mw_rpc (
+  ID char(36) NOT NULL,
+  Name varchar(255) NOT NULL,
+  Input longblob DEFAULT NULL,
+  Output longblob DEFAULT NULL,
+  Status varchar(32) NOT NULL,
+  ProgressCurrent bigint DEFAULT NULL,
+  ProgressMax bigint DEFAULT NULL,
+  ClaimedBy varchar(255) DEFAULT NULL,
+  ClaimedOn bigint DEFAULT NULL,
+  PRIMARY KEY (ID)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
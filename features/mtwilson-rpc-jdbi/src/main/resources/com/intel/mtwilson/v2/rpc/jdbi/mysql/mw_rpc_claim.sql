@@ -0,0 +1,3 @@
+-- adds the columns used by RpcExecutor to record and expire claims
+ALTER TABLE mw_rpc ADD COLUMN ClaimedBy varchar(255) DEFAULT NULL;
+ALTER TABLE mw_rpc ADD COLUMN ClaimedOn bigint DEFAULT NULL;
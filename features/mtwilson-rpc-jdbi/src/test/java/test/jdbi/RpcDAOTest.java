@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package test.jdbi;
+
+import com.intel.dcsg.cpg.io.UUID;
+import com.intel.mtwilson.rpc.v2.model.Rpc;
+import com.intel.mtwilson.v2.rpc.jdbi.RpcDAO;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import org.apache.commons.io.IOUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+import static org.junit.Assert.*;
+
+/**
+ * Runs the RpcDAO statements against an in-memory H2 database in
+ * PostgreSQL mode, created with the postgresql mw_rpc scripts that ship
+ * with this module.
+ *
+ * @author jbuhacoff
+ */
+public class RpcDAOTest {
+    private static final String QUEUE = Rpc.Status.QUEUE.name();
+    private static final String PROGRESS = Rpc.Status.PROGRESS.name();
+    private static final String ERROR = Rpc.Status.ERROR.name();
+
+    @BeforeClass
+    public static void loadDriver() throws ClassNotFoundException {
+        Class.forName("org.h2.Driver");
+    }
+
+    private static DBI createDatabase(String name) {
+        return new DBI("jdbc:h2:mem:" + name + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1");
+    }
+
+    /**
+     * Executes each statement in the script, which must not have
+     * semicolons other than at the end of each statement.
+     */
+    private static void execute(DBI dbi, String script) throws IOException {
+        String sql;
+        try (InputStream in = RpcDAO.class.getResourceAsStream(script)) {
+            assertNotNull(script, in);
+            sql = IOUtils.toString(in, Charset.forName("UTF-8"));
+        }
+        try (Handle handle = dbi.open()) {
+            for (String statement : sql.replaceAll("(?m)^--.*$", "").split(";")) {
+                if (!statement.trim().isEmpty()) {
+                    handle.execute(statement);
+                }
+            }
+        }
+    }
+
+    private static UUID insert(RpcDAO dao, String status) {
+        UUID id = new UUID();
+        dao.insert(id, "test_dao", new byte[]{1, 2, 3}, null, status, null, null);
+        return id;
+    }
+
+    @Test
+    public void testClaimAndExpire() throws IOException {
+        DBI dbi = createDatabase("rpc_claim");
+        execute(dbi, "postgresql/mw_rpc.sql");
+        RpcDAO dao = dbi.open(RpcDAO.class);
+        try {
+            UUID id = insert(dao, QUEUE);
+            assertEquals(Long.valueOf(0L), dao.findClaimedOnById(id));
+            assertNull(dao.findClaimedOnById(new UUID()));
+            assertEquals(1, dao.claim(id, QUEUE, PROGRESS, "node1", 1000L));
+            assertEquals(0, dao.claim(id, QUEUE, PROGRESS, "node2", 1000L)); // already claimed
+            assertEquals(Long.valueOf(1000L), dao.findClaimedOnById(id));
+            assertEquals(0, dao.updateClaimedOn(id, PROGRESS, "node2", 2000L)); // not the owner
+            assertEquals(1, dao.updateClaimedOn(id, PROGRESS, "node1", 2000L));
+            assertEquals(Long.valueOf(2000L), dao.findClaimedOnById(id));
+            UUID unclaimed = insert(dao, PROGRESS); // like BlockingRpc, no ClaimedOn
+            assertEquals(0, dao.updateStatusIfClaimedBefore(PROGRESS, ERROR, 2000L));
+            assertEquals(1, dao.updateStatusIfClaimedBefore(PROGRESS, ERROR, 2001L));
+            assertEquals(Rpc.Status.ERROR, dao.findStatusById(id).getStatus());
+            assertEquals(Rpc.Status.PROGRESS, dao.findStatusById(unclaimed).getStatus());
+            assertArrayEquals(new byte[]{1, 2, 3}, dao.findById(id).getInput());
+        } finally {
+            dao.close();
+        }
+    }
+
+    /**
+     * The mw_rpc table as it was before the claim columns were added.
+     */
+    @Test
+    public void testUpgradeExistingTable() throws IOException {
+        DBI dbi = createDatabase("rpc_upgrade");
+        try (Handle handle = dbi.open()) {
+            handle.execute("CREATE TABLE mw_rpc (ID char(36) NOT NULL, Name varchar(255) NOT NULL, Input bytea, Output bytea, Status varchar(32) NOT NULL, ProgressCurrent bigint, ProgressMax bigint, PRIMARY KEY (ID))");
+        }
+        RpcDAO dao = dbi.open(RpcDAO.class);
+        try {
+            UUID id = insert(dao, QUEUE);
+            try {
+                dao.findClaimedOnById(id);
+                fail("ClaimedOn column should not exist yet");
+            } catch (RuntimeException e) {
+                // expected
+            }
+            assertEquals(1, dao.updateStatusIfEqual(id, QUEUE, PROGRESS)); // the claim used without the new columns
+        } finally {
+            dao.close();
+        }
+        execute(dbi, "postgresql/mw_rpc_claim.sql");
+        dao = dbi.open(RpcDAO.class);
+        try {
+            UUID id = insert(dao, QUEUE);
+            assertEquals(1, dao.claim(id, QUEUE, PROGRESS, "node1", 1000L));
+            assertEquals(Long.valueOf(1000L), dao.findClaimedOnById(id));
+        } finally {
+            dao.close();
+        }
+    }
+}
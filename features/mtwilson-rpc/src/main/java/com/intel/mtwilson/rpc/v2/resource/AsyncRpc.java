@@ -17,7 +17,7 @@ import com.intel.mtwilson.launcher.ws.ext.RPC;
 import com.intel.mtwilson.launcher.ws.ext.V2;
 import com.intel.mtwilson.rpc.v2.model.Rpc;
 import com.intel.mtwilson.rpc.v2.model.RpcPriv;
-import com.intel.mtwilson.v2.rpc.RpcInvoker;
+import com.intel.mtwilson.v2.rpc.RpcExecutor;
 import com.intel.mtwilson.v2.rpc.RpcUtil;
 import com.thoughtworks.xstream.XStream;
 import java.io.ByteArrayInputStream;
@@ -111,7 +111,7 @@ public class AsyncRpc extends AbstractRpc {
         repository.create(rpc);
 
         // queue it (must follow storage to prevent situation where an executing task needs to store an update to the table and it hasn't been stored yet)
-//        RpcInvoker.getInstance().add(rpc.getId());
+        RpcExecutor.getInstance().submit(rpc.getId());
 
         Rpc status = new Rpc();
         status.copyFrom(rpc);
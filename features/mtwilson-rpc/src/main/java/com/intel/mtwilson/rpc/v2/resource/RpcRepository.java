@@ -29,6 +29,7 @@ public class RpcRepository implements DocumentRepository<Rpc, RpcCollection, Rpc
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(RpcRepository.class);
     private static final HashMap<UUID, Rpc> data = new HashMap<UUID, Rpc>(); 
+    private static volatile Boolean claimColumns = null; // null until checked by hasClaimColumns()
 
     @Override
     public RpcCollection search(RpcFilterCriteria criteria) {
@@ -184,6 +185,142 @@ public class RpcRepository implements DocumentRepository<Rpc, RpcCollection, Rpc
         }
     }
 
+    /**
+     * Checks once whether the mw_rpc table has the ClaimedBy and ClaimedOn
+     * columns, which existing installations add with mw_rpc_claim.sql from
+     * mtwilson-rpc-jdbi. Without them RPCs are claimed by status alone and
+     * claims are not renewed or expired, as before the columns were added.
+     * 
+     * @return true if the claim columns are present
+     */
+    private static boolean hasClaimColumns() {
+        Boolean found = claimColumns;
+        if( found != null ) {
+            return found;
+        }
+        RpcDAO dao = null;
+        try {
+         dao = MyJdbi.rpc();
+        }
+        catch(Exception e) {
+            throw new RuntimeException(e); // not cached, so the check is repeated when the database is available
+        }
+        try {
+            dao.findClaimedOnById(new UUID());
+            found = true;
+        }
+        catch(Exception e) {
+            log.warn("Table mw_rpc does not have the ClaimedBy and ClaimedOn columns; RPCs left in PROGRESS by a stopped node will not expire until mw_rpc_claim.sql is applied: {}", e.getMessage());
+            found = false;
+        }
+        finally {
+           dao.close();
+        }
+        claimColumns = found;
+        return found;
+    }
+
+    /**
+     * Atomically changes the status of a queued RPC to PROGRESS and records
+     * which executor claimed it and when. Used by RpcExecutor so that only
+     * one node executes each queued RPC.
+     * 
+     * @param id
+     * @param owner identifies the executor
+     * @return true if this caller claimed the RPC, false if it was not queued or was already claimed
+     */
+    public boolean claim(UUID id, String owner) {
+        log.debug("Claim id {} owner {}", id, owner);
+        RpcDAO dao = null;
+        try {
+         dao = MyJdbi.rpc();
+         if( !hasClaimColumns() ) {
+             return dao.updateStatusIfEqual(id, Rpc.Status.QUEUE.name(), Rpc.Status.PROGRESS.name()) == 1;
+         }
+         return dao.claim(id, Rpc.Status.QUEUE.name(), Rpc.Status.PROGRESS.name(), owner, System.currentTimeMillis()) == 1;
+        }
+        catch(Exception e) {
+            throw new RuntimeException(e);
+        }
+        finally {
+           if( dao != null ) { dao.close(); }
+        }
+    }
+
+    /**
+     * Extends the claim on an RPC that the owner is still executing, so it
+     * is not mistaken for one left behind by a node that stopped.
+     * 
+     * @param id
+     * @param owner the same owner that claimed the RPC
+     * @return true if the RPC is still in PROGRESS and claimed by the owner, or if mw_rpc does not have the claim columns
+     */
+    public boolean renewClaim(UUID id, String owner) {
+        log.debug("Renew claim id {} owner {}", id, owner);
+        if( !hasClaimColumns() ) {
+            return true; // claims without a time do not expire
+        }
+        RpcDAO dao = null;
+        try {
+         dao = MyJdbi.rpc();
+         return dao.updateClaimedOn(id, Rpc.Status.PROGRESS.name(), owner, System.currentTimeMillis()) == 1;
+        }
+        catch(Exception e) {
+            throw new RuntimeException(e);
+        }
+        finally {
+           if( dao != null ) { dao.close(); }
+        }
+    }
+
+    /**
+     * Changes the status of a claimed RPC from PROGRESS to ERROR, for
+     * example when its execution failed before it stored a result.
+     * 
+     * @param id
+     * @return true if the RPC was in PROGRESS and now has ERROR status
+     */
+    public boolean fail(UUID id) {
+        log.debug("Fail id {}", id);
+        RpcDAO dao = null;
+        try {
+         dao = MyJdbi.rpc();
+         return dao.updateStatusIfEqual(id, Rpc.Status.PROGRESS.name(), Rpc.Status.ERROR.name()) == 1;
+        }
+        catch(Exception e) {
+            throw new RuntimeException(e);
+        }
+        finally {
+           if( dao != null ) { dao.close(); }
+        }
+    }
+
+    /**
+     * Changes the status of RPCs whose claim was not renewed since the
+     * given time from PROGRESS to ERROR. They were claimed by an executor
+     * that stopped while running them, and they are not queued again
+     * because they may have partially completed.
+     * 
+     * @param claimedBefore milliseconds since the epoch
+     * @return the number of RPCs changed to ERROR, always 0 if mw_rpc does not have the claim columns
+     */
+    public int failExpiredClaims(long claimedBefore) {
+        if( !hasClaimColumns() ) {
+            return 0;
+        }
+        RpcDAO dao = null;
+        try {
+         dao = MyJdbi.rpc();
+         return dao.updateStatusIfClaimedBefore(Rpc.Status.PROGRESS.name(), Rpc.Status.ERROR.name(), claimedBefore);
+        }
+        catch(Exception e) {
+            throw new RuntimeException(e);
+        }
+        finally {
+           if( dao != null ) { dao.close(); }
+        }
+    }
+
     @Override
     public void delete(RpcLocator locator) {
         if( locator.id == null ) { return; }
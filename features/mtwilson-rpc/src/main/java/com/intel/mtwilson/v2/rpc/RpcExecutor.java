@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.v2.rpc;
+
+import com.intel.dcsg.cpg.configuration.Configuration;
+import com.intel.dcsg.cpg.io.UUID;
+import com.intel.mtwilson.configuration.ConfigurationFactory;
+import com.intel.mtwilson.rpc.v2.model.Rpc;
+import com.intel.mtwilson.rpc.v2.model.RpcCollection;
+import com.intel.mtwilson.rpc.v2.model.RpcFilterCriteria;
+import com.intel.mtwilson.rpc.v2.model.RpcLocator;
+import com.intel.mtwilson.rpc.v2.model.RpcPriv;
+import com.intel.mtwilson.rpc.v2.resource.RpcRepository;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes queued RPCs on a pool of worker threads.
+ *
+ * AsyncRpc submits each new RPC as soon as it is stored, so it starts
+ * without waiting for the next background poll. Before executing an RPC a
+ * worker claims it by atomically changing its status from QUEUE to
+ * PROGRESS in the database, so when several nodes share the same database
+ * each RPC is executed exactly once.
+ *
+ * The claim records the executor and the time. Each scan renews the claims
+ * of the RPCs this executor is running, and changes RPCs whose claim was
+ * not renewed for longer than the lease from PROGRESS to ERROR: they were
+ * claimed by a node that stopped while running them. They are not queued
+ * again because they may have partially completed. An RPC that was claimed
+ * but did not store a result, for example because it threw an exception,
+ * is also changed to ERROR.
+ *
+ * The number of RPCs with the same name that run at the same time can be
+ * limited; RPCs over the limit wait in memory and are started as the
+ * running ones finish.
+ *
+ * Configuration:
+ * <pre>
+ * mtwilson.rpc.workers=4                    number of worker threads
+ * mtwilson.rpc.max.concurrent=4             default limit per RPC name
+ * mtwilson.rpc.max.concurrent.&lt;name&gt;=1     limit for a specific RPC name
+ * mtwilson.rpc.scan.interval=5000           milliseconds between database checks for QUEUE rows
+ * mtwilson.rpc.lease=600000                 milliseconds after which an unrenewed claim is expired
+ * mtwilson.rpc.shutdown.timeout=30000       milliseconds to wait for running RPCs on shutdown
+ * </pre>
+ *
+ * On shutdown, RPCs that have not started yet are left in QUEUE status so
+ * they will be picked up after restart or by another node, and running RPCs
+ * are allowed to finish up to the shutdown timeout.
+ *
+ * @author jbuhacoff
+ */
+public class RpcExecutor {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(RpcExecutor.class);
+    private static RpcExecutor instance;
+
+    private final RpcRepository repository;
+    private final RpcInvoker invoker;
+    private final Configuration configuration;
+    private final ThreadPoolExecutor workers;
+    private final int defaultMaxConcurrent;
+    private final long scanIntervalMillis;
+    private final long shutdownTimeoutMillis;
+    private final long leaseMillis;
+    private final String owner;
+    private final Set<UUID> running = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>()); // claimed by this executor
+    private final Set<UUID> pending = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+    private final HashMap<String, NameLimit> limits = new HashMap<>(); // guarded by this
+    private final AtomicLong lastScan = new AtomicLong(0);
+    private final AtomicLong completedCount = new AtomicLong(0);
+    private final AtomicLong deferredCount = new AtomicLong(0);
+    private volatile boolean shutdown = false;
+
+    public RpcExecutor(RpcRepository repository, RpcInvoker invoker, Configuration configuration) {
+        this.repository = repository;
+        this.invoker = invoker;
+        this.configuration = configuration;
+        int workerCount = Integer.valueOf(configuration.get("mtwilson.rpc.workers", "4"));
+        this.defaultMaxConcurrent = Integer.valueOf(configuration.get("mtwilson.rpc.max.concurrent", String.valueOf(workerCount)));
+        this.scanIntervalMillis = Long.valueOf(configuration.get("mtwilson.rpc.scan.interval", "5000"));
+        this.shutdownTimeoutMillis = Long.valueOf(configuration.get("mtwilson.rpc.shutdown.timeout", "30000"));
+        this.leaseMillis = Long.valueOf(configuration.get("mtwilson.rpc.lease", "600000"));
+        this.owner = getHostName() + "/" + new UUID().toString(); // unique for each executor, also on the same host
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory());
+        this.workers.allowCoreThreadTimeOut(true);
+        log.debug("RPC executor {} with {} workers, default max concurrent {}", owner, workerCount, defaultMaxConcurrent);
+    }
+    
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        }
+        catch(UnknownHostException e) {
+            log.debug("Cannot get host name: {}", e.getMessage());
+            return "localhost";
+        }
+    }
+
+    public static synchronized RpcExecutor getInstance() {
+        if( instance == null ) {
+            try {
+                instance = new RpcExecutor(new RpcRepository(), new RpcInvoker(), ConfigurationFactory.getConfiguration());
+            }
+            catch(IOException e) {
+                throw new IllegalStateException("Cannot load configuration", e);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    instance.shutdown();
+                }
+            }, "RpcExecutor-shutdown"));
+        }
+        return instance;
+    }
+
+    /**
+     * Schedules the RPC for execution. Does nothing if the RPC is already
+     * scheduled or the executor is shutting down.
+     *
+     * @param id of an RPC that was stored with QUEUE status
+     */
+    public void submit(UUID id) {
+        if( shutdown ) {
+            log.debug("Not submitting RPC {} during shutdown", id);
+            return;
+        }
+        if( !pending.add(id) ) {
+            log.debug("RPC {} is already pending", id);
+            return;
+        }
+        dispatch(id);
+    }
+
+    /**
+     * Renews the claims of running RPCs, fails RPCs with expired claims,
+     * and submits any RPCs in the database with QUEUE status, which were
+     * stored by another node or before a restart. Returns without checking
+     * if the database was checked less than the scan interval ago.
+     */
+    public void scan() {
+        long now = System.currentTimeMillis();
+        long last = lastScan.get();
+        if( shutdown || now - last < scanIntervalMillis || !lastScan.compareAndSet(last, now) ) {
+            return;
+        }
+        for(UUID id : running) {
+            try {
+                if( !repository.renewClaim(id, owner) ) {
+                    log.debug("RPC {} is no longer claimed", id);
+                }
+            }
+            catch(RuntimeException e) {
+                log.warn("Cannot renew claim on RPC {}", id, e);
+            }
+        }
+        try {
+            int expired = repository.failExpiredClaims(now - leaseMillis);
+            if( expired > 0 ) {
+                log.warn("Changed {} RPCs with expired claims to ERROR", expired);
+            }
+        }
+        catch(RuntimeException e) {
+            log.warn("Cannot check for expired RPC claims", e);
+        }
+        RpcFilterCriteria criteria = new RpcFilterCriteria();
+        criteria.status = Rpc.Status.QUEUE;
+        RpcCollection results = repository.search(criteria); // the result will not have inputs or outputs set which is fine, we only want the id's
+        log.debug("Found {} tasks marked QUEUE in database", results.getDocuments().size());
+        for(Rpc item : results.getDocuments()) {
+            submit(item.getId());
+        }
+    }
+
+    /**
+     * Stops accepting RPCs and waits up to the shutdown timeout for
+     * running RPCs to finish. RPCs that have not started remain in QUEUE
+     * status.
+     */
+    public void shutdown() {
+        shutdown = true;
+        workers.shutdown();
+        try {
+            if( !workers.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS) ) {
+                log.warn("RPC executor shutdown timeout with {} active", workers.getActiveCount());
+            }
+        }
+        catch(InterruptedException e) {
+            log.warn("Interrupted while waiting for RPC executor shutdown");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public int getActiveCount() {
+        return workers.getActiveCount();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public long getDeferredCount() {
+        return deferredCount.get();
+    }
+
+    /**
+     * 
+     * @return the value recorded in the database when this executor claims an RPC
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     *
+     * @param name of an RPC
+     * @return maximum number of RPCs with that name that may run at the same time
+     */
+    protected int getMaxConcurrent(String name) {
+        return Integer.valueOf(configuration.get("mtwilson.rpc.max.concurrent." + name, String.valueOf(defaultMaxConcurrent)));
+    }
+
+    private void dispatch(UUID id) {
+        try {
+            workers.execute(new Job(id));
+        }
+        catch(RejectedExecutionException e) {
+            log.debug("RPC {} not started because executor is shut down", id);
+            pending.remove(id);
+        }
+    }
+
+    /**
+     *
+     * @param name
+     * @param id
+     * @return true if the RPC may start now, false if it was deferred until another RPC with the same name finishes
+     */
+    private synchronized boolean acquire(String name, UUID id) {
+        NameLimit limit = limits.get(name);
+        if( limit == null ) {
+            limit = new NameLimit(getMaxConcurrent(name));
+            limits.put(name, limit);
+        }
+        if( limit.running < limit.max ) {
+            limit.running++;
+            return true;
+        }
+        limit.deferred.add(id);
+        deferredCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     *
+     * @param name
+     * @return the next deferred RPC with the same name, or null
+     */
+    private synchronized UUID release(String name) {
+        NameLimit limit = limits.get(name);
+        limit.running--;
+        if( shutdown ) {
+            for(UUID id : limit.deferred) {
+                pending.remove(id);
+            }
+            limit.deferred.clear();
+            return null;
+        }
+        return limit.deferred.poll();
+    }
+
+    private static class NameLimit {
+        private final int max;
+        private int running = 0;
+        private final ArrayDeque<UUID> deferred = new ArrayDeque<>();
+
+        public NameLimit(int max) {
+            this.max = max;
+        }
+    }
+
+    private class Job implements Runnable {
+        private final UUID id;
+
+        public Job(UUID id) {
+            this.id = id;
+        }
+
+        @Override
+        public void run() {
+            if( shutdown ) {
+                pending.remove(id);
+                return;
+            }
+            RpcLocator locator = new RpcLocator();
+            locator.id = id;
+            Rpc status;
+            try {
+                status = repository.retrieve(locator);
+            }
+            catch(RuntimeException e) {
+                log.error("Cannot retrieve rpc {}", id, e);
+                pending.remove(id);
+                return;
+            }
+            if( status == null || status.getStatus() != Rpc.Status.QUEUE ) {
+                log.debug("RPC {} is no longer queued", id);
+                pending.remove(id);
+                return;
+            }
+            String name = status.getName();
+            if( !acquire(name, id) ) {
+                log.debug("Deferred RPC {} {} until another finishes", name, id);
+                return;
+            }
+            boolean claimed = false;
+            boolean completed = false;
+            try {
+                // only one node can change the status from QUEUE to PROGRESS
+                claimed = repository.claim(id, owner);
+                if( claimed ) {
+                    running.add(id);
+                    RpcPriv rpc = repository.retrieveInput(locator);
+                    if( rpc == null ) {
+                        log.error("Cannot retrieve rpc input.");
+                    }
+                    else {
+                        invoker.invoke(rpc);
+                        completed = true;
+                        completedCount.incrementAndGet();
+                    }
+                }
+                else {
+                    log.debug("RPC {} was claimed by another node", id);
+                }
+            }
+            catch(RuntimeException e) {
+                log.error("Error while executing RPC {} {}", name, id, e);
+            }
+            finally {
+                if( claimed && !completed ) {
+                    fail(id);
+                }
+                running.remove(id);
+                pending.remove(id);
+                UUID next = release(name);
+                if( next != null ) {
+                    dispatch(next);
+                }
+            }
+        }
+    }
+
+    /**
+     * Changes a claimed RPC that did not complete to ERROR so it does not
+     * stay in PROGRESS. Does nothing if the invoker already stored a
+     * result.
+     * 
+     * @param id
+     */
+    private void fail(UUID id) {
+        try {
+            if( repository.fail(id) ) {
+                log.debug("RPC {} changed to ERROR", id);
+            }
+        }
+        catch(RuntimeException e) {
+            log.error("Cannot change RPC {} to ERROR; it will be changed when its claim expires", id, e);
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "RpcExecutor-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -6,19 +6,14 @@ package com.intel.mtwilson.v2.rpc;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.intel.dcsg.cpg.io.UUID;
-import com.intel.mtwilson.rpc.v2.model.RpcLocator;
 import com.intel.mtwilson.rpc.v2.resource.RpcAdapter;
 import com.intel.mtwilson.rpc.v2.resource.RpcRepository;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import com.intel.dcsg.cpg.validation.Fault;
 import com.intel.mtwilson.launcher.ext.annotations.Background;
 import com.intel.mtwilson.rpc.v2.model.Rpc;
 import com.intel.mtwilson.rpc.v2.model.RpcPriv;
-import com.intel.mtwilson.rpc.v2.model.RpcCollection;
-import com.intel.mtwilson.rpc.v2.model.RpcFilterCriteria;
 import com.thoughtworks.xstream.XStream;
 import java.nio.charset.Charset;
-import java.util.List;
 /**
  *
  * @author jbuhacoff
@@ -31,47 +26,45 @@ public class RpcInvoker implements Runnable {
 //    public static RpcInvoker getInstance() { return instance; }
     
     private RpcRepository repository = new RpcRepository();
-    private ConcurrentLinkedQueue<UUID> queue = new ConcurrentLinkedQueue<>(); // of rpc request uuid's to run
     private ObjectMapper mapper = new ObjectMapper(); 
     
 //    public void setRepository(RpcRepository repository) { this.repository = repository; }
     
-    public void add(UUID id) { queue.offer(id); }
-    public void remove(UUID id) { queue.remove(id); }
+    /**
+     * Submits the RPC to the shared RpcExecutor.
+     * @param id 
+     */
+    public void add(UUID id) { RpcExecutor.getInstance().submit(id); }
     
-    // gets next uuid from queue and invokes it 
-    // if you want continous processing of queue, use start() and stop() 
-    // instead.
+    /**
+     * RPCs are removed from the executor when they complete; a queued
+     * RPC that has not started yet can be removed by deleting it from
+     * the repository.
+     * @param id 
+     */
+    public void remove(UUID id) { }
+    
+    /**
+     * Called periodically by the background task runner. The RpcExecutor
+     * receives new RPCs directly from AsyncRpc; this periodic check only
+     * picks up RPCs that were queued by another node or before a restart.
+     * 
+     * Individual RPCs are executed by the worker threads of the
+     * RpcExecutor, which call invoke(RpcPriv).
+     */
     @Override
     public void run() {
-        UUID id = queue.poll();
-        if( id == null ) {
-            // the queue doesn't have any requests - check the database, add any QUEUE'd tasks to the queue 
-            RpcFilterCriteria criteria = new RpcFilterCriteria();
-            criteria.status = Rpc.Status.QUEUE;
-            RpcCollection results = repository.search(criteria); // the result is "Rpc" class but it will not have inputs or outputs set because the "search" method does not retrieve those from database -- which is fine, we onlyw ant the id's anyway
-            List<Rpc> items = results.getDocuments();
-            log.debug("Found {} tasks marked QUEUE in database", items.size());
-            for(Rpc item : items) {
-                queue.offer(item.getId());
-            }
-            id = queue.poll();
-            if( id == null ) {
-                log.debug("No tasks in queue and no saved QUEUE tasks in database");
-                return;
-            }
-        }
-        
-        
-        RpcLocator locator = new RpcLocator();
-        locator.id = id;
-        RpcPriv rpc = repository.retrieveInput(locator); // retrieve(locator) would only return the status info ;  so we have an additional retrieveInput method to also return the input
-        
-        if (rpc == null) {
-            log.error("Cannot retrieve rpc input.");
-            return;
-        }
-        
+        RpcExecutor.getInstance().scan();
+    }
+    
+    /**
+     * Executes the RPC and stores its output or faults in the repository.
+     * The caller must have already claimed the RPC so that no other
+     * thread or node executes it.
+     * 
+     * @param rpc with input
+     */
+    public void invoke(RpcPriv rpc) {
         // make sure we have an extension to handle this rpc
         RpcAdapter adapter = RpcUtil.findRpcForName(rpc.getName());
         if( adapter == null ) {
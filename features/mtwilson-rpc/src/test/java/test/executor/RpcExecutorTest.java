@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package test.executor;
+
+import com.intel.dcsg.cpg.configuration.PropertiesConfiguration;
+import com.intel.dcsg.cpg.io.UUID;
+import com.intel.mtwilson.rpc.v2.model.Rpc;
+import com.intel.mtwilson.rpc.v2.model.RpcCollection;
+import com.intel.mtwilson.rpc.v2.model.RpcFilterCriteria;
+import com.intel.mtwilson.rpc.v2.model.RpcLocator;
+import com.intel.mtwilson.rpc.v2.model.RpcPriv;
+import com.intel.mtwilson.rpc.v2.resource.RpcRepository;
+import com.intel.mtwilson.v2.rpc.RpcExecutor;
+import com.intel.mtwilson.v2.rpc.RpcInvoker;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * Uses an in-memory repository in place of the database.
+ *
+ * @author jbuhacoff
+ */
+public class RpcExecutorTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(RpcExecutorTest.class);
+
+    public static class MemoryRpcRepository extends RpcRepository {
+        private final ConcurrentHashMap<UUID, RpcPriv> rows = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<UUID, String> claimedBy = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<UUID, Long> claimedOn = new ConcurrentHashMap<>();
+        private final AtomicInteger expired = new AtomicInteger(0);
+
+        public UUID add(String name) {
+            RpcPriv rpc = new RpcPriv();
+            rpc.setId(new UUID());
+            rpc.setName(name);
+            rpc.setStatus(Rpc.Status.QUEUE);
+            rows.put(rpc.getId(), rpc);
+            return rpc.getId();
+        }
+
+        public Rpc.Status getStatus(UUID id) {
+            return rows.get(id).getStatus();
+        }
+
+        @Override
+        public RpcCollection search(RpcFilterCriteria criteria) {
+            RpcCollection results = new RpcCollection();
+            for (RpcPriv rpc : rows.values()) {
+                if (rpc.getStatus() == criteria.status) {
+                    results.getDocuments().add(retrieve(rpc.getId()));
+                }
+            }
+            return results;
+        }
+
+        private Rpc retrieve(UUID id) {
+            RpcPriv row = rows.get(id);
+            if (row == null) {
+                return null;
+            }
+            Rpc rpc = new Rpc();
+            rpc.copyFrom(row);
+            return rpc;
+        }
+
+        @Override
+        public Rpc retrieve(RpcLocator locator) {
+            return retrieve(locator.id);
+        }
+
+        @Override
+        public RpcPriv retrieveInput(RpcLocator locator) {
+            return rows.get(locator.id);
+        }
+
+        @Override
+        public synchronized boolean claim(UUID id, String owner) {
+            RpcPriv rpc = rows.get(id);
+            if (rpc.getStatus() != Rpc.Status.QUEUE) {
+                return false;
+            }
+            rpc.setStatus(Rpc.Status.PROGRESS);
+            claimedBy.put(id, owner);
+            claimedOn.put(id, System.currentTimeMillis());
+            return true;
+        }
+
+        @Override
+        public synchronized boolean renewClaim(UUID id, String owner) {
+            RpcPriv rpc = rows.get(id);
+            if (rpc.getStatus() != Rpc.Status.PROGRESS || !owner.equals(claimedBy.get(id))) {
+                return false;
+            }
+            claimedOn.put(id, System.currentTimeMillis());
+            return true;
+        }
+
+        @Override
+        public synchronized boolean fail(UUID id) {
+            RpcPriv rpc = rows.get(id);
+            if (rpc.getStatus() != Rpc.Status.PROGRESS) {
+                return false;
+            }
+            rpc.setStatus(Rpc.Status.ERROR);
+            return true;
+        }
+
+        @Override
+        public synchronized int failExpiredClaims(long claimedBefore) {
+            int count = 0;
+            for (RpcPriv rpc : rows.values()) {
+                Long time = claimedOn.get(rpc.getId());
+                if (rpc.getStatus() == Rpc.Status.PROGRESS && time != null && time < claimedBefore) {
+                    rpc.setStatus(Rpc.Status.ERROR);
+                    expired.incrementAndGet();
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Records how many RPCs run at the same time.
+     */
+    public static class SleepingRpcInvoker extends RpcInvoker {
+        private final long sleep;
+        private final AtomicInteger invoked = new AtomicInteger(0);
+        private final AtomicInteger running = new AtomicInteger(0);
+        private final AtomicInteger maxRunning = new AtomicInteger(0);
+
+        public SleepingRpcInvoker() {
+            this(20);
+        }
+
+        public SleepingRpcInvoker(long sleep) {
+            this.sleep = sleep;
+        }
+
+        @Override
+        public void invoke(RpcPriv rpc) {
+            int current = running.incrementAndGet();
+            int max = maxRunning.get();
+            while (current > max && !maxRunning.compareAndSet(max, current)) {
+                max = maxRunning.get();
+            }
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            rpc.setStatus(Rpc.Status.OUTPUT);
+            running.decrementAndGet();
+            invoked.incrementAndGet();
+        }
+    }
+
+    private void waitForCompletion(RpcExecutor executor, int count) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 10000;
+        while (executor.getCompletedCount() < count && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testScanExecutesEachQueuedRpcOnce() throws Exception {
+        MemoryRpcRepository repository = new MemoryRpcRepository();
+        for (int i = 0; i < 20; i++) {
+            repository.add("test");
+        }
+        SleepingRpcInvoker invoker = new SleepingRpcInvoker();
+        PropertiesConfiguration configuration = new PropertiesConfiguration();
+        configuration.set("mtwilson.rpc.workers", "4");
+        configuration.set("mtwilson.rpc.scan.interval", "0");
+        RpcExecutor executor = new RpcExecutor(repository, invoker, configuration);
+        executor.scan();
+        executor.scan(); // submitting pending rpcs again has no effect
+        waitForCompletion(executor, 20);
+        log.debug("Invoked {} max running {}", invoker.invoked.get(), invoker.maxRunning.get());
+        assert invoker.invoked.get() == 20;
+        assert invoker.maxRunning.get() <= 4;
+        assert repository.search(criteria(Rpc.Status.QUEUE)).getDocuments().isEmpty();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testMaxConcurrentPerName() throws Exception {
+        MemoryRpcRepository repository = new MemoryRpcRepository();
+        for (int i = 0; i < 8; i++) {
+            repository.add("serial");
+        }
+        SleepingRpcInvoker invoker = new SleepingRpcInvoker();
+        PropertiesConfiguration configuration = new PropertiesConfiguration();
+        configuration.set("mtwilson.rpc.workers", "4");
+        configuration.set("mtwilson.rpc.scan.interval", "0");
+        configuration.set("mtwilson.rpc.max.concurrent.serial", "1");
+        RpcExecutor executor = new RpcExecutor(repository, invoker, configuration);
+        executor.scan();
+        waitForCompletion(executor, 8);
+        log.debug("Invoked {} max running {} deferred {}", invoker.invoked.get(), invoker.maxRunning.get(), executor.getDeferredCount());
+        assert invoker.invoked.get() == 8;
+        assert invoker.maxRunning.get() == 1;
+        assert executor.getPendingCount() == 0;
+        executor.shutdown();
+    }
+
+    /**
+     * Two executors sharing a repository, like two nodes sharing a
+     * database, execute each RPC only once.
+     */
+    @Test
+    public void testClaimAcrossExecutors() throws Exception {
+        MemoryRpcRepository repository = new MemoryRpcRepository();
+        for (int i = 0; i < 20; i++) {
+            repository.add("test");
+        }
+        SleepingRpcInvoker invoker = new SleepingRpcInvoker();
+        PropertiesConfiguration configuration = new PropertiesConfiguration();
+        configuration.set("mtwilson.rpc.scan.interval", "0");
+        RpcExecutor node1 = new RpcExecutor(repository, invoker, configuration);
+        RpcExecutor node2 = new RpcExecutor(repository, invoker, configuration);
+        node1.scan();
+        node2.scan();
+        long timeout = System.currentTimeMillis() + 10000;
+        while (invoker.invoked.get() < 20 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        node1.shutdown();
+        node2.shutdown();
+        log.debug("Invoked {} node1 {} node2 {}", invoker.invoked.get(), node1.getCompletedCount(), node2.getCompletedCount());
+        assert invoker.invoked.get() == 20;
+        assert node1.getCompletedCount() + node2.getCompletedCount() == 20;
+    }
+
+    @Test
+    public void testShutdownLeavesQueuedRpcs() throws Exception {
+        MemoryRpcRepository repository = new MemoryRpcRepository();
+        for (int i = 0; i < 20; i++) {
+            repository.add("test");
+        }
+        SleepingRpcInvoker invoker = new SleepingRpcInvoker();
+        PropertiesConfiguration configuration = new PropertiesConfiguration();
+        configuration.set("mtwilson.rpc.workers", "1");
+        configuration.set("mtwilson.rpc.scan.interval", "0");
+        RpcExecutor executor = new RpcExecutor(repository, invoker, configuration);
+        executor.scan();
+        Thread.sleep(30);
+        executor.shutdown();
+        int queued = repository.search(criteria(Rpc.Status.QUEUE)).getDocuments().size();
+        log.debug("Invoked {} still queued {}", invoker.invoked.get(), queued);
+        assert invoker.invoked.get() > 0;
+        assert invoker.invoked.get() + queued == 20;
+        assert repository.search(criteria(Rpc.Status.PROGRESS)).getDocuments().isEmpty();
+    }
+
+    /**
+     * An RPC claimed by a node that stopped is changed to ERROR when its
+     * claim expires.
+     */
+    @Test
+    public void testExpiredClaimIsFailed() throws Exception {
+        MemoryRpcRepository repository = new MemoryRpcRepository();
+        UUID id = repository.add("test");
+        assert repository.claim(id, "stopped-node");
+        repository.claimedOn.put(id, System.currentTimeMillis() - 2000);
+        PropertiesConfiguration configuration = new PropertiesConfiguration();
+        configuration.set("mtwilson.rpc.scan.interval", "0");
+        configuration.set("mtwilson.rpc.lease", "1000");
+        RpcExecutor executor = new RpcExecutor(repository, new SleepingRpcInvoker(), configuration);
+        executor.scan();
+        executor.shutdown();
+        assert repository.expired.get() == 1;
+        assert repository.getStatus(id) == Rpc.Status.ERROR;
+    }
+
+    /**
+     * A running RPC that takes longer than the lease keeps its claim
+     * because each scan renews it.
+     */
+    @Test
+    public void testRunningClaimIsRenewed() throws Exception {
+        MemoryRpcRepository repository = new MemoryRpcRepository();
+        UUID id = repository.add("test");
+        SleepingRpcInvoker invoker = new SleepingRpcInvoker(500);
+        PropertiesConfiguration configuration = new PropertiesConfiguration();
+        configuration.set("mtwilson.rpc.scan.interval", "0");
+        configuration.set("mtwilson.rpc.lease", "200");
+        RpcExecutor executor = new RpcExecutor(repository, invoker, configuration);
+        executor.scan();
+        long timeout = System.currentTimeMillis() + 10000;
+        while (executor.getCompletedCount() < 1 && System.currentTimeMillis() < timeout) {
+            executor.scan();
+            Thread.sleep(50);
+        }
+        executor.shutdown();
+        assert executor.getOwner().equals(repository.claimedBy.get(id));
+        assert repository.expired.get() == 0;
+        assert repository.getStatus(id) == Rpc.Status.OUTPUT;
+    }
+
+    /**
+     * An RPC that throws after it was claimed is changed to ERROR instead
+     * of staying in PROGRESS.
+     */
+    @Test
+    public void testFailedRpcIsError() throws Exception {
+        MemoryRpcRepository repository = new MemoryRpcRepository();
+        UUID id = repository.add("test");
+        RpcInvoker invoker = new RpcInvoker() {
+            @Override
+            public void invoke(RpcPriv rpc) {
+                throw new IllegalStateException("cannot store output");
+            }
+        };
+        PropertiesConfiguration configuration = new PropertiesConfiguration();
+        configuration.set("mtwilson.rpc.scan.interval", "0");
+        RpcExecutor executor = new RpcExecutor(repository, invoker, configuration);
+        executor.scan();
+        long timeout = System.currentTimeMillis() + 10000;
+        while ((executor.getPendingCount() > 0 || repository.getStatus(id) != Rpc.Status.ERROR) && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        executor.shutdown();
+        assert repository.getStatus(id) == Rpc.Status.ERROR;
+    }
+
+    private RpcFilterCriteria criteria(Rpc.Status status) {
+        RpcFilterCriteria criteria = new RpcFilterCriteria();
+        criteria.status = status;
+        return criteria;
+    }
+}
@@ -10,11 +10,9 @@ import com.intel.mtwilson.shiro.UsernameWithPermissions;
 import com.intel.mtwilson.crypto.password.HashedPassword;
 import com.intel.mtwilson.shiro.authc.password.PasswordAuthenticationInfo;
 import com.intel.mtwilson.shiro.file.model.UserPassword;
-import com.intel.mtwilson.shiro.file.model.UserPermission;
 import java.io.File;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.List;
 import org.apache.shiro.authc.AccountException;
 import org.apache.shiro.authc.AuthenticationException;
 import org.apache.shiro.authc.AuthenticationInfo;
@@ -37,6 +35,7 @@ public class FilePasswordRealm extends AuthorizingRealm {
     
     private String userFilePath;
     private String permissionFilePath;
+    private LoginSnapshotStore store;
 
     public FilePasswordRealm() {
         userFilePath = Folders.configuration() + File.separator + "users.txt";
@@ -47,10 +46,27 @@ public class FilePasswordRealm extends AuthorizingRealm {
 
     public void setUserFilePath(String userFilePath) {
         this.userFilePath = userFilePath;
+        this.store = null;
     }
 
     public void setPermissionFilePath(String permissionFilePath) {
         this.permissionFilePath = permissionFilePath;
+        this.store = null;
+    }
+    
+    /**
+     * The store is shared by all realms configured with the same files,
+     * and reloads its snapshot when the files change.
+     * 
+     * @return 
+     */
+    protected LoginSnapshotStore getStore() {
+        LoginSnapshotStore current = store;
+        if( current == null ) {
+            current = LoginSnapshotStore.getInstance(new File(userFilePath), new File(permissionFilePath));
+            store = current;
+        }
+        return current;
     }
     
     
@@ -70,14 +86,11 @@ public class FilePasswordRealm extends AuthorizingRealm {
             log.debug("doGetAuthorizationInfo for realm: {}", realmName);
         }
         try {
-            LoginDAO dao = new LoginDAO(new File(userFilePath), new File(permissionFilePath));
+            LoginSnapshotStore.Snapshot snapshot = getStore().getSnapshot();
             Collection<Username> usernames = pc.byType(Username.class);
             for(Username username : usernames) {
                 log.debug("doGetAuthorizationInfo for username: {}", username.getUsername());
-                List<UserPermission> permissions = dao.getPermissions(username.getUsername());
-                for(UserPermission permission : permissions) {
-                    authzInfo.addStringPermission(permission.toString());
-                }
+                authzInfo.addObjectPermissions(snapshot.getPermissions(username.getUsername()));
             }
         } catch (Exception e) {
             log.debug("doGetAuthorizationInfo error", e);
@@ -99,16 +112,12 @@ public class FilePasswordRealm extends AuthorizingRealm {
         UsernameWithPermissions usernameWithPermissions;
         UserPassword userLoginPassword;
         try {
-            LoginDAO dao = new LoginDAO(new File(userFilePath), new File(permissionFilePath));
-            userLoginPassword = dao.findUserByName(username);
+            LoginSnapshotStore.Snapshot snapshot = getStore().getSnapshot();
+            userLoginPassword = snapshot.findUserByName(username);
             if (userLoginPassword == null) {
                 return null;
             }
-            List<UserPermission> userPermissions = dao.getPermissions(username);
-            HashSet<String> stringPermissions = new HashSet<>();
-            for(UserPermission p : userPermissions) {
-                stringPermissions.add(p.toString());
-            }
+            HashSet<String> stringPermissions = new HashSet<>(snapshot.getStringPermissions(username));
             usernameWithPermissions = new UsernameWithPermissions(userLoginPassword.getUsername(), stringPermissions);
             
         } catch (Exception e) {
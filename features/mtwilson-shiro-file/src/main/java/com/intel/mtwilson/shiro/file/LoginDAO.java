@@ -86,6 +86,16 @@ public class LoginDAO  {
         return list;
     }
     
+    /**
+     * 
+     * @return usernames that have permissions, including usernames that are not in the users file
+     */
+    public List<String> listPermissionUsernames() {
+        ArrayList<String> list = new ArrayList<>();
+        list.addAll(permissions.keySet());
+        return list;
+    }
+    
     public void deleteUserByName(String username) throws IOException {
         if( !users.containsKey(username)) {
             throw new IllegalArgumentException("User does not exist");
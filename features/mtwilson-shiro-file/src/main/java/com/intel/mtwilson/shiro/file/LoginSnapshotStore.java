@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.shiro.file;
+
+import com.intel.mtwilson.shiro.file.model.UserPassword;
+import com.intel.mtwilson.shiro.file.model.UserPermission;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.shiro.authz.Permission;
+import org.apache.shiro.authz.permission.WildcardPermission;
+
+/**
+ * Keeps an immutable in-memory snapshot of the users and permissions files
+ * so that authentication and authorization do not re-read and re-parse both
+ * files on every call.
+ *
+ * The snapshot is loaded with LoginDAO and replaced atomically when the
+ * last-modified time or length of either file changes. Files are checked
+ * at most once per check interval, and only one thread performs the check
+ * while the others continue to use the current snapshot.
+ *
+ * Use getInstance() to share one store per pair of files across realms.
+ *
+ * @author jbuhacoff
+ */
+public class LoginSnapshotStore {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(LoginSnapshotStore.class);
+    public static final long DEFAULT_CHECK_INTERVAL_MILLIS = 1000;
+    private static final ConcurrentHashMap<String, LoginSnapshotStore> stores = new ConcurrentHashMap<>();
+
+    private final File userFile;
+    private final File permissionFile;
+    private final long checkIntervalMillis;
+    private final AtomicBoolean checking = new AtomicBoolean(false);
+    private volatile Snapshot snapshot = null;
+    private volatile long nextCheckTime = 0;
+
+    public LoginSnapshotStore(File userFile, File permissionFile) {
+        this(userFile, permissionFile, DEFAULT_CHECK_INTERVAL_MILLIS);
+    }
+
+    /**
+     *
+     * @param userFile
+     * @param permissionFile
+     * @param checkIntervalMillis minimum time between file modification checks; zero means check on every call
+     */
+    public LoginSnapshotStore(File userFile, File permissionFile, long checkIntervalMillis) {
+        this.userFile = userFile;
+        this.permissionFile = permissionFile;
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    /**
+     *
+     * @param userFile
+     * @param permissionFile
+     * @return a shared store for the given pair of files
+     */
+    public static LoginSnapshotStore getInstance(File userFile, File permissionFile) {
+        String key = userFile.getAbsolutePath() + File.pathSeparator + permissionFile.getAbsolutePath();
+        LoginSnapshotStore store = stores.get(key);
+        if( store == null ) {
+            LoginSnapshotStore created = new LoginSnapshotStore(userFile, permissionFile);
+            store = stores.putIfAbsent(key, created);
+            if( store == null ) {
+                store = created;
+            }
+        }
+        return store;
+    }
+
+    public File getUserFile() {
+        return userFile;
+    }
+
+    public File getPermissionFile() {
+        return permissionFile;
+    }
+
+    /**
+     * Returns the current snapshot, reloading it first if the files
+     * changed since it was loaded.
+     *
+     * @return the current snapshot, never null
+     * @throws IOException if the files cannot be read and there is no previous snapshot
+     */
+    public Snapshot getSnapshot() throws IOException {
+        Snapshot current = snapshot;
+        if( current == null ) {
+            synchronized(this) {
+                if( snapshot == null ) {
+                    snapshot = load();
+                    nextCheckTime = System.currentTimeMillis() + checkIntervalMillis;
+                }
+                return snapshot;
+            }
+        }
+        if( System.currentTimeMillis() < nextCheckTime ) {
+            return current;
+        }
+        // only one thread checks the files; the others use the current snapshot
+        if( !checking.compareAndSet(false, true) ) {
+            return current;
+        }
+        try {
+            if( current.isModified(userFile, permissionFile) ) {
+                log.debug("Reloading users from {} and permissions from {}", userFile.getAbsolutePath(), permissionFile.getAbsolutePath());
+                try {
+                    Snapshot reloaded = load();
+                    synchronized(this) {
+                        snapshot = reloaded;
+                    }
+                    current = reloaded;
+                }
+                catch(IOException | RuntimeException e) {
+                    // keep using the previous snapshot, for example if the file is in the middle of being written
+                    log.error("Cannot reload users and permissions, using previous snapshot: {}", e.getMessage());
+                }
+            }
+            nextCheckTime = System.currentTimeMillis() + checkIntervalMillis;
+        }
+        finally {
+            checking.set(false);
+        }
+        return current;
+    }
+
+    /**
+     * Discards the current snapshot so the next call to getSnapshot()
+     * reloads the files. Callers that modify the files with LoginDAO
+     * in the same process should call this after saving.
+     */
+    public synchronized void invalidate() {
+        snapshot = null;
+    }
+
+    private Snapshot load() throws IOException {
+        // capture the file stamps before reading so that a concurrent write is detected on the next check
+        FileStamp userStamp = new FileStamp(userFile);
+        FileStamp permissionStamp = new FileStamp(permissionFile);
+        LoginDAO dao = new LoginDAO(userFile, permissionFile);
+        HashMap<String, UserPassword> users = new HashMap<>();
+        HashMap<String, Set<String>> stringPermissions = new HashMap<>();
+        HashMap<String, Collection<Permission>> objectPermissions = new HashMap<>();
+        for(String username : dao.listUsernames()) {
+            users.put(username, dao.findUserByName(username));
+        }
+        // the permissions file may have entries for users that are not in the users file, for example users authenticated by another realm
+        for(String username : dao.listPermissionUsernames()) {
+            List<UserPermission> userPermissions = dao.getPermissions(username);
+            HashSet<String> stringSet = new HashSet<>();
+            ArrayList<Permission> objectList = new ArrayList<>();
+            for(UserPermission permission : userPermissions) {
+                String text = permission.toString();
+                if( stringSet.add(text) ) {
+                    objectList.add(new WildcardPermission(text));
+                }
+            }
+            stringPermissions.put(username, Collections.unmodifiableSet(stringSet));
+            objectPermissions.put(username, Collections.unmodifiableList(objectList));
+        }
+        log.debug("Loaded {} users and permissions for {} users", users.size(), stringPermissions.size());
+        return new Snapshot(userStamp, permissionStamp, users, stringPermissions, objectPermissions);
+    }
+
+    /**
+     * Last-modified time and length of a file at the time it was read;
+     * the length catches rewrites within the file system's timestamp resolution.
+     */
+    private static class FileStamp {
+        private final long lastModified;
+        private final long length;
+
+        public FileStamp(File file) {
+            this.lastModified = file.lastModified(); // 0 if file does not exist
+            this.length = file.length(); // 0 if file does not exist
+        }
+
+        public boolean matches(File file) {
+            return file.lastModified() == lastModified && file.length() == length;
+        }
+    }
+
+    /**
+     * An immutable view of the users and permissions files. Permissions are
+     * pre-compiled into WildcardPermission instances.
+     */
+    public static class Snapshot {
+        private final FileStamp userStamp;
+        private final FileStamp permissionStamp;
+        private final Map<String, UserPassword> users;
+        private final Map<String, Set<String>> stringPermissions;
+        private final Map<String, Collection<Permission>> objectPermissions;
+
+        private Snapshot(FileStamp userStamp, FileStamp permissionStamp, Map<String, UserPassword> users, Map<String, Set<String>> stringPermissions, Map<String, Collection<Permission>> objectPermissions) {
+            this.userStamp = userStamp;
+            this.permissionStamp = permissionStamp;
+            this.users = Collections.unmodifiableMap(users);
+            this.stringPermissions = Collections.unmodifiableMap(stringPermissions);
+            this.objectPermissions = Collections.unmodifiableMap(objectPermissions);
+        }
+
+        private boolean isModified(File userFile, File permissionFile) {
+            return !userStamp.matches(userFile) || !permissionStamp.matches(permissionFile);
+        }
+
+        /**
+         *
+         * @param username
+         * @return the user or null if not found
+         */
+        public UserPassword findUserByName(String username) {
+            return users.get(username);
+        }
+
+        /**
+         *
+         * @param username
+         * @return an unmodifiable set of permission strings, or an empty set if the user has no permissions
+         */
+        public Set<String> getStringPermissions(String username) {
+            Set<String> set = stringPermissions.get(username);
+            if( set == null ) {
+                return Collections.emptySet();
+            }
+            return set;
+        }
+
+        /**
+         *
+         * @param username
+         * @return an unmodifiable collection of compiled permissions, or an empty collection if the user has no permissions
+         */
+        public Collection<Permission> getPermissions(String username) {
+            Collection<Permission> list = objectPermissions.get(username);
+            if( list == null ) {
+                return Collections.emptyList();
+            }
+            return list;
+        }
+
+        public Set<String> getUsernames() {
+            return users.keySet();
+        }
+    }
+}
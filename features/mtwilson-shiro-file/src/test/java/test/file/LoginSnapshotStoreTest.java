@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package test.file;
+
+import com.intel.dcsg.cpg.crypto.RandomUtil;
+import com.intel.mtwilson.shiro.file.LoginDAO;
+import com.intel.mtwilson.shiro.file.LoginSnapshotStore;
+import com.intel.mtwilson.shiro.file.model.UserPassword;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.shiro.authz.Permission;
+import org.apache.shiro.authz.permission.WildcardPermission;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class LoginSnapshotStoreTest {
+    private static Logger log = LoggerFactory.getLogger(LoginSnapshotStoreTest.class);
+    private static final int USERS = 100;
+    private static final int LOOKUPS = 10000;
+    private File userFile;
+    private File permissionFile;
+    private List<String> usernames;
+
+    @Before
+    public void createFiles() throws IOException {
+        userFile = new File("target/snapshot-users.txt");
+        permissionFile = new File("target/snapshot-permissions.txt");
+        userFile.delete();
+        permissionFile.delete();
+        LoginDAO dao = new LoginDAO(userFile, permissionFile);
+        usernames = new ArrayList<>();
+        for(int i=0; i<USERS; i++) {
+            String username = "user" + i;
+            dao.createUser(createUserPassword(username));
+            dao.addPermission(username, "hosts:search");
+            dao.addPermission(username, "tpm:quote:*");
+            usernames.add(username);
+        }
+    }
+
+    private UserPassword createUserPassword(String username) {
+        UserPassword userLoginPassword = new UserPassword();
+        userLoginPassword.setUsername(username);
+        userLoginPassword.setAlgorithm("SHA256");
+        userLoginPassword.setIterations(1);
+        userLoginPassword.setSalt(RandomUtil.randomByteArray(8));
+        userLoginPassword.setPasswordHash(RandomUtil.randomByteArray(32));
+        return userLoginPassword;
+    }
+
+    @Test
+    public void testSnapshotLookup() throws IOException {
+        LoginSnapshotStore store = new LoginSnapshotStore(userFile, permissionFile);
+        LoginSnapshotStore.Snapshot snapshot = store.getSnapshot();
+        assert snapshot.getUsernames().size() == USERS;
+        assert snapshot.findUserByName("user1") != null;
+        assert snapshot.findUserByName("nobody") == null;
+        assert snapshot.getStringPermissions("user1").contains("tpm:quote:*");
+        assert snapshot.getPermissions("user1").size() == 2;
+        assert snapshot.getPermissions("nobody").isEmpty();
+        assert store.getSnapshot() == snapshot; // not reloaded when files are unchanged
+    }
+
+    @Test
+    public void testPermissionsWithoutUser() throws IOException {
+        LoginDAO dao = new LoginDAO(userFile, permissionFile);
+        dao.addPermission("external", "hosts:search");
+        LoginSnapshotStore store = new LoginSnapshotStore(userFile, permissionFile);
+        LoginSnapshotStore.Snapshot snapshot = store.getSnapshot();
+        assert snapshot.findUserByName("external") == null;
+        assert snapshot.getStringPermissions("external").contains("hosts:search");
+        assert snapshot.getPermissions("external").size() == 1;
+    }
+
+    @Test
+    public void testReloadWhenFileChanges() throws IOException {
+        LoginSnapshotStore store = new LoginSnapshotStore(userFile, permissionFile, 0);
+        LoginSnapshotStore.Snapshot before = store.getSnapshot();
+        assert before.findUserByName("newuser") == null;
+        LoginDAO dao = new LoginDAO(userFile, permissionFile);
+        dao.createUser(createUserPassword("newuser"));
+        dao.addPermission("newuser", "users:*");
+        // make sure the change is visible even on file systems with coarse timestamp resolution
+        userFile.setLastModified(userFile.lastModified() + 2000);
+        permissionFile.setLastModified(permissionFile.lastModified() + 2000);
+        LoginSnapshotStore.Snapshot after = store.getSnapshot();
+        assert after != before;
+        assert after.findUserByName("newuser") != null;
+        boolean implied = false;
+        for(Permission permission : after.getPermissions("newuser")) {
+            implied = implied || permission.implies(new WildcardPermission("users:create"));
+        }
+        assert implied;
+        assert before.findUserByName("newuser") == null; // the previous snapshot is immutable
+    }
+
+    /**
+     * Compares the previous behavior of loading the files on every call
+     * with the snapshot store.
+     */
+    @Test
+    public void testLookupThroughput() throws IOException {
+        long start = System.currentTimeMillis();
+        for(int i=0; i<LOOKUPS; i++) {
+            String username = usernames.get(i % USERS);
+            LoginDAO dao = new LoginDAO(userFile, permissionFile);
+            assert dao.findUserByName(username) != null;
+            assert !dao.getPermissions(username).isEmpty();
+        }
+        long reloadElapsed = System.currentTimeMillis() - start;
+        LoginSnapshotStore store = new LoginSnapshotStore(userFile, permissionFile);
+        start = System.currentTimeMillis();
+        for(int i=0; i<LOOKUPS; i++) {
+            String username = usernames.get(i % USERS);
+            LoginSnapshotStore.Snapshot snapshot = store.getSnapshot();
+            assert snapshot.findUserByName(username) != null;
+            assert !snapshot.getPermissions(username).isEmpty();
+        }
+        long snapshotElapsed = System.currentTimeMillis() - start;
+        log.debug("Reload per call: {} lookups in {} ms", LOOKUPS, reloadElapsed);
+        log.debug("Snapshot store: {} lookups in {} ms", LOOKUPS, snapshotElapsed);
+    }
+}
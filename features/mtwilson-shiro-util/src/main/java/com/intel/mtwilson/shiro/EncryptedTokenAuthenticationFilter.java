@@ -12,7 +12,6 @@ import com.intel.dcsg.cpg.authz.token.TokenFactory;
 import com.intel.dcsg.cpg.authz.token.TokenValidator;
 import com.intel.dcsg.cpg.authz.token.UnsupportedTokenVersionException;
 import com.intel.dcsg.cpg.crypto.key.KeyNotFoundException;
-import com.thoughtworks.xstream.XStream;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
@@ -33,6 +32,7 @@ public class EncryptedTokenAuthenticationFilter extends AuthenticatingFilter {
     
     private TokenFactory tokenFactory = null;
     private TokenValidator tokenValidator = null;
+    private EncryptedTokenContentCodec codec = EncryptedTokenContentCodec.getInstance();
 
     public void setTokenFactory(TokenFactory tokenFactory) {
         this.tokenFactory = tokenFactory;
@@ -88,26 +88,23 @@ public class EncryptedTokenAuthenticationFilter extends AuthenticatingFilter {
             log.debug("processRequestToken: Token expires soon, sending replacement token");
             // replace it and allow request to continue
 
-            XStream xs = new XStream();
-            EncryptedTokenContent existingToken = (EncryptedTokenContent)xs.fromXML(new String(validatedToken.getContent(), Charset.forName("UTF-8")));
+            EncryptedTokenContent existingToken = codec.decode(validatedToken.getContent());
 //                byte[] validatedToken.getContent();
                 // this block of code repeated in EncryptedTokenAuthenticationFilter
                 EncryptedTokenContent tokenContent = new EncryptedTokenContent();
                 tokenContent.loginPasswordId = existingToken.loginPasswordId;
                 tokenContent.userId = existingToken.userId;
                 tokenContent.username = existingToken.username;
-                String tokenContentXml = xs.toXML(tokenContent);
-                log.debug("tokenContent xml: {}", tokenContentXml);
+                log.debug("tokenContent username: {}", tokenContent.username);
                 
-                String refreshToken = tokenFactory.create(tokenContentXml);
+                String refreshToken = tokenFactory.create(codec.encode(tokenContent)); // replacement tokens are always issued in the current format
                 log.debug("processRequestToken: DEBUGGING ONLY    NEW TOKEN: {}", existingToken);
                 
                 httpResponse.addHeader("Authorization-Token", refreshToken);
                 return new EncryptedTokenAuthenticationToken(new Username(tokenContent.username), refreshToken, httpRequest.getRemoteHost());
         }
         else {
-            XStream xs = new XStream();
-            EncryptedTokenContent existingToken = (EncryptedTokenContent)xs.fromXML(new String(validatedToken.getContent(), Charset.forName("UTF-8")));
+            EncryptedTokenContent existingToken = codec.decode(validatedToken.getContent());
                 httpResponse.addHeader("Authorization-Token", encryptedToken);
                 return new EncryptedTokenAuthenticationToken(new Username(existingToken.username), httpRequest.getHeader("Authorization-Token"), httpRequest.getRemoteHost());
             
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.shiro;
+
+import com.thoughtworks.xstream.XStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Serializes EncryptedTokenContent to a compact binary format for use as
+ * the content of an encrypted login token.
+ *
+ * Format version 1 is the version byte 0x01 followed by userId, username,
+ * and loginPasswordId, each as a presence byte (0 for null, 1 otherwise)
+ * and, if present, the value in modified UTF-8 as written by
+ * DataOutputStream.writeUTF.
+ *
+ * Tokens issued before this format was introduced contain the XStream XML
+ * serialization of EncryptedTokenContent, which always starts with '&lt;'.
+ * The decoder still reads those so users who logged in before an upgrade
+ * do not need to log in again. The XStream instance for the old format is
+ * only created when such a token is seen, and is shared.
+ *
+ * Instances have no state and may be shared by multiple threads.
+ *
+ * @author jbuhacoff
+ */
+public class EncryptedTokenContentCodec {
+    public static final byte FORMAT_V1 = 1;
+    private static final byte LEGACY_XML = '<';
+    private static final EncryptedTokenContentCodec instance = new EncryptedTokenContentCodec();
+
+    public static EncryptedTokenContentCodec getInstance() {
+        return instance;
+    }
+
+    private static class LegacyXStreamHolder {
+        private static final XStream xstream = new XStream(); // XStream is thread-safe once configured
+    }
+
+    public byte[] encode(EncryptedTokenContent content) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(FORMAT_V1);
+            writeString(out, content.userId);
+            writeString(out, content.username);
+            writeString(out, content.loginPasswordId);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot encode token content", e); // not expected when writing to a byte array
+        }
+    }
+
+    /**
+     *
+     * @param encoded token content in format version 1 or the old XStream XML format
+     * @return the token content
+     * @throws IllegalArgumentException if the content is not in a supported format
+     */
+    public EncryptedTokenContent decode(byte[] encoded) {
+        if (encoded == null || encoded.length == 0) {
+            throw new IllegalArgumentException("Empty token content");
+        }
+        switch (encoded[0]) {
+            case FORMAT_V1:
+                return decodeV1(encoded);
+            case LEGACY_XML:
+                return decodeLegacyXml(encoded);
+            default:
+                throw new IllegalArgumentException("Unsupported token content format");
+        }
+    }
+
+    private EncryptedTokenContent decodeV1(byte[] encoded) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded, 1, encoded.length - 1));
+            EncryptedTokenContent content = new EncryptedTokenContent();
+            content.userId = readString(in);
+            content.username = readString(in);
+            content.loginPasswordId = readString(in);
+            return content;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid token content", e);
+        }
+    }
+
+    private EncryptedTokenContent decodeLegacyXml(byte[] encoded) {
+        Object object = LegacyXStreamHolder.xstream.fromXML(new String(encoded, Charset.forName("UTF-8")));
+        if (!(object instanceof EncryptedTokenContent)) {
+            throw new IllegalArgumentException("Invalid token content");
+        }
+        return (EncryptedTokenContent) object;
+    }
+
+    private void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeByte(0);
+        } else {
+            out.writeByte(1);
+            out.writeUTF(value);
+        }
+    }
+
+    private String readString(DataInputStream in) throws IOException {
+        byte present = in.readByte();
+        if (present == 0) {
+            return null;
+        }
+        return in.readUTF();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.shiro.authc.x509;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the signed requests that have already been accepted until they
+ * expire, so a captured request cannot be replayed while its Date header is
+ * still inside the X509AuthenticationFilter expiration window.
+ *
+ * Each entry is kept only until its own expiration time. Expired entries are
+ * removed at most once per sweep interval, or immediately when the cache is
+ * full. If the cache is still full after removing expired entries, the
+ * entries that expire soonest are evicted to make room, so a burst of
+ * requests does not lock out every client. Evicted requests could be
+ * replayed until they expire, so the maximum size should cover the
+ * expected request rate over the retention window.
+ *
+ * @author jbuhacoff
+ */
+public class NonceCache {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(NonceCache.class);
+    /**
+     * An entry is kept until the request Date plus the expiration window,
+     * and the Date may be up to one window in the future, so with the
+     * default 1 hour window an entry is kept for up to 2 hours.
+     */
+    public static final long DEFAULT_RETENTION_MILLIS = 2 * 60 * 60 * 1000;
+    public static final int DEFAULT_REQUESTS_PER_SECOND = 20;
+    public static final int DEFAULT_MAX_SIZE = (int) (DEFAULT_RETENTION_MILLIS / 1000 * DEFAULT_REQUESTS_PER_SECOND); // 144000
+    public static final long DEFAULT_SWEEP_INTERVAL = 60 * 1000;
+    private final ConcurrentHashMap<String, Long> entries = new ConcurrentHashMap<>(); // nonce -> expiration time in milliseconds
+    private final AtomicLong nextSweep = new AtomicLong(0);
+    private final AtomicBoolean evicting = new AtomicBoolean(false);
+    private final AtomicLong evicted = new AtomicLong(0);
+    private final int maxSize;
+    private final long sweepInterval;
+
+    public NonceCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_SWEEP_INTERVAL);
+    }
+
+    /**
+     *
+     * @param maxSize maximum number of unexpired entries
+     * @param sweepInterval minimum time between scans for expired entries, in milliseconds
+     */
+    public NonceCache(int maxSize, long sweepInterval) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be at least 1");
+        }
+        this.maxSize = maxSize;
+        this.sweepInterval = sweepInterval;
+    }
+
+    /**
+     * Records a nonce unless it is already recorded and not yet expired.
+     *
+     * @param nonce
+     * @param expires time in milliseconds after which the nonce is forgotten
+     * @return true if the nonce was recorded, false if it was already seen
+     */
+    public boolean add(String nonce, long expires) {
+        long now = System.currentTimeMillis();
+        sweep(now, false);
+        if (entries.size() >= maxSize) {
+            sweep(now, true);
+            if (entries.size() >= maxSize) {
+                evict();
+            }
+        }
+        Long previous = entries.putIfAbsent(nonce, expires);
+        if (previous == null) {
+            return true;
+        }
+        // a previous entry that already expired does not count as a replay
+        return previous < now && entries.replace(nonce, previous, expires);
+    }
+
+    /**
+     *
+     * @param nonce
+     * @return true if the nonce is recorded and not yet expired
+     */
+    public boolean contains(String nonce) {
+        Long expires = entries.get(nonce);
+        return expires != null && expires >= System.currentTimeMillis();
+    }
+
+    /**
+     *
+     * @return the number of entries, including expired entries that have not been removed yet
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getSweepInterval() {
+        return sweepInterval;
+    }
+
+    /**
+     *
+     * @return the number of unexpired entries evicted because the cache was full
+     */
+    public long getEvictedCount() {
+        return evicted.get();
+    }
+
+    // only one thread scans at a time; others continue without waiting
+    private void sweep(long now, boolean force) {
+        long next = nextSweep.get();
+        if ((!force && now < next) || !nextSweep.compareAndSet(next, now + sweepInterval)) {
+            return;
+        }
+        int removed = 0;
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue() < now) {
+                it.remove();
+                removed++;
+            }
+        }
+        log.debug("Removed {} expired nonces, {} remaining", removed, entries.size());
+    }
+
+    /**
+     * Removes about a tenth of the entries, the ones that expire soonest,
+     * so the scan is not repeated for every request while the cache is full.
+     * Only one thread evicts at a time; others add their entry without
+     * waiting, which can exceed the maximum size briefly.
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long[] expirations = new long[entries.size()];
+            int count = 0;
+            for (Long expires : entries.values()) {
+                if (count == expirations.length) {
+                    break;
+                }
+                expirations[count++] = expires;
+            }
+            if (count == 0) {
+                return;
+            }
+            Arrays.sort(expirations, 0, count);
+            int target = Math.min(count, Math.max(1, maxSize / 10));
+            long threshold = expirations[target - 1];
+            int removed = 0;
+            Iterator<Long> it = entries.values().iterator();
+            while (it.hasNext() && removed < target) {
+                if (it.next() <= threshold) {
+                    it.remove();
+                    removed++;
+                }
+            }
+            evicted.addAndGet(removed);
+            log.warn("Nonce cache is full with {} entries; evicted {} entries expiring by {}, which could be replayed until then", maxSize, removed, threshold);
+        } finally {
+            evicting.set(false);
+        }
+    }
+}
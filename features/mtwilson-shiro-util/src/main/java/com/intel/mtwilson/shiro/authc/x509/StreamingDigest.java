@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.shiro.authc.x509;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+
+/**
+ * Computes the digest of a signed document while reading the request body,
+ * so the body is never held in memory.
+ *
+ * The result is the same as reading the body into a String with the
+ * platform default charset and digesting the UTF-8 encoding of the document,
+ * which is how X509AuthenticationFilter computed it before, including the
+ * replacement of malformed input.
+ *
+ * MessageDigest instances are kept per thread and reused.
+ *
+ * @author jbuhacoff
+ */
+public class StreamingDigest {
+    private static final int BUFFER_SIZE = 8192;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final MessageDigestThreadLocal digests = new MessageDigestThreadLocal();
+
+    private static class MessageDigestThreadLocal extends ThreadLocal<HashMap<String, MessageDigest>> {
+        @Override
+        protected HashMap<String, MessageDigest> initialValue() {
+            return new HashMap<>();
+        }
+    }
+
+    /**
+     *
+     * @param digestAlgorithm like "SHA-256"
+     * @return a message digest instance for use only by the current thread
+     * @throws NoSuchAlgorithmException
+     */
+    public static MessageDigest getMessageDigest(String digestAlgorithm) throws NoSuchAlgorithmException {
+        HashMap<String, MessageDigest> threadDigests = digests.get();
+        MessageDigest md = threadDigests.get(digestAlgorithm);
+        if (md == null) {
+            md = MessageDigest.getInstance(digestAlgorithm);
+            threadDigests.put(digestAlgorithm, md);
+        }
+        md.reset();
+        return md;
+    }
+
+    /**
+     *
+     * @param digestAlgorithm like "SHA-256"
+     * @param header the signed document up to the body
+     * @param body the request body, read until the end but not closed
+     * @return the digest of the header followed by the body
+     * @throws NoSuchAlgorithmException
+     * @throws IOException
+     */
+    public static byte[] digest(String digestAlgorithm, String header, InputStream body) throws NoSuchAlgorithmException, IOException {
+        MessageDigest md = getMessageDigest(digestAlgorithm);
+        md.update(header.getBytes(UTF8));
+        Reader reader = new InputStreamReader(body, Charset.defaultCharset());
+        CharsetEncoder encoder = UTF8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE * 3);
+        while (reader.read(chars) != -1) {
+            chars.flip();
+            encode(encoder, chars, bytes, false, md);
+            chars.compact(); // keeps a high surrogate whose pair has not been read yet
+        }
+        chars.flip();
+        encode(encoder, chars, bytes, true, md);
+        while (encoder.flush(bytes).isOverflow()) {
+            update(md, bytes);
+        }
+        update(md, bytes);
+        return md.digest();
+    }
+
+    private static void encode(CharsetEncoder encoder, CharBuffer chars, ByteBuffer bytes, boolean endOfInput, MessageDigest md) {
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, bytes, endOfInput);
+            update(md, bytes);
+        } while (result.isOverflow());
+    }
+
+    private static void update(MessageDigest md, ByteBuffer bytes) {
+        bytes.flip();
+        md.update(bytes);
+        bytes.clear();
+    }
+}
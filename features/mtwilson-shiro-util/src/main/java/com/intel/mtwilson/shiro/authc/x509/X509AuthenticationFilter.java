@@ -6,23 +6,20 @@ package com.intel.mtwilson.shiro.authc.x509;
 
 import java.io.InputStream;
 import java.security.NoSuchAlgorithmException;
-import java.util.Calendar;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpServletRequest;
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ArrayUtils;
-import org.apache.commons.lang3.time.DurationFormatUtils;
 import org.apache.shiro.authc.AuthenticationException;
 import org.apache.shiro.authc.AuthenticationToken;
 import org.apache.shiro.web.util.WebUtils;
+import com.intel.dcsg.cpg.rfc822.Rfc822Date;
 import com.intel.mtwilson.security.http.RsaSignatureInput;
 import com.intel.mtwilson.shiro.HttpAuthenticationFilter;
 import java.io.IOException;
-import java.security.MessageDigest;
 import java.util.HashMap;
 import java.util.Map;
 import org.apache.commons.codec.binary.Hex;
@@ -31,6 +28,13 @@ import org.bouncycastle.asn1.DERObjectIdentifier;
 import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 
 /**
+ * Creates an X509AuthenticationToken from the X509 Authorization header.
+ *
+ * The digest of the signed document is computed while the request body is
+ * read, so memory use does not depend on the size of the body. The token
+ * expires one expiration window after the Date header. X509CredentialsMatcher
+ * rejects a Date that is outside the window of the current time and, with
+ * its NonceCache, prevents a captured request from being replayed.
  *
  * @author jbuhacoff
  */
@@ -38,8 +42,7 @@ public class X509AuthenticationFilter extends HttpAuthenticationFilter {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(X509AuthenticationFilter.class);
     private int expiresAfter = 60 * 60 * 1000; // 1 hour, in milliseconds, max is Integer.MAX_VALUE
-    private final String headerAttributeNameValuePair = "([a-zA-Z0-9_-]+)=\"([^\"]+)\"";
-    private final Pattern headerAttributeNameValuePairPattern = Pattern.compile(headerAttributeNameValuePair);
+    private static final DateFormatThreadLocal dateFormats = new DateFormatThreadLocal();
 
     public X509AuthenticationFilter() {
         super();
@@ -59,6 +62,21 @@ public class X509AuthenticationFilter extends HttpAuthenticationFilter {
         return expiresAfter;
     }
 
+    /**
+     * Rfc822Date shares its date formats between threads, so each thread
+     * parses with its own copies.
+     */
+    private static class DateFormatThreadLocal extends ThreadLocal<SimpleDateFormat[]> {
+        @Override
+        protected SimpleDateFormat[] initialValue() {
+            SimpleDateFormat[] formats = new SimpleDateFormat[Rfc822Date.rfc822DateInputs.length];
+            for (int i = 0; i < formats.length; i++) {
+                formats[i] = (SimpleDateFormat) Rfc822Date.rfc822DateInputs[i].clone();
+            }
+            return formats;
+        }
+    }
+
     @Override
     protected AuthenticationToken createToken(ServletRequest request) {
         log.debug("createToken");
@@ -71,18 +89,15 @@ public class X509AuthenticationFilter extends HttpAuthenticationFilter {
             }
             
             RsaSignatureInput signatureInput = getSignatureInputFromHttpRequest(httpRequest, authorization);
-            String content = signatureInput.toString(); // may throw IllegalArgumentException if any required field is null or invalid
-//            log.debug("Document content (signature input):\n'{}'\n", content);
-            byte[] document = content.getBytes("UTF-8");
+            long date = getDate(signatureInput.headers.get("Date"));
             byte[] signature = Base64.decodeBase64(authorization.signatureBase64);
             String signatureAlgorithm = signatureAlgorithm(authorization.signatureAlgorithm);
             byte[] fingerprint = Base64.decodeBase64(authorization.fingerprintBase64);
             log.trace("Signature being added to token is {}", Hex.encodeHexString(signature));
             log.trace("Fingerprint being added to token is {}", Hex.encodeHexString(fingerprint));
-            log.trace("Document being added to token is {}", Hex.encodeHexString(document));
-            byte[] digest = getDigest(document, signatureAlgorithm); // example: 3031300d060960864801650304020105000420 8373ed7ae4a499534f3eb02fb898a0eafea48a334e2f0a5703e7dc474360786a   the space between the two hex parts shows where the alg id ends and the sha256 digest of the document itself begins
+            byte[] digest = getDigest(httpRequest, signatureInput, signatureAlgorithm); // example: 3031300d060960864801650304020105000420 8373ed7ae4a499534f3eb02fb898a0eafea48a334e2f0a5703e7dc474360786a   the space between the two hex parts shows where the alg id ends and the sha256 digest of the document itself begins
             log.debug("Digest with alg id included is: {}", Hex.encodeHexString(digest));
-            X509AuthenticationToken token = new X509AuthenticationToken(new Fingerprint(fingerprint), new Credential(signature, digest), signatureInput, request.getRemoteAddr());
+            X509AuthenticationToken token = new X509AuthenticationToken(new Fingerprint(fingerprint), new Credential(signature, digest), signatureInput, request.getRemoteAddr(), date, date + expiresAfter);
             log.debug("createToken: returning X509AuthenticationToken");
             return token;
         } catch (IOException | NoSuchAlgorithmException e) {
@@ -90,17 +105,29 @@ public class X509AuthenticationFilter extends HttpAuthenticationFilter {
         }
     }
 
-    private String getRequestBody(HttpServletRequest httpRequest) throws IOException {
-        log.debug("Reading request body");
-        // get the request body (even if empty) - the input stream must be repeatable
-        // so the endpoint will be able to read it again for processing the request
-        InputStream in = httpRequest.getInputStream();
-        if (!in.markSupported()) {
-            throw new IOException("Request input stream is not repeatable; evaluating X509 authorization would prevent further processing of request");
+    /**
+     * The expiration window is checked by X509CredentialsMatcher so that a
+     * stale request is handled as a login failure.
+     *
+     * @param date value of the signed Date header
+     * @return the time in milliseconds
+     */
+    private long getDate(String date) {
+        if (date == null || date.isEmpty()) {
+            throw new IllegalArgumentException("Request must include Date header");
         }
-        String requestBody = IOUtils.toString(in);
-        in.reset(); // to allow other filters or servlets to process the request
-        return requestBody;
+        return parseDate(date).getTime();
+    }
+
+    private Date parseDate(String text) {
+        for (SimpleDateFormat format : dateFormats.get()) {
+            try {
+                return format.parse(text);
+            } catch (ParseException e) {
+                log.trace("Failed to parse date input {} using pattern {}", text, format.toPattern()); // try the next format
+            }
+        }
+        throw new IllegalArgumentException("Date is not in RFC822 format: " + text);
     }
 
     private Map<String, String> getRequestHeaders(HttpServletRequest httpRequest, String[] headerNames) {
@@ -131,9 +158,8 @@ public class X509AuthenticationFilter extends HttpAuthenticationFilter {
      * @param httpRequest
      * @param a
      * @return
-     * @throws IOException
      */
-    private RsaSignatureInput getSignatureInputFromHttpRequest(HttpServletRequest httpRequest, Authorization a) throws IOException {
+    private RsaSignatureInput getSignatureInputFromHttpRequest(HttpServletRequest httpRequest, Authorization a) {
         RsaSignatureInput signatureInput = new RsaSignatureInput();
         signatureInput.httpMethod = httpRequest.getMethod();
         signatureInput.url = getURL(httpRequest); // protocol, host, port, path, and query string as sent by client
@@ -142,8 +168,7 @@ public class X509AuthenticationFilter extends HttpAuthenticationFilter {
         signatureInput.signatureAlgorithm = a.signatureAlgorithm;
         signatureInput.headerNames = a.headerNames;
         signatureInput.headers = getRequestHeaders(httpRequest, a.headerNames);
-        signatureInput.body = getRequestBody(httpRequest); // throws IOException if error on read or if InputStream is not repeatable;
-        log.debug("signature input body is {} bytes.", signatureInput.body.length());
+        // the body is not stored in the signature input; getDigest reads it from the request
         return signatureInput;
     }
 
@@ -158,16 +183,25 @@ public class X509AuthenticationFilter extends HttpAuthenticationFilter {
         return url + queryDelimiter + query;
     }
 
-    private byte[] getDigest(byte[] document, String signatureAlgorithm) throws NoSuchAlgorithmException, IOException {
+    /**
+     * Digests the signed document up to the body and then the body as it is
+     * read from the request. The request input stream must be repeatable so
+     * the endpoint will be able to read the body again.
+     */
+    private byte[] getDigest(HttpServletRequest httpRequest, RsaSignatureInput signatureInput, String signatureAlgorithm) throws NoSuchAlgorithmException, IOException {
         log.debug("Signature algorithm {}", signatureAlgorithm);
         String digestAlgorithm = getDigestAlgorithm(signatureAlgorithm);
         log.debug("Digest algorithm {}", digestAlgorithm);
         String oid = getOidForAlgorithm(digestAlgorithm);
         log.debug("OID for {} is {}", digestAlgorithm, oid);
 
-        // compute the digest of the document using the digest algorithm
-        MessageDigest md = MessageDigest.getInstance(digestAlgorithm); // like SHA1; throws NoSuchAlgorithmException
-        byte[] digest = md.digest(document);
+        String header = signatureInput.documentHeader(); // may throw IllegalArgumentException if any required field is null or invalid
+        InputStream in = httpRequest.getInputStream();
+        if (!in.markSupported()) {
+            throw new IOException("Request input stream is not repeatable; evaluating X509 authorization would prevent further processing of request");
+        }
+        byte[] digest = StreamingDigest.digest(digestAlgorithm, header, in); // like SHA1; throws NoSuchAlgorithmException
+        in.reset(); // to allow other filters or servlets to process the request
         log.debug("Document digest is {}", Hex.encodeHexString(digest));
 
         // java format for the digest is algorithm oid followed by the hash
@@ -251,11 +285,17 @@ Authorization: X509 realm="Example", fingerprint="0685bd9184jfhq22",
             throw new IllegalArgumentException("Authorization type is not X509");
         }
         for (int i = 1; i < terms.length; i++) {
-            // each term after "PublicKey" is an attribute name-value pair, like realm="Example"
-            Matcher attributeNameValue = headerAttributeNameValuePairPattern.matcher(terms[i]);
-            if (attributeNameValue.find()) {
-                String name = attributeNameValue.group(1);
-                String value = attributeNameValue.group(2);
+            // each term after "X509" is an attribute name-value pair, like realm="Example"
+            String term = terms[i];
+            int equals = term.indexOf("=\"");
+            int start = equals;
+            while (start > 0 && isAttributeNameChar(term.charAt(start - 1))) {
+                start--;
+            }
+            int end = term.indexOf('"', equals + 2);
+            if (equals > -1 && start < equals && end > equals + 2) {
+                String name = term.substring(start, equals);
+                String value = term.substring(equals + 2, end);
                 if (name.equals("realm")) {
                     a.realm = value;
                 }
@@ -288,6 +328,11 @@ Authorization: X509 realm="Example", fingerprint="0685bd9184jfhq22",
         return a;
     }
 
+    // same characters as the pattern [a-zA-Z0-9_-]+ that was used before
+    private boolean isAttributeNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-';
+    }
+
     /**
      * This class represents the content of the HTTP Authorization header. It is
      * very closely related to the RsaSignatureInput class but not the same
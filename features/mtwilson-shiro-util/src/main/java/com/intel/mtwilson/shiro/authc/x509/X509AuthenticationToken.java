@@ -30,6 +30,8 @@ public class X509AuthenticationToken implements AuthenticationToken {
     private Credential credential;
     private RsaSignatureInput signatureInput;
     private String host;
+    private long date;
+    private long expires;
     
     /*
     public X509AuthenticationToken(Fingerprint principal, Credential credential) {
@@ -43,6 +45,26 @@ public class X509AuthenticationToken implements AuthenticationToken {
         this.credential = credential;
         this.signatureInput = signatureInput;
         this.host = host;
+        this.date = 0;
+        this.expires = 0;
+    }
+
+    /**
+     * 
+     * @param principal
+     * @param credential
+     * @param signatureInput
+     * @param host
+     * @param date time in milliseconds from the signed Date header
+     * @param expires time in milliseconds after which the signed request is no longer accepted, or 0 if it is not known
+     */
+    public X509AuthenticationToken(Fingerprint principal, Credential credential, RsaSignatureInput signatureInput, String host, long date, long expires) {
+        this.principal = principal;
+        this.credential = credential;
+        this.signatureInput = signatureInput;
+        this.host = host;
+        this.date = date;
+        this.expires = expires;
     }
 
     @Override
@@ -55,6 +77,12 @@ public class X509AuthenticationToken implements AuthenticationToken {
         return credential;
     }
 
+    /**
+     * The signature input does not include the request body, which
+     * is digested while it is read.
+     * 
+     * @return 
+     */
     public RsaSignatureInput getSignatureInput() {
         return signatureInput;
     }
@@ -62,6 +90,22 @@ public class X509AuthenticationToken implements AuthenticationToken {
     public String getHost() {
         return host;
     }
+
+    /**
+     * 
+     * @return time in milliseconds from the signed Date header, or 0 if it is not known
+     */
+    public long getDate() {
+        return date;
+    }
+
+    /**
+     * 
+     * @return time in milliseconds after which the signed request is no longer accepted, or 0 if it is not known
+     */
+    public long getExpires() {
+        return expires;
+    }
     
     
     
@@ -4,14 +4,11 @@
  */
 package com.intel.mtwilson.shiro.authc.x509;
 
-import java.security.InvalidKeyException;
+import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
 import java.security.cert.X509Certificate;
-import java.util.Arrays;
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
+import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.shiro.authc.AuthenticationException;
 import org.apache.shiro.authc.AuthenticationInfo;
@@ -25,12 +22,87 @@ import org.apache.shiro.authc.credential.CredentialsMatcher;
  * AuthenticationToken must be an instance of X509AuthenticationToken.
  * AuthenticationInfo must be an instance of X509AuthenticationInfo.
  * 
+ * A token whose expiration time has passed, or whose Date is more than one
+ * expiration window in the future, does not match. After a signature is
+ * verified the digest of the signed document is recorded in a NonceCache
+ * until the token expires, and a second request with the same digest is
+ * rejected as a replay. Only verified requests are recorded, so
+ * unauthenticated clients cannot fill the cache.
+ * 
+ * All matchers share one cache with the default size unless another one is
+ * set, or unless nonceCacheMaxSize or nonceCacheSweepInterval is set, for
+ * example in shiro.ini:
+ * <pre>
+ * x509Matcher=com.intel.mtwilson.shiro.authc.x509.X509CredentialsMatcher
+ * x509Matcher.nonceCacheMaxSize=500000
+ * </pre>
  * 
  * @author jbuhacoff
  */
 public class X509CredentialsMatcher implements CredentialsMatcher {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(X509CredentialsMatcher.class);
+    private static final NonceCache defaultNonceCache = new NonceCache();
+    private static final ThreadLocal<Signature> signatures = new ThreadLocal<>();
+    private NonceCache nonceCache = defaultNonceCache;
+
+    public NonceCache getNonceCache() {
+        return nonceCache;
+    }
+
+    public void setNonceCache(NonceCache nonceCache) {
+        this.nonceCache = nonceCache;
+    }
+
+    /**
+     * Replaces the nonce cache with a new one for this matcher only.
+     * The default is NonceCache.DEFAULT_MAX_SIZE.
+     * 
+     * @param maxSize maximum number of unexpired signed requests to remember
+     */
+    public void setNonceCacheMaxSize(int maxSize) {
+        this.nonceCache = new NonceCache(maxSize, nonceCache.getSweepInterval());
+    }
+
+    /**
+     * Replaces the nonce cache with a new one for this matcher only.
+     * The default is NonceCache.DEFAULT_SWEEP_INTERVAL.
+     * 
+     * @param sweepInterval minimum time between scans for expired entries, in milliseconds
+     */
+    public void setNonceCacheSweepInterval(long sweepInterval) {
+        this.nonceCache = new NonceCache(nonceCache.getMaxSize(), sweepInterval);
+    }
+
+    /**
+     * The window is the time between the request Date and its expiration,
+     * and a Date may be up to one window before or after the current time.
+     */
+    private boolean isInsideExpirationWindow(X509AuthenticationToken token) {
+        long now = System.currentTimeMillis();
+        if (now > token.getExpires()) {
+            log.debug("Request expired at {}", token.getExpires());
+            return false;
+        }
+        if (token.getDate() - now > token.getExpires() - token.getDate()) {
+            log.debug("Request date {} is too far in the future", token.getDate());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 
+     * @return a signature instance for use only by the current thread
+     */
+    private Signature getSignature() throws NoSuchAlgorithmException {
+        Signature signature = signatures.get();
+        if (signature == null) {
+            signature = Signature.getInstance("NONEwithRSA");
+            signatures.set(signature);
+        }
+        return signature;
+    }
 
     @Override
     public boolean doCredentialsMatch(AuthenticationToken token, AuthenticationInfo info) {
@@ -45,46 +117,40 @@ public class X509CredentialsMatcher implements CredentialsMatcher {
         }
         Credential credential = (Credential) token.getCredentials();
         X509Certificate certificate = (X509Certificate) info.getCredentials();
+        if (token instanceof X509AuthenticationToken && ((X509AuthenticationToken) token).getExpires() > 0 && !isInsideExpirationWindow((X509AuthenticationToken) token)) {
+            return false;
+        }
 
         try {
             log.debug("Verifying signature");
             
             // the credential.getDigest() value is the oid for "SHA1" or "SHA256" concatenated with the digest of the signed document 
             // the credential.getSignature() value is the RSA encryption of the digest
-            // so to verify the signature, we just have to decrypt it using the known public key from our database
-            // and if the result matches the input digest, then the known public key has verified the 
+            // NONEwithRSA verifies the signature over that value as given, without digesting it again,
+            // so if it succeeds the known public key from our database has verified the 
             // signature and the user is authenticated
 
-            Cipher cipher = Cipher.getInstance("RSA");
-            cipher.init(Cipher.DECRYPT_MODE, certificate);
-            byte[] digest = cipher.doFinal(credential.getSignature());
+            Signature rsa = getSignature();
+            rsa.initVerify(certificate);
+            rsa.update(credential.getDigest());
             log.debug("Digest (input): {}", Hex.encodeHexString(credential.getDigest()));
             log.debug("Signature (input): {}", Hex.encodeHexString(credential.getSignature()));
-            log.debug("Digest (signature decrypted with known public key): {}", Hex.encodeHexString(digest));
-            if (Arrays.equals(digest, credential.getDigest())) {
-                log.debug("Verified signature");
-                // known public key from certificate verified the signature on the incoming token
-                return true;
+            if (!rsa.verify(credential.getSignature())) {
+                log.debug("Invalid signature");
+                return false;
             }
-            log.debug("Invalid signature");
-            return false;
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | IllegalBlockSizeException | BadPaddingException e) {
+            log.debug("Verified signature");
+            // known public key from certificate verified the signature on the incoming token
+            if (token instanceof X509AuthenticationToken && ((X509AuthenticationToken) token).getExpires() > 0) {
+                if (!nonceCache.add(Base64.encodeBase64String(credential.getDigest()), ((X509AuthenticationToken) token).getExpires())) {
+                    log.warn("Rejected replay of signed request");
+                    return false;
+                }
+            }
+            return true;
+        } catch (GeneralSecurityException e) {
             log.error("Cannot verify credentials: {}", e.getMessage());
             throw new AuthenticationException(e);
         }
     }
-    
-    
-/*  this is how you verify the signature when you have the complete input document for reference; but instead of passing the entire request entity around we compute its digest in the X509AuthenticationFilter
- * so that in this matcher we get the digest and the signature... and those cannot be used with the Signature
- * class below because the update() method will compute the digest of its input, but we already have the 
- * digest;  if the Signature class had a way to set the "plain" input digest (without the algorithm oid prepended)
- * then it would have been convenient to use it. 
-    private boolean verifySignature(byte[] document, Certificate certificate, String signatureAlgorithm, byte[] signature) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
-        Signature rsa = Signature.getInstance(signatureAlgorithm);
-        rsa.initVerify(certificate);
-        rsa.update(document);
-        return rsa.verify(signature);
-    }
-    */
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.shiro.authc.x509;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class NonceCacheTest {
+
+    @Test
+    public void testRejectReplay() {
+        NonceCache cache = new NonceCache();
+        long expires = System.currentTimeMillis() + 60000;
+        assertTrue(cache.add("nonce1", expires));
+        assertFalse(cache.add("nonce1", expires));
+        assertTrue(cache.contains("nonce1"));
+        assertTrue(cache.add("nonce2", expires));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testExpiredNonceIsAccepted() {
+        NonceCache cache = new NonceCache();
+        assertTrue(cache.add("nonce1", System.currentTimeMillis() - 1));
+        assertFalse(cache.contains("nonce1"));
+        assertTrue(cache.add("nonce1", System.currentTimeMillis() + 60000));
+        assertFalse(cache.add("nonce1", System.currentTimeMillis() + 60000));
+    }
+
+    @Test
+    public void testFullCacheEvictsSoonestExpiring() {
+        NonceCache cache = new NonceCache(3, 60000);
+        long now = System.currentTimeMillis();
+        assertTrue(cache.add("expired", now - 1));
+        assertTrue(cache.add("nonce1", now + 60000));
+        assertTrue(cache.add("nonce2", now + 30000));
+        // full, so the expired entry is removed to make room
+        assertTrue(cache.add("nonce3", now + 90000));
+        assertEquals(3, cache.size());
+        assertEquals(0, cache.getEvictedCount());
+        // full of unexpired entries, so the one that expires soonest is evicted
+        assertTrue(cache.add("nonce4", now + 120000));
+        assertFalse(cache.contains("nonce2"));
+        assertTrue(cache.contains("nonce1"));
+        assertTrue(cache.contains("nonce3"));
+        assertTrue(cache.contains("nonce4"));
+        assertEquals(1, cache.getEvictedCount());
+        assertFalse(cache.add("nonce4", now + 120000));
+    }
+}
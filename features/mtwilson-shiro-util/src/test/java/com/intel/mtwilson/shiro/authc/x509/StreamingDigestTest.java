@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.shiro.authc.x509;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class StreamingDigestTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(StreamingDigestTest.class);
+    private static final String header = "Request: POST https://localhost:8443/mtwilson/v2/hosts\nRealm: \nFrom: Ca0ES/b4gqW6aExUoCvSOxb68fOIqrN9dPhYUmZImFM=\nSignature-Algorithm: SHA256withRSA\nDate: Sat, 29 Mar 2014 12:24:33 PDT\n\n";
+
+    // how X509AuthenticationFilter computed the digest before
+    private byte[] digestWithString(byte[] body) throws NoSuchAlgorithmException, IOException {
+        String content = header + IOUtils.toString(new ByteArrayInputStream(body));
+        return MessageDigest.getInstance("SHA-256").digest(content.getBytes("UTF-8"));
+    }
+
+    private void assertSameDigest(byte[] body) throws NoSuchAlgorithmException, IOException {
+        byte[] expected = digestWithString(body);
+        byte[] actual = StreamingDigest.digest("SHA-256", header, new ByteArrayInputStream(body));
+        assertTrue(Arrays.equals(expected, actual));
+    }
+
+    @Test
+    public void testSameDigestAsString() throws Exception {
+        assertSameDigest(new byte[0]);
+        assertSameDigest("{\"name\":\"host1\"}".getBytes("UTF-8"));
+        assertSameDigest("caf\u00e9 \u2713 \ud83d\ude00".getBytes("UTF-8"));
+        // malformed and truncated sequences are replaced the same way
+        assertSameDigest(new byte[]{'a', (byte) 0xff, (byte) 0xfe, 'b', (byte) 0xe2, (byte) 0x9c});
+        // a character outside the basic plane that spans the end of the read buffer
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 8191; i++) {
+            text.append('x');
+        }
+        for (int i = 0; i < 3000; i++) {
+            text.append("\ud83d\ude00\u00e9");
+        }
+        assertSameDigest(text.toString().getBytes("UTF-8"));
+    }
+
+    @Test
+    public void testReusesMessageDigest() throws Exception {
+        MessageDigest first = StreamingDigest.getMessageDigest("SHA-256");
+        first.update(new byte[]{1, 2, 3}); // left in progress
+        MessageDigest second = StreamingDigest.getMessageDigest("SHA-256");
+        assertSame(first, second);
+        assertTrue(Arrays.equals(MessageDigest.getInstance("SHA-256").digest(), second.digest())); // reset when it is returned
+        assertNotSame(first, StreamingDigest.getMessageDigest("SHA-1"));
+    }
+
+    /**
+     * Compares the memory allocated to digest a large request body by
+     * reading it into a String, as before, and while streaming it.
+     */
+    @Test
+    public void testFlatMemoryForLargeBody() throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int size = 8 * 1024 * 1024;
+        long before = allocatedBytes(threads);
+        long start = System.nanoTime();
+        digestWithString(IOUtils.toByteArray(new GeneratedInputStream(size)));
+        long stringNanos = System.nanoTime() - start;
+        long stringAllocated = allocatedBytes(threads) - before;
+        before = allocatedBytes(threads);
+        start = System.nanoTime();
+        StreamingDigest.digest("SHA-256", header, new GeneratedInputStream(size));
+        long streamingNanos = System.nanoTime() - start;
+        long streamingAllocated = allocatedBytes(threads) - before;
+        log.debug("String: {} bytes allocated, {} ms for {} byte body", stringAllocated, stringNanos / 1000000, size);
+        log.debug("Streaming: {} bytes allocated, {} ms for {} byte body", streamingAllocated, streamingNanos / 1000000, size);
+        // eight times the size must not allocate more than a fixed amount
+        before = allocatedBytes(threads);
+        StreamingDigest.digest("SHA-256", header, new GeneratedInputStream(8 * size));
+        long largeAllocated = allocatedBytes(threads) - before;
+        log.debug("Streaming: {} bytes allocated for {} byte body", largeAllocated, 8 * size);
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            assertTrue(largeAllocated < 1024 * 1024);
+        }
+    }
+
+    private long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * Generates a JSON-like body without holding it in memory.
+     */
+    private static class GeneratedInputStream extends InputStream {
+        private static final byte[] pattern = "{\"name\":\"caf\u00e9\",\"value\":12345},".getBytes(java.nio.charset.Charset.forName("UTF-8"));
+        private final long size;
+        private long position = 0;
+
+        GeneratedInputStream(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public int read() {
+            if (position >= size) {
+                return -1;
+            }
+            return pattern[(int) (position++ % pattern.length)] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= size) {
+                return -1;
+            }
+            int n = (int) Math.min(len, size - position);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = pattern[(int) (position++ % pattern.length)];
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.shiro.authc.x509;
+
+import com.intel.dcsg.cpg.x509.X509Builder;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Cipher;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.shiro.authc.SimpleAuthenticationInfo;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class X509CredentialsMatcherTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(X509CredentialsMatcherTest.class);
+    private static final String SHA256_DIGEST_INFO_PREFIX = "3031300d060960864801650304020105000420";
+    private static final int VERIFICATIONS = 2000;
+    private static final long WINDOW = 60 * 60 * 1000;
+    private static KeyPair keys;
+    private static X509Certificate certificate;
+
+    @BeforeClass
+    public static void createCertificate() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keys = generator.generateKeyPair();
+        certificate = X509Builder.factory().selfSigned("CN=testclient", keys).expires(1, TimeUnit.DAYS).keyUsageDigitalSignature().build();
+    }
+
+    private Credential sign(String document) throws Exception {
+        byte[] bytes = document.getBytes("UTF-8");
+        Signature rsa = Signature.getInstance("SHA256withRSA");
+        rsa.initSign(keys.getPrivate());
+        rsa.update(bytes);
+        byte[] digest = ArrayUtils.addAll(Hex.decodeHex(SHA256_DIGEST_INFO_PREFIX.toCharArray()), MessageDigest.getInstance("SHA-256").digest(bytes));
+        return new Credential(rsa.sign(), digest);
+    }
+
+    private X509AuthenticationToken token(Credential credential, long expires) {
+        return token(credential, expires - WINDOW, expires);
+    }
+
+    private X509AuthenticationToken token(Credential credential, long date, long expires) {
+        return new X509AuthenticationToken(new Fingerprint(new byte[32]), credential, null, "127.0.0.1", date, expires);
+    }
+
+    @Test
+    public void testVerifyAndRejectReplay() throws Exception {
+        X509CredentialsMatcher matcher = new X509CredentialsMatcher();
+        matcher.setNonceCache(new NonceCache());
+        SimpleAuthenticationInfo info = new SimpleAuthenticationInfo("testclient", certificate, "test");
+        long expires = System.currentTimeMillis() + 60000;
+        Credential credential = sign("document 1");
+        assertTrue(matcher.doCredentialsMatch(token(credential, expires), info));
+        assertFalse(matcher.doCredentialsMatch(token(credential, expires), info)); // replay
+        assertTrue(matcher.doCredentialsMatch(token(sign("document 2"), expires), info));
+        // a signature over a different document is not verified and not recorded
+        Credential forged = new Credential(credential.getSignature(), sign("document 3").getDigest());
+        assertFalse(matcher.doCredentialsMatch(token(forged, expires), info));
+        assertTrue(matcher.doCredentialsMatch(token(sign("document 3"), expires), info));
+    }
+
+    @Test
+    public void testRejectOutsideExpirationWindow() throws Exception {
+        X509CredentialsMatcher matcher = new X509CredentialsMatcher();
+        matcher.setNonceCache(new NonceCache());
+        SimpleAuthenticationInfo info = new SimpleAuthenticationInfo("testclient", certificate, "test");
+        long now = System.currentTimeMillis();
+        assertFalse(matcher.doCredentialsMatch(token(sign("stale"), now - 2 * WINDOW, now - WINDOW), info));
+        assertFalse(matcher.doCredentialsMatch(token(sign("future"), now + 2 * WINDOW, now + 3 * WINDOW), info));
+        assertTrue(matcher.doCredentialsMatch(token(sign("past"), now - WINDOW / 2, now + WINDOW / 2), info));
+        assertTrue(matcher.doCredentialsMatch(token(sign("ahead"), now + WINDOW / 2, now + 3 * WINDOW / 2), info));
+    }
+
+    @Test
+    public void testNonceCacheSettings() {
+        X509CredentialsMatcher matcher = new X509CredentialsMatcher();
+        NonceCache shared = matcher.getNonceCache();
+        assertEquals(NonceCache.DEFAULT_MAX_SIZE, shared.getMaxSize());
+        matcher.setNonceCacheMaxSize(10);
+        matcher.setNonceCacheSweepInterval(1000);
+        assertEquals(10, matcher.getNonceCache().getMaxSize());
+        assertEquals(1000, matcher.getNonceCache().getSweepInterval());
+        assertSame(shared, new X509CredentialsMatcher().getNonceCache()); // other matchers are not affected
+    }
+
+    /**
+     * Compares verifying with a new Cipher for every request, as before,
+     * and with the per-thread Signature instance.
+     */
+    @Test
+    public void testVerificationsPerSecond() throws Exception {
+        X509CredentialsMatcher matcher = new X509CredentialsMatcher();
+        matcher.setNonceCache(new NonceCache(VERIFICATIONS, 60000));
+        SimpleAuthenticationInfo info = new SimpleAuthenticationInfo("testclient", certificate, "test");
+        Credential[] credentials = new Credential[VERIFICATIONS];
+        for (int i = 0; i < VERIFICATIONS; i++) {
+            credentials[i] = sign("document " + i);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < VERIFICATIONS; i++) {
+            Cipher cipher = Cipher.getInstance("RSA");
+            cipher.init(Cipher.DECRYPT_MODE, certificate);
+            assertArrayEquals(credentials[i].getDigest(), cipher.doFinal(credentials[i].getSignature()));
+        }
+        long cipherNanos = System.nanoTime() - start;
+        long expires = System.currentTimeMillis() + 60000;
+        start = System.nanoTime();
+        for (int i = 0; i < VERIFICATIONS; i++) {
+            assertTrue(matcher.doCredentialsMatch(token(credentials[i], expires), info));
+        }
+        long matcherNanos = System.nanoTime() - start;
+        log.debug("New cipher per request: {} verifications per second", VERIFICATIONS * 1000000000L / cipherNanos);
+        log.debug("Matcher with pooled signature and nonce cache: {} verifications per second", VERIFICATIONS * 1000000000L / matcherNanos);
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2014 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses blocks of input on several threads and writes them as a
+ * single standard gzip member, using the same technique as pigz: each
+ * block is deflated independently with the last 32KB of the previous block
+ * as its dictionary and ends with a sync flush, so the compressed blocks
+ * can simply be concatenated. The CRC32 is computed in order on the
+ * writing thread.
+ *
+ * The output can be read by any gzip implementation. The compression
+ * ratio is slightly lower than a single-threaded stream at the same level.
+ *
+ * Memory use is bounded: at most two blocks per thread are in progress,
+ * and write() waits for the oldest block when that limit is reached.
+ *
+ * @author jbuhacoff
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final AtomicInteger threadCounter = new AtomicInteger(0);
+    private final OutputStream out;
+    private final int level;
+    private final int blockSize;
+    private final int maxPending;
+    private final ExecutorService executor;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+    private long totalIn = 0;
+    private byte[] block;
+    private int blockLength = 0;
+    private byte[] previousBlock = null;
+    private boolean closed = false;
+
+    public ParallelGzipOutputStream(OutputStream out, int level, int threads) throws IOException {
+        this(out, level, threads, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     *
+     * @param out
+     * @param level from Deflater.BEST_SPEED to Deflater.BEST_COMPRESSION, or Deflater.DEFAULT_COMPRESSION
+     * @param threads number of compression threads
+     * @param blockSize number of input bytes compressed by each task, at least 32KB
+     * @throws IOException
+     */
+    public ParallelGzipOutputStream(OutputStream out, int level, int threads, int blockSize) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required");
+        }
+        if (blockSize < DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("Block size must be at least 32KB");
+        }
+        this.out = out;
+        this.level = level;
+        this.blockSize = blockSize;
+        this.maxPending = threads * 2;
+        this.block = new byte[blockSize];
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "gzip-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        writeHeader();
+    }
+
+    private void writeHeader() throws IOException {
+        int xfl = level == Deflater.BEST_COMPRESSION ? 2 : level == Deflater.BEST_SPEED ? 4 : 0;
+        out.write(new byte[]{
+            (byte) 0x1f, (byte) 0x8b, // magic
+            Deflater.DEFLATED, // compression method
+            0, // flags
+            0, 0, 0, 0, // modification time not available
+            (byte) xfl,
+            (byte) 255 // operating system unknown
+        });
+    }
+
+    private void writeTrailer() throws IOException {
+        writeInt((int) crc.getValue());
+        writeInt((int) totalIn); // size mod 2^32 per RFC 1952
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+        out.write((value >>> 16) & 0xff);
+        out.write((value >>> 24) & 0xff);
+    }
+
+    private static class DeflateBlock implements Callable<byte[]> {
+        private final byte[] input;
+        private final int length;
+        private final byte[] dictionary;
+        private final int level;
+        private final boolean last;
+
+        public DeflateBlock(byte[] input, int length, byte[] dictionary, int level, boolean last) {
+            this.input = input;
+            this.length = length;
+            this.dictionary = dictionary;
+            this.level = level;
+            this.last = last;
+        }
+
+        @Override
+        public byte[] call() {
+            Deflater deflater = new Deflater(level, true);
+            try {
+                if (dictionary != null) {
+                    deflater.setDictionary(dictionary, dictionary.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+                }
+                deflater.setInput(input, 0, length);
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+                byte[] buffer = new byte[Math.max(length / 2, 4096)];
+                if (last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        int n = deflater.deflate(buffer);
+                        compressed.write(buffer, 0, n);
+                    }
+                } else {
+                    // a sync flush ends the block on a byte boundary so the next block can follow it
+                    int n;
+                    do {
+                        n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                        compressed.write(buffer, 0, n);
+                    } while (n == buffer.length);
+                }
+                return compressed.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        crc.update(b, off, len);
+        totalIn += len;
+        while (len > 0) {
+            int n = Math.min(len, blockSize - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+            if (blockLength == blockSize) {
+                submit(false);
+            }
+        }
+    }
+
+    private void submit(boolean last) throws IOException {
+        // the dictionary must be a full 32KB, so the previous block is only used when it was full
+        byte[] dictionary = previousBlock;
+        pending.add(executor.submit(new DeflateBlock(block, blockLength, dictionary, level, last)));
+        previousBlock = blockLength == blockSize ? block : null;
+        block = new byte[blockSize];
+        blockLength = 0;
+        while (pending.size() >= maxPending) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        Future<byte[]> next = pending.remove();
+        try {
+            out.write(next.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for compression");
+        } catch (ExecutionException e) {
+            throw new IOException("Compression failed", e.getCause());
+        }
+    }
+
+    /**
+     * Writes all blocks that were already compressed, without compressing
+     * the partial block, so it does not reduce the compression ratio.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        checkOpen();
+        while (!pending.isEmpty() && pending.peek().isDone()) {
+            writeNext();
+        }
+        out.flush();
+    }
+
+    /**
+     * Compresses the remaining input, writes the gzip trailer, and closes
+     * the underlying stream.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submit(true);
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+            writeTrailer();
+        } finally {
+            executor.shutdownNow();
+            out.close();
+        }
+    }
+}
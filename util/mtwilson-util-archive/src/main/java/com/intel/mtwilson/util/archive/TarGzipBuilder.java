@@ -6,35 +6,118 @@ package com.intel.mtwilson.util.archive;
 
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.Deflater;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipParameters;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 
 /**
  * Abstracts creation of TarArchiveEntry objects to make it easier to create
  * tar files in application code.
  * 
+ * Entry content is copied from its source into the archive as it is
+ * compressed, so files and streams of any size can be added without
+ * reading them into memory.
+ * 
+ * With more than one thread the gzip stream is compressed in blocks by
+ * ParallelGzipOutputStream. The output is still a standard .tar.gz file.
+ * 
  * @author jbuhacoff
  */
 public class TarGzipBuilder implements Closeable {
-    private GzipCompressorOutputStream gzip;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private OutputStream gzip;
     private TarArchiveOutputStream tar;
     
     public TarGzipBuilder(OutputStream out) throws IOException {
-        gzip = new GzipCompressorOutputStream(out);
+        this(out, Deflater.DEFAULT_COMPRESSION, 1);
+    }
+    
+    /**
+     * 
+     * @param out
+     * @param level from Deflater.BEST_SPEED (1) to Deflater.BEST_COMPRESSION (9), or Deflater.DEFAULT_COMPRESSION
+     * @param threads number of compression threads; 1 compresses on the calling thread
+     * @throws IOException 
+     */
+    public TarGzipBuilder(OutputStream out, int level, int threads) throws IOException {
+        if( threads > 1 ) {
+            gzip = new ParallelGzipOutputStream(out, level, threads);
+        }
+        else {
+            GzipParameters parameters = new GzipParameters();
+            parameters.setCompressionLevel(level);
+            gzip = new GzipCompressorOutputStream(out, parameters);
+        }
         tar = new TarArchiveOutputStream(gzip);
+        tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX); // entries over 8GB
+        tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX); // paths over 100 characters
     }
     
+    /**
+     * Adds the file using its path as the entry name, with its size, mode
+     * and modification time. A directory is added with its content like in
+     * add(String,File).
+     * 
+     * @param file
+     * @throws IOException 
+     */
     public void add(File file) throws IOException {
-        TarArchiveEntry tarArchiveEntry = new TarArchiveEntry(file);
-        tar.putArchiveEntry(tarArchiveEntry);
-        tar.write(FileUtils.readFileToByteArray(file));
-        tar.closeArchiveEntry();
-        tar.flush();
+        add(new TarArchiveEntry(file).getName(), file);
+    }
+    
+    public void add(Path path) throws IOException {
+        add(path.toFile());
+    }
+    
+    /**
+     * Adds the file with the given entry name.
+     * 
+     * If the file is a directory, a directory entry is added followed by
+     * its files and subdirectories, sorted by name, under filename/.
+     * Symbolic links to directories inside it are not followed because
+     * they can point back to a parent directory.
+     * 
+     * @param filename
+     * @param file
+     * @throws IOException 
+     * @throws IllegalArgumentException if the directory contains a symbolic link to a directory
+     */
+    public void add(String filename, File file) throws IOException {
+        TarArchiveEntry tarArchiveEntry = new TarArchiveEntry(file, filename);
+        if( file.isDirectory() ) {
+            tar.putArchiveEntry(tarArchiveEntry);
+            tar.closeArchiveEntry();
+            File[] children = file.listFiles();
+            if( children == null ) {
+                throw new IOException("Cannot list directory: " + file.getAbsolutePath());
+            }
+            Arrays.sort(children); // same entry order on every platform
+            for(File child : children) {
+                if( child.isDirectory() && Files.isSymbolicLink(child.toPath()) ) {
+                    throw new IllegalArgumentException("Symbolic link to directory not supported: " + child.getAbsolutePath());
+                }
+                add(tarArchiveEntry.getName() + child.getName(), child); // directory entry names end with a slash
+            }
+            return;
+        }
+        try(InputStream in = new FileInputStream(file)) {
+            add(tarArchiveEntry, in);
+        }
+    }
+    
+    public void add(String filename, Path path) throws IOException {
+        add(filename, path.toFile());
     }
     
     public void add(String filename, byte[] content) throws IOException {
@@ -43,6 +126,42 @@ public class TarGzipBuilder implements Closeable {
         tar.putArchiveEntry(tarArchiveEntry);
         tar.write(content);
         tar.closeArchiveEntry();
+    }
+
+    /**
+     * Copies exactly size bytes from the input stream into a new entry
+     * without buffering the content in memory. The caller is responsible
+     * for closing the input stream.
+     * 
+     * @param filename
+     * @param content
+     * @param size number of bytes to copy from content
+     * @throws IOException if the stream ends before size bytes were read
+     */
+    public void add(String filename, InputStream content, long size) throws IOException {
+        TarArchiveEntry tarArchiveEntry = new TarArchiveEntry(filename);
+        tarArchiveEntry.setSize(size);
+        add(tarArchiveEntry, content);
+    }
+    
+    private void add(TarArchiveEntry tarArchiveEntry, InputStream content) throws IOException {
+        long size = tarArchiveEntry.getSize();
+        tar.putArchiveEntry(tarArchiveEntry);
+        long copied = IOUtils.copyLarge(content, tar, 0, size, new byte[BUFFER_SIZE]);
+        if( copied != size ) {
+            throw new IOException(String.format("Expected %d bytes for %s but stream ended after %d bytes", size, tarArchiveEntry.getName(), copied));
+        }
+        tar.closeArchiveEntry();
+    }
+    
+    /**
+     * Writes any compressed data that is ready to the output stream.
+     * Entries are not flushed individually because each flush reduces
+     * the compression ratio.
+     * 
+     * @throws IOException 
+     */
+    public void flush() throws IOException {
         tar.flush();
     }
 
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2014 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class TarGzipBuilderTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TarGzipBuilderTest.class);
+    private static final int FILE_COUNT = 3000;
+    private static File directory;
+    private static long directorySize = 0;
+    private static long directoryCrc;
+
+    /**
+     * Creates a directory of text-like files from 1KB to 33KB so the
+     * benchmark compresses something closer to real content than zeros.
+     */
+    @BeforeClass
+    public static void createFiles() throws IOException {
+        directory = File.createTempFile("targzip", "");
+        directory.delete();
+        directory.mkdirs();
+        Random random = new Random(1);
+        String[] words = {"trust", "host", "policy", "measurement", "certificate", "attestation", "key", "value", "0x5f3a", "\n"};
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            int size = 1024 + random.nextInt(32 * 1024);
+            StringBuilder text = new StringBuilder(size + 16);
+            while (text.length() < size) {
+                text.append(words[random.nextInt(words.length)]).append(' ').append(random.nextInt(1000)).append(' ');
+            }
+            byte[] content = text.toString().getBytes("UTF-8");
+            FileUtils.writeByteArrayToFile(new File(directory, String.format("sub%d/file%05d.txt", i % 10, i)), content);
+            crc.update(content);
+            directorySize += content.length;
+        }
+        directoryCrc = crc.getValue();
+        log.debug("Created {} files with {} bytes in {}", FILE_COUNT, directorySize, directory.getAbsolutePath());
+    }
+
+    @AfterClass
+    public static void deleteFiles() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private static byte[] build(int level, int threads) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TarGzipBuilder tgz = new TarGzipBuilder(out, level, threads)) {
+            for (int i = 0; i < FILE_COUNT; i++) {
+                String name = String.format("sub%d/file%05d.txt", i % 10, i);
+                tgz.add(name, new File(directory, name));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads the archive and checks the number of entries and the CRC of
+     * their content in order.
+     */
+    private static void verify(InputStream gzip) throws IOException {
+        try (TarArchiveInputStream tar = new TarArchiveInputStream(gzip)) {
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[64 * 1024];
+            int count = 0;
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextTarEntry()) != null) {
+                assertEquals(String.format("sub%d/file%05d.txt", count % 10, count), entry.getName());
+                int length;
+                while ((length = tar.read(buffer)) != -1) {
+                    crc.update(buffer, 0, length);
+                }
+                count++;
+            }
+            assertEquals(FILE_COUNT, count);
+            assertEquals(directoryCrc, crc.getValue());
+        }
+    }
+
+    @Test
+    public void testParallelOutputIsStandardGzip() throws IOException {
+        byte[] archive = build(Deflater.DEFAULT_COMPRESSION, 4);
+        verify(new GZIPInputStream(new ByteArrayInputStream(archive)));
+        verify(new GzipCompressorInputStream(new ByteArrayInputStream(archive))); // single gzip member, so concatenated member support is not needed
+    }
+
+    @Test
+    public void testParallelGzipSmallAndEmptyInput() throws IOException {
+        byte[][] inputs = {new byte[0], "x".getBytes("UTF-8"), new byte[ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE], new byte[ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE * 3 + 7]};
+        new Random(2).nextBytes(inputs[3]);
+        for (byte[] input : inputs) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (OutputStream gzip = new ParallelGzipOutputStream(out, Deflater.BEST_SPEED, 2)) {
+                gzip.write(input);
+            }
+            assertArrayEquals(input, IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))));
+        }
+    }
+
+    @Test
+    public void testCompressionLevel() throws IOException {
+        byte[] fast = build(Deflater.BEST_SPEED, 1);
+        byte[] best = build(Deflater.BEST_COMPRESSION, 1);
+        log.debug("Compressed size at level 1: {} at level 9: {}", fast.length, best.length);
+        assertTrue(best.length < fast.length);
+        verify(new GZIPInputStream(new ByteArrayInputStream(best)));
+    }
+
+    @Test
+    public void testStreamFromFile() throws IOException {
+        File archive = File.createTempFile("targzip", ".tgz");
+        try {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(archive)); TarGzipBuilder tgz = new TarGzipBuilder(out)) {
+                for (int i = 0; i < FILE_COUNT; i++) {
+                    String name = String.format("sub%d/file%05d.txt", i % 10, i);
+                    File file = new File(directory, name);
+                    try (InputStream in = new FileInputStream(file)) {
+                        tgz.add(name, in, file.length());
+                    }
+                }
+            }
+            try (InputStream in = new FileInputStream(archive)) {
+                verify(new GZIPInputStream(in));
+            }
+        } finally {
+            archive.delete();
+        }
+    }
+
+    /**
+     * Adding a directory writes a directory entry and then its files in
+     * name order.
+     */
+    @Test
+    public void testAddDirectory() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TarGzipBuilder tgz = new TarGzipBuilder(out)) {
+            tgz.add("sub0", new File(directory, "sub0"));
+        }
+        try (TarArchiveInputStream tar = new TarArchiveInputStream(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())))) {
+            TarArchiveEntry entry = tar.getNextTarEntry();
+            assertEquals("sub0/", entry.getName());
+            assertTrue(entry.isDirectory());
+            int count = 0;
+            while ((entry = tar.getNextTarEntry()) != null) {
+                assertEquals(String.format("sub0/file%05d.txt", count * 10), entry.getName());
+                assertEquals(new File(directory, entry.getName()).length(), IOUtils.toByteArray(tar).length);
+                count++;
+            }
+            assertEquals(FILE_COUNT / 10, count);
+        }
+    }
+
+    /**
+     * Logs MB/s of uncompressed input at 1, 2, 4 and 8 threads.
+     */
+    @Test
+    public void testThroughput() throws IOException {
+        build(Deflater.DEFAULT_COMPRESSION, 1); // warm up
+        build(Deflater.DEFAULT_COMPRESSION, 4);
+        for (int threads : new int[]{1, 2, 4, 8}) {
+            long start = System.nanoTime();
+            byte[] archive = build(Deflater.DEFAULT_COMPRESSION, threads);
+            long elapsed = System.nanoTime() - start;
+            log.info("{} threads: {} MB/s, {} bytes compressed to {} bytes", threads, directorySize * 1000 / elapsed, directorySize, archive.length);
+        }
+    }
+}
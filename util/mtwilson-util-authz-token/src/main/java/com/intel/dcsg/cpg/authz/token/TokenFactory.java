@@ -22,7 +22,6 @@ import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
-import java.util.HashMap;
 import javax.crypto.SecretKey;
 import org.apache.commons.codec.binary.Base64;
 
@@ -41,7 +40,7 @@ public class TokenFactory {
     public TokenFactory() {
         protectionPolicy = ProtectionPolicyBuilder.factory().stream().aes128().sha2().build(); // we'll accept AES-128/192/256 and SHA-256/384/512 for incoming tokens
         protection = ProtectionBuilder.factory().aes(128).mode("OFB8").padding("NoPadding").sha256().build(); // we'll output AES-128 and SHA-256 for new tokens
-        repository = new HashMapMutableSecretKeyRepository(new HashMap<String,EncryptionKey>());
+        repository = new HashMapMutableSecretKeyRepository();
         encryptionKeySource = new EncryptionKeySource(repository);
         codec = new TokenCipherCodec(encryptionKeySource, protection);
         random = new RandomSource();
@@ -81,11 +80,21 @@ public class TokenFactory {
     }
     
     public String create(String userId) throws GeneralSecurityException {
+        return create(userId.getBytes(Charset.forName("UTF-8")));
+    }
+    
+    /**
+     * 
+     * @param content application-specific token content, which may be binary
+     * @return base64-encoded encrypted token
+     * @throws GeneralSecurityException 
+     */
+    public String create(byte[] content) throws GeneralSecurityException {
         Token token = new Token();
         int blocksize = protection.getBlockSizeBytes(); // in a later version we might get the block size from the key, for example key.getEncoded().length;   but in version 1 we always use AES-128 so 16 bytes
         token.setNonce(random.nextBytes(random.nextInt(256 - blocksize) + blocksize));
         token.setTimestamp(System.currentTimeMillis() / 1000L);
-        token.setContent(userId.getBytes(Charset.forName("UTF-8")));
+        token.setContent(content);
         byte[] encryptedToken = codec.encrypt(token); // throws GeneralSecurityException
         return Base64.encodeBase64String(encryptedToken);
     }
@@ -28,7 +28,14 @@ import javax.crypto.SecretKey;
 import org.apache.commons.codec.binary.Base64;
 
 /**
- *
+ * Validates encrypted tokens created by TokenFactory.
+ * 
+ * Tokens validated with validate(String) are remembered in a
+ * ValidatedTokenCache until they expire, so a client that sends the same
+ * token with every request only causes it to be decrypted once. The cache
+ * is cleared when keys are removed from the key repository. Call
+ * setCache(null) to validate every token every time.
+ * 
  * @author jbuhacoff
  */
 public class TokenValidator {
@@ -39,6 +46,8 @@ public class TokenValidator {
     private ProtectionPolicy protectionPolicy;
     private long expiresAfter = 3600; // how long the token is valid, in seconds XXX TODO convert to TimeUnit for safety ... default is one hour
     private long replaceWhenTokenNearExpires = 300; // if token expires in the next 5 minuets just go ahead and replace it 
+    private ValidatedTokenCache cache = new ValidatedTokenCache();
+    private volatile long keyRevision = 0;
     
     public TokenValidator() {
         
@@ -52,6 +61,7 @@ public class TokenValidator {
 
     public void setCodec(TokenCipherCodec codec) {
         this.codec = codec;
+        clearCache();
     }
 
     public void setProtection(Protection protection) {
@@ -64,6 +74,25 @@ public class TokenValidator {
 
     public void setEncryptionKeySource(EncryptionKeySource encryptionKeySource) {
         this.encryptionKeySource = encryptionKeySource;
+        clearCache();
+    }
+
+    /**
+     * 
+     * @param cache for validated tokens, or null to validate every token every time
+     */
+    public void setCache(ValidatedTokenCache cache) {
+        this.cache = cache;
+    }
+
+    public ValidatedTokenCache getCache() {
+        return cache;
+    }
+    
+    private void clearCache() {
+        if( cache != null ) {
+            cache.clear();
+        }
     }
     
     
@@ -74,6 +103,7 @@ public class TokenValidator {
      */
     public void setExpiresAfter(long expiresAfter) {
         this.expiresAfter = expiresAfter;
+        clearCache(); // cached entries expire according to the previous setting
     }
 
     public void setReplaceWhenTokenNearExpires(long replaceWhenTokenNearExpires) {
@@ -81,7 +111,39 @@ public class TokenValidator {
     }
     
     public Token validate(String token) throws UnsupportedTokenVersionException, ExpiredTokenException, KeyNotFoundException, GeneralSecurityException {
-        return validate(Base64.decodeBase64(token));
+        ValidatedTokenCache tokenCache = cache;
+        if( tokenCache == null ) {
+            return validate(Base64.decodeBase64(token));
+        }
+        long revision = checkKeyRevision(tokenCache);
+        Token cached = tokenCache.get(token);
+        if( cached != null ) {
+            return cached;
+        }
+        Token validated = validate(Base64.decodeBase64(token));
+        tokenCache.put(token, validated, (validated.getTimestamp() + expiresAfter) * 1000L);
+        if( checkKeyRevision(tokenCache) != revision ) {
+            tokenCache.clear(); // a key was removed while this token was being validated
+        }
+        return validated;
+    }
+    
+    /**
+     * Clears the cache if keys were removed from the key repository since
+     * the last check.
+     * 
+     * @return the current key repository revision
+     */
+    private long checkKeyRevision(ValidatedTokenCache tokenCache) {
+        if( encryptionKeySource != null && encryptionKeySource.getRepository() instanceof HashMapMutableSecretKeyRepository ) {
+            long revision = ((HashMapMutableSecretKeyRepository)encryptionKeySource.getRepository()).getRevision();
+            if( revision != keyRevision ) {
+                tokenCache.clear();
+                keyRevision = revision;
+            }
+            return revision;
+        }
+        return 0;
     }
     
     public Token validate(byte[] token) throws UnsupportedTokenVersionException, ExpiredTokenException, KeyNotFoundException, GeneralSecurityException {
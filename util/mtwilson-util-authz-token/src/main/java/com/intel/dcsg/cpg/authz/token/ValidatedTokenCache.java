@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.dcsg.cpg.authz.token;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers tokens that were already validated so that a client sending
+ * the same token with every request does not cause it to be decoded,
+ * decrypted, and verified every time.
+ *
+ * Entries are keyed by the encoded token string, whose hash code is
+ * computed once and cached by String. Each entry has an expiration time
+ * which must not be later than the expiration of the token itself; expired
+ * entries are never returned. When the cache is full, expired entries are
+ * removed first and then arbitrary entries until there is room.
+ *
+ * The cache must be cleared when keys are removed or rotated, because
+ * tokens encrypted with a removed key must no longer be accepted.
+ * TokenValidator does this automatically when its key repository is a
+ * HashMapMutableSecretKeyRepository.
+ *
+ * @author jbuhacoff
+ */
+public class ValidatedTokenCache {
+    private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicLong missCount = new AtomicLong(0);
+    private final AtomicLong evictionCount = new AtomicLong(0);
+
+    private static class Entry {
+        private final Token token;
+        private final long expiresOn; // milliseconds since unix epoch
+
+        public Entry(Token token, long expiresOn) {
+            this.token = token;
+            this.expiresOn = expiresOn;
+        }
+    }
+
+    public ValidatedTokenCache() {
+        this(1000);
+    }
+
+    /**
+     *
+     * @param maxSize maximum number of tokens to remember
+     */
+    public ValidatedTokenCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     *
+     * @param token the encoded token
+     * @return the validated token, or null if it is not in the cache or has expired
+     */
+    public Token get(String token) {
+        Entry entry = cache.get(token);
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        if (System.currentTimeMillis() >= entry.expiresOn) {
+            cache.remove(token, entry);
+            evictionCount.incrementAndGet();
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return entry.token;
+    }
+
+    /**
+     *
+     * @param token the encoded token
+     * @param validated the token after successful validation
+     * @param expiresOn milliseconds since unix epoch, no later than the expiration of the token
+     */
+    public void put(String token, Token validated, long expiresOn) {
+        if (maxSize <= 0) {
+            return;
+        }
+        if (cache.size() >= maxSize) {
+            evict();
+        }
+        cache.put(token, new Entry(validated, expiresOn));
+    }
+
+    private void evict() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Entry>> it = cache.entrySet().iterator();
+        while (it.hasNext()) {
+            if (now >= it.next().getValue().expiresOn) {
+                it.remove();
+                evictionCount.incrementAndGet();
+            }
+        }
+        it = cache.entrySet().iterator();
+        while (cache.size() >= maxSize && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public int getSize() {
+        return cache.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ValidatedTokenCache[size=%d, hits=%d, misses=%d, evictions=%d]", getSize(), getHitCount(), getMissCount(), getEvictionCount());
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.dcsg.cpg.authz.token;
+
+import com.intel.dcsg.cpg.io.UUID;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Measures token validation throughput with 1, 4, 16, and 64 threads sharing
+ * one TokenValidator, as the token authentication filters do.
+ *
+ * When CipherCodec was synchronized the throughput stayed about the same
+ * regardless of the number of threads; now it should increase with the
+ * number of threads up to the number of cores. The validated token cache is
+ * disabled so every validation decrypts the token.
+ *
+ * @author jbuhacoff
+ */
+public class TokenValidatorThroughputTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TokenValidatorThroughputTest.class);
+    private static final int VALIDATIONS_PER_THREAD = 2000;
+
+    private long measure(final TokenValidator validator, final String token, final String userId, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        ArrayList<Future<Integer>> futures = new ArrayList<>();
+        for(int i=0; i<threads; i++) {
+            futures.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    start.await();
+                    int valid = 0;
+                    for(int j=0; j<VALIDATIONS_PER_THREAD; j++) {
+                        Token confirm = validator.validate(token);
+                        if( userId.equals(new String(confirm.getContent(), Charset.forName("UTF-8"))) ) {
+                            valid++;
+                        }
+                    }
+                    return valid;
+                }
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        int total = 0;
+        for(Future<Integer> future : futures) {
+            total += future.get();
+        }
+        long elapsed = System.nanoTime() - begin;
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        assert total == threads * VALIDATIONS_PER_THREAD;
+        return total * 1000000000L / elapsed; // validations per second
+    }
+
+    @Test
+    public void testValidateThroughput() throws Exception {
+        String userId = new UUID().toString();
+        TokenFactory factory = new TokenFactory();
+        String token = factory.create(userId);
+        TokenValidator validator = new TokenValidator(factory);
+        validator.setCache(null);
+        measure(validator, token, userId, 4); // warm up
+        log.debug("Available processors: {}", Runtime.getRuntime().availableProcessors());
+        for(int threads : new int[] { 1, 4, 16, 64 }) {
+            long throughput = measure(validator, token, userId, threads);
+            log.debug("Threads: {}  validations per second: {}", threads, throughput);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.dcsg.cpg.authz.token;
+
+import com.intel.dcsg.cpg.io.UUID;
+import java.security.GeneralSecurityException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class ValidatedTokenCacheTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ValidatedTokenCacheTest.class);
+
+    @Test
+    public void testRepeatedValidationIsCached() throws Exception {
+        TokenFactory factory = new TokenFactory();
+        String token = factory.create(new UUID().toString());
+        TokenValidator validator = new TokenValidator(factory);
+        Token first = validator.validate(token);
+        for(int i=0; i<100; i++) {
+            Token again = validator.validate(token);
+            assertSame(first, again);
+        }
+        ValidatedTokenCache cache = validator.getCache();
+        log.debug("Cache: {}", cache);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(100, cache.getHitCount());
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void testKeyRemovalClearsCache() throws Exception {
+        TokenFactory factory = new TokenFactory();
+        String token = factory.create(new UUID().toString());
+        TokenValidator validator = new TokenValidator(factory);
+        validator.validate(token);
+        assertEquals(1, validator.getCache().getSize());
+        factory.getRepository().clear(); // removes the key that encrypted the token
+        try {
+            validator.validate(token);
+            fail();
+        }
+        catch(GeneralSecurityException e) {
+            log.debug("Expected failure after key removal: {}", e.getMessage());
+        }
+        assertEquals(0, validator.getCache().getSize());
+    }
+
+    @Test
+    public void testExpiredEntryIsNotReturned() throws Exception {
+        ValidatedTokenCache cache = new ValidatedTokenCache(10);
+        Token validated = new Token();
+        cache.put("a", validated, System.currentTimeMillis() + 50);
+        assertSame(validated, cache.get("a"));
+        Thread.sleep(100);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        ValidatedTokenCache cache = new ValidatedTokenCache(10);
+        long expiresOn = System.currentTimeMillis() + 60000;
+        for(int i=0; i<100; i++) {
+            cache.put(String.valueOf(i), new Token(), expiresOn);
+            assertTrue(cache.getSize() <= 10);
+        }
+        log.debug("Cache: {}", cache);
+        assertEquals(90, cache.getEvictionCount());
+    }
+}
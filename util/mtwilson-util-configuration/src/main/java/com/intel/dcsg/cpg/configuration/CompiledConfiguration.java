@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.dcsg.cpg.configuration;
+
+import com.intel.mtwilson.pipe.Transformer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A read-optimized view of a configuration built from LayeredConfiguration
+ * and KeyTransformerConfiguration decorators.
+ *
+ * When it is created the decorators are flattened into a list of layers,
+ * where each layer is one underlying configuration source together with
+ * the key transformations that apply to it. Transformed key names are
+ * memoized per layer, so a naming strategy such as AllCapsNamingStrategy
+ * runs once per key instead of on every lookup. The first time a key is
+ * requested the layers are searched in order and the winning layer (or the
+ * fact that no layer has the key) is remembered, so later lookups of the
+ * same key go directly to that layer. The set of keys is also computed
+ * once.
+ *
+ * Unlike LayeredConfiguration this view is editable when any of its layers
+ * is editable. Calling {@code set} writes to the first editable layer, which
+ * is the target when one is defined, and discards all
+ * resolved keys and the key set, because the new value may change which
+ * layer wins for that key or, when the same source appears in more than one
+ * layer, for other keys. If a value is removed from the winning layer the
+ * key is resolved again on the next lookup.
+ *
+ * Changes made directly to the underlying sources are not detected,
+ * except removal of a value from its winning layer. Call {@code invalidate}
+ * after adding keys to a source or editing the list of sources of a wrapped
+ * LayeredConfiguration.
+ *
+ * Example:
+ * <pre>
+ * Configuration configuration = new CompiledConfiguration(new LayeredConfiguration(systemProperties, environment, allCapsEnvironment, file));
+ * </pre>
+ *
+ * @author jbuhacoff
+ */
+public class CompiledConfiguration extends AbstractConfiguration {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(CompiledConfiguration.class);
+    private static final Layer NOT_FOUND = new Layer(null, null);
+    private final List<Configuration> sources;
+    private volatile List<Layer> layers;
+    private volatile ConcurrentHashMap<String, Layer> resolved = new ConcurrentHashMap<>(); // key -> winning layer or NOT_FOUND
+    private volatile Set<String> keys = null;
+
+    public CompiledConfiguration(Configuration configuration) {
+        this(Collections.singletonList(configuration));
+    }
+
+    /**
+     *
+     * @param sources in the same order as for LayeredConfiguration; the list is copied
+     */
+    public CompiledConfiguration(List<Configuration> sources) {
+        super();
+        this.sources = new ArrayList<>(sources);
+        this.layers = compile(this.sources);
+    }
+
+    /**
+     * Flattens the sources again and discards all resolved keys. Call this
+     * after changing the underlying sources directly.
+     */
+    public void invalidate() {
+        layers = compile(sources);
+        resolved = new ConcurrentHashMap<>();
+        keys = null;
+    }
+
+    /**
+     *
+     * @return the number of underlying sources after flattening the decorators
+     */
+    public int getLayerCount() {
+        return layers.size();
+    }
+
+    /**
+     *
+     * @param key
+     * @return the underlying source that has the key, or null if none of the sources have it
+     */
+    public Configuration getSource(String key) {
+        for (Layer layer : layers) {
+            if (layer.get(key) != null) {
+                return layer.source;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Set<String> keys() {
+        Set<String> current = keys;
+        if (current == null) {
+            HashSet<String> union = new HashSet<>();
+            for (Layer layer : layers) {
+                union.addAll(layer.source.keys());
+            }
+            current = Collections.unmodifiableSet(union);
+            keys = current;
+        }
+        return current;
+    }
+
+    /**
+     * @param key
+     * @return the value of key from the first source to have it, or null if none of the sources have it
+     */
+    @Override
+    public String get(String key) {
+        ConcurrentHashMap<String, Layer> current = resolved;
+        Layer winner = current.get(key);
+        if (winner == NOT_FOUND) {
+            return null;
+        }
+        if (winner != null) {
+            String value = winner.get(key);
+            if (value != null) {
+                return value;
+            }
+            // the value was removed from the winning layer since it was resolved
+        }
+        return resolve(key, current);
+    }
+
+    // the winner is recorded in the map that was current when the search started, so if set() or invalidate() replace it meanwhile the result is discarded
+    private String resolve(String key, ConcurrentHashMap<String, Layer> current) {
+        for (Layer layer : layers) {
+            String value = layer.get(key);
+            if (value != null) {
+                current.put(key, layer);
+                return value;
+            }
+        }
+        current.put(key, NOT_FOUND);
+        return null;
+    }
+
+    /**
+     * Writes to the first editable layer.
+     *
+     * @param key
+     * @param value
+     */
+    @Override
+    public void set(String key, String value) {
+        for (Layer layer : layers) {
+            if (layer.source.isEditable()) {
+                layer.set(key, value);
+                resolved = new ConcurrentHashMap<>();
+                keys = null;
+                return;
+            }
+        }
+        throw new UnsupportedOperationException("None of the configuration sources are editable");
+    }
+
+    @Override
+    public boolean isEditable() {
+        for (Layer layer : layers) {
+            if (layer.source.isEditable()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Layer> compile(List<Configuration> sources) {
+        ArrayList<Layer> layers = new ArrayList<>();
+        for (Configuration source : sources) {
+            compile(source, null, layers);
+        }
+        log.debug("Compiled {} sources into {} layers", sources.size(), layers.size());
+        return Collections.unmodifiableList(layers);
+    }
+
+    private static void compile(Configuration configuration, KeyName keyName, List<Layer> layers) {
+        if (configuration instanceof LayeredConfiguration) {
+            for (Configuration source : ((LayeredConfiguration) configuration).getSources()) {
+                compile(source, keyName, layers);
+            }
+        } else if (configuration instanceof KeyTransformerConfiguration) {
+            KeyTransformerConfiguration transformed = (KeyTransformerConfiguration) configuration;
+            compile(transformed.configuration, new KeyName(keyName, transformed.transformer), layers);
+        } else {
+            layers.add(new Layer(keyName, configuration));
+        }
+    }
+
+    /**
+     * An underlying source and the memoized name of each key in that source.
+     */
+    private static class Layer {
+        private final KeyName keyName; // null when keys are not transformed
+        private final Configuration source;
+
+        Layer(KeyName keyName, Configuration source) {
+            this.keyName = keyName;
+            this.source = source;
+        }
+
+        String get(String key) {
+            return source.get(keyName == null ? key : keyName.name(key));
+        }
+
+        void set(String key, String value) {
+            source.set(keyName == null ? key : keyName.name(key), value);
+        }
+    }
+
+    /**
+     * Applies the key transformations of nested KeyTransformerConfiguration
+     * decorators, outermost first, and remembers the result.
+     */
+    private static class KeyName {
+        private final KeyName outer;
+        private final Transformer<String> transformer;
+        private final ConcurrentHashMap<String, String> names = new ConcurrentHashMap<>();
+
+        KeyName(KeyName outer, Transformer<String> transformer) {
+            this.outer = outer;
+            this.transformer = transformer;
+        }
+
+        String name(String key) {
+            String name = names.get(key);
+            if (name == null) {
+                name = transformer.transform(outer == null ? key : outer.name(key));
+                names.put(key, name);
+            }
+            return name;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.dcsg.cpg.configuration;
+
+import com.intel.mtwilson.text.transform.AllCapsNamingStrategy;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class CompiledConfigurationTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(CompiledConfigurationTest.class);
+    private static final int KEYS = 50;
+    private static final int LOOKUPS = 1000000;
+
+    // same arrangement as SetupConfigurationProvider: system properties, environment, all-caps environment, file
+    private LayeredConfiguration createLayeredConfiguration(PropertiesConfiguration target) {
+        PropertiesConfiguration systemProperties = new PropertiesConfiguration();
+        PropertiesConfiguration environment = new PropertiesConfiguration();
+        PropertiesConfiguration file = new PropertiesConfiguration();
+        systemProperties.set("java.home", "/usr/java");
+        environment.set("FRUIT_COLOR", "red");
+        for (int i = 0; i < KEYS; i++) {
+            file.set("mtwilson.setting" + i, String.valueOf(i));
+        }
+        file.set("fruit.color", "green");
+        file.set("fruit.shape", "circle");
+        KeyTransformerConfiguration allCapsEnvironment = new KeyTransformerConfiguration(new AllCapsNamingStrategy(), environment);
+        if (target == null) {
+            return new LayeredConfiguration(systemProperties, environment, allCapsEnvironment, file);
+        }
+        return new LayeredConfiguration(target, systemProperties, environment, allCapsEnvironment, file);
+    }
+
+    @Test
+    public void testSameValuesAsDecorators() {
+        LayeredConfiguration layered = createLayeredConfiguration(null);
+        CompiledConfiguration compiled = new CompiledConfiguration(layered);
+        assertEquals(4, compiled.getLayerCount());
+        for (String key : new String[]{"java.home", "fruit.color", "FRUIT_COLOR", "fruit.shape", "mtwilson.setting7", "missing"}) {
+            assertEquals(layered.get(key), compiled.get(key));
+            assertEquals(layered.get(key), compiled.get(key)); // resolved
+        }
+        assertEquals("red", compiled.get("fruit.color")); // the all-caps environment comes before the file
+        assertEquals(layered.keys(), compiled.keys());
+    }
+
+    @Test
+    public void testSetInvalidatesResolvedKeys() {
+        PropertiesConfiguration target = new PropertiesConfiguration();
+        CompiledConfiguration compiled = new CompiledConfiguration(createLayeredConfiguration(target));
+        assertTrue(compiled.isEditable());
+        assertEquals("circle", compiled.get("fruit.shape"));
+        assertNull(compiled.get("fruit.size"));
+        int keyCount = compiled.keys().size();
+        compiled.set("fruit.shape", "square");
+        compiled.set("fruit.size", "small");
+        assertEquals("square", compiled.get("fruit.shape"));
+        assertEquals("small", compiled.get("fruit.size"));
+        assertEquals("small", target.get("fruit.size"));
+        assertSame(target, compiled.getSource("fruit.size"));
+        assertEquals(keyCount + 1, compiled.keys().size());
+        // removing the value from the winning layer uncovers the next layer
+        target.set("fruit.shape", null);
+        assertEquals("circle", compiled.get("fruit.shape"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        PropertiesConfiguration first = new PropertiesConfiguration();
+        PropertiesConfiguration second = new PropertiesConfiguration();
+        second.set("fruit", "banana");
+        CompiledConfiguration compiled = new CompiledConfiguration(new LayeredConfiguration(first, second));
+        assertEquals("banana", compiled.get("fruit"));
+        first.set("fruit", "apple"); // not detected until invalidate
+        assertEquals("banana", compiled.get("fruit"));
+        compiled.invalidate();
+        assertEquals("apple", compiled.get("fruit"));
+    }
+
+    /**
+     * Compares lookups of keys found in the last layer, keys found in the
+     * all-caps environment, and missing keys, in the decorators and in the
+     * compiled view.
+     */
+    @Test
+    public void testLookupCost() {
+        String[] keys = new String[KEYS + 2];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "mtwilson.setting" + i;
+        }
+        keys[KEYS] = "fruit.color";
+        keys[KEYS + 1] = "mtwilson.missing";
+        LayeredConfiguration layered = createLayeredConfiguration(null);
+        CompiledConfiguration compiled = new CompiledConfiguration(createLayeredConfiguration(null));
+        long layeredNanos = measure(layered, keys);
+        long compiledNanos = measure(compiled, keys);
+        log.debug("LayeredConfiguration: {} ns per lookup", layeredNanos);
+        log.debug("CompiledConfiguration: {} ns per lookup", compiledNanos);
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS / 1000; i++) {
+            layered.keys();
+        }
+        long layeredKeysNanos = (System.nanoTime() - start) / (LOOKUPS / 1000);
+        start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS / 1000; i++) {
+            compiled.keys();
+        }
+        long compiledKeysNanos = (System.nanoTime() - start) / (LOOKUPS / 1000);
+        log.debug("LayeredConfiguration: {} ns per keys()", layeredKeysNanos);
+        log.debug("CompiledConfiguration: {} ns per keys()", compiledKeysNanos);
+    }
+
+    private long measure(Configuration configuration, String[] keys) {
+        int found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            if (configuration.get(keys[i % keys.length]) != null) {
+                found++;
+            }
+        }
+        long nanos = (System.nanoTime() - start) / LOOKUPS;
+        assertTrue(found > 0);
+        return nanos;
+    }
+}
@@ -29,6 +29,10 @@ import javax.crypto.spec.IvParameterSpec;
  * to enforce this requirement and prevent unauthenticated information 
  * from being mistakenly trusted.
  * 
+ * A CipherCodec instance may be used by many threads at the same time. Each
+ * thread uses its own Cipher and MessageDigest instances, which are not
+ * thread-safe, so encryption and decryption do not block each other.
+ * 
  * @author jbuhacoff
  */
 public abstract class CipherCodec<T> {
@@ -38,26 +42,26 @@ public abstract class CipherCodec<T> {
 //    private transient Cipher cipher;
 //    private transient MessageDigest md;
     private final transient RandomSource random;
-    private final transient HashMap<String,Cipher> ciphers;
-    private final transient HashMap<String,MessageDigest> digests;
-    private boolean decryptArchive = false; // when false, input crypto must meet the policy;  when true, allows to decrypt input crypto that does not meet policy (for example to view old archived data) ;   it should be a very deliberate action to allow it... so applications hould do it in special "archive viewing" area and not where the codec is normally used for current operations. 
+    private final transient ThreadLocal<HashMap<String,Cipher>> ciphers;
+    private final transient ThreadLocal<HashMap<String,MessageDigest>> digests;
+    private volatile boolean decryptArchive = false; // when false, input crypto must meet the policy;  when true, allows to decrypt input crypto that does not meet policy (for example to view old archived data) ;   it should be a very deliberate action to allow it... so applications hould do it in special "archive viewing" area and not where the codec is normally used for current operations. 
     
     public CipherCodec(EncryptionKeySource encryptionKeySource, Protection protection) {
-        this.ciphers = new HashMap<>();
-        this.digests = new HashMap<>();
+        this.ciphers = new CipherThreadLocal();
+        this.digests = new MessageDigestThreadLocal();
         this.encryptionKeySource = encryptionKeySource;
         this.protection = protection;
         this.random = new RandomSource();
     }
     public CipherCodec(EncryptionKeySource encryptionKeySource, Protection protection, RandomSource random) {
-        this.ciphers = new HashMap<>();
-        this.digests = new HashMap<>();
+        this.ciphers = new CipherThreadLocal();
+        this.digests = new MessageDigestThreadLocal();
         this.encryptionKeySource = encryptionKeySource;
         this.protection = protection;
         this.random = random;
     }
 
-    protected synchronized Protection getProtection() {
+    protected Protection getProtection() {
         return protection;
     }
 
@@ -71,20 +75,46 @@ public abstract class CipherCodec<T> {
     }
     
     
+    private static class CipherThreadLocal extends ThreadLocal<HashMap<String,Cipher>> {
+        @Override
+        protected HashMap<String,Cipher> initialValue() {
+            return new HashMap<>();
+        }
+    }
+    
+    private static class MessageDigestThreadLocal extends ThreadLocal<HashMap<String,MessageDigest>> {
+        @Override
+        protected HashMap<String,MessageDigest> initialValue() {
+            return new HashMap<>();
+        }
+    }
+    
+    /**
+     * 
+     * @param protection
+     * @return a cipher instance for use only by the current thread
+     */
     private Cipher getCipher(Protection protection) throws NoSuchAlgorithmException, NoSuchPaddingException {
-        Cipher cipher = ciphers.get(protection.cipher);
+        HashMap<String,Cipher> threadCiphers = ciphers.get();
+        Cipher cipher = threadCiphers.get(protection.cipher);
         if( cipher == null ) {
             cipher = Cipher.getInstance(String.format("%s/%s/%s", protection.algorithm, protection.mode, protection.padding));
-            ciphers.put(protection.cipher, cipher);
+            threadCiphers.put(protection.cipher, cipher);
         }
         return cipher;
     }
     
+    /**
+     * 
+     * @param protection
+     * @return a message digest instance for use only by the current thread
+     */
     private MessageDigest getMessageDigest(Protection protection) throws NoSuchAlgorithmException, NoSuchPaddingException {
-        MessageDigest md = digests.get(protection.digestAlgorithm);
+        HashMap<String,MessageDigest> threadDigests = digests.get();
+        MessageDigest md = threadDigests.get(protection.digestAlgorithm);
         if( md == null ) {
             md = MessageDigest.getInstance(protection.digestAlgorithm);
-            digests.put(protection.digestAlgorithm, md);
+            threadDigests.put(protection.digestAlgorithm, md);
         }
         return md;
     }
@@ -95,7 +125,7 @@ public abstract class CipherCodec<T> {
         md = MessageDigest.getInstance(protection.digestAlgorithm);
     }*/
     
-    public final synchronized byte[] encrypt(T object) throws GeneralSecurityException /*CryptographyException*/ {
+    public final byte[] encrypt(T object) throws GeneralSecurityException /*CryptographyException*/ {
         EncryptionKey key = encryptionKeySource.getEncryptionKey(protection);
         Plaintext plaintext = new Plaintext();
 //        plaintext.header = formatPlaintextHeader(object);
@@ -226,7 +256,7 @@ public abstract class CipherCodec<T> {
      * @return
      * @throws CryptographyException 
      */
-    public final synchronized T decrypt(byte[] ciphertext) throws GeneralSecurityException /*CryptographyException*/, KeyNotFoundException {
+    public final T decrypt(byte[] ciphertext) throws GeneralSecurityException /*CryptographyException*/, KeyNotFoundException {
 //        try {
             Ciphertext encrypted = parseCiphertext(ciphertext); // split up a byte array  into an iv, and actual ciphertext to decrypt
             EncryptionKey key;
@@ -5,8 +5,9 @@
 package com.intel.dcsg.cpg.crypto.key;
 
 import com.intel.dcsg.cpg.io.UUID;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
@@ -23,16 +24,26 @@ import javax.crypto.SecretKey;
  * is an interface but we could have a concrete implementation which does
  * it, and that could be abstracted into a key policy interface and implementation....
  * 
+ * This class is safe for use by multiple threads. Keys found in the
+ * repository are cached by key id so that decrypting a message does not
+ * need to search the repository again for the same key. The cache is
+ * cleared automatically when keys are removed from a
+ * HashMapMutableSecretKeyRepository; for other repositories call clearCache()
+ * after removing or replacing keys.
+ * 
  * @author jbuhacoff
  */
 public class EncryptionKeySource {
-    private transient HashMap<String,EncryptionKey> current = new HashMap<String,EncryptionKey>(); // one current key for each specification
+    private transient ConcurrentHashMap<String,EncryptionKey> current = new ConcurrentHashMap<>(); // one current key for each specification
+    private transient ConcurrentHashMap<ByteBuffer,EncryptionKey> found = new ConcurrentHashMap<>(); // keys found in the repository, by key id
 //    private EncryptionKey currentKey;
     private MutableSecretKeyRepository repository;
+    private volatile long repositoryRevision = 0;
+    private final AtomicLong generation = new AtomicLong(0); // incremented by clearCache() so a lookup that started before it does not cache its result
 //    private Protection protection;
     
     public EncryptionKeySource() {
-        this.repository = new HashMapMutableSecretKeyRepository(new HashMap<String,EncryptionKey>());
+        this.repository = new HashMapMutableSecretKeyRepository();
 //        this.protection = protection;
     }
     public EncryptionKeySource(MutableSecretKeyRepository repository/*, Protection protection*/) {
@@ -46,6 +57,27 @@ public class EncryptionKeySource {
 
     protected void setRepository(MutableSecretKeyRepository repository) {
         this.repository = repository;
+        clearCache();
+    }
+    
+    /**
+     * Removes all cached keys, so the next encryption creates a new key and
+     * the next decryption searches the repository again.
+     */
+    public void clearCache() {
+        generation.incrementAndGet();
+        current.clear();
+        found.clear();
+    }
+    
+    private void checkRepositoryRevision() {
+        if( repository instanceof HashMapMutableSecretKeyRepository ) {
+            long revision = ((HashMapMutableSecretKeyRepository)repository).getRevision();
+            if( revision != repositoryRevision ) {
+                clearCache();
+                repositoryRevision = revision;
+            }
+        }
     }
 /*
     public Protection getProtection() {
@@ -58,10 +90,18 @@ public class EncryptionKeySource {
     */
     
     public EncryptionKey getEncryptionKey(Protection protection) throws NoSuchAlgorithmException  {
+        checkRepositoryRevision();
         EncryptionKey key = current.get(protection.cipher);
         if( key == null ) {
+            long cacheGeneration = generation.get();
             key = createEncryptionKey(protection);
-            current.put(protection.cipher, key);
+            EncryptionKey existing = current.putIfAbsent(protection.cipher, key);
+            if( existing != null ) {
+                key = existing; // another thread created the current key first; the extra key remains in the repository but is not used for encryption
+            }
+            else if( generation.get() != cacheGeneration ) {
+                current.remove(protection.cipher, key); // the cache was cleared while the key was created, so the next encryption creates another one
+            }
         }
         return key;
     }
@@ -84,7 +124,20 @@ public class EncryptionKeySource {
      * @return the key or null if it was not found
      */
     public EncryptionKey getDecryptionKey(byte[] keyId) {
-        EncryptionKey key = repository.find(keyId);
+        checkRepositoryRevision();
+        ByteBuffer id = ByteBuffer.wrap(keyId);
+        EncryptionKey key = found.get(id);
+        if( key == null ) {
+            long cacheGeneration = generation.get();
+            key = repository.find(keyId);
+            if( key != null ) {
+                ByteBuffer copy = ByteBuffer.wrap(keyId.clone()); // copy so later changes to the caller's array do not affect the cache
+                found.put(copy, key);
+                if( generation.get() != cacheGeneration ) {
+                    found.remove(copy, key); // the cache was cleared during the search, so the key may have been removed from the repository
+                }
+            }
+        }
         return key;
     }
     
@@ -4,17 +4,32 @@
  */
 package com.intel.dcsg.cpg.crypto.key;
 
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.codec.binary.Base64;
 
 /**
- *
+ * Keeps keys in a map. The repository is safe for use by multiple threads
+ * when the map is a ConcurrentHashMap, which is what the no-argument
+ * constructor uses.
+ * 
+ * The revision number changes whenever keys are removed, for example when
+ * they are rotated. Caches of keys, or of tokens validated with them, can
+ * compare the revision to detect that they must be cleared. Adding a key
+ * does not change the revision because it does not invalidate anything.
+ * 
  * @author jbuhacoff
  */
 public class HashMapMutableSecretKeyRepository implements MutableSecretKeyRepository {
-    private HashMap<String,EncryptionKey> store;
+    private Map<String,EncryptionKey> store;
+    private final AtomicLong revision = new AtomicLong(0);
     
-    public HashMapMutableSecretKeyRepository(HashMap<String,EncryptionKey> map) {
+    public HashMapMutableSecretKeyRepository() {
+        store = new ConcurrentHashMap<>();
+    }
+    
+    public HashMapMutableSecretKeyRepository(Map<String,EncryptionKey> map) {
         store = map;
     }
     
@@ -37,4 +52,29 @@ public class HashMapMutableSecretKeyRepository implements MutableSecretKeyReposi
         return key;
     }
     
+    /**
+     * Removes the specified key, for example when it is rotated.
+     * @param keyId 
+     */
+    public void remove(byte[] keyId) {
+        store.remove(Base64.encodeBase64String(keyId));
+        revision.incrementAndGet();
+    }
+    
+    /**
+     * Removes all keys.
+     */
+    public void clear() {
+        store.clear();
+        revision.incrementAndGet();
+    }
+    
+    /**
+     * 
+     * @return a number that changes whenever keys are removed
+     */
+    public long getRevision() {
+        return revision.get();
+    }
+    
 }
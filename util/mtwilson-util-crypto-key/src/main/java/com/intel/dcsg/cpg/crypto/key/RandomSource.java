@@ -5,6 +5,7 @@
 package com.intel.dcsg.cpg.crypto.key;
 
 import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A wrapper around SecureRandom that periodically re-seeds the generator.
@@ -17,6 +18,8 @@ import java.security.SecureRandom;
  * 
  * The default maximum is Integer.MAX_VALUE.
  * 
+ * A RandomSource may be shared by multiple threads.
+ * 
  * <code>nextGaussian()</code> is not implemented at this time because we don't have 
  * visibility into how many random bytes are drawn from the generator
  * (it's 16 bytes per iteration, at least one iteration, but we don't know
@@ -36,7 +39,7 @@ import java.security.SecureRandom;
  */
 public class RandomSource {
     private SecureRandom random;
-    private long current = 0; // number of random bytes already generated using current seed
+    private final AtomicLong current = new AtomicLong(0); // number of random bytes already generated using current seed
     private long max = Integer.MAX_VALUE; // number of random bytes before we force a re-seed
     
     public RandomSource() {
@@ -56,8 +59,8 @@ public class RandomSource {
     }
     
     private void increment(int n) {
-        current += n;
-        if( current >= max || current < 0 ) { random.setSeed(random.generateSeed(8)); current = n; }
+        long total = current.addAndGet(n);
+        if( total >= max || total < 0 ) { random.setSeed(random.generateSeed(8)); current.set(n); }
     }
     
     public byte[] nextBytes(int num) {
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2014 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.dcsg.cpg.crypto.key;
+
+import java.security.NoSuchAlgorithmException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class EncryptionKeySourceTest {
+
+    /**
+     * Removes each key right after finding it, and then looks up another
+     * key so the source notices the new revision and clears its cache,
+     * like other threads rotating a key and decrypting during the search.
+     */
+    public static class RotatingRepository extends HashMapMutableSecretKeyRepository {
+        private EncryptionKeySource source;
+        private boolean rotate = false;
+
+        @Override
+        public EncryptionKey find(byte[] keyId) {
+            EncryptionKey key = super.find(keyId);
+            if (rotate && key != null) {
+                remove(keyId);
+                assertNull(source.getDecryptionKey(new byte[]{0}));
+            }
+            return key;
+        }
+    }
+
+    @Test
+    public void testDecryptionKeyIsCached() throws NoSuchAlgorithmException {
+        EncryptionKeySource source = new EncryptionKeySource();
+        EncryptionKey key = source.getEncryptionKey(ProtectionBuilder.factory().aes(128).stream().sha256().build());
+        assertSame(key, source.getDecryptionKey(key.getKeyId()));
+        ((HashMapMutableSecretKeyRepository) source.getRepository()).remove(key.getKeyId());
+        assertNull(source.getDecryptionKey(key.getKeyId()));
+    }
+
+    @Test
+    public void testKeyRemovedDuringSearchIsNotCached() throws NoSuchAlgorithmException {
+        RotatingRepository repository = new RotatingRepository();
+        EncryptionKeySource source = new EncryptionKeySource(repository);
+        repository.source = source;
+        EncryptionKey key = source.getEncryptionKey(ProtectionBuilder.factory().aes(128).stream().sha256().build());
+        source.clearCache();
+        repository.rotate = true;
+        assertSame(key, source.getDecryptionKey(key.getKeyId())); // found before it was removed
+        assertNull(source.getDecryptionKey(key.getKeyId()));
+    }
+}
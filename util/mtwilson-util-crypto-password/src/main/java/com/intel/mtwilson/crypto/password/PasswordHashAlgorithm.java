@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.crypto.password;
+
+import java.util.Map;
+
+/**
+ * A password hashing algorithm that can be registered with PasswordUtil
+ * under a name. The name and its parameters are stored with each hash as the
+ * algorithm, for example "PBKDF2WithHmacSHA256;iterations=100000", so each
+ * stored hash can be verified with the same algorithm and parameters that
+ * created it.
+ *
+ * Implementations must be safe to use from multiple threads.
+ *
+ * @author jbuhacoff
+ */
+public interface PasswordHashAlgorithm {
+    /**
+     *
+     * @param password
+     * @param hashProtection salt and iterations; the algorithm name was already used to find this implementation
+     * @param parameters from the algorithm name, empty if there are none
+     * @return the password hash
+     */
+    byte[] hash(byte[] password, HashProtection hashProtection, Map<String, String> parameters);
+}
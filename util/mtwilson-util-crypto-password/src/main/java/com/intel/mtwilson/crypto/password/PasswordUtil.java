@@ -4,35 +4,120 @@
  */
 package com.intel.mtwilson.crypto.password;
 
-import com.intel.dcsg.cpg.crypto.Sha256Digest;
-import com.intel.dcsg.cpg.io.ByteArray;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * This class is similar to HashedCredentialsMatcher that comes wtih 
- * Apache Shiro but instead of having a static configuration of 
+ * This class is similar to HashedCredentialsMatcher that comes wtih
+ * Apache Shiro but instead of having a static configuration of
  * the algorithm name and iteration count (which requires downtime
- * while upgrading passwords on the server for all accounts), 
+ * while upgrading passwords on the server for all accounts),
  * this matcher allows a per-instance configuration using the
  * corresponding PasswordAuthenticationInfo class used by the
- * JdbcPasswordRealm 
- * 
+ * JdbcPasswordRealm
+ *
+ * The algorithm of the hash protection is a registered algorithm name,
+ * optionally followed by parameters separated by semicolons, for example
+ * "SCRYPT;N=16384;r=8;p=1". Names are not case sensitive but parameter
+ * names are. The algorithm name is stored with each hash so existing
+ * hashes are verified with the algorithm that created them:
+ * <pre>
+ * SHA256 or SHA-256      iterated SHA-256, see Sha256PasswordHash
+ * PBKDF2WithHmacSHA256   see Pbkdf2PasswordHash
+ * SCRYPT                 memory-hard, see ScryptPasswordHash
+ * </pre>
+ *
  * @author jbuhacoff
  */
 public class PasswordUtil {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PasswordUtil.class);
-    
+    private static final ConcurrentHashMap<String, PasswordHashAlgorithm> algorithms = new ConcurrentHashMap<>();
+
+    static {
+        // SHA-256 is the standard Java name but we also accept SHA256
+        Sha256PasswordHash sha256 = new Sha256PasswordHash();
+        register("SHA-256", sha256);
+        register("SHA256", sha256);
+        register("PBKDF2WithHmacSHA256", new Pbkdf2PasswordHash());
+        register("SCRYPT", new ScryptPasswordHash());
+    }
+
+    /**
+     * Registers a password hashing algorithm, replacing any algorithm
+     * already registered with the same name.
+     *
+     * @param name like "PBKDF2WithHmacSHA256", must not contain semicolons or colons
+     * @param algorithm
+     */
+    public static void register(String name, PasswordHashAlgorithm algorithm) {
+        if( name.indexOf(';') > -1 || name.indexOf(':') > -1 ) {
+            throw new IllegalArgumentException("Invalid algorithm name: "+name);
+        }
+        algorithms.put(name.toUpperCase(Locale.ENGLISH), algorithm);
+    }
+
     public static byte[] hash(byte[] inputPasswordBytes, HashProtection hashProtection) {
-        // SHA-256 is the standard Java name but we also accept SHA256 
-        if( "SHA-256".equalsIgnoreCase(hashProtection.getAlgorithm()) ||  "SHA256".equalsIgnoreCase(hashProtection.getAlgorithm()) ) {
-            // first iteration is mandatory
-            Sha256Digest digest = Sha256Digest.digestOf(ByteArray.concat(hashProtection.getSalt(), inputPasswordBytes));
-            int max = hashProtection.getIterations() - 1; // -1 because we just completed the first iteration
-            for(int i=0; i<max; i++) {
-                digest = Sha256Digest.digestOf(digest.toByteArray());
+        String algorithm = hashProtection.getAlgorithm();
+        if( algorithm == null ) {
+            throw new UnsupportedOperationException("Algorithm not supported: null");
+        }
+        int semicolon = algorithm.indexOf(';');
+        String name = semicolon > -1 ? algorithm.substring(0, semicolon) : algorithm;
+        PasswordHashAlgorithm implementation = algorithms.get(name.trim().toUpperCase(Locale.ENGLISH));
+        if( implementation == null ) {
+            throw new UnsupportedOperationException("Algorithm not supported: "+algorithm);
+        }
+        Map<String,String> parameters = semicolon > -1 ? parseParameters(algorithm.substring(semicolon+1)) : Collections.<String,String>emptyMap();
+        return implementation.hash(inputPasswordBytes, hashProtection, parameters);
+    }
+
+    /**
+     *
+     * @param iterations
+     * @return an algorithm name for PBKDF2 with HMAC-SHA256 that includes the iteration count
+     */
+    public static String pbkdf2(int iterations) {
+        return String.format("PBKDF2WithHmacSHA256;iterations=%d", iterations);
+    }
+
+    /**
+     *
+     * @param n CPU and memory cost, a power of 2 greater than 1
+     * @param r block size
+     * @param p parallelization
+     * @return an algorithm name for scrypt that includes its parameters
+     */
+    public static String scrypt(int n, int r, int p) {
+        return String.format("SCRYPT;N=%d;r=%d;p=%d", n, r, p);
+    }
+
+    private static Map<String,String> parseParameters(String text) {
+        HashMap<String,String> parameters = new HashMap<>();
+        for(String parameter : text.split(";")) {
+            if( parameter.trim().isEmpty() ) { continue; }
+            int equals = parameter.indexOf('=');
+            if( equals < 0 ) {
+                throw new IllegalArgumentException("Invalid algorithm parameter: "+parameter);
             }
-            return digest.toByteArray();
+            parameters.put(parameter.substring(0, equals).trim(), parameter.substring(equals+1).trim());
+        }
+        return parameters;
+    }
+
+    static int getIntegerParameter(Map<String,String> parameters, String name, int defaultValue) {
+        String value = parameters.get(name);
+        if( value == null ) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        }
+        catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid algorithm parameter: "+name+"="+value, e);
         }
-        throw new UnsupportedOperationException("Algorithm not supported: "+hashProtection.getAlgorithm()); 
     }
 
 }
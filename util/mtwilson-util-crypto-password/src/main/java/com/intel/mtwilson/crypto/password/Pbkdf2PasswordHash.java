@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.crypto.password;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * PBKDF2 with HMAC-SHA256 as defined in RFC 2898, registered as
+ * "PBKDF2WithHmacSHA256". The password bytes are used as the HMAC key as-is,
+ * so the result is the same as other implementations that take the password
+ * as UTF-8 bytes.
+ *
+ * Parameters in the algorithm name:
+ * <pre>
+ * iterations   iteration count; defaults to the iterations of the hash protection
+ * length       length of the hash in bytes; defaults to 32
+ * </pre>
+ *
+ * The JCE implementation of PBKDF2WithHmacSHA256 is not available in Java 7
+ * and takes the password as characters, so this class computes it with a
+ * per-thread HmacSHA256 instance instead.
+ *
+ * @author jbuhacoff
+ */
+public class Pbkdf2PasswordHash implements PasswordHashAlgorithm {
+    private static final int DEFAULT_LENGTH = 32;
+    private static final int HLEN = 32;
+    private static final MacThreadLocal macs = new MacThreadLocal();
+
+    private static class MacThreadLocal extends ThreadLocal<Mac> {
+        @Override
+        protected Mac initialValue() {
+            try {
+                return Mac.getInstance("HmacSHA256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new UnsupportedOperationException("Missing algorithm implementation: HmacSHA256", e);
+            }
+        }
+    }
+
+    @Override
+    public byte[] hash(byte[] password, HashProtection hashProtection, Map<String, String> parameters) {
+        int iterations = PasswordUtil.getIntegerParameter(parameters, "iterations", hashProtection.getIterations());
+        int length = PasswordUtil.getIntegerParameter(parameters, "length", DEFAULT_LENGTH);
+        if (iterations < 1) {
+            throw new IllegalArgumentException("PBKDF2 iterations must be at least 1");
+        }
+        if (length < 1) {
+            throw new IllegalArgumentException("PBKDF2 length must be at least 1");
+        }
+        return derive(password, hashProtection.getSalt(), iterations, length);
+    }
+
+    /**
+     *
+     * @param password
+     * @param salt
+     * @param iterations at least 1
+     * @param length of the derived key in bytes
+     * @return the derived key
+     */
+    public static byte[] derive(byte[] password, byte[] salt, int iterations, int length) {
+        Mac mac = macs.get();
+        try {
+            // an empty key is not allowed by SecretKeySpec but HMAC pads short keys with zeros, so one zero byte is the same key
+            mac.init(new SecretKeySpec(password.length == 0 ? new byte[1] : password, "HmacSHA256"));
+        } catch (InvalidKeyException e) {
+            throw new IllegalArgumentException("Cannot use password as HMAC key", e);
+        }
+        byte[] result = new byte[length];
+        byte[] u = new byte[HLEN];
+        byte[] t = new byte[HLEN];
+        byte[] blockIndex = new byte[4];
+        try {
+            for (int block = 1, offset = 0; offset < length; block++, offset += HLEN) {
+                blockIndex[0] = (byte) (block >>> 24);
+                blockIndex[1] = (byte) (block >>> 16);
+                blockIndex[2] = (byte) (block >>> 8);
+                blockIndex[3] = (byte) block;
+                mac.update(salt);
+                mac.update(blockIndex);
+                mac.doFinal(u, 0);
+                System.arraycopy(u, 0, t, 0, HLEN);
+                for (int i = 1; i < iterations; i++) {
+                    mac.update(u);
+                    mac.doFinal(u, 0);
+                    for (int j = 0; j < HLEN; j++) {
+                        t[j] ^= u[j];
+                    }
+                }
+                System.arraycopy(t, 0, result, offset, Math.min(HLEN, length - offset));
+            }
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException("Cannot compute HmacSHA256", e);
+        } finally {
+            Arrays.fill(u, (byte) 0);
+            Arrays.fill(t, (byte) 0);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.crypto.password;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The memory-hard scrypt key derivation function as defined in RFC 7914,
+ * registered as "SCRYPT". Each hash needs 128 * r * N bytes of memory, so
+ * guessing passwords with many parallel hardware units is much more
+ * expensive than with iterated hashes.
+ *
+ * Parameters in the algorithm name:
+ * <pre>
+ * N        CPU and memory cost, a power of 2 greater than 1; defaults to 16384
+ * r        block size; defaults to 8
+ * p        parallelization; defaults to 1
+ * length   length of the hash in bytes; defaults to 32
+ * </pre>
+ *
+ * The defaults need 16MB of memory for each hash. The iterations of the hash
+ * protection are not used.
+ *
+ * @author jbuhacoff
+ */
+public class ScryptPasswordHash implements PasswordHashAlgorithm {
+    private static final int DEFAULT_N = 16384;
+    private static final int DEFAULT_R = 8;
+    private static final int DEFAULT_P = 1;
+    private static final int DEFAULT_LENGTH = 32;
+
+    @Override
+    public byte[] hash(byte[] password, HashProtection hashProtection, Map<String, String> parameters) {
+        int n = PasswordUtil.getIntegerParameter(parameters, "N", DEFAULT_N);
+        int r = PasswordUtil.getIntegerParameter(parameters, "r", DEFAULT_R);
+        int p = PasswordUtil.getIntegerParameter(parameters, "p", DEFAULT_P);
+        int length = PasswordUtil.getIntegerParameter(parameters, "length", DEFAULT_LENGTH);
+        return derive(password, hashProtection.getSalt(), n, r, p, length);
+    }
+
+    /**
+     *
+     * @param password
+     * @param salt
+     * @param n CPU and memory cost, a power of 2 greater than 1
+     * @param r block size
+     * @param p parallelization
+     * @param length of the derived key in bytes
+     * @return the derived key
+     */
+    public static byte[] derive(byte[] password, byte[] salt, int n, int r, int p, int length) {
+        if (n < 2 || (n & (n - 1)) != 0) {
+            throw new IllegalArgumentException("scrypt N must be a power of 2 greater than 1");
+        }
+        if (r < 1 || p < 1 || length < 1) {
+            throw new IllegalArgumentException("scrypt r, p, and length must be at least 1");
+        }
+        if ((long) p * 128 * r > Integer.MAX_VALUE || n > Integer.MAX_VALUE / 32 / r) {
+            throw new IllegalArgumentException("scrypt parameters are too large");
+        }
+        int blockInts = 32 * r; // 128 * r bytes
+        byte[] b = Pbkdf2PasswordHash.derive(password, salt, 1, p * 128 * r);
+        int[] x = new int[blockInts];
+        int[] y = new int[blockInts];
+        int[] v = new int[blockInts * n];
+        int[] scratch = new int[16];
+        try {
+            for (int i = 0; i < p; i++) {
+                romix(b, i * 128 * r, r, n, x, y, v, scratch);
+            }
+            return Pbkdf2PasswordHash.derive(password, b, 1, length);
+        } finally {
+            Arrays.fill(b, (byte) 0);
+            Arrays.fill(x, 0);
+            Arrays.fill(y, 0);
+            Arrays.fill(v, 0);
+            Arrays.fill(scratch, 0);
+        }
+    }
+
+    // scryptROMix, in place on 128 * r bytes of b starting at offset
+    private static void romix(byte[] b, int offset, int r, int n, int[] x, int[] y, int[] v, int[] scratch) {
+        int blockInts = 32 * r;
+        for (int i = 0; i < blockInts; i++) {
+            int k = offset + i * 4;
+            x[i] = (b[k] & 0xff) | (b[k + 1] & 0xff) << 8 | (b[k + 2] & 0xff) << 16 | (b[k + 3] & 0xff) << 24;
+        }
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(x, 0, v, i * blockInts, blockInts);
+            blockmix(x, y, r, scratch);
+        }
+        for (int i = 0; i < n; i++) {
+            int j = x[(2 * r - 1) * 16] & (n - 1); // integerify: the first word of the last 64-byte block
+            int base = j * blockInts;
+            for (int k = 0; k < blockInts; k++) {
+                x[k] ^= v[base + k];
+            }
+            blockmix(x, y, r, scratch);
+        }
+        for (int i = 0; i < blockInts; i++) {
+            int k = offset + i * 4;
+            b[k] = (byte) x[i];
+            b[k + 1] = (byte) (x[i] >>> 8);
+            b[k + 2] = (byte) (x[i] >>> 16);
+            b[k + 3] = (byte) (x[i] >>> 24);
+        }
+    }
+
+    // scryptBlockMix, in place on x using y as the output buffer
+    private static void blockmix(int[] x, int[] y, int r, int[] t) {
+        System.arraycopy(x, (2 * r - 1) * 16, t, 0, 16);
+        for (int i = 0; i < 2 * r; i++) {
+            for (int k = 0; k < 16; k++) {
+                t[k] ^= x[i * 16 + k];
+            }
+            salsa20_8(t);
+            // even blocks go to the first half of the output and odd blocks to the second half
+            System.arraycopy(t, 0, y, ((i & 1) * r + (i >>> 1)) * 16, 16);
+        }
+        System.arraycopy(y, 0, x, 0, 32 * r);
+    }
+
+    private static void salsa20_8(int[] b) {
+        int x0 = b[0], x1 = b[1], x2 = b[2], x3 = b[3], x4 = b[4], x5 = b[5], x6 = b[6], x7 = b[7];
+        int x8 = b[8], x9 = b[9], x10 = b[10], x11 = b[11], x12 = b[12], x13 = b[13], x14 = b[14], x15 = b[15];
+        for (int i = 0; i < 8; i += 2) {
+            // columns
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+            // rows
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+        b[0] += x0; b[1] += x1; b[2] += x2; b[3] += x3; b[4] += x4; b[5] += x5; b[6] += x6; b[7] += x7;
+        b[8] += x8; b[9] += x9; b[10] += x10; b[11] += x11; b[12] += x12; b[13] += x13; b[14] += x14; b[15] += x15;
+    }
+}
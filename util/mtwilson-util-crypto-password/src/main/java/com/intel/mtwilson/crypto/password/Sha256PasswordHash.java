@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.crypto.password;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+/**
+ * The original password hash: SHA-256 of the salt followed by the password,
+ * then SHA-256 of the previous digest for each remaining iteration. An
+ * iteration count less than 1 is the same as 1.
+ *
+ * Each thread reuses one MessageDigest and every iteration hashes into the
+ * same buffer, so the hash is the same as before but does not allocate
+ * anything per iteration.
+ *
+ * @author jbuhacoff
+ */
+public class Sha256PasswordHash implements PasswordHashAlgorithm {
+    private static final int LENGTH = 32;
+    private static final MessageDigestThreadLocal digests = new MessageDigestThreadLocal();
+
+    private static class MessageDigestThreadLocal extends ThreadLocal<MessageDigest> {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new UnsupportedOperationException("Missing algorithm implementation: SHA-256", e);
+            }
+        }
+    }
+
+    @Override
+    public byte[] hash(byte[] password, HashProtection hashProtection, Map<String, String> parameters) {
+        MessageDigest md = digests.get();
+        md.reset();
+        byte[] digest = new byte[LENGTH];
+        try {
+            md.update(hashProtection.getSalt());
+            md.update(password);
+            md.digest(digest, 0, LENGTH); // first iteration is mandatory
+            int max = hashProtection.getIterations() - 1; // -1 because we just completed the first iteration
+            for (int i = 0; i < max; i++) {
+                md.update(digest, 0, LENGTH);
+                md.digest(digest, 0, LENGTH);
+            }
+        } catch (DigestException e) {
+            throw new IllegalStateException("Cannot compute SHA-256 digest", e);
+        }
+        return digest;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.crypto.password;
+
+import com.intel.dcsg.cpg.crypto.Sha256Digest;
+import com.intel.dcsg.cpg.io.ByteArray;
+import com.intel.mtwilson.codec.HexUtil;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class PasswordUtilTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PasswordUtilTest.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final long MEASURE_NANOS = 1000000000L;
+
+    private HashedPassword protection(String algorithm, String salt, int iterations) {
+        HashedPassword hashedPassword = new HashedPassword();
+        hashedPassword.setAlgorithm(algorithm);
+        hashedPassword.setSalt(salt.getBytes(UTF8));
+        hashedPassword.setIterations(iterations);
+        return hashedPassword;
+    }
+
+    // the hash loop in PasswordUtil before the algorithms were added
+    private byte[] previousSha256(byte[] password, HashProtection hashProtection) {
+        Sha256Digest digest = Sha256Digest.digestOf(ByteArray.concat(hashProtection.getSalt(), password));
+        int max = hashProtection.getIterations() - 1;
+        for (int i = 0; i < max; i++) {
+            digest = Sha256Digest.digestOf(digest.toByteArray());
+        }
+        return digest.toByteArray();
+    }
+
+    @Test
+    public void testSha256SameAsBefore() {
+        byte[] password = "password".getBytes(UTF8);
+        for (int iterations : new int[]{0, 1, 2, 1000}) {
+            HashedPassword hashedPassword = protection("SHA256", "saltsalt", iterations);
+            assertArrayEquals(previousSha256(password, hashedPassword), PasswordUtil.hash(password, hashedPassword));
+            hashedPassword.setAlgorithm("sha-256");
+            assertArrayEquals(previousSha256(password, hashedPassword), PasswordUtil.hash(password, hashedPassword));
+        }
+        assertArrayEquals(previousSha256(new byte[0], protection("SHA256", "", 1)), PasswordUtil.hash(new byte[0], protection("SHA256", "", 1)));
+    }
+
+    /**
+     * Test vectors from RFC 7914 section 11
+     */
+    @Test
+    public void testPbkdf2HmacSha256() {
+        HashedPassword hashedPassword = protection("PBKDF2WithHmacSHA256;length=64", "salt", 1);
+        assertArrayEquals(HexUtil.toByteArray("55ac046e56e3089fec1691c22544b605f94185216dde0465e68b9d57c20dacbc49ca9cccf179b645991664b39d77ef317c71b845b1e30bd509112041d3a19783"), PasswordUtil.hash("passwd".getBytes(UTF8), hashedPassword));
+        hashedPassword = protection(PasswordUtil.pbkdf2(80000) + ";length=64", "NaCl", 0);
+        assertArrayEquals(HexUtil.toByteArray("4ddcd8f60b98be21830cee5ef22701f9641a4418d04c0414aeff08876b34ab56a1d425a1225833549adb841b51c9b3176a272bdebba1d078478f62b397f33c8d"), PasswordUtil.hash("Password".getBytes(UTF8), hashedPassword));
+        assertEquals(32, PasswordUtil.hash(new byte[0], protection(PasswordUtil.pbkdf2(10), "salt", 0)).length);
+    }
+
+    /**
+     * Test vectors from RFC 7914 section 12
+     */
+    @Test
+    public void testScrypt() {
+        HashedPassword hashedPassword = protection(PasswordUtil.scrypt(16, 1, 1) + ";length=64", "", 0);
+        assertArrayEquals(HexUtil.toByteArray("77d6576238657b203b19ca42c18a0497f16b4844e3074ae8dfdffa3fede21442fcd0069ded0948f8326a753a0fc81f17e8d3e0fb2e0d3628cf35e20c38d18906"), PasswordUtil.hash(new byte[0], hashedPassword));
+        hashedPassword = protection(PasswordUtil.scrypt(1024, 8, 16) + ";length=64", "NaCl", 0);
+        assertArrayEquals(HexUtil.toByteArray("fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b3731622eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640"), PasswordUtil.hash("password".getBytes(UTF8), hashedPassword));
+        hashedPassword = protection(PasswordUtil.scrypt(16384, 8, 1) + ";length=64", "SodiumChloride", 0);
+        assertArrayEquals(HexUtil.toByteArray("7023bdcb3afd7348461c06cd81fd38ebfda8fbba904f8e3ea9b543f6545da1f2d5432955613f0fcf62d49705242a9af9e61e85dc0d651e40dfcf017b45575887"), PasswordUtil.hash("pleaseletmein".getBytes(UTF8), hashedPassword));
+    }
+
+    @Test
+    public void testAlgorithmIsRecordedWithHash() {
+        byte[] password = "password".getBytes(UTF8);
+        HashedPassword stored = protection(PasswordUtil.scrypt(1024, 8, 1), "saltsalt", 0);
+        stored.setPasswordHash(PasswordUtil.hash(password, stored));
+        HashedPassword loaded = protection(stored.getAlgorithm(), "saltsalt", 0);
+        assertArrayEquals(stored.getPasswordHash(), PasswordUtil.hash(password, loaded));
+        loaded.setAlgorithm(PasswordUtil.scrypt(2048, 8, 1));
+        assertFalse(Arrays.equals(stored.getPasswordHash(), PasswordUtil.hash(password, loaded)));
+        assertFalse(Arrays.equals(stored.getPasswordHash(), PasswordUtil.hash("Password".getBytes(UTF8), stored)));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testUnsupportedAlgorithm() {
+        PasswordUtil.hash("password".getBytes(UTF8), protection("MD5", "saltsalt", 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidParameter() {
+        PasswordUtil.hash("password".getBytes(UTF8), protection("SCRYPT;N=1000", "saltsalt", 0));
+    }
+
+    @Test
+    public void testRegisterAlgorithm() {
+        PasswordUtil.register("Reverse", new PasswordHashAlgorithm() {
+            @Override
+            public byte[] hash(byte[] password, HashProtection hashProtection, java.util.Map<String, String> parameters) {
+                byte[] reversed = new byte[password.length];
+                for (int i = 0; i < password.length; i++) {
+                    reversed[i] = password[password.length - 1 - i];
+                }
+                return reversed;
+            }
+        });
+        assertArrayEquals("cba".getBytes(UTF8), PasswordUtil.hash("abc".getBytes(UTF8), protection("reverse", "", 0)));
+    }
+
+    /**
+     * Logins per second on one core for the previous SHA-256 loop, the
+     * reworked SHA-256 loop, and the new algorithms, each measured for about
+     * one second after a warm-up.
+     */
+    @Test
+    public void testLoginsPerSecond() {
+        final byte[] password = "password".getBytes(UTF8);
+        final HashedPassword sha256 = protection("SHA256", "saltsalt", 10000);
+        log.debug("SHA256 10000 iterations before: {} logins per second", loginsPerSecond(new Runnable() {
+            @Override
+            public void run() {
+                previousSha256(password, sha256);
+            }
+        }));
+        log.debug("SHA256 10000 iterations after: {} logins per second", loginsPerSecond(new Runnable() {
+            @Override
+            public void run() {
+                PasswordUtil.hash(password, sha256);
+            }
+        }));
+        final HashedPassword pbkdf2 = protection(PasswordUtil.pbkdf2(10000), "saltsalt", 0);
+        log.debug("{}: {} logins per second", pbkdf2.getAlgorithm(), loginsPerSecond(new Runnable() {
+            @Override
+            public void run() {
+                PasswordUtil.hash(password, pbkdf2);
+            }
+        }));
+        final HashedPassword scrypt = protection(PasswordUtil.scrypt(16384, 8, 1), "saltsalt", 0);
+        log.debug("{}: {} logins per second", scrypt.getAlgorithm(), loginsPerSecond(new Runnable() {
+            @Override
+            public void run() {
+                PasswordUtil.hash(password, scrypt);
+            }
+        }));
+    }
+
+    private long loginsPerSecond(Runnable login) {
+        for (int i = 0; i < 5; i++) {
+            login.run();
+        }
+        long count = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            login.run();
+            count++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MEASURE_NANOS);
+        return count * 1000000000L / elapsed;
+    }
+}
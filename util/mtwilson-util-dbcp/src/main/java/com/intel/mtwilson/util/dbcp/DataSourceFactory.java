@@ -4,6 +4,7 @@
  */
 package com.intel.mtwilson.util.dbcp;
 
+import com.intel.dcsg.cpg.util.jdbc.BoundedConnectionPool;
 import com.intel.dcsg.cpg.util.jdbc.ConnectionPool;
 import com.intel.dcsg.cpg.util.jdbc.PoolingDataSource;
 //import org.apache.commons.dbcp.BasicDataSource;
@@ -30,12 +31,64 @@ public class DataSourceFactory {
         return new PoolingDataSource(connectionPool);
     }
 
+    /**
+     * Creates a pool with a maximum number of connections, a borrow timeout,
+     * a minimum number of idle connections prefilled in the background, and
+     * eviction of idle and over-age connections. The pool statistics are
+     * available from the BoundedConnectionPool returned by
+     * PoolingDataSource.getConnectionPool().
+     * 
+     * Time settings are in milliseconds.
+     * 
+     * @param ds
+     * @param configuration
+     * @return
+     */
+    public static DataSource createBoundedObjectPool(DataSource ds, Configuration configuration) {
+        int maxActive = configuration.getInt("dbcp.max.active", 100); // dbcp.max.active default 100
+        int minIdle = configuration.getInt("dbcp.min.idle", 1); // dbcp.min.idle default 1
+        long maxWait = configuration.getLong("dbcp.max.wait", 30000); // dbcp.max.wait default 30 seconds, negative means wait indefinitely
+        long idleTimeout = configuration.getLong("dbcp.idle.timeout", 1000 * 60 * 5); // dbcp.idle.timeout default 5 minutes, negative means never evict idle connections
+        long maxAge = configuration.getLong("dbcp.max.age", 1000 * 60 * 30); // dbcp.max.age default 30 minutes, negative means no maximum
+        long evictionInterval = configuration.getLong("dbcp.eviction.interval", 1000 * 30); // dbcp.eviction.interval default 30 seconds
+        String validationQuery = configuration.getString("dbcp.validation.query"); // dbcp.validation.query default null
+        boolean validateOnBorrow = configuration.getBoolean("dbcp.validation.on.borrow", true); // dbcp.validation.on.borrow default true
+        boolean validateOnReturn = configuration.getBoolean("dbcp.validation.on.return", false); // dbcp.validation.on.return default false
+        boolean validateWhileIdle = configuration.getBoolean("dbcp.validation.while.idle", true); // dbcp.validation.while.idle default true
+        if (validationQuery == null || validationQuery.isEmpty()) {
+            log.debug("validate on borrow, on return, and while idle are forced off because validation query is not defined");
+            validateOnBorrow = false;
+            validateOnReturn = false;
+            validateWhileIdle = false;
+        }
+        BoundedConnectionPool connectionPool = new BoundedConnectionPool();
+        connectionPool.setDataSource(ds);
+        connectionPool.setMaxTotal(maxActive);
+        connectionPool.setMinIdle(Math.min(minIdle, maxActive));
+        connectionPool.setMaxWaitMillis(maxWait);
+        connectionPool.setMaxIdleMillis(idleTimeout);
+        connectionPool.setMaxAgeMillis(maxAge);
+        connectionPool.setEvictionIntervalMillis(evictionInterval);
+        log.debug("bounded pool max={} min idle={} max wait={}", maxActive, minIdle, maxWait);
+        log.debug("validating on borrow={}, on return={}, while idle={}, with query={}", validateOnBorrow, validateOnReturn, validateWhileIdle, validationQuery);
+        connectionPool.setValidateOnBorrow(validateOnBorrow);
+        connectionPool.setValidateOnReturn(validateOnReturn);
+        connectionPool.setValidateWhileIdle(validateWhileIdle);
+        connectionPool.setValidationQuery(validationQuery);
+        connectionPool.start(); // prefill in the background and schedule the evictor
+        return new PoolingDataSource(connectionPool);
+    }
+
     /**
      * @param ds
      * @param configuration
      * @return
      */
     public static DataSource createConfigurableObjectPool(DataSource ds, Configuration configuration) {
+        int maxActive = configuration.getInt("dbcp.max.active", 0); // dbcp.max.active default 0 means unbounded
+        if( maxActive > 0 ) {
+            return createBoundedObjectPool(ds, configuration);
+        }
         String validationQuery = configuration.getString("dbcp.validation.query"); // dbcp.validation.query default null
         boolean validateOnBorrow = configuration.getBoolean("dbcp.validation.on.borrow", true); // dbcp.validation.on.borrow default true
         boolean validateOnReturn = configuration.getBoolean("dbcp.validation.on.return", false); // dbcp.validation.on.return default false
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.util.dbcp;
+
+import com.intel.dcsg.cpg.util.jdbc.BoundedConnectionPool;
+import com.intel.dcsg.cpg.util.jdbc.DelegatingDataSource;
+import com.intel.dcsg.cpg.util.jdbc.PoolingDataSource;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import javax.sql.DataSource;
+import org.apache.commons.configuration.BaseConfiguration;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compares per-request latency of opening a new connection for every
+ * request, which is what MyJdbc.openConnection() used to do, with borrowing
+ * from the bounded pool that it uses now.
+ *
+ * Uses an in-memory Derby database. Opening a Derby connection is much
+ * cheaper than a TCP and authentication handshake with PostgreSQL, so the
+ * unpooled data source adds a fixed delay to each new connection to
+ * approximate it.
+ *
+ * @author jbuhacoff
+ */
+public class BoundedPoolLatencyTest {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(BoundedPoolLatencyTest.class);
+    private static final String URL = "jdbc:derby:memory:latency;create=true";
+    private static final long HANDSHAKE_MILLIS = 5;
+    private static final int REQUESTS = 200;
+
+    /**
+     * Opens a new connection from DriverManager on each call, after a delay
+     * simulating the network handshake.
+     */
+    public static class HandshakeDataSource extends DelegatingDataSource {
+        public HandshakeDataSource() {
+            super(null);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            try {
+                Thread.sleep(HANDSHAKE_MILLIS);
+            } catch (InterruptedException e) {
+                throw new SQLException(e);
+            }
+            return DriverManager.getConnection(URL);
+        }
+    }
+
+    @BeforeClass
+    public static void createDatabase() throws Exception {
+        Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+        try (Connection c = DriverManager.getConnection(URL)) {
+            try (Statement s = c.createStatement()) {
+                s.executeUpdate("CREATE TABLE mw_rpc (ID CHAR(36), Name VARCHAR(200), Status VARCHAR(200))");
+                s.executeUpdate("INSERT INTO mw_rpc (ID, Name, Status) VALUES ('1', 'test', 'QUEUE')");
+            }
+        }
+    }
+
+    private void request(DataSource ds) throws SQLException {
+        try (Connection c = ds.getConnection()) {
+            try (Statement s = c.createStatement()) {
+                try (ResultSet rs = s.executeQuery("SELECT ID, Name, Status FROM mw_rpc WHERE ID='1'")) {
+                    while (rs.next()) {
+                        rs.getString("Status");
+                    }
+                }
+            }
+        }
+    }
+
+    private long measure(DataSource ds) throws SQLException {
+        request(ds); // warm up
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            request(ds);
+        }
+        return (System.nanoTime() - start) / REQUESTS / 1000; // microseconds per request
+    }
+
+    @Test
+    public void testPerRequestLatency() throws SQLException {
+        DataSource unpooled = new HandshakeDataSource();
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty("dbcp.max.active", "4");
+        configuration.setProperty("dbcp.min.idle", "1");
+        configuration.setProperty("dbcp.validation.query", "VALUES 1");
+        DataSource pooled = DataSourceFactory.createConfigurableObjectPool(unpooled, configuration);
+        assert pooled instanceof PoolingDataSource;
+        long unpooledMicros = measure(unpooled);
+        long pooledMicros = measure(pooled);
+        BoundedConnectionPool pool = (BoundedConnectionPool) ((PoolingDataSource) pooled).getConnectionPool();
+        log.debug("Connection per request: {} us per request", unpooledMicros);
+        log.debug("Bounded pool: {} us per request, pool {}", pooledMicros, pool);
+        assert pool.getCreatedCount() <= 4;
+        assert pool.getActiveCount() == 0;
+        pool.close();
+    }
+}
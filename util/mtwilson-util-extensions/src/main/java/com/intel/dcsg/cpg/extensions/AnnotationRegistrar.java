@@ -28,6 +28,10 @@ public class AnnotationRegistrar implements Registrar {
         this.annotationName = annotation.getName();
     }
     
+    public Class<? extends Annotation> getAnnotation() {
+        return annotation;
+    }
+    
     // scans given set of classes for classes that are named *Factory and automatically registers them
     @Override
     public boolean accept(Class<?> clazz) {
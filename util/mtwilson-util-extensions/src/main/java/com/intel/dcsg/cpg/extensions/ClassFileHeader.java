@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.dcsg.cpg.extensions;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The information in a class file that the extension scanners need to
+ * decide whether a class is an extension: its name, access flags,
+ * superclass, directly implemented interfaces, runtime-visible annotations,
+ * and whether it has public constructors with zero or one arguments.
+ *
+ * The information is read directly from the class file format (JVM
+ * specification chapter 4) without loading the class, so reading the header
+ * does not link the class, resolve its dependencies, or run its static
+ * initializer.
+ *
+ * @author jbuhacoff
+ */
+public class ClassFileHeader {
+    private static final int MAGIC = 0xCAFEBABE;
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_INTERFACE = 0x0200;
+    public static final int ACC_ABSTRACT = 0x0400;
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+    private static final String CONSTRUCTOR = "<init>";
+
+    private int access;
+    private String name;
+    private String superName;
+    private List<String> interfaces;
+    private List<String> annotations;
+    private boolean publicNoArgConstructor = false;
+    private boolean publicOneArgConstructor = false;
+
+    /**
+     *
+     * @return the access flags of the class, see ACC_PUBLIC, ACC_INTERFACE, ACC_ABSTRACT
+     */
+    public int getAccess() {
+        return access;
+    }
+
+    /**
+     *
+     * @return fully qualified class name like "com.example.Foo" or "com.example.Foo$Bar"
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     *
+     * @return fully qualified superclass name, or null for java.lang.Object
+     */
+    public String getSuperName() {
+        return superName;
+    }
+
+    /**
+     *
+     * @return fully qualified names of interfaces the class implements directly
+     */
+    public List<String> getInterfaces() {
+        return interfaces;
+    }
+
+    /**
+     *
+     * @return fully qualified names of the runtime-visible annotations on the class
+     */
+    public List<String> getAnnotations() {
+        return annotations;
+    }
+
+    public boolean isInterface() {
+        return (access & ACC_INTERFACE) != 0;
+    }
+
+    public boolean isAbstract() {
+        return (access & ACC_ABSTRACT) != 0;
+    }
+
+    /**
+     * Same as ReflectionUtil.hasNoArgConstructor
+     * @return true if the class has a public constructor without arguments
+     */
+    public boolean hasNoArgConstructor() {
+        return publicNoArgConstructor;
+    }
+
+    /**
+     * Same as ReflectionUtil.hasOneArgConstructor
+     * @return true if the class has a public constructor with one argument
+     */
+    public boolean hasOneArgConstructor() {
+        return publicOneArgConstructor;
+    }
+
+    public boolean isAnnotationPresent(String annotationName) {
+        return annotations.contains(annotationName);
+    }
+
+    /**
+     * Reads the class file from the given stream. The caller is responsible
+     * for closing the stream.
+     *
+     * @param in class file content
+     * @return the header of the class
+     * @throws IOException if the content cannot be read or is not a class file
+     */
+    public static ClassFileHeader read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        data.readUnsignedShort(); // minor version
+        data.readUnsignedShort(); // major version
+        // constant pool; we keep only the utf8 strings and the name index of class entries
+        int constantPoolCount = data.readUnsignedShort();
+        String[] utf8 = new String[constantPoolCount];
+        int[] classNameIndex = new int[constantPoolCount];
+        for (int i = 1; i < constantPoolCount; i++) {
+            int tag = data.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8[i] = data.readUTF();
+                    break;
+                case 7: // Class
+                    classNameIndex[i] = data.readUnsignedShort();
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    skip(data, 2);
+                    break;
+                case 15: // MethodHandle
+                    skip(data, 3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    skip(data, 4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    skip(data, 8);
+                    i++; // takes two entries in the constant pool
+                    break;
+                default:
+                    throw new IOException(String.format("Unknown constant pool tag %d at index %d", tag, i));
+            }
+        }
+        ClassFileHeader header = new ClassFileHeader();
+        header.access = data.readUnsignedShort();
+        header.name = className(utf8, classNameIndex, data.readUnsignedShort());
+        header.superName = className(utf8, classNameIndex, data.readUnsignedShort());
+        int interfaceCount = data.readUnsignedShort();
+        ArrayList<String> interfaces = new ArrayList<>(interfaceCount);
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces.add(className(utf8, classNameIndex, data.readUnsignedShort()));
+        }
+        header.interfaces = Collections.unmodifiableList(interfaces);
+        // fields
+        int fieldCount = data.readUnsignedShort();
+        for (int i = 0; i < fieldCount; i++) {
+            skip(data, 6); // access, name, descriptor
+            skipAttributes(data);
+        }
+        // methods; we only look at the constructors
+        int methodCount = data.readUnsignedShort();
+        for (int i = 0; i < methodCount; i++) {
+            int methodAccess = data.readUnsignedShort();
+            String methodName = utf8[data.readUnsignedShort()];
+            String descriptor = utf8[data.readUnsignedShort()];
+            if (CONSTRUCTOR.equals(methodName) && (methodAccess & ACC_PUBLIC) != 0) {
+                int parameters = countParameters(descriptor);
+                if (parameters == 0) {
+                    header.publicNoArgConstructor = true;
+                } else if (parameters == 1) {
+                    header.publicOneArgConstructor = true;
+                }
+            }
+            skipAttributes(data);
+        }
+        // class attributes; we only look at the runtime-visible annotations
+        ArrayList<String> annotations = new ArrayList<>();
+        int attributeCount = data.readUnsignedShort();
+        for (int i = 0; i < attributeCount; i++) {
+            String attributeName = utf8[data.readUnsignedShort()];
+            int length = data.readInt();
+            if (RUNTIME_VISIBLE_ANNOTATIONS.equals(attributeName)) {
+                int annotationCount = data.readUnsignedShort();
+                for (int j = 0; j < annotationCount; j++) {
+                    annotations.add(readAnnotation(data, utf8));
+                }
+            } else {
+                skip(data, length);
+            }
+        }
+        header.annotations = Collections.unmodifiableList(annotations);
+        return header;
+    }
+
+    private static String className(String[] utf8, int[] classNameIndex, int index) {
+        if (index == 0) {
+            return null; // super_class of java.lang.Object
+        }
+        return utf8[classNameIndex[index]].replace('/', '.');
+    }
+
+    private static void skip(DataInputStream data, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int skipped = data.skipBytes(remaining);
+            if (skipped <= 0) {
+                data.readByte(); // throws EOFException at end of stream
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static void skipAttributes(DataInputStream data) throws IOException {
+        int attributeCount = data.readUnsignedShort();
+        for (int i = 0; i < attributeCount; i++) {
+            skip(data, 2); // name
+            skip(data, data.readInt());
+        }
+    }
+
+    /**
+     * Reads an annotation and skips its element values.
+     *
+     * @return the fully qualified name of the annotation type
+     */
+    private static String readAnnotation(DataInputStream data, String[] utf8) throws IOException {
+        String type = utf8[data.readUnsignedShort()]; // field descriptor like "Lcom/example/Foo;"
+        int pairCount = data.readUnsignedShort();
+        for (int i = 0; i < pairCount; i++) {
+            skip(data, 2); // element name
+            skipElementValue(data, utf8);
+        }
+        return type.substring(1, type.length() - 1).replace('/', '.');
+    }
+
+    private static void skipElementValue(DataInputStream data, String[] utf8) throws IOException {
+        int tag = data.readUnsignedByte();
+        switch (tag) {
+            case 'e': // enum: type name and constant name
+                skip(data, 4);
+                break;
+            case '@':
+                readAnnotation(data, utf8);
+                break;
+            case '[':
+                int count = data.readUnsignedShort();
+                for (int i = 0; i < count; i++) {
+                    skipElementValue(data, utf8);
+                }
+                break;
+            default: // primitive, string, or class: constant pool index
+                skip(data, 2);
+        }
+    }
+
+    /**
+     *
+     * @param descriptor method descriptor like "(Ljava/lang/String;[I)V"
+     * @return number of parameters
+     */
+    private static int countParameters(String descriptor) {
+        int count = 0;
+        int i = 1; // skip '('
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            while (c == '[') {
+                c = descriptor.charAt(++i);
+            }
+            if (c == 'L') {
+                i = descriptor.indexOf(';', i);
+            }
+            i++;
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ClassFileHeader[name=%s, super=%s, interfaces=%s, annotations=%s]", name, superName, interfaces, annotations);
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.dcsg.cpg.extensions;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * An alternative to Scanner that decides which classes are extensions by
+ * reading their class files instead of loading them.
+ *
+ * Scanner needs a Class object for every candidate, so scanning a jar with
+ * JarClassIterator loads and links every class in it and may run static
+ * initializers of classes that are never used. This scanner reads only the
+ * class file headers (see ClassFileHeader) and applies the same rules as
+ * ImplementationRegistrar and AnnotationRegistrar. Matching classes are
+ * registered by name with DeferredExtensionProvider and are loaded the
+ * first time they are looked up with Extensions.
+ *
+ * Superclasses that are not in the scanned jar are read from the class
+ * loader's resources, also without loading them.
+ *
+ * Example:
+ * <pre>
+ * ClassFileScanner scanner = new ClassFileScanner(classLoader);
+ * scanner.addImplementations(); // same as new ImplementationRegistrar()
+ * scanner.addAnnotation(V2.class.getName()); // same as new AnnotationRegistrar(V2.class)
+ * scanner.scan(new File("mtwilson-example.jar"));
+ * </pre>
+ *
+ * @author jbuhacoff
+ */
+public class ClassFileScanner {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ClassFileScanner.class);
+    private final ClassLoader classLoader;
+    private final HashMap<String, ClassFileHeader> headers = new HashMap<>(); // class name -> header, or null if the class file is not available
+    private boolean implementations = false;
+    private List<String> interfaces = null; // when null, implementations of any interface are registered
+    private final ArrayList<String> annotations = new ArrayList<>();
+    private List<String> includePackagePrefixes = null;
+    private List<String> excludePackagePrefixes = null;
+    private long scannedCount = 0;
+    private long registeredCount = 0;
+
+    /**
+     *
+     * @param classLoader used to read class files of superclasses that are not in the scanned jar, and later to load the registered extensions
+     */
+    public ClassFileScanner(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Register implementations of any interface, same as
+     * new ImplementationRegistrar()
+     */
+    public void addImplementations() {
+        this.implementations = true;
+        this.interfaces = null;
+    }
+
+    /**
+     * Register implementations of the specified interfaces, same as
+     * new ImplementationRegistrar(interfaces)
+     *
+     * @param interfaceNames
+     */
+    public void addImplementations(List<String> interfaceNames) {
+        if (interfaceNames == null) {
+            addImplementations();
+            return;
+        }
+        if (implementations && interfaces == null) {
+            return; // already registering any interface
+        }
+        if (interfaces == null) {
+            interfaces = new ArrayList<>();
+        }
+        interfaces.addAll(interfaceNames);
+        this.implementations = true;
+    }
+
+    /**
+     * Register classes with the specified annotation, same as
+     * new AnnotationRegistrar(annotation)
+     *
+     * @param annotationName
+     */
+    public void addAnnotation(String annotationName) {
+        annotations.add(annotationName);
+    }
+
+    /**
+     *
+     * @param registrar
+     * @return true if addRegistrar can apply the same rules as the registrar
+     */
+    public static boolean isSupported(Registrar registrar) {
+        return registrar instanceof ImplementationRegistrar || registrar instanceof AnnotationRegistrar;
+    }
+
+    /**
+     * Applies the same rules as the given registrar.
+     *
+     * @param registrar an ImplementationRegistrar or AnnotationRegistrar
+     * @throws IllegalArgumentException if the registrar is not supported
+     */
+    public void addRegistrar(Registrar registrar) {
+        if (registrar instanceof ImplementationRegistrar) {
+            addImplementations(((ImplementationRegistrar) registrar).getInterfaces());
+        } else if (registrar instanceof AnnotationRegistrar) {
+            addAnnotation(((AnnotationRegistrar) registrar).getAnnotation().getName());
+        } else {
+            throw new IllegalArgumentException(String.format("Registrar %s is not supported", registrar.getClass().getName()));
+        }
+    }
+
+    public void setIncludePackages(List<String> includePackages) {
+        this.includePackagePrefixes = includePackages == null ? null : toPackagePrefixes(includePackages);
+    }
+
+    public void setExcludePackages(List<String> excludePackages) {
+        this.excludePackagePrefixes = excludePackages == null ? null : toPackagePrefixes(excludePackages);
+    }
+
+    public long getScannedCount() {
+        return scannedCount;
+    }
+
+    /**
+     *
+     * @return number of registrations; a class registered under two interfaces is counted twice
+     */
+    public long getRegisteredCount() {
+        return registeredCount;
+    }
+
+    /**
+     * Scans all the class files in a jar file or directory.
+     *
+     * @param file jar file or directory containing class files
+     * @throws IOException
+     */
+    public void scan(File file) throws IOException {
+        ArrayList<ClassFileHeader> found = new ArrayList<>();
+        if (file.isDirectory()) {
+            readDirectory(file, found);
+        } else {
+            try (JarFile jar = new JarFile(file)) {
+                Enumeration<JarEntry> entries = jar.entries();
+                while (entries.hasMoreElements()) {
+                    JarEntry entry = entries.nextElement();
+                    if (!entry.getName().endsWith(".class")) {
+                        continue;
+                    }
+                    try (InputStream in = jar.getInputStream(entry)) {
+                        found.add(read(in));
+                    } catch (IOException e) {
+                        log.debug("Cannot read class file {} from archive {}", entry.getName(), file.getAbsolutePath(), e);
+                    }
+                }
+            }
+        }
+        // all headers are read before any are processed so that superclasses in the same jar are found even if they are not visible to the class loader
+        for (ClassFileHeader header : found) {
+            scan(header);
+        }
+    }
+
+    /**
+     * Scans a class that is available from the class loader, for example
+     * a class listed in the extensions cache file.
+     *
+     * @param className fully qualified class name
+     * @throws IOException if the class file is not available
+     */
+    public void scan(String className) throws IOException {
+        ClassFileHeader header = header(className);
+        if (header == null) {
+            throw new IOException(String.format("Class file not found: %s", className));
+        }
+        scan(header);
+    }
+
+    public void scan(ClassFileHeader header) {
+        scannedCount++;
+        String className = header.getName();
+        // ignore interfaces and abstract classes because they cannot be instantiated and therefore cannot be extensions themselves
+        if (header.isInterface() || header.isAbstract()) {
+            return;
+        }
+        if (includePackagePrefixes != null && !startsWithAny(className, includePackagePrefixes)) {
+            return;
+        }
+        if (excludePackagePrefixes != null && startsWithAny(className, excludePackagePrefixes)) {
+            return;
+        }
+        if (implementations) {
+            registerImplementation(header);
+        }
+        for (String annotation : annotations) {
+            registerAnnotated(header, annotation);
+        }
+    }
+
+    // same rules as ImplementationRegistrar
+    private void registerImplementation(ClassFileHeader header) {
+        if (!header.hasNoArgConstructor() && !header.hasOneArgConstructor()) {
+            return;
+        }
+        String className = header.getName();
+        register(className, header.getInterfaces());
+        String parentName = header.getSuperName();
+        while (parentName != null && !parentName.equals(Object.class.getName()) && !parentName.equals(className)) {
+            ClassFileHeader parent = header(parentName);
+            if (parent == null) {
+                log.debug("Cannot read parent {} of {}", parentName, className);
+                break;
+            }
+            register(className, parent.getInterfaces());
+            if (parent.isAbstract()) {
+                register(className, parentName);
+            }
+            parentName = parent.getSuperName();
+        }
+    }
+
+    private void register(String className, List<String> serviceNames) {
+        for (String serviceName : serviceNames) {
+            register(className, serviceName);
+        }
+    }
+
+    private void register(String className, String serviceName) {
+        if (interfaces == null || interfaces.contains(serviceName)) {
+            DeferredExtensionProvider.register(serviceName, className, classLoader);
+            registeredCount++;
+        }
+    }
+
+    // same rules as AnnotationRegistrar with ReflectionUtil.isAnnotatedClass
+    private void registerAnnotated(ClassFileHeader header, String annotation) {
+        String className = header.getName();
+        if (header.isAnnotationPresent(annotation) && header.hasNoArgConstructor()) {
+            DeferredExtensionProvider.register(annotation, className, classLoader);
+            registeredCount++;
+            return;
+        }
+        String parentName = header.getSuperName();
+        if (parentName == null || parentName.startsWith("java.") || parentName.startsWith("javax.")) {
+            return;
+        }
+        while (parentName != null && !parentName.equals(Object.class.getName()) && !parentName.equals(className)) {
+            ClassFileHeader parent = header(parentName);
+            if (parent == null) {
+                break;
+            }
+            if (parent.isAnnotationPresent(annotation) && !parent.isInterface() && parent.hasNoArgConstructor()) {
+                DeferredExtensionProvider.register(annotation, className, classLoader);
+                registeredCount++;
+                return;
+            }
+            parentName = parent.getSuperName();
+        }
+    }
+
+    // returns the header of the named class, from a scanned jar or from the class loader, or null if it is not available
+    private ClassFileHeader header(String className) {
+        if (headers.containsKey(className)) {
+            return headers.get(className);
+        }
+        ClassFileHeader header = null;
+        String resource = className.replace('.', '/') + ".class";
+        try (InputStream in = classLoader.getResourceAsStream(resource)) {
+            if (in != null) {
+                header = ClassFileHeader.read(in);
+            }
+        } catch (IOException e) {
+            log.debug("Cannot read class file {}", resource, e);
+        }
+        headers.put(className, header);
+        return header;
+    }
+
+    private ClassFileHeader read(InputStream in) throws IOException {
+        ClassFileHeader header = ClassFileHeader.read(in);
+        headers.put(header.getName(), header);
+        return header;
+    }
+
+    private void readDirectory(File directory, List<ClassFileHeader> found) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                readDirectory(file, found);
+            } else if (file.getName().endsWith(".class")) {
+                try (InputStream in = new FileInputStream(file)) {
+                    found.add(read(in));
+                } catch (IOException e) {
+                    log.debug("Cannot read class file {}", file.getAbsolutePath(), e);
+                }
+            }
+        }
+    }
+
+    private boolean startsWithAny(String test, List<String> prefixes) {
+        for (String prefix : prefixes) {
+            if (test.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the prefixes are like "java", "javax", "com.intel", etc.
+    // we return the same prefixes with a "." at the end so they become
+    // "java.", "javax.", "com.intel.", etc.
+    private List<String> toPackagePrefixes(List<String> prefixes) {
+        ArrayList<String> packagePrefixes = new ArrayList<>();
+        for (String prefix : prefixes) {
+            packagePrefixes.add(prefix + ".");
+        }
+        return packagePrefixes;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.dcsg.cpg.extensions;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Like WhiteboardExtensionProvider, but extensions are registered by class
+ * name and the implementation class is only loaded when the extension is
+ * first used. The ClassFileScanner registers extensions here so that
+ * scanning does not load every candidate class.
+ *
+ * Registrations are copy-on-write in the same way as in
+ * WhiteboardExtensionProvider, so lookups never lock.
+ *
+ * @author jbuhacoff
+ */
+public class DeferredExtensionProvider implements ExtensionProvider {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(DeferredExtensionProvider.class);
+    private static final ConcurrentHashMap<String, List<String>> registry = new ConcurrentHashMap<>(); // interface, abstract class, or annotation name -> immutable list of implementation class names in registration order
+    private static final ConcurrentHashMap<String, ClassLoader> classLoaders = new ConcurrentHashMap<>(); // implementation class name -> class loader to use when it is first needed
+    private static final Object writeLock = new Object();
+
+    /**
+     * Registers implementationName as an implementation of serviceName,
+     * without loading it.
+     *
+     * @param serviceName can be an interface class name, abstract class name, or annotation name
+     * @param implementationName name of a class that implements or extends serviceName or is annotated with serviceName
+     * @param classLoader to use for loading the implementation when it is first used
+     */
+    public static void register(String serviceName, String implementationName, ClassLoader classLoader) {
+        synchronized (writeLock) {
+            classLoaders.put(implementationName, classLoader);
+            List<String> implementations = registry.get(serviceName);
+            if (implementations != null && implementations.contains(implementationName)) {
+                log.debug("Implementation {} is already registered for {}", implementationName, serviceName);
+                return;
+            }
+            ArrayList<String> copy = implementations == null ? new ArrayList<String>() : new ArrayList<>(implementations);
+            copy.add(implementationName);
+            registry.put(serviceName, Collections.unmodifiableList(copy));
+        }
+        ExtensionIndex.invalidate();
+        log.debug("Registered implementation {} for {}", implementationName, serviceName);
+    }
+
+    public static void clearAll() {
+        synchronized (writeLock) {
+            registry.clear();
+            classLoaders.clear();
+        }
+        ExtensionIndex.invalidate();
+        log.info("Cleared all deferred implementations");
+    }
+
+    public static Map<String, List<String>> getRegistry() {
+        return Collections.unmodifiableMap(registry);
+    }
+
+    /**
+     * Loads a registered implementation class using the class loader that
+     * was provided when it was registered. The class is initialized when
+     * its first instance is created.
+     *
+     * @param implementationName
+     * @return the implementation class
+     * @throws ClassNotFoundException
+     */
+    public static Class<?> loadClass(String implementationName) throws ClassNotFoundException {
+        ClassLoader classLoader = classLoaders.get(implementationName);
+        if (classLoader == null) {
+            classLoader = DeferredExtensionProvider.class.getClassLoader();
+        }
+        return Class.forName(implementationName, false, classLoader);
+    }
+
+    private static Iterator<String> list(String serviceName) {
+        List<String> implementations = registry.get(serviceName);
+        if (implementations == null) {
+            return Collections.<String>emptyList().iterator();
+        }
+        return implementations.iterator();
+    }
+
+    @Override
+    public void reload() {
+        ExtensionIndex.invalidate();
+    }
+
+    @Override
+    public Iterator<String> find(Class<?> extension) {
+        return list(extension.getName());
+    }
+
+    @Override
+    public Iterator<String> findAnnotated(Class<? extends Annotation> annotation) {
+        return list(annotation.getName());
+    }
+
+    // returns an instance of the given implementation or null if it does not have a no-arg constructor, same as WhiteboardExtensionProvider
+    private Object createInstance(String name) throws ExtensionNotFoundException {
+        try {
+            Class<?> clazz = loadClass(name);
+            Constructor constructor = ReflectionUtil.getNoArgConstructor(clazz);
+            if (constructor == null) {
+                log.debug("Implementation {} does not have no-arg constructor", name);
+                return null;
+            }
+            return constructor.newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new ExtensionNotFoundException(name, e);
+        }
+    }
+
+    @Override
+    public <T> T create(Class<T> extension, String name) throws ExtensionNotFoundException {
+        return (T) createInstance(name);
+    }
+
+    @Override
+    public Object createAnnotated(Class<? extends Annotation> annotation, String name) throws ExtensionNotFoundException {
+        return createInstance(name);
+    }
+}
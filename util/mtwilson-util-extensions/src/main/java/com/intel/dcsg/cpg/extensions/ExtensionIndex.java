@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.dcsg.cpg.extensions;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-optimized index of extension implementations used by Extensions.
+ *
+ * For each interface or annotation that was looked up, the index keeps the
+ * list of implementations found across all providers, with each
+ * implementation class already loaded and its no-arg constructor already
+ * resolved to a method handle. Lookups that find a current entry do not
+ * search the providers, load classes, or look up constructors.
+ *
+ * Every change to the registry, such as WhiteboardExtensionProvider.register
+ * or unregister or Extensions.reload, calls invalidate() which increments
+ * the generation number. Entries stamped with an older generation are
+ * rebuilt on their next lookup.
+ *
+ * @author jbuhacoff
+ */
+public class ExtensionIndex {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ExtensionIndex.class);
+    private static final AtomicLong generation = new AtomicLong(0);
+    private static final MethodType NO_ARG_CONSTRUCTOR = MethodType.methodType(Object.class);
+    private final ConcurrentHashMap<String, Entry> index = new ConcurrentHashMap<>();
+
+    /**
+     * Called whenever extensions are registered, unregistered, or reloaded.
+     */
+    public static void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    public static long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * An extension found by a provider, with its implementation class and
+     * no-arg constructor resolved when the index entry was built.
+     */
+    public static class Implementation {
+        private final Extensions.Extension extension;
+        private final Class<?> implementationClass; // null if the class could not be loaded
+        private final MethodHandle constructor; // null if there is no accessible no-arg constructor
+
+        public Implementation(Extensions.Extension extension) {
+            this.extension = extension;
+            this.implementationClass = loadClass(extension);
+            this.constructor = implementationClass == null ? null : findConstructor(implementationClass);
+        }
+
+        public Extensions.Extension getExtension() {
+            return extension;
+        }
+
+        public String getName() {
+            return extension.name;
+        }
+
+        public ExtensionProvider getProvider() {
+            return extension.provider;
+        }
+
+        /**
+         *
+         * @return the implementation class, or null if it could not be loaded
+         */
+        public Class<?> getImplementationClass() {
+            return implementationClass;
+        }
+
+        public boolean hasNoArgConstructor() {
+            return constructor != null;
+        }
+
+        /**
+         * Creates a new instance using the cached no-arg constructor.
+         *
+         * @return new instance of the implementation
+         * @throws InstantiationException if the implementation does not have an accessible no-arg constructor
+         * @throws InvocationTargetException if the constructor throws an exception
+         */
+        public Object newInstance() throws InstantiationException, InvocationTargetException {
+            if (constructor == null) {
+                throw new InstantiationException(extension.name);
+            }
+            try {
+                return (Object) constructor.invokeExact();
+            } catch (Throwable e) {
+                throw new InvocationTargetException(e); // same as Constructor.newInstance
+            }
+        }
+
+        private static Class<?> loadClass(Extensions.Extension extension) {
+            String name = extension.name;
+            try {
+                if (extension.provider instanceof DeferredExtensionProvider) {
+                    return DeferredExtensionProvider.loadClass(name); // first use of an extension found by the ClassFileScanner
+                }
+                return Class.forName(name, false, ExtensionIndex.class.getClassLoader()); // initialized when the first instance is created
+            } catch (ClassNotFoundException | LinkageError e) {
+                log.debug("Cannot load implementation class {}", name, e);
+                return null;
+            }
+        }
+
+        private static MethodHandle findConstructor(Class<?> clazz) {
+            Constructor<?> noArgConstructor = ReflectionUtil.getNoArgConstructor(clazz);
+            if (noArgConstructor == null) {
+                return null;
+            }
+            try {
+                return MethodHandles.lookup().unreflectConstructor(noArgConstructor).asType(NO_ARG_CONSTRUCTOR);
+            } catch (IllegalAccessException e) {
+                log.debug("Cannot access no-arg constructor of {}", clazz.getName(), e);
+                return null;
+            }
+        }
+    }
+
+    private static class Entry {
+        private final long generation;
+        private final List<Implementation> implementations;
+
+        public Entry(long generation, List<Implementation> implementations) {
+            this.generation = generation;
+            this.implementations = implementations;
+        }
+    }
+
+    /**
+     *
+     * @param key interface or annotation name
+     * @return current list of implementations, or null if the index does not have a current entry for the key
+     */
+    public List<Implementation> get(String key) {
+        Entry entry = index.get(key);
+        if (entry == null || entry.generation != generation.get()) {
+            return null;
+        }
+        return entry.implementations;
+    }
+
+    /**
+     * Resolves the implementation classes and constructors of the given
+     * extensions and stores them in the index.
+     *
+     * The caller must read the generation with getGeneration() before
+     * searching the providers; if the registry changes while the caller is
+     * searching, the stored entry will already be outdated and will be
+     * rebuilt on the next lookup.
+     *
+     * @param key interface or annotation name
+     * @param entryGeneration generation number read before searching the providers
+     * @param extensions found by the providers, in preference order
+     * @return unmodifiable list of resolved implementations
+     */
+    public List<Implementation> put(String key, long entryGeneration, List<Extensions.Extension> extensions) {
+        ArrayList<Implementation> implementations = new ArrayList<>(extensions.size());
+        for (Extensions.Extension extension : extensions) {
+            implementations.add(new Implementation(extension));
+        }
+        List<Implementation> list = Collections.unmodifiableList(implementations);
+        index.put(key, new Entry(entryGeneration, list));
+        return list;
+    }
+
+    public void clear() {
+        index.clear();
+    }
+}
@@ -95,6 +95,7 @@ public class Extensions {
 //    private static final Filter<String> ANY = new AcceptAny();
 //    private static final ArrayList<String> ANY = ListUtils.EMPTY_LIST;
     private static final Collection<ExtensionProvider> providers = new ArrayList<>();
+    private static final ExtensionIndex index = new ExtensionIndex(); // implementations already found for each interface or annotation
 
     static {
         // we use an instance of ServiceLoaderExtensionProvider to leverage
@@ -170,30 +171,105 @@ public class Extensions {
         return list;
     }
 
+    /**
+     * Same as list(extension) but the result is kept in the index until
+     * the registry changes, so repeated lookups do not search the providers
+     * or load the implementation classes again.
+     * @param extension
+     * @return 
+     */
+    private static List<ExtensionIndex.Implementation> implementations(Class<?> extension) {
+        String key = extension.getName();
+        List<ExtensionIndex.Implementation> list = index.get(key);
+        if( list == null ) {
+            long generation = ExtensionIndex.getGeneration();
+            list = index.put(key, generation, list(extension));
+        }
+        return list;
+    }
+
+    private static List<ExtensionIndex.Implementation> implementationsAnnotated(Class<? extends Annotation> annotation) {
+        String key = "@" + annotation.getName(); // distinct from the key for the same class used as an interface
+        List<ExtensionIndex.Implementation> list = index.get(key);
+        if( list == null ) {
+            long generation = ExtensionIndex.getGeneration();
+            list = index.put(key, generation, listAnnotated(annotation));
+        }
+        return list;
+    }
+
+    /**
+     * The whiteboard and service loader providers create extensions with
+     * the no-arg constructor, so for their extensions we can use the
+     * constructor handle in the index instead of asking the provider to
+     * load the class and look up the constructor again. Other providers
+     * may create extensions differently so we always delegate to them.
+     * @param provider
+     * @return 
+     */
+    private static boolean isNoArgProvider(ExtensionProvider provider) {
+        return isRegistryProvider(provider) || provider instanceof ServiceLoaderExtensionProvider;
+    }
+
+    // the whiteboard and deferred providers return null instead of throwing an exception when an extension cannot be created
+    private static boolean isRegistryProvider(ExtensionProvider provider) {
+        return provider instanceof WhiteboardExtensionProvider || provider instanceof DeferredExtensionProvider;
+    }
+
+    // returns an instance of the implementation in the same way as its provider, which is null or ExtensionNotFoundException if it cannot be created
+    private static Object create(ExtensionIndex.Implementation implementation) {
+        ExtensionProvider provider = implementation.getProvider();
+        if( !implementation.hasNoArgConstructor() ) {
+            if( isRegistryProvider(provider) ) {
+                log.debug("Implementation {} does not have no-arg constructor", implementation.getName());
+                return null;
+            }
+            throw new ExtensionNotFoundException(implementation.getName());
+        }
+        try {
+            return implementation.newInstance();
+        }
+        catch(InstantiationException | InvocationTargetException e) {
+            if( isRegistryProvider(provider) ) {
+                log.debug("Cannot instantiate implementation class {}", implementation.getName(), e);
+                return null;
+            }
+            throw new ExtensionNotFoundException(implementation.getName(), e);
+        }
+    }
+
     public static void reload() {
         for (ExtensionProvider provider : providers) {
             provider.reload();
         }
+        ExtensionIndex.invalidate();
     }
 
     // returns an instance of class or null if not found
     public static <T> T find(Class<T> extension) {
-        List<Extension> list = list(extension);
+        List<ExtensionIndex.Implementation> list = implementations(extension);
         if (list.isEmpty()) {
             return null;
         }
-        Extension first = list.get(0);
-        T implementation = first.provider.create(extension, first.name);
+        ExtensionIndex.Implementation first = list.get(0);
+        if( first.getImplementationClass() != null && isNoArgProvider(first.getProvider()) ) {
+            T implementation = (T)create(first);
+            return implementation;
+        }
+        T implementation = first.getProvider().create(extension, first.getName());
         return implementation;
     }
 
     public static Object findAnnotated(Class<? extends Annotation> annotation) {
-        List<Extension> list = listAnnotated(annotation);
+        List<ExtensionIndex.Implementation> list = implementationsAnnotated(annotation);
         if (list.isEmpty()) {
             return null;
         }
-        Extension first = list.get(0);
-        Object implementation = first.provider.createAnnotated(annotation, first.name);
+        ExtensionIndex.Implementation first = list.get(0);
+        if( first.getImplementationClass() != null && isRegistryProvider(first.getProvider()) ) {
+            return create(first);
+        }
+        Object implementation = first.getProvider().createAnnotated(annotation, first.getName());
         return implementation;
     }
 
@@ -237,20 +313,22 @@ public class Extensions {
     public static <T> List<T> findAll(Class<T> extension) {
         log.debug("findAll extension {}", extension.getName());
         ArrayList<T> result = new ArrayList<>();
-        List<Extension> list = list(extension);
-        for (Extension item : list) {
+        List<ExtensionIndex.Implementation> list = implementations(extension);
+        for (ExtensionIndex.Implementation item : list) {
             try {
-                Class<?> clazz = Class.forName(item.name);
-                Constructor constructor = ReflectionUtil.getNoArgConstructor(clazz);
-                if( constructor == null ) {
-                    log.debug("findAll: class {} does not have a no-arg constructor", item.name);
+                if( item.getImplementationClass() == null ) {
+                    log.debug("findAll: class {} is not available", item.getName());
                     continue;
                 }
-                Object instance = constructor.newInstance();
+                if( !item.hasNoArgConstructor() ) {
+                    log.debug("findAll: class {} does not have a no-arg constructor", item.getName());
+                    continue;
+                }
+                Object instance = item.newInstance();
                 T implementation = (T)instance;
                 result.add(implementation);
-            } catch (InstantiationException | InvocationTargetException | IllegalAccessException | ClassNotFoundException | ClassCastException e) {
-                log.debug("Cannot instantiate implementation class {}", item.name, e);
+            } catch (InstantiationException | InvocationTargetException | ClassCastException e) {
+                log.debug("Cannot instantiate implementation class {}", item.getName(), e);
                 continue;
             }
 
@@ -321,19 +399,29 @@ public class Extensions {
     public static <T> List<T> findAll(Class<T> extension, Filter<Class<?>> filter, Factory<T> factory) {
         log.debug("findAll extension {} filter {} factory {}", extension.getName(), filter.getClass().getName(), factory.getClass().getName());
         ArrayList<T> result = new ArrayList<>();
-        List<Extension> list = list(extension);
-        for (Extension item : list) {
+        List<ExtensionIndex.Implementation> list = implementations(extension);
+        for (ExtensionIndex.Implementation item : list) {
             try {
-                log.debug("findAll trying {} from provider {}", item.name, item.provider.getClass().getName());
-                Class<?> clazz = Class.forName(item.name);
+                log.debug("findAll trying {} from provider {}", item.getName(), item.getProvider().getClass().getName());
+                Class<?> clazz = item.getImplementationClass();
+                if( clazz == null ) {
+                    log.debug("Implementation class {} is not available", item.getName());
+                    continue;
+                }
                 if( filter.accept(clazz)) {
-                    T instance = factory.create(clazz);
+                    T instance;
+                    if( factory instanceof NoArgFactory ) {
+                        instance = item.hasNoArgConstructor() ? (T)item.newInstance() : null;
+                    }
+                    else {
+                        instance = factory.create(clazz);
+                    }
                     if( instance != null ) {
                     result.add(instance);
                     }
                 }
             } catch (ReflectiveOperationException | ClassCastException e) {
-                log.debug("Cannot instantiate implementation class {}", item.name, e);
+                log.debug("Cannot instantiate implementation class {}", item.getName(), e);
                 continue;
             }
 
@@ -411,14 +499,17 @@ public class Extensions {
 //        throw new UnsupportedOperationException();
         log.debug("Extensions findAll interface {} context {}", extension.getName(), (context==null?"null":context.getClass().getName()));
         ArrayList<T> result = new ArrayList<>();
-        List<Extension> list = list(extension);
-        for (Extension item : list) {
+        List<ExtensionIndex.Implementation> list = implementations(extension);
+        for (ExtensionIndex.Implementation item : list) {
             try {
-                Class<?> clazz = Class.forName(item.name);
+                Class<?> clazz = item.getImplementationClass();
+                if( clazz == null ) {
+                    log.debug("Implementation class {} is not available", item.getName());
+                    continue;
+                }
                 if( context == null ) {
-                    Constructor constructor = ReflectionUtil.getNoArgConstructor(clazz);
-                    if( constructor == null ) { continue; }
-                    Object instance = constructor.newInstance();
+                    if( !item.hasNoArgConstructor() ) { continue; }
+                    Object instance = item.newInstance();
                     T implementation = (T)instance;
                     result.add(implementation);
                 }
@@ -445,8 +536,8 @@ public class Extensions {
                         result.add(implementation);
                     }
                 }
-            } catch (InstantiationException | InvocationTargetException | IllegalAccessException | ClassNotFoundException | ClassCastException e) {
-                log.debug("Cannot instantiate implementation class {}", item.name, e);
+            } catch (InstantiationException | InvocationTargetException | IllegalAccessException | ClassCastException e) {
+                log.debug("Cannot instantiate implementation class {}", item.getName(), e);
                 continue;
             }
 
@@ -459,14 +550,17 @@ public class Extensions {
 //        return findAll(Object.class, annotationInterface, context);
 //        throw new UnsupportedOperationException();
         ArrayList<Object> result = new ArrayList<>();
-        List<Extension> list = listAnnotated(annotation);
-        for (Extension item : list) {
+        List<ExtensionIndex.Implementation> list = implementationsAnnotated(annotation);
+        for (ExtensionIndex.Implementation item : list) {
             try {
-                Class<?> clazz = Class.forName(item.name);
+                Class<?> clazz = item.getImplementationClass();
+                if( clazz == null ) {
+                    log.debug("Implementation class {} is not available", item.getName());
+                    continue;
+                }
                 if( context == null ) {
-                    Constructor constructor = ReflectionUtil.getNoArgConstructor(clazz);
-                    if( constructor == null ) { continue; }
-                    Object instance = constructor.newInstance();
+                    if( !item.hasNoArgConstructor() ) { continue; }
+                    Object instance = item.newInstance();
                     result.add(instance);
                 }
                 else {
@@ -490,8 +584,8 @@ public class Extensions {
                         result.add(instance);
                     }
                 }
-            } catch (InstantiationException | InvocationTargetException | IllegalAccessException | ClassNotFoundException | ClassCastException e) {
-                log.debug("Cannot instantiate implementation class {}", item.name, e);
+            } catch (InstantiationException | InvocationTargetException | IllegalAccessException | ClassCastException e) {
+                log.debug("Cannot instantiate implementation class {}", item.getName(), e);
                 continue;
             }
         }
@@ -43,6 +43,14 @@ public class ImplementationRegistrar implements Registrar {
         }
     }
 
+    /**
+     * 
+     * @return names of the interfaces that will be registered, or null if any interface will be registered
+     */
+    public List<String> getInterfaces() {
+        return acceptable;
+    }
+
     @Override
     public boolean accept(Class<?> clazz) {
         boolean accepted = false;
@@ -26,6 +26,7 @@ public class ServiceLoaderExtensionProvider implements ExtensionProvider {
         for(ServiceLoader loader : map.values()) {
             loader.reload();
         }
+        ExtensionIndex.invalidate();
     }
 
     /**
@@ -11,36 +11,48 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.collections.ListUtils;
 
 /**
  * This class is maintains a singleton whiteboard with registered
  * extensions. 
  * 
+ * The whiteboard maps each interface name to an immutable list of
+ * implementations in preference order. Writers build a new list and
+ * replace the old one while holding the write lock, so readers never lock
+ * and always see a complete list, even while plugins are being registered
+ * or reloaded by another thread. The list is sorted according to the
+ * preferences once per write, so readers do not need to consult the
+ * preferences.
+ * 
  * @author jbuhacoff
  */
 public class WhiteboardExtensionProvider implements ExtensionProvider {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(WhiteboardExtensionProvider.class);
-    private static final HashMap<String, List<Class<?>>> whiteboard = new HashMap<>(); // complete list of available implementations for each interface, in preference order (sorted when preferences change and when plugins are added)
-    private static final HashMap<String, List<String>> preferences = new HashMap<>(); // optional application-declared implementation preferences for each interface
+    private static final ConcurrentHashMap<String, List<Class<?>>> whiteboard = new ConcurrentHashMap<>(); // complete list of available implementations for each interface, in preference order; each list is immutable and replaced on write
+    private static final ConcurrentHashMap<String, List<String>> preferences = new ConcurrentHashMap<>(); // optional application-declared implementation preferences for each interface
+    private static final Object writeLock = new Object(); // serializes writers so concurrent registrations are not lost; readers do not use it
 
     /**
      * Clears all registrations
      */
     public static void clearAll() {
-        whiteboard.clear();
+        synchronized(writeLock) {
+            whiteboard.clear();
+        }
+        ExtensionIndex.invalidate();
         log.info("Cleared all implementations for all interfaces");
     }
     
     private static void clear(String serviceName) {
-        List<Class<?>> serviceImplementations = whiteboard.get(serviceName);
-        if( serviceImplementations != null ) {
-            serviceImplementations.clear();
+        synchronized(writeLock) {
+            whiteboard.remove(serviceName);
         }
+        ExtensionIndex.invalidate();
     }    
     
     /**
@@ -57,6 +69,20 @@ public class WhiteboardExtensionProvider implements ExtensionProvider {
         log.info("Cleared implementations for annotation {}", annotationInterface.getName());
     }
     
+    /**
+     * Must be called while holding the write lock.
+     * 
+     * @param serviceName
+     * @param serviceImplementations new list of implementations, which will be sorted according to preferences
+     */
+    private static void publish(String serviceName, ArrayList<Class<?>> serviceImplementations) {
+        List<String> preferenceOrder = preferences.get(serviceName);
+        if( preferenceOrder != null && !preferenceOrder.isEmpty() && serviceImplementations.size() > 1 ) {
+            Collections.sort(serviceImplementations, new PreferenceComparator(preferenceOrder)); // stable sort, so implementations without a preference stay in registration order
+        }
+        whiteboard.put(serviceName, Collections.unmodifiableList(serviceImplementations));
+    }
+    
     /**
      * Registers serviceImplementation as an implementation of serviceInterface.
      * 
@@ -65,27 +91,18 @@ public class WhiteboardExtensionProvider implements ExtensionProvider {
      */
     private static void register(String serviceName, Class<?> serviceImplementation) {
         log.debug("Registering implementation {} for interface {}", serviceImplementation.getName(), serviceName);
-        // first, unregister the implementation to ensure we're not registering a duplicate
-        synchronized(whiteboard) {
+        synchronized(writeLock) {
             List<Class<?>> serviceImplementations = whiteboard.get(serviceName);
-            if( serviceImplementations == null ) {
-                serviceImplementations = new ArrayList<Class<?>>();
-                whiteboard.put(serviceName, serviceImplementations);
-            }
             // check if the implementation is already registered
-            if( serviceImplementations.contains(serviceImplementation) ) {
+            if( serviceImplementations != null && serviceImplementations.contains(serviceImplementation) ) {
                 log.debug("Implementation {} is already registered for interface {}", serviceImplementation.getName(), serviceName);
+                return;
             }
-            else {
-                serviceImplementations.add(serviceImplementation); // no preferences at all or no preference for this implementation, so just add it at the end
-            }
-            // now we need to find the best index to add this implementation - if optional preferences are defined it needs to match them
-            final List<String> preferenceOrder = preferences.get(serviceName);
-            if( preferenceOrder != null && preferenceOrder.contains(serviceImplementation.getName())) {
-                // we have preferences for this interface, so place it accordingly - first we add it to the end then we sort based on preferences and bubble it up as needed
-                Collections.sort(serviceImplementations, new PreferenceComparator(preferenceOrder));
-            }
+            ArrayList<Class<?>> copy = serviceImplementations == null ? new ArrayList<Class<?>>() : new ArrayList<>(serviceImplementations);
+            copy.add(serviceImplementation);
+            publish(serviceName, copy);
         }
+        ExtensionIndex.invalidate();
         log.debug("Registered implementation {} for interface {}", serviceImplementation.getName(), serviceName);
     }
     
@@ -111,20 +128,17 @@ public class WhiteboardExtensionProvider implements ExtensionProvider {
 
     private static void unregister(String serviceName, Class<?> serviceImplementation) {
         log.debug("Unregistering implementation {} for interface {}", serviceImplementation.getName(), serviceName);
-        synchronized(whiteboard) {
+        synchronized(writeLock) {
             List<Class<?>> serviceImplementations = whiteboard.get(serviceName);
-            if( serviceImplementations == null ) {
+            if( serviceImplementations == null || !serviceImplementations.contains(serviceImplementation) ) {
                 return;
             }
-            Iterator<Class<?>> it = serviceImplementations.iterator();
-            while(it.hasNext()) {
-                Class<?> clazz = it.next();
-                if( clazz == serviceImplementation ) {
-                    it.remove();
-                    log.debug("Unregistered implementation {} for interface {}", serviceImplementation.getName(), serviceName);
-                }
-            }
+            ArrayList<Class<?>> copy = new ArrayList<>(serviceImplementations);
+            copy.remove(serviceImplementation);
+            whiteboard.put(serviceName, Collections.unmodifiableList(copy)); // removing an item does not change the order of the others
         }
+        ExtensionIndex.invalidate();
+        log.debug("Unregistered implementation {} for interface {}", serviceImplementation.getName(), serviceName);
     }
     
     public static void unregister(Class<?> serviceInterface, Class<?> serviceImplementation) {
@@ -251,7 +265,20 @@ public class WhiteboardExtensionProvider implements ExtensionProvider {
    
 
     private static <T> void prefer(String serviceName, List<String> preferenceOrder) {
-        preferences.put(serviceName, preferenceOrder);
+        synchronized(writeLock) {
+            if( preferenceOrder == null ) {
+                preferences.remove(serviceName);
+            }
+            else {
+                preferences.put(serviceName, Collections.unmodifiableList(new ArrayList<>(preferenceOrder)));
+            }
+            // re-sort the implementations that are already registered
+            List<Class<?>> serviceImplementations = whiteboard.get(serviceName);
+            if( serviceImplementations != null ) {
+                publish(serviceName, new ArrayList<>(serviceImplementations));
+            }
+        }
+        ExtensionIndex.invalidate();
     }
 //    //unused, can be added back later: klocwork 87
 //    private static <T> void prefer(String serviceName, String[] preferenceOrder) {
@@ -352,6 +379,7 @@ public class WhiteboardExtensionProvider implements ExtensionProvider {
          * would be triggered by a feature/extensions manager probably or
          * manually by the user after adding/removing/upgrading somthing)
          */
+        ExtensionIndex.invalidate();
     }
 
     @Override
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.dcsg.cpg.extensions;
+
+import com.intel.dcsg.cpg.extensions.contextstyle.Shape;
+import com.intel.dcsg.cpg.extensions.contextstyle.Square;
+import com.intel.dcsg.cpg.extensions.pojostyle.Apple;
+import com.intel.dcsg.cpg.extensions.pojostyle.Fruit;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class ClassFileScannerTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ClassFileScannerTest.class);
+    private static boolean lazyFruitInitialized = false;
+
+    /**
+     * Used to check that scanning does not initialize the extension.
+     */
+    public static class LazyFruit implements Fruit {
+        static {
+            lazyFruitInitialized = true;
+        }
+
+        @Override
+        public String getName() {
+            return "lazy";
+        }
+
+        @Override
+        public String getColor() {
+            return "green";
+        }
+    }
+
+    @After
+    public void clear() {
+        DeferredExtensionProvider.clearAll();
+        WhiteboardExtensionProvider.clearAll();
+    }
+
+    private ClassFileHeader read(Class<?> clazz) throws IOException {
+        try (InputStream in = clazz.getResourceAsStream(clazz.getSimpleName() + ".class")) {
+            return ClassFileHeader.read(in);
+        }
+    }
+
+    @Test
+    public void testReadHeader() throws IOException {
+        ClassFileHeader apple = read(Apple.class);
+        log.debug("Header: {}", apple);
+        assertEquals(Apple.class.getName(), apple.getName());
+        assertEquals(Object.class.getName(), apple.getSuperName());
+        assertTrue(apple.getInterfaces().contains(Fruit.class.getName()));
+        assertTrue(apple.hasNoArgConstructor());
+        assertFalse(apple.isInterface() || apple.isAbstract());
+        ClassFileHeader square = read(Square.class);
+        log.debug("Header: {}", square);
+        assertTrue(square.isAnnotationPresent(Plugin.class.getName()));
+        assertTrue(read(Fruit.class).isInterface());
+        assertTrue(read(Plugin.class).isInterface());
+    }
+
+    @Test
+    public void testScanDirectory() throws Exception {
+        File classes = new File(Apple.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        ClassFileScanner scanner = new ClassFileScanner(getClass().getClassLoader());
+        scanner.addImplementations();
+        scanner.addAnnotation(Plugin.class.getName());
+        scanner.setIncludePackages(java.util.Arrays.asList("com.intel.dcsg.cpg.extensions"));
+        scanner.scan(classes);
+        log.debug("Scanned {} classes, {} registrations", scanner.getScannedCount(), scanner.getRegisteredCount());
+        assertFalse(lazyFruitInitialized);
+        List<String> fruits = DeferredExtensionProvider.getRegistry().get(Fruit.class.getName());
+        assertTrue(fruits.contains(Apple.class.getName()));
+        assertTrue(fruits.contains(LazyFruit.class.getName()));
+        assertTrue(DeferredExtensionProvider.getRegistry().get(Shape.class.getName()).contains(Square.class.getName()));
+        assertTrue(DeferredExtensionProvider.getRegistry().get(Plugin.class.getName()).contains(Square.class.getName()));
+        // the extension is loaded and initialized when it is first used
+        boolean found = false;
+        for (Fruit fruit : Extensions.findAll(Fruit.class)) {
+            if (fruit instanceof LazyFruit) {
+                found = true;
+            }
+        }
+        assertTrue(found);
+        assertTrue(lazyFruitInitialized);
+        assertNotNull(Extensions.findAnnotated(Plugin.class));
+    }
+}
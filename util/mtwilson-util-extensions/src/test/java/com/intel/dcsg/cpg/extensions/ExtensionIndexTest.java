@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.dcsg.cpg.extensions;
+
+import com.intel.dcsg.cpg.extensions.pojostyle.Apple;
+import com.intel.dcsg.cpg.extensions.pojostyle.Banana;
+import com.intel.dcsg.cpg.extensions.pojostyle.Carrot;
+import com.intel.dcsg.cpg.extensions.pojostyle.Fruit;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class ExtensionIndexTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ExtensionIndexTest.class);
+    private static final int LOOKUPS = 100000;
+
+    private void registerFruit() {
+        WhiteboardExtensionProvider.clearAll();
+        WhiteboardExtensionProvider.register(Fruit.class, Apple.class);
+        WhiteboardExtensionProvider.register(Fruit.class, Banana.class);
+    }
+
+    @Test
+    public void testRegisterInvalidatesIndex() {
+        registerFruit();
+        assertEquals(2, Extensions.findAll(Fruit.class).size());
+        long generation = ExtensionIndex.getGeneration();
+        WhiteboardExtensionProvider.register(Fruit.class, Carrot.class);
+        assertTrue(ExtensionIndex.getGeneration() > generation);
+        List<Fruit> fruits = Extensions.findAll(Fruit.class);
+        assertEquals(3, fruits.size());
+        assertEquals("carrot", fruits.get(2).getName());
+        WhiteboardExtensionProvider.unregister(Fruit.class, Apple.class);
+        assertEquals("banana", Extensions.find(Fruit.class).getName());
+        WhiteboardExtensionProvider.clear(Fruit.class);
+        assertNull(Extensions.find(Fruit.class));
+        assertTrue(Extensions.findAll(Fruit.class).isEmpty());
+    }
+
+    @Test
+    public void testIndexEntryGeneration() {
+        ExtensionIndex index = new ExtensionIndex();
+        ArrayList<Extensions.Extension> extensions = new ArrayList<>();
+        extensions.add(new Extensions.Extension(new WhiteboardExtensionProvider(), Apple.class.getName()));
+        extensions.add(new Extensions.Extension(new WhiteboardExtensionProvider(), "com.example.NotAvailable"));
+        List<ExtensionIndex.Implementation> list = index.put("fruit", ExtensionIndex.getGeneration(), extensions);
+        assertSame(list, index.get("fruit"));
+        assertSame(Apple.class, list.get(0).getImplementationClass());
+        assertTrue(list.get(0).hasNoArgConstructor());
+        assertNull(list.get(1).getImplementationClass());
+        ExtensionIndex.invalidate();
+        assertNull(index.get("fruit"));
+    }
+
+    /**
+     * Compares the cost of looking up all implementations of an interface
+     * using the index with the cost of searching the providers, loading
+     * each class by name, and looking up its constructor on every lookup
+     * as Extensions did before.
+     */
+    @Test
+    public void testLookupCost() throws Exception {
+        registerFruit();
+        Extensions.findAll(Fruit.class); // warm up and build the index entry
+
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            WhiteboardExtensionProvider provider = new WhiteboardExtensionProvider();
+            List<Fruit> fruits = new ArrayList<>();
+            for (java.util.Iterator<String> it = provider.find(Fruit.class); it.hasNext();) {
+                Class<?> clazz = Class.forName(it.next());
+                Constructor constructor = ReflectionUtil.getNoArgConstructor(clazz);
+                fruits.add((Fruit) constructor.newInstance());
+            }
+            assertEquals(2, fruits.size());
+        }
+        long reflectionNanos = (System.nanoTime() - start) / LOOKUPS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            List<Fruit> fruits = Extensions.findAll(Fruit.class);
+            assertEquals(2, fruits.size());
+        }
+        long indexNanos = (System.nanoTime() - start) / LOOKUPS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            assertNotNull(Extensions.find(Fruit.class));
+        }
+        long findNanos = (System.nanoTime() - start) / LOOKUPS;
+
+        log.debug("Search and reflection: {} ns per findAll", reflectionNanos);
+        log.debug("Index and constructor handles: {} ns per findAll", indexNanos);
+        log.debug("Index and constructor handles: {} ns per find", findNanos);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.dcsg.cpg.extensions;
+
+import com.intel.dcsg.cpg.extensions.pojostyle.Apple;
+import com.intel.dcsg.cpg.extensions.pojostyle.Banana;
+import com.intel.dcsg.cpg.extensions.pojostyle.Carrot;
+import com.intel.dcsg.cpg.extensions.pojostyle.Fruit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Registers and unregisters extensions on the whiteboard from several
+ * threads while other threads look them up, to check that lookups never
+ * fail or see an inconsistent list during plugin reloads.
+ *
+ * @author jbuhacoff
+ */
+public class WhiteboardConcurrencyTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(WhiteboardConcurrencyTest.class);
+    private static final int WRITERS = 4;
+    private static final int READERS = 8;
+    private static final int ITERATIONS = 5000;
+
+    @Test
+    public void testConcurrentRegisterAndFind() throws Exception {
+        WhiteboardExtensionProvider.clearAll();
+        WhiteboardExtensionProvider.register(Fruit.class, Apple.class); // never unregistered, so every lookup must find it
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + READERS);
+        final CountDownLatch start = new CountDownLatch(1);
+        ArrayList<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < WRITERS; i++) {
+            futures.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    start.await();
+                    for (int j = 0; j < ITERATIONS; j++) {
+                        WhiteboardExtensionProvider.register(Fruit.class, Banana.class);
+                        WhiteboardExtensionProvider.register(Fruit.class, Carrot.class);
+                        WhiteboardExtensionProvider.unregister(Fruit.class, Banana.class);
+                        WhiteboardExtensionProvider.unregister(Fruit.class, Carrot.class);
+                    }
+                    return ITERATIONS;
+                }
+            }));
+        }
+        for (int i = 0; i < READERS; i++) {
+            futures.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    start.await();
+                    int found = 0;
+                    for (int j = 0; j < ITERATIONS; j++) {
+                        List<Fruit> fruits = Extensions.findAll(Fruit.class);
+                        HashSet<String> names = new HashSet<>();
+                        for (Fruit fruit : fruits) {
+                            assertTrue("duplicate " + fruit.getName(), names.add(fruit.getName()));
+                        }
+                        assertTrue(names.contains("apple"));
+                        List<Class<?>> registered = WhiteboardExtensionProvider.getWhiteboard().get(Fruit.class.getName());
+                        assertTrue(registered.contains(Apple.class));
+                        found += fruits.size();
+                    }
+                    return found;
+                }
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<Integer> future : futures) {
+            future.get(); // throws ExecutionException if any assertion failed
+        }
+        long elapsed = System.nanoTime() - begin;
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        log.debug("Completed {} writes and {} lookups in {} ms", WRITERS * ITERATIONS * 4, READERS * ITERATIONS, elapsed / 1000000);
+        List<Fruit> fruits = Extensions.findAll(Fruit.class);
+        assertEquals(1, fruits.size());
+        assertEquals("apple", fruits.get(0).getName());
+    }
+
+    @Test
+    public void testPreferenceSortsRegisteredImplementations() {
+        WhiteboardExtensionProvider.clearAll();
+        WhiteboardExtensionProvider.prefer(Fruit.class, new String[0]);
+        WhiteboardExtensionProvider.register(Fruit.class, Apple.class);
+        WhiteboardExtensionProvider.register(Fruit.class, Banana.class);
+        WhiteboardExtensionProvider.register(Fruit.class, Carrot.class);
+        assertEquals("apple", Extensions.find(Fruit.class).getName());
+        WhiteboardExtensionProvider.prefer(Fruit.class, new String[]{Carrot.class.getName(), Banana.class.getName()});
+        List<Fruit> fruits = Extensions.findAll(Fruit.class);
+        assertEquals("carrot", fruits.get(0).getName());
+        assertEquals("banana", fruits.get(1).getName());
+        assertEquals("apple", fruits.get(2).getName());
+        WhiteboardExtensionProvider.prefer(Fruit.class, new String[0]);
+    }
+}
@@ -4,18 +4,23 @@
  */
 package com.intel.mtwilson.jaxrs2.client;
 
+import java.io.Closeable;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Map;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.WebTarget;
 
 /**
+ * When the client was built with a connection pool, call close() when
+ * it is no longer needed so that its connections are closed right away
+ * instead of when they time out.
  *
  * @author jbuhacoff
  */
-public class JaxrsClient {
+public class JaxrsClient implements Closeable {
     private Client client;
     private WebTarget target;
+    private PooledConnector connector;
     
     /**
      * Creates a client using an existing configured JAX-RS client and a
@@ -28,6 +33,12 @@ public class JaxrsClient {
         this.client = client;
         this.target = target;
     }
+
+    JaxrsClient(Client client, WebTarget target, PooledConnector connector) {
+        this.client = client;
+        this.target = target;
+        this.connector = connector;
+    }
     
     /**
      * Creates a new client instance using an existing configured client and
@@ -38,6 +49,7 @@ public class JaxrsClient {
     public JaxrsClient(JaxrsClient jaxrsClient) {
         this.client = jaxrsClient.getClient();
         this.target = jaxrsClient.getTarget();
+        this.connector = jaxrsClient.connector;
     }
     
     public Client getClient() {
@@ -49,6 +61,19 @@ public class JaxrsClient {
         return target;
     }
 
+    /**
+     * Closes the JAX-RS client and, if there is one, the connection pool.
+     * Clients created from this one with the copy constructor share the
+     * same pool and cannot be used after it is closed.
+     */
+    @Override
+    public void close() {
+        client.close();
+        if( connector != null ) {
+            connector.close();
+        }
+    }
+
     public WebTarget getTargetPath(String path) {
         return target.path(path);
     }
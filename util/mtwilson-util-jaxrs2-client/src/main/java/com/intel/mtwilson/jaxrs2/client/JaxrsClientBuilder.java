@@ -42,6 +42,7 @@ import java.security.cert.CertificateEncodingException;
 import java.util.HashSet;
 //import org.glassfish.jersey.client.HttpUrlConnectorProvider; // jersey 2.10.1
 import org.glassfish.jersey.client.HttpUrlConnector; // jersey 2.4.1
+import org.apache.http.HttpHost;
 
 /**
  * Examples:
@@ -52,8 +53,18 @@ import org.glassfish.jersey.client.HttpUrlConnector; // jersey 2.4.1
  * JaxrsClient client = JaxrsClientBuilder.factory().configuration(configuration).build();
  * JaxrsClient client = JaxrsClientBuilder.factory().tlsConnection(tlsConnection).build();
  * JaxrsClient client = JaxrsClientBuilder.factory().url(url).tlsPolicy(tlsPolicy).build();
+ * JaxrsClient client = JaxrsClientBuilder.factory().url(url).tlsPolicy(tlsPolicy).connectionPool(20, 5).build();
  * </pre>
  *
+ * By default each request opens its own HttpURLConnection. When a connection
+ * pool is requested, either with connectionPool() or by setting http.pool.max
+ * in the configuration, requests go through a {@link PooledConnector} which
+ * keeps connections alive and limits connections per host. The pool is
+ * configured with http.pool.max (total connections), http.pool.max.per.host,
+ * http.pool.idle.timeout (milliseconds) and http.pool.max.wait (milliseconds).
+ * Each built client has its own pool; call JaxrsClient.close() when the
+ * client is no longer needed, or build the client once and reuse it.
+ *
  * @author jbuhacoff
  */
 public class JaxrsClientBuilder {
@@ -71,6 +82,11 @@ public class JaxrsClientBuilder {
     private HashSet<Class> classRegistrations;
     private String proxyHost;
     private Integer proxyPort;
+    private Integer poolMaxTotal;
+    private Integer poolMaxPerHost;
+    private Long poolIdleTimeout;
+    private Integer poolMaxWait;
+    private PooledConnector pooledConnector;
 
     public JaxrsClientBuilder() {
         clientConfig = new ClientConfig();
@@ -212,6 +228,33 @@ public class JaxrsClientBuilder {
         }
         
     }
+    
+    private void pool() {
+        if( poolMaxTotal == null && configuration != null && configuration.get("http.pool.max") != null ) {
+            poolMaxTotal = Integer.valueOf(configuration.get("http.pool.max")); // http.pool.max has no default; the pool is only used when it is set
+        }
+        if( poolMaxTotal == null ) {
+            return;
+        }
+        if( poolMaxPerHost == null ) {
+            poolMaxPerHost = configuration == null ? poolMaxTotal : Integer.valueOf(configuration.get("http.pool.max.per.host", String.valueOf(poolMaxTotal))); // http.pool.max.per.host default same as http.pool.max
+        }
+        if( poolIdleTimeout == null ) {
+            poolIdleTimeout = configuration == null ? 60000L : Long.valueOf(configuration.get("http.pool.idle.timeout", "60000")); // http.pool.idle.timeout default 1 minute, zero or negative means never close idle connections
+        }
+        if( poolMaxWait == null ) {
+            poolMaxWait = configuration == null ? 30000 : Integer.valueOf(configuration.get("http.pool.max.wait", "30000")); // http.pool.max.wait default 30 seconds, zero means wait indefinitely
+        }
+        // unlike the HttpUrlConnector the pooled connector handles both the tls policy and the proxy
+        HttpHost proxy = proxyHost == null ? null : new HttpHost(proxyHost, proxyPort);
+        if( tlsConnection != null ) {
+            pooledConnector = new PooledConnector(tlsConnection.getSSLContext(), tlsConnection.getTlsPolicy().getHostnameVerifier(), proxy, poolMaxTotal, poolMaxPerHost, poolIdleTimeout, poolMaxWait);
+        }
+        else {
+            pooledConnector = new PooledConnector(null, null, proxy, poolMaxTotal, poolMaxPerHost, poolIdleTimeout, poolMaxWait);
+        }
+        clientConfig.connector(pooledConnector);
+    }
 
     // you can set this instead of url and tlsPolicy
     public JaxrsClientBuilder tlsConnection(TlsConnection tlsConnection) {
@@ -247,11 +290,38 @@ public class JaxrsClientBuilder {
         return this;
     }
 
+    /**
+     * Sends requests through a {@link PooledConnector} instead of opening
+     * a new connection for each request.
+     * 
+     * @param maxTotal maximum number of open connections
+     * @param maxPerHost maximum number of open connections to any one host and port
+     * @return 
+     */
+    public JaxrsClientBuilder connectionPool(int maxTotal, int maxPerHost) {
+        this.poolMaxTotal = maxTotal;
+        this.poolMaxPerHost = maxPerHost;
+        return this;
+    }
+    
+    /**
+     * 
+     * @param idleTimeout milliseconds after which an idle pooled connection is closed
+     * @param maxWait milliseconds to wait for a free pooled connection
+     * @return 
+     */
+    public JaxrsClientBuilder connectionPoolTimeouts(long idleTimeout, int maxWait) {
+        this.poolIdleTimeout = idleTimeout;
+        this.poolMaxWait = maxWait;
+        return this;
+    }
+
     public JaxrsClient build() {
         try {
             url();
             tls(); // sets tls connection
             proxy(); // optional http proxy -- may override tls settings
+            pool(); // optional connection pool -- replaces the connector from tls() and proxy()
             authentication(); // adds to clientConfig
 //        client = ClientBuilder.newClient(clientConfig);
 //            Client client = ClientBuilder.newBuilder().sslContext(tlsConnection.getSSLContext()).hostnameVerifier(tlsConnection.getTlsPolicy().getHostnameVerifier()).withConfig(clientConfig).build();
@@ -278,7 +348,7 @@ public class JaxrsClientBuilder {
 //        client.register(com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider.class);
             WebTarget target = client.target(url.toExternalForm());
 
-            return new JaxrsClient(client, target);
+            return new JaxrsClient(client, target, pooledConnector);
         } catch (MalformedURLException | KeyManagementException | FileNotFoundException | KeyStoreException | NoSuchAlgorithmException | UnrecoverableEntryException | CertificateEncodingException | CryptographyException e) {
             throw new IllegalArgumentException("Cannot construct client", e);
         }
@@ -5,6 +5,7 @@
 package com.intel.mtwilson.jaxrs2.client;
 
 import com.intel.mtwilson.rpc.v2.model.Rpc;
+import java.util.concurrent.Future;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.MediaType;
@@ -62,4 +63,19 @@ public class JsonRpc<T,U> {
         return status;
     }
     
+    /**
+     * Sends the request without waiting for the response. Unlike callAsync,
+     * the server runs the call immediately; the returned future completes
+     * when its output arrives. With a client built with a connection pool
+     * the number of calls in progress is limited by the pool size.
+     * 
+     * @param name
+     * @param input
+     * @return future output of the call
+     */
+    public Future<U> submit(String name, T input) {
+        log.debug("rpc submit target: {}/{}", getTarget().getUri().toString(), name);
+        return getTarget().request().accept(MediaType.APPLICATION_JSON).async().post(Entity.json(input), outputClass);
+    }
+    
 }
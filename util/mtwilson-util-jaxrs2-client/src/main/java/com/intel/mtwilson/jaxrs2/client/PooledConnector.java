@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) 2014 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.jaxrs2.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.SSLContext;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.Response;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.CookieSpecs;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.X509HostnameVerifier;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.ClientRequest;
+import org.glassfish.jersey.client.ClientResponse;
+import org.glassfish.jersey.client.spi.AsyncConnectorCallback;
+import org.glassfish.jersey.client.spi.Connector;
+import org.glassfish.jersey.message.internal.OutboundMessageContext;
+import org.glassfish.jersey.message.internal.Statuses;
+
+/**
+ * A Jersey connector that keeps HTTP and HTTPS connections alive in a
+ * bounded pool instead of opening a new HttpURLConnection (and, for HTTPS,
+ * a new SSLContext) for every request.
+ *
+ * HTTPS connections use the SSLContext and HostnameVerifier of the
+ * client's TlsPolicy, so the same trust decisions are made as with
+ * TlsPolicyAwareConnectionFactory. Because one SSLContext is shared by all
+ * connections in the pool, new connections to a known server can also
+ * resume the previous TLS session.
+ *
+ * The pool limits the total number of connections and the number of
+ * connections to each host. A request that cannot get a connection waits
+ * up to maxWait milliseconds and then fails. Connections idle for longer
+ * than idleTimeout milliseconds are closed by a single background daemon
+ * thread shared by all connectors.
+ *
+ * Asynchronous requests run on an executor owned by the connector with
+ * at most maxTotal threads, so there are never more async requests in
+ * progress than the pool has connections. Its threads exit after a minute
+ * without requests.
+ *
+ * Call close() (or JaxrsClient.close()) when the client is no longer
+ * needed to close its connections right away. The shared evictor only
+ * holds a weak reference to each connector, so a connector that is never
+ * closed does not keep its pool alive after its client is unreachable.
+ *
+ * Request entities are buffered before sending so that any headers added
+ * while writing the entity are sent too, and so that the request can be
+ * retried on a stale pooled connection.
+ *
+ * Example:
+ * <pre>
+ * JaxrsClient client = JaxrsClientBuilder.factory().url(url).tlsPolicy(tlsPolicy).connectionPool(20, 5).build();
+ * </pre>
+ *
+ * @author jbuhacoff
+ */
+public class PooledConnector implements Connector {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PooledConnector.class);
+    private static final AtomicInteger instanceCounter = new AtomicInteger(0);
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final RequestConfig defaultRequestConfig;
+    private static ScheduledExecutorService evictor = null;
+    private final ScheduledFuture<?> eviction;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final ExecutorService asyncExecutor;
+
+    /**
+     *
+     * @param sslContext for https connections, or null to use the platform default
+     * @param hostnameVerifier for https connections, or null to use the platform default
+     * @param proxy optional http proxy, may be null
+     * @param maxTotal maximum number of open connections
+     * @param maxPerHost maximum number of open connections to any one host and port
+     * @param idleTimeout milliseconds after which an idle connection is closed, zero or negative to keep idle connections open
+     * @param maxWait milliseconds to wait for a free connection, zero to wait indefinitely
+     */
+    public PooledConnector(SSLContext sslContext, X509HostnameVerifier hostnameVerifier, HttpHost proxy, int maxTotal, int maxPerHost, final long idleTimeout, int maxWait) {
+        if( maxTotal < 1 || maxPerHost < 1 ) {
+            throw new IllegalArgumentException("Connection pool limits must be positive");
+        }
+        int instance = instanceCounter.incrementAndGet();
+        SSLConnectionSocketFactory httpsSocketFactory;
+        if( sslContext == null ) {
+            httpsSocketFactory = SSLConnectionSocketFactory.getSocketFactory();
+        }
+        else if( hostnameVerifier == null ) {
+            httpsSocketFactory = new SSLConnectionSocketFactory(sslContext);
+        }
+        else {
+            httpsSocketFactory = new SSLConnectionSocketFactory(sslContext, hostnameVerifier);
+        }
+        Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", httpsSocketFactory)
+                .build();
+        connectionManager = new PoolingHttpClientConnectionManager(registry);
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerHost);
+        defaultRequestConfig = RequestConfig.custom()
+                .setCookieSpec(CookieSpecs.IGNORE_COOKIES)
+                .setConnectionRequestTimeout(maxWait) // zero means wait indefinitely
+                .build();
+        // content compression is left to Jersey, as with the default connector
+        httpClient = HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(defaultRequestConfig)
+                .setProxy(proxy)
+                .disableCookieManagement()
+                .disableContentCompression()
+                .build();
+        if( idleTimeout > 0 ) {
+            long interval = Math.max(1000L, idleTimeout / 2);
+            IdleConnectionEvictor task = new IdleConnectionEvictor(this, idleTimeout);
+            eviction = evictor().scheduleWithFixedDelay(task, interval, interval, TimeUnit.MILLISECONDS);
+            task.setEviction(eviction);
+        }
+        else {
+            eviction = null;
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxTotal, maxTotal, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("PooledConnector-" + instance + "-async"));
+        executor.allowCoreThreadTimeOut(true);
+        asyncExecutor = executor;
+        log.debug("Created connection pool with max total {} max per host {} idle timeout {}", maxTotal, maxPerHost, idleTimeout);
+    }
+
+    @Override
+    public ClientResponse apply(ClientRequest request) {
+        try {
+            return execute(request);
+        }
+        catch(IOException e) {
+            throw new ProcessingException(e);
+        }
+    }
+
+    @Override
+    public Future<?> apply(final ClientRequest request, final AsyncConnectorCallback callback) {
+        return asyncExecutor.submit(new Callable<ClientResponse>() {
+            @Override
+            public ClientResponse call() throws Exception {
+                try {
+                    ClientResponse response = execute(request);
+                    callback.response(response);
+                    return response;
+                }
+                catch(IOException | RuntimeException e) {
+                    ProcessingException failure = e instanceof ProcessingException ? (ProcessingException)e : new ProcessingException(e);
+                    callback.failure(failure);
+                    throw failure;
+                }
+            }
+        });
+    }
+
+    @Override
+    public String getName() {
+        return "Apache HttpClient pooled connector";
+    }
+
+    /**
+     * Closes all connections in the pool and stops the async executor.
+     * Calling close() again has no effect.
+     */
+    @Override
+    public void close() {
+        if( !closed.compareAndSet(false, true) ) {
+            return;
+        }
+        if( eviction != null ) {
+            eviction.cancel(false);
+        }
+        asyncExecutor.shutdown();
+        try {
+            httpClient.close(); // also shuts down the connection manager
+        }
+        catch(IOException e) {
+            log.warn("Cannot close connection pool", e);
+        }
+        log.debug("Closed connection pool");
+    }
+
+    private static synchronized ScheduledExecutorService evictor() {
+        if( evictor == null ) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("PooledConnector-evictor"));
+            executor.setRemoveOnCancelPolicy(true);
+            evictor = executor;
+        }
+        return evictor;
+    }
+
+    private void evictIdleConnections(long idleTimeout) {
+        connectionManager.closeExpiredConnections();
+        connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     *
+     * @return number of connections currently leased from the pool
+     */
+    public int getLeased() {
+        return connectionManager.getTotalStats().getLeased();
+    }
+
+    /**
+     *
+     * @return number of idle connections currently in the pool
+     */
+    public int getAvailable() {
+        return connectionManager.getTotalStats().getAvailable();
+    }
+
+    private ClientResponse execute(ClientRequest request) throws IOException {
+        byte[] entity = writeEntity(request); // must happen before the headers are copied because writers and interceptors may add headers
+        HttpRequestBase httpRequest;
+        if( entity != null ) {
+            MethodEntityRequest entityRequest = new MethodEntityRequest(request.getMethod(), request.getUri());
+            entityRequest.setEntity(new ByteArrayEntity(entity));
+            httpRequest = entityRequest;
+        }
+        else {
+            httpRequest = new MethodRequest(request.getMethod(), request.getUri());
+        }
+        httpRequest.setConfig(configure(defaultRequestConfig, request));
+        for(Map.Entry<String, List<String>> header : request.getStringHeaders().entrySet()) {
+            if( "Content-Length".equalsIgnoreCase(header.getKey()) || "Transfer-Encoding".equalsIgnoreCase(header.getKey()) ) {
+                continue; // set by httpclient from the entity
+            }
+            for(String value : header.getValue()) {
+                httpRequest.addHeader(header.getKey(), value);
+            }
+        }
+        log.debug("{} {}", httpRequest.getMethod(), httpRequest.getURI());
+        HttpResponse httpResponse = httpClient.execute(httpRequest);
+        try {
+            String reasonPhrase = httpResponse.getStatusLine().getReasonPhrase();
+            int statusCode = httpResponse.getStatusLine().getStatusCode();
+            Response.StatusType status = reasonPhrase == null ? Statuses.from(statusCode) : Statuses.from(statusCode, reasonPhrase);
+            ClientResponse response = new ClientResponse(status, request);
+            for(Header header : httpResponse.getAllHeaders()) {
+                response.getHeaders().add(header.getName(), header.getValue());
+            }
+            HttpEntity httpEntity = httpResponse.getEntity();
+            if( httpEntity == null ) {
+                // without an entity httpclient has already released the connection
+                response.setEntityStream(new ByteArrayInputStream(new byte[0]));
+            }
+            else {
+                // closing the entity stream reads the rest of the entity and returns the connection to the pool
+                response.setEntityStream(httpEntity.getContent());
+            }
+            return response;
+        }
+        catch(IOException | RuntimeException e) {
+            httpRequest.abort(); // closes the connection instead of returning it to the pool
+            throw e;
+        }
+    }
+
+    /**
+     * Request properties override the client configuration set in the
+     * constructor.
+     */
+    private static RequestConfig configure(RequestConfig defaults, ClientRequest request) {
+        RequestConfig.Builder config = RequestConfig.copy(defaults);
+        Integer connectTimeout = intProperty(request, ClientProperties.CONNECT_TIMEOUT);
+        if( connectTimeout != null ) {
+            config.setConnectTimeout(connectTimeout);
+        }
+        Integer readTimeout = intProperty(request, ClientProperties.READ_TIMEOUT);
+        if( readTimeout != null ) {
+            config.setSocketTimeout(readTimeout);
+        }
+        Object followRedirects = request.getConfiguration().getProperty(ClientProperties.FOLLOW_REDIRECTS);
+        if( followRedirects != null ) {
+            config.setRedirectsEnabled(Boolean.valueOf(followRedirects.toString()));
+        }
+        return config.build();
+    }
+
+    private static Integer intProperty(ClientRequest request, String name) {
+        Object value = request.getConfiguration().getProperty(name);
+        if( value == null ) {
+            return null;
+        }
+        if( value instanceof Number ) {
+            return ((Number)value).intValue();
+        }
+        return Integer.valueOf(value.toString());
+    }
+
+    private static byte[] writeEntity(ClientRequest request) throws IOException {
+        if( !request.hasEntity() ) {
+            return null;
+        }
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        request.setStreamProvider(new OutboundMessageContext.StreamProvider() {
+            @Override
+            public OutputStream getOutputStream(int contentLength) throws IOException {
+                return buffer;
+            }
+        });
+        request.writeEntity();
+        return buffer.toByteArray();
+    }
+
+    /**
+     * A request without an entity for any HTTP method.
+     */
+    private static class MethodRequest extends HttpRequestBase {
+        private final String method;
+
+        public MethodRequest(String method, URI uri) {
+            this.method = method;
+            setURI(uri);
+        }
+
+        @Override
+        public String getMethod() {
+            return method;
+        }
+    }
+
+    /**
+     * A request with an entity for any HTTP method.
+     */
+    private static class MethodEntityRequest extends HttpEntityEnclosingRequestBase {
+        private final String method;
+
+        public MethodEntityRequest(String method, URI uri) {
+            this.method = method;
+            setURI(uri);
+        }
+
+        @Override
+        public String getMethod() {
+            return method;
+        }
+    }
+
+    /**
+     * Refers to the connector weakly so that a connector that was never
+     * closed can still be garbage collected; the task then cancels itself.
+     */
+    private static class IdleConnectionEvictor implements Runnable {
+        private final WeakReference<PooledConnector> connector;
+        private final long idleTimeout;
+        private volatile ScheduledFuture<?> eviction;
+
+        public IdleConnectionEvictor(PooledConnector connector, long idleTimeout) {
+            this.connector = new WeakReference<>(connector);
+            this.idleTimeout = idleTimeout;
+        }
+
+        public void setEviction(ScheduledFuture<?> eviction) {
+            this.eviction = eviction;
+        }
+
+        @Override
+        public void run() {
+            PooledConnector current = connector.get();
+            if( current == null ) {
+                ScheduledFuture<?> self = eviction;
+                if( self != null ) {
+                    self.cancel(false);
+                }
+                return;
+            }
+            current.evictIdleConnections(idleTimeout);
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger counter = new AtomicInteger(0);
+
+        public DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
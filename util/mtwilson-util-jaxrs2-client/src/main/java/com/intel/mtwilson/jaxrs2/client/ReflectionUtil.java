@@ -9,6 +9,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import javax.ws.rs.QueryParam;
 
@@ -18,6 +19,12 @@ import javax.ws.rs.QueryParam;
  */
 public class ReflectionUtil {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ReflectionUtil.class);
+    private static final ClassValue<QueryParamAccessor[]> queryParamAccessors = new ClassValue<QueryParamAccessor[]>() {
+        @Override
+        protected QueryParamAccessor[] computeValue(Class<?> clazz) {
+            return createQueryParamAccessors(clazz);
+        }
+    };
     
     public static boolean isQueryParamMethod(Method method) {
         boolean notStatic = !Modifier.isStatic(method.getModifiers());
@@ -67,27 +74,58 @@ public class ReflectionUtil {
      * annotation is present on both the getter and field for the same 
      * property, only the getter will be used.
      * 
+     * The annotated getters and fields of each bean class are found once
+     * and cached, so repeated calls with the same bean class do not scan
+     * the class again.
+     * 
      * @param bean
      * @return a map of all @QueryParam names defined in the bean; some values may be null if they were not set
      */
     public static Map<String,Object> getQueryParams(Object bean) throws IllegalAccessException, InvocationTargetException {
+        QueryParamAccessor[] accessors = queryParamAccessors.get(bean.getClass());
         HashMap<String,Object> properties = new HashMap<String,Object>();
-        // first check getters, then check fields
-        Method[] methods = bean.getClass().getMethods();
+        for(int i=0; i<accessors.length; i++) {
+            properties.put(accessors[i].name, accessors[i].get(bean)); // throws IllegalAccessException, InvocationTargetException
+        }
+        return properties;
+    }
+    
+    private static QueryParamAccessor[] createQueryParamAccessors(Class<?> clazz) {
+        log.debug("Finding query params in {}", clazz.getName());
+        // same precedence as before caching:  a later getter replaces an earlier one with the same name, and a field is used only when there is no getter with its name
+        LinkedHashMap<String,QueryParamAccessor> accessors = new LinkedHashMap<String,QueryParamAccessor>();
+        Method[] methods = clazz.getMethods();
         for(int i=0; i<methods.length; i++) {
             String propertyName = getQueryParamName(methods[i]);
             if( propertyName == null ) { continue; }
-            Object value = methods[i].invoke(bean); // throws IllegalAccessException, InvocationTargetException
-            properties.put(propertyName, value);
+            accessors.put(propertyName, new QueryParamAccessor(propertyName, methods[i], null));
         }
-        Field[] fields = bean.getClass().getFields();
+        Field[] fields = clazz.getFields();
         for(int i=0; i<fields.length; i++) {
             String propertyName = getQueryParamName(fields[i]);
             if( propertyName == null ) { continue; }
-            if( properties.containsKey(propertyName) ) { continue; }
-            Object value = fields[i].get(bean); // throws IllegalAccessException
-            properties.put(propertyName, value);
+            if( accessors.containsKey(propertyName) ) { continue; }
+            accessors.put(propertyName, new QueryParamAccessor(propertyName, null, fields[i]));
+        }
+        return accessors.values().toArray(new QueryParamAccessor[accessors.size()]);
+    }
+    
+    private static class QueryParamAccessor {
+        private final String name;
+        private final Method method;
+        private final Field field;
+
+        public QueryParamAccessor(String name, Method method, Field field) {
+            this.name = name;
+            this.method = method;
+            this.field = field;
+        }
+        
+        public Object get(Object bean) throws IllegalAccessException, InvocationTargetException {
+            if( method != null ) {
+                return method.invoke(bean); // throws IllegalAccessException, InvocationTargetException
+            }
+            return field.get(bean); // throws IllegalAccessException
         }
-        return properties;
     }
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2014 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.jaxrs2.client;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.client.Entity;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Runs the pooled connector against a local Jetty server.
+ *
+ * @author jbuhacoff
+ */
+public class PooledConnectorTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PooledConnectorTest.class);
+    private static Server server;
+    private static URL url;
+    private static final Set<Integer> remotePorts = Collections.synchronizedSet(new HashSet<Integer>());
+    private static final AtomicInteger inFlight = new AtomicInteger(0);
+    private static final AtomicInteger maxInFlight = new AtomicInteger(0);
+
+    public static class StandInHandler extends AbstractHandler {
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+            remotePorts.add(request.getRemotePort());
+            int current = inFlight.incrementAndGet();
+            try {
+                int max = maxInFlight.get();
+                while( current > max && !maxInFlight.compareAndSet(max, current) ) {
+                    max = maxInFlight.get();
+                }
+                if( target.startsWith("/slow") ) {
+                    Thread.sleep(100);
+                }
+                response.setHeader("Content-Type", "text/plain");
+                response.setStatus(HttpServletResponse.SC_OK);
+                baseRequest.setHandled(true);
+                if( target.startsWith("/echo") ) {
+                    byte[] buffer = new byte[1024];
+                    int length;
+                    while( (length = request.getInputStream().read(buffer)) != -1 ) {
+                        response.getOutputStream().write(buffer, 0, length);
+                    }
+                }
+                else {
+                    response.getWriter().print("ok");
+                }
+            }
+            catch(InterruptedException e) {
+                throw new ServletException(e);
+            }
+            finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    public static class Criteria {
+        @QueryParam("nameEqualTo")
+        public String nameEqualTo;
+        private Integer limit;
+
+        @QueryParam("limit")
+        public Integer getLimit() {
+            return limit;
+        }
+
+        public void setLimit(Integer limit) {
+            this.limit = limit;
+        }
+    }
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new Server(0);
+        server.setHandler(new StandInHandler());
+        server.start();
+        url = new URL("http://localhost:" + server.getConnectors()[0].getLocalPort());
+        log.debug("Stand-in server at {}", url);
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void testConnectionReuse() {
+        JaxrsClient client = JaxrsClientBuilder.factory().url(url).connectionPool(4, 4).build();
+        remotePorts.clear();
+        for(int i=0; i<50; i++) {
+            assertEquals("ok", client.getTargetPath("ping").request().get(String.class));
+        }
+        client.close();
+        log.debug("50 sequential requests used {} connections", remotePorts.size());
+        assertEquals(1, remotePorts.size());
+    }
+
+    @Test
+    public void testPostEntity() {
+        JaxrsClient client = JaxrsClientBuilder.factory().url(url).connectionPool(4, 4).build();
+        String output = client.getTargetPath("echo").request().post(Entity.text("hello world"), String.class);
+        client.close();
+        assertEquals("hello world", output);
+    }
+
+    @Test
+    public void testPerHostLimit() throws Exception {
+        JaxrsClient client = JaxrsClientBuilder.factory().url(url).connectionPool(8, 2).build();
+        maxInFlight.set(0);
+        ArrayList<Future<String>> futures = new ArrayList<>();
+        for(int i=0; i<8; i++) {
+            futures.add(client.getTargetPath("slow").request().async().get(String.class));
+        }
+        for(Future<String> future : futures) {
+            assertEquals("ok", future.get());
+        }
+        client.close();
+        log.debug("Max requests in progress with 2 connections per host: {}", maxInFlight.get());
+        assertTrue(maxInFlight.get() <= 2);
+    }
+
+    @Test
+    public void testCloseIsRepeatable() {
+        JaxrsClient client = JaxrsClientBuilder.factory().url(url).connectionPool(4, 4).build();
+        JaxrsClient copy = new JaxrsClient(client);
+        assertEquals("ok", client.getTargetPath("ping").request().get(String.class));
+        client.close();
+        copy.close(); // shares the pool which is already closed
+    }
+
+    @Test
+    public void testQueryParams() {
+        JaxrsClient client = JaxrsClientBuilder.factory().url(url).build();
+        Criteria criteria = new Criteria();
+        criteria.nameEqualTo = "test";
+        criteria.setLimit(5);
+        for(int i=0; i<2; i++) {
+            String query = client.getTargetPathWithQueryParams("ping", criteria).getUri().getQuery();
+            assertTrue(query.contains("nameEqualTo=test"));
+            assertTrue(query.contains("limit=5"));
+        }
+        criteria.setLimit(null);
+        String query = client.getTargetPathWithQueryParams("ping", criteria).getUri().getQuery();
+        assertEquals("nameEqualTo=test", query);
+        client.close();
+    }
+
+    /**
+     * Compares sequential and concurrent request rates of the default
+     * HttpURLConnection transport and the pooled connector.
+     */
+    @Test
+    public void testThroughput() throws Exception {
+        int count = 2000;
+        JaxrsClient defaultClient = JaxrsClientBuilder.factory().url(url).build();
+        JaxrsClient pooledClient = JaxrsClientBuilder.factory().url(url).connectionPool(16, 16).build();
+        // warm up
+        run(defaultClient, 200);
+        run(pooledClient, 200);
+        log.info("Sequential requests per second: default {} pooled {}", run(defaultClient, count), run(pooledClient, count));
+        log.info("Concurrent requests per second: default {} pooled {}", runAsync(defaultClient, count), runAsync(pooledClient, count));
+        defaultClient.close();
+        pooledClient.close();
+    }
+
+    private long run(JaxrsClient client, int count) {
+        long start = System.nanoTime();
+        for(int i=0; i<count; i++) {
+            client.getTargetPath("ping").request().get(String.class);
+        }
+        return count * 1000000000L / (System.nanoTime() - start);
+    }
+
+    private long runAsync(JaxrsClient client, int count) throws Exception {
+        long start = System.nanoTime();
+        List<Future<String>> futures = new ArrayList<>(count);
+        for(int i=0; i<count; i++) {
+            futures.add(client.getTargetPath("ping").request().async().get(String.class));
+        }
+        for(Future<String> future : futures) {
+            future.get();
+        }
+        return count * 1000000000L / (System.nanoTime() - start);
+    }
+}
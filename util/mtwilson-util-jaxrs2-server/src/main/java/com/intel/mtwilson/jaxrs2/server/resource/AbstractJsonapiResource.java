@@ -24,6 +24,7 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.BeanParam;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 /**
  *
@@ -42,6 +43,8 @@ import javax.ws.rs.core.Response;
  *
  * GET /collection -> application/vnd.api+json
  *
+ * GET /collection/stream -> application/vnd.api+json
+ *
  *
  * @author jbuhacoff
  */
@@ -49,6 +52,7 @@ public abstract class AbstractJsonapiResource<T extends AbstractDocument, C exte
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AbstractJsonapiResource.class);
 
+    @Override
     protected abstract C createEmptyCollection(); 
     /*
     public AbstractJsonapiResource() {
@@ -63,6 +67,29 @@ public abstract class AbstractJsonapiResource<T extends AbstractDocument, C exte
         return getRepository().search(criteria);
     }
 
+    /**
+     * Search for items like searchJsonapiCollection, but if the repository
+     * implements StreamingDocumentRepository the items are written to the
+     * response as the repository finds them.
+     * 
+     * GET /collection/stream -> application/vnd.api+json
+     * 
+     * @param criteria
+     * @return a response with a StreamingOutput or the collection
+     */
+    @GET
+    @Path("/stream")
+    @Produces(DataMediaType.APPLICATION_VND_API_JSON)
+    public Response streamJsonapiCollection(@BeanParam F criteria) {
+        log.debug("streamJsonapiCollection");
+        ValidationUtil.validate(criteria); // throw new MWException(e, ErrorCode.AS_INPUT_VALIDATION_ERROR, input, method.getName());
+        StreamingOutput output = createStreamingOutput(criteria);
+        if( output != null ) {
+            return Response.ok(output).build();
+        }
+        return Response.ok(getRepository().search(criteria)).build();
+    }
+
     /**
      * Add an item to the collection. Input Content-Type is
      * application/vnd.api+json Output Content-Type is application/vnd.api+json
@@ -85,7 +112,16 @@ public abstract class AbstractJsonapiResource<T extends AbstractDocument, C exte
             if (item.getId() == null) {
                 item.setId(new UUID());
             }
-            getRepository().create(item); 
+        }
+        if( getRepository() instanceof BatchDocumentRepository ) {
+            @SuppressWarnings("unchecked")
+            BatchDocumentRepository<T> repository = (BatchDocumentRepository<T>)getRepository();
+            repository.createAll(collection.getDocuments());
+        }
+        else {
+            for (T item : collection.getDocuments()) {
+                getRepository().create(item); 
+            }
         }
         return collection;
     }
@@ -5,6 +5,7 @@
 package com.intel.mtwilson.jaxrs2.server.resource;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.intel.mtwilson.jaxrs2.server.PATCH;
 import com.intel.dcsg.cpg.io.UUID;
@@ -24,6 +25,7 @@ import com.intel.mtwilson.repository.Locator;
 import com.intel.mtwilson.jaxrs2.Patch;
 import com.intel.mtwilson.jaxrs2.PatchLink;
 import com.intel.mtwilson.jaxrs2.mediatype.DataMediaType;
+import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -37,6 +39,11 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.Providers;
 
 /**
  * Reference: https://jersey.java.net/documentation/latest/user-guide.html
@@ -74,6 +81,8 @@ import javax.ws.rs.core.Response.Status;
  * GET /collection -> application/vnd.api+json, application/json,
  * application/xml, application/yaml, text/yaml
  *
+ * GET /collection/stream -> application/json
+ *
  * POST /collection Content-Type: application/json, application/xml,
  * application/yaml, text/yaml -> application/json, application/xml,
  * application/yaml, text/yaml
@@ -90,6 +99,10 @@ public abstract class AbstractSimpleResource<T extends AbstractDocument, C exten
     private ObjectMapper mapper = new ObjectMapper(); // for debugging only
     
     private ArrayList<Fault> faults = new ArrayList<>();
+    @Context
+    private Providers providers;
+    @Context
+    private UriInfo uriInfo;
 
     @Override
     public List<Fault> getFaults() {
@@ -115,12 +128,100 @@ public abstract class AbstractSimpleResource<T extends AbstractDocument, C exten
     */
     protected abstract DocumentRepository<T,C,F,L> getRepository();
     
+    /**
+     * Subclasses that return an empty collection here allow JSON search
+     * results to be streamed when the repository implements 
+     * StreamingDocumentRepository; the empty collection shows the name of
+     * the documents property, and its other properties such as meta are
+     * written to the streamed response.
+     * 
+     * @return an empty collection, or null if search results should not be streamed
+     */
+    protected C createEmptyCollection() {
+        return null;
+    }
+    
     @GET
     public C searchCollection(@BeanParam F selector) {
         try { log.debug("searchCollection: {}", mapper.writeValueAsString(selector)); } catch(JsonProcessingException e) { log.debug("searchCollection: cannot serialize selector: {}", e.getMessage()); }
         ValidationUtil.validate(selector); // throw new MWException(e, ErrorCode.AS_INPUT_VALIDATION_ERROR, input, method.getName());
         return getRepository().search(selector);
     }
+    
+    /**
+     * Search for items like searchCollection, but if the repository
+     * implements StreamingDocumentRepository the items are written to the
+     * response as the repository finds them, so the collection is never
+     * held in memory. Otherwise the response is the collection returned by
+     * search(criteria).
+     * 
+     * GET /collection/stream -> application/json
+     * 
+     * @param selector
+     * @return a response with a StreamingOutput or the collection
+     */
+    @GET
+    @Path("/stream")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response streamCollection(@BeanParam F selector) {
+        try { log.debug("streamCollection: {}", mapper.writeValueAsString(selector)); } catch(JsonProcessingException e) { log.debug("streamCollection: cannot serialize selector: {}", e.getMessage()); }
+        ValidationUtil.validate(selector); // throw new MWException(e, ErrorCode.AS_INPUT_VALIDATION_ERROR, input, method.getName());
+        StreamingOutput output = createStreamingOutput(selector);
+        if( output != null ) {
+            return Response.ok(output).build();
+        }
+        return Response.ok(getRepository().search(selector)).build();
+    }
+    
+    /**
+     * 
+     * @param selector
+     * @return a streaming output for the search results, or null if the repository or the collection do not support streaming
+     */
+    protected StreamingOutput createStreamingOutput(F selector) {
+        if( !(getRepository() instanceof StreamingDocumentRepository) ) {
+            return null;
+        }
+        C emptyCollection = createEmptyCollection();
+        if( emptyCollection == null ) {
+            return null;
+        }
+        ObjectMapper jsonMapper = getJsonMapper();
+        JsonNode collection = jsonMapper.valueToTree(emptyCollection);
+        String documentsField = DocumentCollectionStreamingOutput.findDocumentsField(collection);
+        if( documentsField == null ) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        StreamingDocumentRepository<T,F> repository = (StreamingDocumentRepository<T,F>)getRepository();
+        return new DocumentCollectionStreamingOutput<>(jsonMapper, collection, documentsField, repository, selector, getRequestUriBuilder());
+    }
+    
+    /**
+     * The "next" link of a streamed page is the request URI with the 
+     * cursor in the after query parameter.
+     * 
+     * @return a builder initialized with the request URI, or null if the resource is not handling a request
+     */
+    protected UriBuilder getRequestUriBuilder() {
+        if( uriInfo == null ) {
+            return null;
+        }
+        return uriInfo.getRequestUriBuilder();
+    }
+    
+    private ObjectMapper getJsonMapper() {
+        if( providers != null ) {
+            ContextResolver<ObjectMapper> resolver = providers.getContextResolver(ObjectMapper.class, MediaType.APPLICATION_JSON_TYPE);
+            if( resolver != null ) {
+                ObjectMapper jsonMapper = resolver.getContext(ObjectMapper.class);
+                if( jsonMapper != null ) {
+                    return jsonMapper;
+                }
+            }
+        }
+        return JacksonObjectMapperProvider.createDefaultMapper();
+    }
 
     /**
      * Add an item to the collection. Input Content-Type is any of
@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2014 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.jaxrs2.server.resource;
+
+import com.intel.mtwilson.jaxrs2.AbstractDocument;
+import java.util.List;
+
+/**
+ * Optional contract for a DocumentRepository that can store many new
+ * documents at once, for example with a single batched insert in one
+ * transaction. When the repository of a resource implements it, creating
+ * a collection calls createAll once instead of calling create for each
+ * document.
+ * 
+ * @author jbuhacoff
+ */
+public interface BatchDocumentRepository<T extends AbstractDocument> {
+    /**
+     * Creates all the given documents. Every document already has a 
+     * client-provided or auto-generated id.
+     * 
+     * @param items
+     */
+    void createAll(List<T> items);
+}
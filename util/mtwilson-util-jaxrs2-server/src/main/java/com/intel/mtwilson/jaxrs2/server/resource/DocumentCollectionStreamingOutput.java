@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2014 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.jaxrs2.server.resource;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.intel.mtwilson.jaxrs2.AbstractDocument;
+import com.intel.mtwilson.jaxrs2.DefaultFilterCriteria;
+import com.intel.mtwilson.repository.FilterCriteria;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriBuilder;
+
+/**
+ * Writes the results of a StreamingDocumentRepository search as JSON while
+ * the repository produces them, so memory use does not depend on the
+ * number of results.
+ *
+ * The output has the same shape as the serialized collection, for example
+ * {"rpcs":[...]}. The collection passed to the constructor is serialized
+ * with the same ObjectMapper, so it follows the naming strategy of the
+ * application; its properties such as meta are written as they are, and
+ * its empty documents array is replaced by the streamed documents. The
+ * documents property must be annotated with JsonInclude.Include.ALWAYS
+ * like the existing collection classes.
+ *
+ * When the criteria extend DefaultFilterCriteria and the page is full, a
+ * "next" link is added to the links of the collection, which are written
+ * after the documents. The link is the request URI with the "after" query
+ * parameter (DefaultFilterCriteria.after) set to a PageCursor for the last
+ * document, for example
+ * https://server/v2/rpcs/stream?limit=100&amp;after=ZjRjYjM0...
+ *
+ * If the repository fails after some documents were written, the
+ * exception is rethrown without closing the documents array or the
+ * collection. If the response was not committed yet the client gets the
+ * error status as usual; otherwise the container aborts the connection
+ * and the client gets an incomplete document that it cannot parse,
+ * instead of a valid but truncated collection.
+ *
+ * @author jbuhacoff
+ */
+public class DocumentCollectionStreamingOutput<T extends AbstractDocument, F extends FilterCriteria<T>> implements StreamingOutput {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(DocumentCollectionStreamingOutput.class);
+    private final ObjectMapper mapper;
+    private final JsonNode collection;
+    private final String documentsField;
+    private final StreamingDocumentRepository<T, F> repository;
+    private final F criteria;
+    private final UriBuilder requestUriBuilder;
+
+    /**
+     *
+     * @param mapper
+     * @param collection the serialized empty collection
+     * @param documentsField the name of the documents property, from findDocumentsField
+     * @param repository
+     * @param criteria
+     * @param requestUriBuilder initialized with the request URI, for the next link; if null the next link is omitted
+     */
+    public DocumentCollectionStreamingOutput(ObjectMapper mapper, JsonNode collection, String documentsField, StreamingDocumentRepository<T, F> repository, F criteria, UriBuilder requestUriBuilder) {
+        this.mapper = mapper;
+        this.collection = collection;
+        this.documentsField = documentsField;
+        this.repository = repository;
+        this.criteria = criteria;
+        this.requestUriBuilder = requestUriBuilder;
+    }
+
+    /**
+     *
+     * @param collection the serialized empty collection
+     * @return the name of the documents property in the serialized collection, or null if it cannot be found
+     */
+    public static String findDocumentsField(JsonNode collection) {
+        Iterator<Map.Entry<String, JsonNode>> fields = collection.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (field.getValue().isArray() && field.getValue().size() == 0) {
+                return field.getKey();
+            }
+        }
+        log.debug("No documents property in serialized collection");
+        return null;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        final JsonGenerator generator = mapper.getFactory().createGenerator(output);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT); // never complete the document after a failure
+        final ObjectWriter writer = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE); // the container buffers and flushes the response
+        final DocumentCounter<T> counter = new DocumentCounter<>(generator, writer);
+        ObjectNode links = mapper.createObjectNode();
+        generator.writeStartObject();
+        Iterator<Map.Entry<String, JsonNode>> fields = collection.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (field.getKey().equals(documentsField)) {
+                generator.writeArrayFieldStart(documentsField);
+                try {
+                    repository.search(criteria, counter);
+                }
+                catch (IOException | RuntimeException e) {
+                    log.error("Search failed after {} documents, response is incomplete: {}", counter.count, e.getMessage());
+                    throw e;
+                }
+                generator.writeEndArray();
+            }
+            else if (field.getKey().equals("links") && field.getValue().isObject()) {
+                links.setAll((ObjectNode) field.getValue()); // written after the documents with the next link
+            }
+            else {
+                generator.writeFieldName(field.getKey());
+                writer.writeValue(generator, field.getValue());
+            }
+        }
+        if (criteria instanceof DefaultFilterCriteria && requestUriBuilder != null) {
+            Integer limit = ((DefaultFilterCriteria) criteria).limit;
+            if (limit != null && counter.count >= limit && counter.last != null && counter.last.getId() != null) {
+                links.put("next", requestUriBuilder.replaceQueryParam("after", PageCursor.after(counter.last)).build().toString());
+            }
+        }
+        if (links.size() > 0) {
+            generator.writeFieldName("links");
+            writer.writeValue(generator, links);
+        }
+        generator.writeEndObject();
+        generator.flush();
+        log.debug("Streamed {} documents", counter.count);
+    }
+
+    private static class DocumentCounter<T> implements DocumentSink<T> {
+        private final JsonGenerator generator;
+        private final ObjectWriter writer;
+        private long count = 0;
+        private T last = null;
+
+        public DocumentCounter(JsonGenerator generator, ObjectWriter writer) {
+            this.generator = generator;
+            this.writer = writer;
+        }
+
+        @Override
+        public void add(T document) throws IOException {
+            writer.writeValue(generator, document);
+            count++;
+            last = document;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright (C) 2014 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.jaxrs2.server.resource;
+
+import java.io.IOException;
+
+/**
+ * Receives search results one at a time from a StreamingDocumentRepository.
+ * 
+ * @author jbuhacoff
+ */
+public interface DocumentSink<T> {
+    /**
+     * Writes the document to the response. The document is not kept, so
+     * the repository may reuse or discard it after this method returns.
+     * 
+     * @param document
+     * @throws IOException if the client went away; the repository should stop searching and close its cursor
+     */
+    void add(T document) throws IOException;
+}
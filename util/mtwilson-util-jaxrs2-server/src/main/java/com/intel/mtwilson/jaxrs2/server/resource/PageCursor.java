@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2014 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.jaxrs2.server.resource;
+
+import com.intel.dcsg.cpg.io.UUID;
+import com.intel.mtwilson.jaxrs2.AbstractDocument;
+import com.intel.mtwilson.jaxrs2.DefaultFilterCriteria;
+import java.nio.charset.Charset;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Keyset pagination cursors. A cursor holds the sort key of the last
+ * document on a page. The repository continues with the documents after
+ * that key, for example with WHERE id &gt; ? ORDER BY id LIMIT ?, so the
+ * cost of a page does not grow with its depth the way an OFFSET does.
+ *
+ * Cursors are opaque to clients: the "next" link of a page is the request
+ * URI with the cursor in the "after" query parameter, so clients follow
+ * the link to get the next page.
+ *
+ * By default the key is the document id, so repositories using the
+ * default cursor should return documents ordered by id. A repository
+ * ordering by other columns can create and parse its own cursor with
+ * several keys.
+ *
+ * @author jbuhacoff
+ */
+public class PageCursor {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String SEPARATOR = "\u0000";
+
+    /**
+     *
+     * @param keys sort key values of the last document on the page, must not contain the NUL character
+     * @return an opaque URL-safe cursor
+     */
+    public static String create(String... keys) {
+        StringBuilder text = new StringBuilder();
+        for(int i=0; i<keys.length; i++) {
+            if( keys[i].contains(SEPARATOR) ) {
+                throw new IllegalArgumentException("Cursor key cannot contain NUL");
+            }
+            if( i > 0 ) { text.append(SEPARATOR); }
+            text.append(keys[i]);
+        }
+        return Base64.encodeBase64URLSafeString(text.toString().getBytes(UTF8));
+    }
+
+    /**
+     *
+     * @param cursor created by create()
+     * @return the keys given to create()
+     * @throws IllegalArgumentException if the cursor is not valid base64
+     */
+    public static String[] parse(String cursor) {
+        if( !Base64.isBase64(cursor) ) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        return new String(Base64.decodeBase64(cursor), UTF8).split(SEPARATOR, -1);
+    }
+
+    /**
+     *
+     * @param document the last document on a page
+     * @return cursor for the page after the document
+     */
+    public static String after(AbstractDocument document) {
+        return create(document.getId().toString());
+    }
+
+    /**
+     * For repositories using the default cursor.
+     *
+     * @param criteria
+     * @return the id after which the requested page starts, or null if the request did not include a cursor
+     * @throws WebApplicationException with status 400 if the cursor is not valid
+     */
+    public static UUID getAfterId(DefaultFilterCriteria criteria) {
+        if( criteria.after == null || criteria.after.isEmpty() ) {
+            return null;
+        }
+        try {
+            String[] keys = parse(criteria.after);
+            if( keys.length == 1 && UUID.isValid(keys[0]) ) {
+                return UUID.valueOf(keys[0]);
+            }
+        }
+        catch(IllegalArgumentException e) {
+            // handled below
+        }
+        throw new WebApplicationException(Response.Status.BAD_REQUEST);
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2014 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.mtwilson.jaxrs2.server.resource;
+
+import com.intel.mtwilson.jaxrs2.AbstractDocument;
+import com.intel.mtwilson.repository.FilterCriteria;
+import java.io.IOException;
+
+/**
+ * Optional contract for a DocumentRepository that can produce search 
+ * results one at a time, for example while iterating a database cursor.
+ * When the repository of a resource implements it, JSON search results are
+ * written to the response as they are produced instead of being collected
+ * in memory first.
+ * 
+ * The repository should apply the same criteria as search(F), including
+ * the limit and the "after" cursor of DefaultFilterCriteria.
+ * 
+ * @author jbuhacoff
+ */
+public interface StreamingDocumentRepository<T extends AbstractDocument, F extends FilterCriteria<T>> {
+    /**
+     * Given criteria encapsulated in a POJO, passes each item matching the
+     * criteria to the sink in order.
+     * 
+     * @param criteria
+     * @param sink
+     * @throws IOException from the sink
+     */
+    void search(F criteria, DocumentSink<T> sink) throws IOException;
+}
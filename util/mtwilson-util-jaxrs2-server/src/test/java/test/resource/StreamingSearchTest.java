@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2014 Intel Corporation
+ * All rights reserved.
+ */
+package test.resource;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intel.dcsg.cpg.io.UUID;
+import com.intel.mtwilson.jaxrs2.AbstractDocument;
+import com.intel.mtwilson.jaxrs2.DefaultFilterCriteria;
+import com.intel.mtwilson.jaxrs2.DocumentCollection;
+import com.intel.mtwilson.jaxrs2.NoLinks;
+import com.intel.mtwilson.jaxrs2.provider.JacksonObjectMapperProvider;
+import com.intel.mtwilson.jaxrs2.server.resource.AbstractJsonapiResource;
+import com.intel.mtwilson.jaxrs2.server.resource.BatchDocumentRepository;
+import com.intel.mtwilson.jaxrs2.server.resource.DocumentRepository;
+import com.intel.mtwilson.jaxrs2.server.resource.DocumentSink;
+import com.intel.mtwilson.jaxrs2.server.resource.PageCursor;
+import com.intel.mtwilson.jaxrs2.server.resource.StreamingDocumentRepository;
+import com.intel.mtwilson.repository.FilterCriteria;
+import com.intel.mtwilson.repository.Locator;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriBuilder;
+import org.glassfish.jersey.uri.UriComponent;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class StreamingSearchTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(StreamingSearchTest.class);
+
+    public static class Fruit extends AbstractDocument {
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    public static class FruitCollection extends DocumentCollection<Fruit> {
+        private final ArrayList<Fruit> fruits = new ArrayList<Fruit>();
+
+        public FruitCollection() {
+            getMeta().put("kind", "fruit");
+        }
+
+        @JsonInclude(JsonInclude.Include.ALWAYS)
+        public List<Fruit> getFruits() { return fruits; }
+
+        @Override
+        public List<Fruit> getDocuments() {
+            return getFruits();
+        }
+    }
+
+    public static class FruitFilterCriteria extends DefaultFilterCriteria implements FilterCriteria<Fruit> {
+    }
+
+    public static class FruitLocator implements Locator<Fruit> {
+        public UUID id;
+
+        @Override
+        public void copyTo(Fruit item) {
+            if (id != null) {
+                item.setId(id);
+            }
+        }
+    }
+
+    /**
+     * Generates fruits with sequential ids on demand, so the test does not
+     * hold the results in memory either.
+     */
+    public static class FruitRepository implements DocumentRepository<Fruit, FruitCollection, FruitFilterCriteria, FruitLocator>, StreamingDocumentRepository<Fruit, FruitFilterCriteria>, BatchDocumentRepository<Fruit> {
+        private final long total;
+        private final long heapSampleInterval;
+        private long maxUsedHeap = 0;
+        private int creates = 0;
+        private int batches = 0;
+        private long failAfter = -1;
+
+        public FruitRepository(long total, long heapSampleInterval) {
+            this.total = total;
+            this.heapSampleInterval = heapSampleInterval;
+        }
+
+        private static Fruit fruit(long i) {
+            Fruit fruit = new Fruit();
+            fruit.setId(UUID.valueOf(new java.util.UUID(0, i)));
+            fruit.setName("fruit-" + i);
+            return fruit;
+        }
+
+        private long first(FruitFilterCriteria criteria) {
+            UUID after = PageCursor.getAfterId(criteria);
+            return after == null ? 0 : java.util.UUID.fromString(after.toString()).getLeastSignificantBits() + 1;
+        }
+
+        @Override
+        public void search(FruitFilterCriteria criteria, DocumentSink<Fruit> sink) throws IOException {
+            long first = first(criteria);
+            long end = Math.min(total, first + criteria.limit);
+            for (long i = first; i < end; i++) {
+                if (i == failAfter) {
+                    throw new IOException("connection to database lost");
+                }
+                sink.add(fruit(i));
+                if (heapSampleInterval > 0 && i % heapSampleInterval == 0) {
+                    maxUsedHeap = Math.max(maxUsedHeap, usedHeap());
+                }
+            }
+        }
+
+        @Override
+        public FruitCollection search(FruitFilterCriteria criteria) {
+            FruitCollection collection = new FruitCollection();
+            long first = first(criteria);
+            long end = Math.min(total, first + criteria.limit);
+            for (long i = first; i < end; i++) {
+                collection.getFruits().add(fruit(i));
+            }
+            return collection;
+        }
+
+        @Override
+        public void delete(FruitFilterCriteria criteria) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Fruit retrieve(FruitLocator locator) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void store(Fruit item) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void create(Fruit item) {
+            creates++;
+        }
+
+        @Override
+        public void createAll(List<Fruit> items) {
+            batches++;
+        }
+
+        @Override
+        public void delete(FruitLocator locator) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    public static class FruitResource extends AbstractJsonapiResource<Fruit, FruitCollection, FruitFilterCriteria, NoLinks<Fruit>, FruitLocator> {
+        private final FruitRepository repository;
+        private String requestUri = "http://localhost/v2/fruits/stream";
+
+        public FruitResource(FruitRepository repository) {
+            this.repository = repository;
+        }
+
+        @Override
+        protected UriBuilder getRequestUriBuilder() {
+            return UriBuilder.fromUri(requestUri);
+        }
+
+        @Override
+        protected FruitCollection createEmptyCollection() {
+            return new FruitCollection();
+        }
+
+        @Override
+        protected DocumentRepository<Fruit, FruitCollection, FruitFilterCriteria, FruitLocator> getRepository() {
+            return repository;
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count = 0;
+        private final byte[] tail = new byte[256];
+
+        @Override
+        public void write(int b) {
+            tail[(int) (count % tail.length)] = (byte) b;
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = 0; i < len; i++) {
+                write(b[off + i]);
+            }
+        }
+
+        public String getTail() {
+            StringBuilder text = new StringBuilder();
+            long start = Math.max(0, count - tail.length);
+            for (long i = start; i < count; i++) {
+                text.append((char) tail[(int) (i % tail.length)]);
+            }
+            return text.toString();
+        }
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private String stream(FruitResource resource, FruitFilterCriteria criteria) throws IOException {
+        Object result = resource.streamJsonapiCollection(criteria).getEntity();
+        assertTrue(result instanceof StreamingOutput);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) result).write(out);
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void testStreamPages() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        FruitResource resource = new FruitResource(new FruitRepository(5, 0));
+        FruitFilterCriteria criteria = new FruitFilterCriteria();
+        criteria.limit = 2;
+        resource.requestUri = "http://localhost/v2/fruits/stream?limit=2";
+        ArrayList<String> names = new ArrayList<>();
+        for (int page = 0; page < 10; page++) {
+            String json = stream(resource, criteria);
+            log.debug("Page {}: {}", page, json);
+            JsonNode tree = mapper.readTree(json);
+            for (JsonNode fruit : tree.get("fruits")) {
+                names.add(fruit.get("name").asText());
+            }
+            if (!tree.has("links")) {
+                break;
+            }
+            String next = tree.get("links").get("next").asText();
+            assertTrue(next, next.startsWith("http://localhost/v2/fruits/stream?"));
+            URI nextUri = URI.create(next);
+            assertEquals("2", UriComponent.decodeQuery(nextUri, true).getFirst("limit"));
+            resource.requestUri = next; // the client follows the link
+            criteria.after = UriComponent.decodeQuery(nextUri, true).getFirst("after");
+            assertNotNull(criteria.after);
+        }
+        assertEquals(5, names.size());
+        assertEquals("fruit-0", names.get(0));
+        assertEquals("fruit-4", names.get(4));
+    }
+
+    @Test
+    public void testStreamMatchesCollection() throws IOException {
+        ObjectMapper mapper = JacksonObjectMapperProvider.createDefaultMapper();
+        FruitResource resource = new FruitResource(new FruitRepository(5, 0));
+        FruitFilterCriteria criteria = new FruitFilterCriteria();
+        criteria.limit = 10;
+        JsonNode streamed = mapper.readTree(stream(resource, criteria));
+        assertEquals("fruit", streamed.get("meta").get("kind").asText());
+        assertEquals(mapper.valueToTree(resource.searchJsonapiCollection(criteria)), streamed);
+        criteria.limit = 2;
+        streamed = mapper.readTree(stream(resource, criteria));
+        assertEquals("fruit", streamed.get("meta").get("kind").asText());
+        assertNotNull(streamed.get("links").get("next"));
+    }
+
+    @Test
+    public void testStreamFailureLeavesResponseIncomplete() throws IOException {
+        FruitRepository repository = new FruitRepository(5000, 0);
+        repository.failAfter = 1000;
+        FruitResource resource = new FruitResource(repository);
+        FruitFilterCriteria criteria = new FruitFilterCriteria();
+        criteria.limit = 5000;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            ((StreamingOutput) resource.streamJsonapiCollection(criteria).getEntity()).write(out);
+            fail("search failure should be rethrown");
+        } catch (IOException e) {
+            log.debug("Search failed: {}", e.getMessage());
+        }
+        assertTrue(out.size() > 0);
+        try {
+            new ObjectMapper().readTree(out.toByteArray());
+            fail("incomplete response should not be valid json");
+        } catch (JsonProcessingException e) {
+            log.debug("Incomplete response: {}", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testStreamMillionItemsWithBoundedHeap() throws IOException {
+        int total = 1000000;
+        FruitRepository repository = new FruitRepository(total, 100000);
+        FruitResource resource = new FruitResource(repository);
+        FruitFilterCriteria criteria = new FruitFilterCriteria();
+        criteria.limit = total;
+        long baseline = usedHeap();
+        long start = System.currentTimeMillis();
+        CountingOutputStream out = new CountingOutputStream();
+        ((StreamingOutput) resource.streamJsonapiCollection(criteria).getEntity()).write(out);
+        long growth = repository.maxUsedHeap - baseline;
+        log.debug("Streamed {} items, {} bytes in {} ms, max heap growth {} bytes", total, out.count, System.currentTimeMillis() - start, growth);
+        assertTrue(out.getTail().contains("\"name\":\"fruit-999999\""));
+        assertTrue(out.getTail().contains("\"next\""));
+        assertTrue(out.count > total * 50L); // each item is at least {"id":"...36 chars...","name":"fruit-n"}
+        assertTrue("heap grew by " + growth, growth < 32 * 1024 * 1024);
+    }
+
+    @Test
+    public void testBatchCreate() {
+        FruitRepository repository = new FruitRepository(0, 0);
+        FruitResource resource = new FruitResource(repository);
+        FruitCollection collection = new FruitCollection();
+        for (int i = 0; i < 3; i++) {
+            Fruit fruit = new Fruit();
+            fruit.setName("new-" + i);
+            collection.getFruits().add(fruit);
+        }
+        resource.createJsonapiCollection(collection);
+        assertEquals(1, repository.batches);
+        assertEquals(0, repository.creates);
+        for (Fruit fruit : collection.getFruits()) {
+            assertNotNull(fruit.getId());
+        }
+    }
+
+    @Test
+    public void testPageCursor() {
+        String cursor = PageCursor.create("apple", "2014-01-01");
+        String[] keys = PageCursor.parse(cursor);
+        assertArrayEquals(new String[]{"apple", "2014-01-01"}, keys);
+        FruitFilterCriteria criteria = new FruitFilterCriteria();
+        UUID id = new UUID();
+        criteria.after = PageCursor.create(id.toString());
+        assertEquals(id, PageCursor.getAfterId(criteria));
+        criteria.after = PageCursor.create("not-a-uuid");
+        try {
+            PageCursor.getAfterId(criteria);
+            fail("invalid cursor should be rejected");
+        } catch (WebApplicationException e) {
+            assertEquals(400, e.getResponse().getStatus());
+        }
+    }
+}
@@ -20,4 +20,11 @@ public class DefaultFilterCriteria {
     public Integer limit = 10; 
     @QueryParam("page") 
     public Integer page; 
+    /**
+     * Cursor from the "next" link of the previous page. When it is set the
+     * repository continues after the last document of that page and the
+     * page parameter is ignored, so deep pages cost the same as the first.
+     */
+    @QueryParam("after")
+    public String after;
 }
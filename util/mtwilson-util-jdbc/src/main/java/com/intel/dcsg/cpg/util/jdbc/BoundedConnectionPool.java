@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.dcsg.cpg.util.jdbc;
+
+import com.intel.dcsg.cpg.objectpool.BoundedObjectPool;
+import java.sql.Connection;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+
+/**
+ * A connection pool with a maximum number of connections, a borrow timeout,
+ * a minimum number of idle connections, and eviction of idle and over-age
+ * connections. Use with PoolingDataSource.
+ *
+ * @author jbuhacoff
+ */
+public class BoundedConnectionPool extends BoundedObjectPool<Connection> {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(BoundedConnectionPool.class);
+    private DataSource ds;
+    private String validationQuery = null;
+
+    public void setDataSource(DataSource ds) { this.ds = ds; }
+    public DataSource getDataSource() { return ds; }
+
+    public void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+
+    public String getValidationQuery() {
+        return validationQuery;
+    }
+
+    /**
+     * Obtains a new connection for the pool by calling getConnection() on the
+     * datasource.
+     * @return
+     */
+    @Override
+    protected Connection createObject() {
+        try {
+            Connection c = ds.getConnection();
+            log.debug("created connection from data source");
+            return new PooledConnection(c, this);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot create connection", e);
+        }
+    }
+
+    /**
+     * Closes connections when they are removed from the pool.
+     *
+     * @param object
+     */
+    @Override
+    protected void trashObject(Connection object) {
+        try {
+            if( object instanceof PooledConnection ) {
+                PooledConnection pooledConnection = (PooledConnection)object;
+                pooledConnection.pool = null;
+                if( !pooledConnection.delegate.isClosed() ) {
+                    pooledConnection.delegate.close();
+                }
+            }
+            else if( !object.isClosed() ) {
+                object.close();
+            }
+        }
+        catch(SQLException e) {
+            throw new IllegalStateException("Cannot close connection", e);
+        }
+    }
+
+    @Override
+    protected boolean isValid(Connection connection) {
+        return ValidatingConnectionPool.isValid(connection, validationQuery);
+    }
+}
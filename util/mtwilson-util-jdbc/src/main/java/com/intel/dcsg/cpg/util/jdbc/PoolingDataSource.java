@@ -4,8 +4,11 @@
  */
 package com.intel.dcsg.cpg.util.jdbc;
 
+import com.intel.dcsg.cpg.objectpool.ObjectPool;
+import com.intel.dcsg.cpg.objectpool.ObjectPoolTimeoutException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 
 /**
  *
@@ -13,7 +16,7 @@ import java.sql.SQLException;
  */
 public class PoolingDataSource extends DelegatingDataSource {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PoolingDataSource.class);
-    private ConnectionPool connectionPool = null;
+    private ObjectPool<Connection> connectionPool = null;
     
     /**
      * Use another data source to populate the pool as necessary but
@@ -29,16 +32,36 @@ public class PoolingDataSource extends DelegatingDataSource {
         this.connectionPool = connectionPool;
     }
 
+    /**
+     * Same as PoolingDataSource(ConnectionPool) but for a pool with a 
+     * maximum size.
+     * 
+     * @param connectionPool 
+     */
+    public PoolingDataSource(BoundedConnectionPool connectionPool) {
+        super(connectionPool.getDataSource());
+        this.connectionPool = connectionPool;
+    }
+
+    public ObjectPool<Connection> getConnectionPool() {
+        return connectionPool;
+    }
+
     /**
      * First we try our own ConnectionPool and then if that pool needs a new
      * connection it gets the new connection from the datasource.
      * 
      * @return
-     * @throws SQLException 
+     * @throws SQLTimeoutException if the pool is bounded and times out waiting for a connection to be returned
      */
     @Override
     public Connection getConnection() throws SQLException {
-        return connectionPool.borrowObject();
+        try {
+            return connectionPool.borrowObject();
+        }
+        catch(ObjectPoolTimeoutException e) {
+            throw new SQLTimeoutException(e.getMessage(), e);
+        }
     }
 
     @Override
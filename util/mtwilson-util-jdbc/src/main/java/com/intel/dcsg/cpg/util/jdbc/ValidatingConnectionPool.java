@@ -72,6 +72,17 @@ public class ValidatingConnectionPool extends ConnectionPool {
     }
 
     protected boolean isValid(Connection connection) {
+        return isValid(connection, validationQuery);
+    }
+    
+    /**
+     * Shared with BoundedConnectionPool.
+     * 
+     * @param connection
+     * @param validationQuery
+     * @return true if the connection is open and the validation query succeeds
+     */
+    static boolean isValid(Connection connection, String validationQuery) {
         log.debug("Validating connection {}", connection);
         try {
             if( connection.isClosed() ) { return false; }
@@ -4,8 +4,11 @@
  */
 package com.intel.mtwilson.jdbi.util;
 
+import com.intel.mtwilson.MyJdbc;
+import java.io.IOException;
 import org.skife.jdbi.v2.DBI;
 import java.sql.Connection;
+import javax.sql.DataSource;
 
 /**
  *
@@ -13,6 +16,47 @@ import java.sql.Connection;
  */
 public class JdbiUtil {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(JdbiUtil.class);
+    private static volatile PooledDBI pooledDBI = null;
+    
+    /**
+     * The shared DBI and the data source it was created with, so that a
+     * new DBI is created after MyJdbc.closeDataSource() replaced the pool.
+     */
+    private static class PooledDBI {
+        private final DataSource dataSource;
+        private final DBI dbi;
+
+        private PooledDBI(DataSource dataSource) {
+            this.dataSource = dataSource;
+            this.dbi = new DBI(dataSource);
+        }
+    }
+    
+    /**
+     * Returns a shared DBI instance backed by the process-wide connection
+     * pool from MyJdbc.getDataSource(). Each handle or on-demand DAO opened
+     * from it borrows a connection from the pool and returns it on close(),
+     * so unlike getDBI(Connection) it is safe to share across requests.
+     * If the pool was closed and recreated with MyJdbc.closeDataSource(),
+     * a new DBI is created for the new pool.
+     * 
+     * @return
+     * @throws IOException if the database configuration cannot be loaded
+     */
+    public static DBI getDBI() throws IOException {
+        DataSource dataSource = MyJdbc.getDataSource();
+        PooledDBI current = pooledDBI;
+        if( current == null || current.dataSource != dataSource ) {
+            synchronized(JdbiUtil.class) {
+                if( pooledDBI == null || pooledDBI.dataSource != dataSource ) {
+                    pooledDBI = new PooledDBI(dataSource);
+                    log.debug("JdbiUtil (mtwilson-util-jdbi) created shared DBI instance");
+                }
+                current = pooledDBI;
+            }
+        }
+        return current.dbi;
+    }
 
         // issue #4978: removing static instance
 //    private static DBI dbi = null;
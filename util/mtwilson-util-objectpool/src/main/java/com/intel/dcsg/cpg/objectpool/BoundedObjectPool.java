@@ -0,0 +1,655 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.dcsg.cpg.objectpool;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An object pool with a maximum size, a fair borrow timeout, a minimum
+ * number of idle objects, and a background evictor for idle and over-age
+ * objects.
+ *
+ * The pool never holds more than maxTotal objects (borrowed plus idle).
+ * When all objects are borrowed, borrowObject waits up to maxWaitMillis
+ * for one to be returned, in the order the callers arrived, and then
+ * throws ObjectPoolTimeoutException.
+ *
+ * Idle objects are lent out most-recently-returned first so that objects
+ * which are not needed stay idle long enough to be evicted.
+ *
+ * Call start() to prefill the pool in the background and schedule the
+ * evictor, and close() to stop the evictor and trash all idle objects.
+ *
+ * Example:
+ * <pre>
+ * pool.setMaxTotal(20);
+ * pool.setMinIdle(2);
+ * pool.setMaxWaitMillis(5000);
+ * pool.start();
+ * obj = pool.borrowObject();
+ * try {
+ *   // do something with obj
+ * }
+ * finally {
+ *   pool.returnObject(obj);
+ * }
+ * </pre>
+ *
+ * @author jbuhacoff
+ */
+public abstract class BoundedObjectPool<T> implements ObjectPool<T>, Closeable {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(BoundedObjectPool.class);
+    private static final AtomicInteger poolCounter = new AtomicInteger(0);
+
+    private int maxTotal = 8;
+    private int minIdle = 0;
+    private long maxWaitMillis = -1; // wait indefinitely
+    private long maxIdleMillis = 1000 * 60 * 5; // 5 minutes
+    private long maxAgeMillis = -1; // no maximum age
+    private long evictionIntervalMillis = 1000 * 30; // 30 seconds
+    private boolean validateOnBorrow = false;
+    private boolean validateOnReturn = false;
+    private boolean validateWhileIdle = false;
+
+    private final ConcurrentLinkedDeque<Entry<T>> idle = new ConcurrentLinkedDeque<>();
+    private final ConcurrentHashMap<T,Entry<T>> borrowed = new ConcurrentHashMap<>();
+    private final AtomicInteger total = new AtomicInteger(0);
+    private final AtomicLong createdCount = new AtomicLong(0);
+    private final AtomicLong trashedCount = new AtomicLong(0);
+    private final AtomicLong borrowCount = new AtomicLong(0);
+    private final AtomicLong timeoutCount = new AtomicLong(0);
+    private final AtomicLong waitTimeNanos = new AtomicLong(0);
+    private final AtomicLong maxWaitTimeNanos = new AtomicLong(0);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition(); // signalled when an object becomes idle or a slot is freed
+    private final AtomicInteger waiting = new AtomicInteger(0);
+    private Semaphore permits = null;
+    private ScheduledExecutorService scheduler = null;
+    private volatile boolean closed = false;
+
+    /**
+     * Called by borrowObject when the pool needs a new instance to lend out,
+     * and by the prefill and evictor tasks to maintain the minimum idle count.
+     *
+     * @return
+     */
+    protected abstract T createObject();
+
+    /**
+     * Called when the pool is removing the object because it was revoked,
+     * failed validation, or was evicted. Subclasses can clean up objects
+     * by removing references, closing connections, etc.
+     *
+     * @param object
+     */
+    protected abstract void trashObject(T object);
+
+    /**
+     * Subclasses that enable validation should override this method.
+     * Implementations must not throw an exception - if an error
+     * occurs during evaluation they must return false.
+     *
+     * @param object
+     * @return true if the object is still in a valid state and can be borrowed again, false if it cannot be reused
+     */
+    protected boolean isValid(T object) {
+        return true;
+    }
+
+    private Semaphore permits() {
+        Semaphore current = permits;
+        if( current == null ) {
+            synchronized(this) {
+                if( permits == null ) {
+                    permits = new Semaphore(maxTotal, true); // fair: callers are served in the order they arrived
+                }
+                current = permits;
+            }
+        }
+        return current;
+    }
+
+    @Override
+    public T borrowObject() {
+        if( closed ) {
+            throw new IllegalStateException("Pool is closed");
+        }
+        long start = System.nanoTime();
+        acquirePermit(start);
+        try {
+            T object = takeObject(start);
+            borrowCount.incrementAndGet();
+            log.debug("Borrowing object from pool: {} / {}", object, object.hashCode());
+            return object;
+        }
+        catch(RuntimeException e) {
+            permits().release();
+            throw e;
+        }
+    }
+
+    private void acquirePermit(long start) {
+        boolean acquired;
+        try {
+            if( maxWaitMillis < 0 ) {
+                permits().acquire();
+                acquired = true;
+            }
+            else {
+                acquired = permits().tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for object from pool", e);
+        }
+        long waited = System.nanoTime() - start;
+        waitTimeNanos.addAndGet(waited);
+        long max = maxWaitTimeNanos.get();
+        while( waited > max && !maxWaitTimeNanos.compareAndSet(max, waited) ) {
+            max = maxWaitTimeNanos.get();
+        }
+        if( !acquired ) {
+            timeoutCount.incrementAndGet();
+            log.debug("Timeout waiting for object from pool, currently borrowed {} idle {}", borrowed.size(), idle.size());
+            throw new ObjectPoolTimeoutException(maxWaitMillis);
+        }
+    }
+
+    /**
+     * Caller must hold a permit.
+     */
+    private T takeObject(long start) {
+        while(true) {
+            Entry<T> entry = idle.pollFirst();
+            if( entry == null ) {
+                if( !reserve() ) {
+                    // another object is in transit between borrowed and idle
+                    awaitAvailable(start);
+                    continue;
+                }
+                entry = create();
+            }
+            else if( isExpired(entry, System.currentTimeMillis()) || (validateOnBorrow && !isValid(entry.object)) ) {
+                log.debug("Trashing expired or invalid object on borrow and trying again");
+                trash(entry);
+                continue;
+            }
+            borrowed.put(entry.object, entry);
+            return entry.object;
+        }
+    }
+
+    /**
+     * Waits until an object is idle or a slot is free, for up to the time
+     * remaining of maxWaitMillis since the caller started to borrow.
+     * The caller holds a permit, so it only waits while another thread is
+     * between returning or creating an object and making it available.
+     */
+    private void awaitAvailable(long start) {
+        waiting.incrementAndGet();
+        lock.lock();
+        try {
+            while( idle.isEmpty() && total.get() >= maxTotal ) {
+                if( closed ) {
+                    throw new IllegalStateException("Pool is closed");
+                }
+                if( maxWaitMillis < 0 ) {
+                    available.await();
+                }
+                else {
+                    long remaining = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis) - (System.nanoTime() - start);
+                    if( remaining <= 0 ) {
+                        timeoutCount.incrementAndGet();
+                        log.debug("Timeout waiting for object from pool, currently borrowed {} idle {}", borrowed.size(), idle.size());
+                        throw new ObjectPoolTimeoutException(maxWaitMillis);
+                    }
+                    available.awaitNanos(remaining);
+                }
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for object from pool", e);
+        }
+        finally {
+            lock.unlock();
+            waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Wakes callers in awaitAvailable; the lock is only taken when someone
+     * is waiting. Callers change the pool state before calling this, and a
+     * waiter registers before it checks the state, so no wakeup is lost.
+     */
+    private void signalAvailable() {
+        if( waiting.get() > 0 ) {
+            lock.lock();
+            try {
+                available.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Reserves a slot for a new object if the pool is not full.
+     * @return true if the caller may create a new object
+     */
+    private boolean reserve() {
+        while(true) {
+            int current = total.get();
+            if( current >= maxTotal ) {
+                return false;
+            }
+            if( total.compareAndSet(current, current+1) ) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Caller must have reserved a slot.
+     */
+    private Entry<T> create() {
+        try {
+            T object = createObject();
+            createdCount.incrementAndGet();
+            log.debug("Created new object for pool, now total {} borrowed {}", total.get(), borrowed.size());
+            return new Entry<>(object);
+        }
+        catch(RuntimeException e) {
+            total.decrementAndGet();
+            signalAvailable();
+            throw e;
+        }
+    }
+
+    private void trash(Entry<T> entry) {
+        total.decrementAndGet();
+        signalAvailable();
+        trashedCount.incrementAndGet();
+        try {
+            trashObject(entry.object);
+        }
+        catch(RuntimeException e) {
+            log.error("Cannot trash object {}: {}", entry.object, e.getMessage());
+        }
+    }
+
+    private boolean isExpired(Entry<T> entry, long now) {
+        return maxAgeMillis >= 0 && now - entry.created > maxAgeMillis;
+    }
+
+    @Override
+    public void returnObject(T object) {
+        Entry<T> entry = borrowed.remove(object);
+        if( entry == null ) {
+            log.error("Object was not borrowed: {} / {}", object, object.hashCode());
+            throw new IllegalStateException("Object was not borrowed");
+        }
+        try {
+            if( entry.revoked || closed ) {
+                log.debug("Removed revoked object from pool: {} / {}", object, object.hashCode());
+                trash(entry);
+            }
+            else if( isExpired(entry, System.currentTimeMillis()) || (validateOnReturn && !isValid(object)) ) {
+                log.debug("Removed expired or invalid object on return: {} / {}", object, object.hashCode());
+                trash(entry);
+            }
+            else {
+                log.debug("Returning object to pool: {} / {}", object, object.hashCode());
+                entry.lastReturned = System.currentTimeMillis();
+                idle.offerFirst(entry);
+                signalAvailable();
+            }
+        }
+        finally {
+            permits().release();
+        }
+    }
+
+    /**
+     * Adds an object to the pool if the pool is not full; otherwise the
+     * object is trashed.
+     *
+     * @param object
+     */
+    @Override
+    public void addObject(T object) {
+        if( closed || !reserve() ) {
+            log.debug("Pool is full or closed, trashing added object: {} / {}", object, object.hashCode());
+            trashedCount.incrementAndGet();
+            trashObject(object);
+            return;
+        }
+        log.debug("Adding object to pool: {} / {}", object, object.hashCode());
+        createdCount.incrementAndGet();
+        idle.offerLast(new Entry<>(object));
+        signalAvailable();
+    }
+
+    @Override
+    public void revokeObject(T object) {
+        for(Entry<T> entry : idle) {
+            if( entry.object.equals(object) && idle.remove(entry) ) {
+                log.debug("Removed revoked object from pool: {} / {}", object, object.hashCode());
+                trash(entry);
+                return;
+            }
+        }
+        Entry<T> entry = borrowed.get(object);
+        if( entry != null ) {
+            log.debug("Marking revoked object to remove from pool: {} / {}", object, object.hashCode());
+            entry.revoked = true;
+        }
+        else {
+            log.error("Object was not in pool: {} / {}", object, object.hashCode());
+            throw new IllegalStateException("Object was not in pool");
+        }
+    }
+
+    /**
+     * Starts the background thread which prefills the pool up to minIdle
+     * objects and then periodically evicts idle and over-age objects.
+     * Calling start() is optional; without it the pool is still bounded
+     * but objects are only created on demand and never evicted.
+     */
+    public synchronized void start() {
+        if( scheduler != null ) {
+            return;
+        }
+        final String name = String.format("%s-%d", getClass().getSimpleName(), poolCounter.incrementAndGet());
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                prefill();
+            }
+        });
+        if( evictionIntervalMillis > 0 ) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    evict();
+                }
+            }, evictionIntervalMillis, evictionIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Creates idle objects until there are at least minIdle idle objects
+     * or the pool is full.
+     */
+    protected void prefill() {
+        while( !closed && idle.size() < minIdle && reserve() ) {
+            try {
+                idle.offerLast(create());
+                signalAvailable();
+            }
+            catch(RuntimeException e) {
+                log.error("Cannot prefill pool: {}", e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Trashes idle objects that have been idle longer than maxIdleMillis
+     * (while keeping at least minIdle), objects older than maxAgeMillis, and
+     * if validateWhileIdle is enabled, invalid objects. Then refills the pool
+     * up to minIdle.
+     */
+    protected void evict() {
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+        Iterator<Entry<T>> it = idle.descendingIterator(); // least recently returned first
+        while( it.hasNext() ) {
+            Entry<T> entry = it.next();
+            boolean tooIdle = maxIdleMillis >= 0 && now - entry.lastReturned > maxIdleMillis && idle.size() > minIdle;
+            if( tooIdle || isExpired(entry, now) || (validateWhileIdle && !isValid(entry.object)) ) {
+                if( idle.removeFirstOccurrence(entry) ) {
+                    trash(entry);
+                    evicted++;
+                }
+            }
+        }
+        if( evicted > 0 ) {
+            log.debug("Evicted {} objects from pool, now total {} idle {}", evicted, total.get(), idle.size());
+        }
+        prefill();
+    }
+
+    /**
+     * Stops the evictor and trashes all idle objects. Borrowed objects are
+     * trashed when they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized(this) {
+            if( scheduler != null ) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+        Entry<T> entry;
+        while( (entry = idle.pollFirst()) != null ) {
+            trash(entry);
+        }
+        lock.lock();
+        try {
+            available.signalAll(); // waiters see the pool is closed
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    /**
+     * Must be set before the first object is borrowed.
+     * @param maxTotal maximum number of objects borrowed plus idle
+     */
+    public void setMaxTotal(int maxTotal) {
+        if( maxTotal < 1 ) {
+            throw new IllegalArgumentException("Maximum pool size must be at least 1");
+        }
+        if( permits != null ) {
+            throw new IllegalStateException("Maximum pool size cannot be changed after pool is in use");
+        }
+        this.maxTotal = maxTotal;
+    }
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     *
+     * @param maxWaitMillis how long borrowObject waits for an object when all are borrowed; negative means wait indefinitely
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public long getMaxIdleMillis() {
+        return maxIdleMillis;
+    }
+
+    /**
+     *
+     * @param maxIdleMillis how long an object may be idle before it is evicted; negative means never evict idle objects
+     */
+    public void setMaxIdleMillis(long maxIdleMillis) {
+        this.maxIdleMillis = maxIdleMillis;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    /**
+     *
+     * @param maxAgeMillis how long after creation an object is trashed instead of being reused; negative means no maximum age
+     */
+    public void setMaxAgeMillis(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public long getEvictionIntervalMillis() {
+        return evictionIntervalMillis;
+    }
+
+    /**
+     * Must be set before start()
+     * @param evictionIntervalMillis time between evictor runs; zero or negative disables the evictor
+     */
+    public void setEvictionIntervalMillis(long evictionIntervalMillis) {
+        this.evictionIntervalMillis = evictionIntervalMillis;
+    }
+
+    public boolean isValidateOnBorrow() {
+        return validateOnBorrow;
+    }
+
+    public void setValidateOnBorrow(boolean validateOnBorrow) {
+        this.validateOnBorrow = validateOnBorrow;
+    }
+
+    public boolean isValidateOnReturn() {
+        return validateOnReturn;
+    }
+
+    public void setValidateOnReturn(boolean validateOnReturn) {
+        this.validateOnReturn = validateOnReturn;
+    }
+
+    public boolean isValidateWhileIdle() {
+        return validateWhileIdle;
+    }
+
+    public void setValidateWhileIdle(boolean validateWhileIdle) {
+        this.validateWhileIdle = validateWhileIdle;
+    }
+
+    /**
+     * @return number of objects currently borrowed
+     */
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    /**
+     * @return number of objects currently idle in the pool
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * @return number of objects currently managed by the pool, borrowed plus idle
+     */
+    public int getTotalCount() {
+        return total.get();
+    }
+
+    /**
+     * @return number of objects created since the pool was constructed
+     */
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * @return number of objects trashed since the pool was constructed
+     */
+    public long getTrashedCount() {
+        return trashedCount.get();
+    }
+
+    /**
+     * @return number of successful calls to borrowObject
+     */
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * @return number of calls to borrowObject that timed out
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * @return total time in milliseconds that callers of borrowObject have waited for an object
+     */
+    public long getWaitTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitTimeNanos.get());
+    }
+
+    /**
+     * @return longest time in milliseconds that a caller of borrowObject has waited for an object
+     */
+    public long getMaxWaitTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitTimeNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[max=%d total=%d active=%d idle=%d created=%d trashed=%d]", getClass().getSimpleName(), maxTotal, total.get(), borrowed.size(), idle.size(), createdCount.get(), trashedCount.get());
+    }
+
+    private static class Entry<T> {
+        private final T object;
+        private final long created;
+        private volatile long lastReturned;
+        private volatile boolean revoked = false;
+
+        public Entry(T object) {
+            this.object = object;
+            this.created = System.currentTimeMillis();
+            this.lastReturned = created;
+        }
+    }
+}
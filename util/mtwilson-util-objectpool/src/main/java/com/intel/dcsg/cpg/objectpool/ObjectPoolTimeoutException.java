@@ -0,0 +1,25 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.dcsg.cpg.objectpool;
+
+/**
+ * Thrown by BoundedObjectPool when all objects are borrowed and none
+ * was returned within the maximum wait time.
+ *
+ * @author jbuhacoff
+ */
+public class ObjectPoolTimeoutException extends IllegalStateException {
+    private final long maxWaitMillis;
+
+    public ObjectPoolTimeoutException(long maxWaitMillis) {
+        super(String.format("Timeout after %d ms waiting for object from pool", maxWaitMillis));
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+}
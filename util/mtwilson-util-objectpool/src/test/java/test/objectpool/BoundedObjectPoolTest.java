@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package test.objectpool;
+
+import com.intel.dcsg.cpg.objectpool.BoundedObjectPool;
+import com.intel.dcsg.cpg.objectpool.ObjectPoolTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class BoundedObjectPoolTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(BoundedObjectPoolTest.class);
+
+    public static class Example {
+        private boolean trashed = false;
+    }
+
+    public static class ExamplePool extends BoundedObjectPool<Example> {
+        private final AtomicInteger live = new AtomicInteger(0);
+        private final AtomicInteger maxLive = new AtomicInteger(0);
+        private long createDelay = 0;
+
+        @Override
+        protected Example createObject() {
+            if( createDelay > 0 ) {
+                try {
+                    Thread.sleep(createDelay);
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            int current = live.incrementAndGet();
+            int max = maxLive.get();
+            while( current > max && !maxLive.compareAndSet(max, current) ) {
+                max = maxLive.get();
+            }
+            return new Example();
+        }
+
+        @Override
+        protected void trashObject(Example object) {
+            object.trashed = true;
+            live.decrementAndGet();
+        }
+    }
+
+    @Test
+    public void testBorrowTimeout() {
+        ExamplePool pool = new ExamplePool();
+        pool.setMaxTotal(2);
+        pool.setMaxWaitMillis(100);
+        Example a = pool.borrowObject();
+        Example b = pool.borrowObject();
+        try {
+            pool.borrowObject();
+            assert false;
+        }
+        catch(ObjectPoolTimeoutException e) {
+            log.debug("Expected timeout: {}", e.getMessage());
+        }
+        assert pool.getTimeoutCount() == 1;
+        assert pool.getActiveCount() == 2;
+        pool.returnObject(a);
+        Example c = pool.borrowObject();
+        assert c == a; // reused, not created
+        pool.returnObject(b);
+        pool.returnObject(c);
+        assert pool.getCreatedCount() == 2;
+        assert pool.getIdleCount() == 2;
+        assert pool.getActiveCount() == 0;
+        log.debug("Pool: {}", pool);
+    }
+
+    @Test
+    public void testRevoke() {
+        ExamplePool pool = new ExamplePool();
+        pool.setMaxTotal(1);
+        pool.setMaxWaitMillis(0);
+        Example a = pool.borrowObject();
+        pool.revokeObject(a);
+        pool.returnObject(a);
+        assert a.trashed;
+        assert pool.getTrashedCount() == 1;
+        assert pool.getTotalCount() == 0;
+        Example b = pool.borrowObject(); // the revoked object freed its slot
+        assert b != a;
+        pool.returnObject(b);
+    }
+
+    @Test
+    public void testEvictIdleAndPrefill() throws Exception {
+        ExamplePool pool = new ExamplePool();
+        pool.setMaxTotal(4);
+        pool.setMinIdle(1);
+        pool.setMaxIdleMillis(50);
+        pool.setEvictionIntervalMillis(20);
+        pool.start();
+        Thread.sleep(50);
+        assert pool.getIdleCount() == 1; // prefilled
+        List<Example> list = new ArrayList<>();
+        for(int i=0; i<4; i++) {
+            list.add(pool.borrowObject());
+        }
+        for(Example example : list) {
+            pool.returnObject(example);
+        }
+        assert pool.getIdleCount() == 4;
+        Thread.sleep(200);
+        log.debug("Pool after eviction: {}", pool);
+        assert pool.getIdleCount() == 1; // evicted down to the minimum
+        pool.close();
+        assert pool.getTotalCount() == 0;
+        assert pool.live.get() == 0;
+    }
+
+    @Test
+    public void testMaxAge() throws Exception {
+        ExamplePool pool = new ExamplePool();
+        pool.setMaxAgeMillis(20);
+        Example a = pool.borrowObject();
+        Thread.sleep(50);
+        pool.returnObject(a);
+        assert a.trashed;
+        assert pool.getIdleCount() == 0;
+    }
+
+    /**
+     * While the prefill thread is creating the only object the pool may
+     * hold, a borrower waits for it without spinning and gives up when
+     * its maximum wait time expires.
+     */
+    @Test
+    public void testWaitForObjectInTransit() throws Exception {
+        ExamplePool pool = new ExamplePool();
+        pool.setMaxTotal(1);
+        pool.setMinIdle(1);
+        pool.setMaxWaitMillis(50);
+        pool.createDelay = 300;
+        pool.start();
+        Thread.sleep(20); // let the prefill thread reserve the slot
+        long start = System.currentTimeMillis();
+        try {
+            pool.borrowObject();
+            assert false;
+        }
+        catch(ObjectPoolTimeoutException e) {
+            log.debug("Expected timeout after {} ms: {}", System.currentTimeMillis() - start, e.getMessage());
+        }
+        assert System.currentTimeMillis() - start < 250;
+        assert pool.getTimeoutCount() == 1;
+        pool.setMaxWaitMillis(1000);
+        Example a = pool.borrowObject(); // woken up when the prefill thread adds the object
+        assert pool.getCreatedCount() == 1;
+        pool.returnObject(a);
+        pool.close();
+    }
+
+    /**
+     * Many threads borrowing from a small pool never cause more objects to
+     * be created than the maximum.
+     */
+    @Test
+    public void testConcurrentBorrowIsBounded() throws Exception {
+        final ExamplePool pool = new ExamplePool();
+        pool.setMaxTotal(4);
+        pool.setMaxWaitMillis(10000);
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        for(int i=0; i<32; i++) {
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for(int j=0; j<1000; j++) {
+                        Example example = pool.borrowObject();
+                        pool.returnObject(example);
+                    }
+                }
+            }));
+        }
+        for(Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        long elapsed = System.currentTimeMillis() - start;
+        log.debug("32000 borrows in {} ms, total wait {} ms, max wait {} ms", elapsed, pool.getWaitTimeMillis(), pool.getMaxWaitTimeMillis());
+        log.debug("Pool: {}", pool);
+        assert pool.maxLive.get() <= 4;
+        assert pool.getBorrowCount() == 32000;
+        assert pool.getActiveCount() == 0;
+    }
+}
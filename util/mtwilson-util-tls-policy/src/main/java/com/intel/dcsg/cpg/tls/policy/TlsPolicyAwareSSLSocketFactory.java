@@ -10,17 +10,101 @@ import java.net.Socket;
 import java.net.UnknownHostException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocketFactory;
 
 /**
  * The TlsPolicy for the given address and port must already be registered
  * with the TlsPolicyManager before calling createSocket
  * 
+ * The initialized SSLContext is cached for each TlsPolicy instance and
+ * protocol, so connections made with the same policy share the client
+ * session cache and can resume a previous session with an abbreviated
+ * handshake instead of repeating the key exchange and certificate
+ * validation. The cache is shared by all instances of this class and
+ * does not keep a policy from being garbage collected after it is
+ * replaced in the TlsPolicyManager.
+ * 
+ * The session cache size and timeout of each context are set from the
+ * system properties mtwilson.tls.session.cache.size (default 1000 sessions)
+ * and mtwilson.tls.session.timeout (default 3600 seconds), or with
+ * setSessionCacheSize and setSessionTimeout; zero means no limit.
+ * 
  * @author jbuhacoff
  */
 public class TlsPolicyAwareSSLSocketFactory extends SSLSocketFactory {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TlsPolicyAwareSSLSocketFactory.class);
+    private static final Map<TlsPolicy, CachedContext> contexts = Collections.synchronizedMap(new WeakHashMap<TlsPolicy, CachedContext>());
+    private static volatile int sessionCacheSize = Integer.getInteger("mtwilson.tls.session.cache.size", 1000);
+    private static volatile int sessionTimeout = Integer.getInteger("mtwilson.tls.session.timeout", 3600);
+    
+    private static class CachedContext {
+        private final String protocol;
+        private final SSLContext sslContext;
+        private final SSLSocketFactory sslSocketFactory;
+
+        public CachedContext(String protocol, SSLContext sslContext) {
+            this.protocol = protocol;
+            this.sslContext = sslContext;
+            this.sslSocketFactory = sslContext.getSocketFactory();
+        }
+    }
+    
+    public static int getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    /**
+     * Applies to cached contexts and to contexts created later.
+     * 
+     * @param size maximum number of sessions kept for each TlsPolicy, or zero for no limit
+     */
+    public static void setSessionCacheSize(int size) {
+        sessionCacheSize = size;
+        synchronized (contexts) {
+            for (CachedContext cached : contexts.values()) {
+                configure(cached.sslContext);
+            }
+        }
+    }
+
+    public static int getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    /**
+     * Applies to cached contexts and to contexts created later.
+     * 
+     * @param seconds how long a session can be resumed after it was created, or zero for no limit
+     */
+    public static void setSessionTimeout(int seconds) {
+        sessionTimeout = seconds;
+        synchronized (contexts) {
+            for (CachedContext cached : contexts.values()) {
+                configure(cached.sslContext);
+            }
+        }
+    }
+
+    /**
+     * Discards all cached contexts and their sessions, so the next
+     * connection with each policy does a full handshake.
+     */
+    public static void clearCache() {
+        contexts.clear();
+    }
+    
+    private static void configure(SSLContext sslContext) {
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        if (sessionContext != null) {
+            sessionContext.setSessionCacheSize(sessionCacheSize);
+            sessionContext.setSessionTimeout(sessionTimeout);
+        }
+    }
     
     @Override
     public String[] getDefaultCipherSuites() {
@@ -48,12 +132,21 @@ public class TlsPolicyAwareSSLSocketFactory extends SSLSocketFactory {
         if (tlsPolicy == null) {
             throw new IllegalArgumentException("TLS policy cannot be null.");
         }
+        String protocol = tlsPolicy.getProtocolSelector().preferred();
+        CachedContext cached = contexts.get(tlsPolicy);
+        if (cached != null && (protocol == null ? cached.protocol == null : protocol.equals(cached.protocol))) {
+            return cached.sslSocketFactory;
+        }
         try {
             SSLContext sslContext = TlsUtil.findBestContext(tlsPolicy);
             if( sslContext == null ) { throw new IllegalStateException("Cannot find SSL context"); }
             sslContext.init(null, new javax.net.ssl.TrustManager[]{TlsPolicyManager.getInstance().getTrustManager()}, new java.security.SecureRandom()); // throws KeyManagementException
-            SSLSocketFactory sslSocketFactory = sslContext.getSocketFactory();
-            return sslSocketFactory;
+            configure(sslContext);
+            // if two threads get here for the same policy at the same time, both contexts work and the last one is kept
+            cached = new CachedContext(protocol, sslContext);
+            contexts.put(tlsPolicy, cached);
+            log.debug("Cached SSLContext {} for policy {}", sslContext.getProtocol(), tlsPolicy.getClass().getName());
+            return cached.sslSocketFactory;
         }
         catch(NoSuchAlgorithmException | KeyManagementException e) {
             throw new TlsPolicyException(e, address, tlsPolicy);
@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.dcsg.cpg.tls.policy;
+
+import com.intel.dcsg.cpg.validation.RegexPatterns;
+import com.intel.dcsg.cpg.validation.ValidationUtil;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the TLS policy registered for a host and port.
+ *
+ * Addresses are parsed and validated once when they are registered, so
+ * looking up a policy does not run any regular expressions, does not
+ * format strings, and does not allocate memory, except when the host
+ * name has uppercase letters because names are indexed in lowercase.
+ *
+ * Registered addresses can be in one of these formats, where the port is
+ * a number, a protocol name like "https", or "*" for any port, and a
+ * missing port is the same as "*":
+ * <pre>
+ * host:port            exact host name or IPv4 address
+ * *.domain:port        any host in the domain or its subdomains
+ * 192.168.1.0/24:port  any IPv4 address in the block
+ * </pre>
+ *
+ * When a host matches more than one registration, an exact host wins over
+ * a domain and a domain wins over an address block; among domains the
+ * longest one wins and among address blocks the longest prefix wins. Within
+ * a match, a policy registered for the specific port wins over a policy
+ * registered for any port.
+ *
+ * Addresses that cannot be parsed, and addresses with a protocol name
+ * instead of a port number, are only found by {@code getExact}.
+ *
+ * Lookups do not lock. Registrations are serialized and replace the
+ * affected entries with new immutable ones.
+ *
+ * @author jbuhacoff
+ */
+public class TlsPolicyIndex {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TlsPolicyIndex.class);
+    /**
+     * Use as the port argument to find only policies registered for any port.
+     */
+    public static final int ANY_PORT = -1;
+    private final ConcurrentHashMap<String, TlsPolicy> addresses = new ConcurrentHashMap<>(32); // address as registered -> policy
+    private final ConcurrentHashMap<String, PortPolicies> hosts = new ConcurrentHashMap<>(32); // lowercase host name or ip address -> policies
+    private final DomainNode domains = new DomainNode(); // trie of reversed lowercase domain names
+    private final AddressNode blocks = new AddressNode(); // binary trie of ipv4 address prefixes
+    private final Object writeLock = new Object();
+
+    /**
+     * Policies for one host, domain, or address block by port. Instances
+     * are immutable.
+     */
+    private static class PortPolicies {
+        private static final PortPolicies EMPTY = new PortPolicies(null, new int[0], new TlsPolicy[0]);
+        private final TlsPolicy anyPort;
+        private final int[] ports; // sorted
+        private final TlsPolicy[] policies; // policies[i] is for ports[i]
+
+        private PortPolicies(TlsPolicy anyPort, int[] ports, TlsPolicy[] policies) {
+            this.anyPort = anyPort;
+            this.ports = ports;
+            this.policies = policies;
+        }
+
+        private TlsPolicy get(int port) {
+            if (port != ANY_PORT) {
+                int i = Arrays.binarySearch(ports, port);
+                if (i >= 0) {
+                    return policies[i];
+                }
+            }
+            return anyPort;
+        }
+
+        private PortPolicies with(int port, TlsPolicy tlsPolicy) {
+            if (port == ANY_PORT) {
+                return new PortPolicies(tlsPolicy, ports, policies);
+            }
+            int i = Arrays.binarySearch(ports, port);
+            if (i >= 0) {
+                TlsPolicy[] newPolicies = policies.clone();
+                newPolicies[i] = tlsPolicy;
+                return new PortPolicies(anyPort, ports, newPolicies);
+            }
+            int insert = -(i + 1);
+            int[] newPorts = new int[ports.length + 1];
+            TlsPolicy[] newPolicies = new TlsPolicy[policies.length + 1];
+            System.arraycopy(ports, 0, newPorts, 0, insert);
+            System.arraycopy(policies, 0, newPolicies, 0, insert);
+            newPorts[insert] = port;
+            newPolicies[insert] = tlsPolicy;
+            System.arraycopy(ports, insert, newPorts, insert + 1, ports.length - insert);
+            System.arraycopy(policies, insert, newPolicies, insert + 1, policies.length - insert);
+            return new PortPolicies(anyPort, newPorts, newPolicies);
+        }
+    }
+
+    /**
+     * Node in a trie of domain names stored in reverse, so "*.example.com"
+     * is stored under "moc.elpmaxe" and all the hosts in that domain are
+     * found by reading the host name from the end.
+     */
+    private static class DomainNode {
+        private volatile char[] keys = new char[0];
+        private volatile DomainNode[] children = new DomainNode[0];
+        private volatile PortPolicies policies = null; // for the domain ending at this node
+
+        private DomainNode child(char c) {
+            char[] k = keys;
+            DomainNode[] n = children;
+            for (int i = 0; i < k.length && i < n.length; i++) {
+                if (k[i] == c) {
+                    return n[i];
+                }
+            }
+            return null;
+        }
+
+        // caller must hold the write lock; children is written before keys so readers never see a key without its child
+        private DomainNode addChild(char c) {
+            DomainNode existing = child(c);
+            if (existing != null) {
+                return existing;
+            }
+            DomainNode node = new DomainNode();
+            DomainNode[] n = Arrays.copyOf(children, children.length + 1);
+            n[n.length - 1] = node;
+            children = n;
+            char[] k = Arrays.copyOf(keys, keys.length + 1);
+            k[k.length - 1] = c;
+            keys = k;
+            return node;
+        }
+    }
+
+    /**
+     * Node in a binary trie of IPv4 address prefixes, where the node at
+     * depth n holds the policies for the block with prefix length n.
+     */
+    private static class AddressNode {
+        private volatile AddressNode zero = null;
+        private volatile AddressNode one = null;
+        private volatile PortPolicies policies = null;
+    }
+
+    /**
+     * Registers a policy for an address; see the class description for the
+     * accepted formats. A registration for the same address replaces the
+     * previous one.
+     *
+     * @param address
+     * @param tlsPolicy
+     */
+    public void put(String address, TlsPolicy tlsPolicy) {
+        synchronized (writeLock) {
+            addresses.put(address, tlsPolicy);
+            String host = address;
+            int port = ANY_PORT;
+            int colon = address.lastIndexOf(':');
+            if (colon > -1 && colon == address.indexOf(':')) {
+                host = address.substring(0, colon);
+                String portName = address.substring(colon + 1);
+                if (!portName.equals("*")) {
+                    if (!ValidationUtil.isValidWithRegex(portName, RegexPatterns.PORT) || Integer.parseInt(portName) > 65535) {
+                        log.debug("Registered {} for exact lookup only", address);
+                        return;
+                    }
+                    port = Integer.parseInt(portName);
+                }
+            }
+            host = host.toLowerCase();
+            if (host.startsWith("*.") && ValidationUtil.isValidWithRegex(host.substring(2), RegexPatterns.FQDN)) {
+                putDomain(host.substring(2), port, tlsPolicy);
+            } else if (host.indexOf('/') > -1) {
+                putBlock(host, port, tlsPolicy, address);
+            } else if (ValidationUtil.isValidWithRegex(host, RegexPatterns.IPADDR_FQDN)) {
+                PortPolicies current = hosts.get(host);
+                hosts.put(host, (current == null ? PortPolicies.EMPTY : current).with(port, tlsPolicy));
+            } else {
+                log.debug("Registered {} for exact lookup only", address);
+            }
+        }
+    }
+
+    private void putDomain(String domain, int port, TlsPolicy tlsPolicy) {
+        DomainNode node = domains;
+        for (int i = domain.length() - 1; i >= 0; i--) {
+            node = node.addChild(domain.charAt(i));
+        }
+        node.policies = (node.policies == null ? PortPolicies.EMPTY : node.policies).with(port, tlsPolicy);
+    }
+
+    private void putBlock(String block, int port, TlsPolicy tlsPolicy, String address) {
+        int slash = block.indexOf('/');
+        String network = block.substring(0, slash);
+        String prefixLength = block.substring(slash + 1);
+        if (!ValidationUtil.isValidWithRegex(network, RegexPatterns.IPADDRESS) || !prefixLength.matches("[0-9]{1,2}") || Integer.parseInt(prefixLength) > 32) {
+            log.debug("Registered {} for exact lookup only", address);
+            return;
+        }
+        long ip = parseIpv4(network);
+        int length = Integer.parseInt(prefixLength);
+        AddressNode node = blocks;
+        for (int bit = 0; bit < length; bit++) {
+            if (((ip >>> (31 - bit)) & 1) == 0) {
+                if (node.zero == null) {
+                    node.zero = new AddressNode();
+                }
+                node = node.zero;
+            } else {
+                if (node.one == null) {
+                    node.one = new AddressNode();
+                }
+                node = node.one;
+            }
+        }
+        node.policies = (node.policies == null ? PortPolicies.EMPTY : node.policies).with(port, tlsPolicy);
+    }
+
+    /**
+     *
+     * @param address exactly as it was registered
+     * @return the policy registered for the address, or null
+     */
+    public TlsPolicy getExact(String address) {
+        return addresses.get(address);
+    }
+
+    /**
+     * Finds the policy for a host and port; see the class description for
+     * the order in which registrations are matched.
+     *
+     * @param host name or IPv4 address
+     * @param port or ANY_PORT to find only policies registered for any port
+     * @return the matching policy, or null if there is none
+     */
+    public TlsPolicy get(String host, int port) {
+        PortPolicies exact = hosts.get(host);
+        if (exact == null && hasUpperCase(host)) {
+            exact = hosts.get(host.toLowerCase());
+        }
+        if (exact != null) {
+            TlsPolicy tlsPolicy = exact.get(port);
+            if (tlsPolicy != null) {
+                return tlsPolicy;
+            }
+        }
+        TlsPolicy tlsPolicy = getDomain(host, port);
+        if (tlsPolicy != null) {
+            return tlsPolicy;
+        }
+        return getBlock(host, port);
+    }
+
+    // reads the host name from the end and keeps the policy of the longest matching domain
+    private TlsPolicy getDomain(String host, int port) {
+        TlsPolicy found = null;
+        DomainNode node = domains;
+        for (int i = host.length() - 1; i > 0 && node != null; i--) {
+            node = node.child(Character.toLowerCase(host.charAt(i)));
+            if (node != null && node.policies != null && host.charAt(i - 1) == '.') {
+                TlsPolicy tlsPolicy = node.policies.get(port);
+                if (tlsPolicy != null) {
+                    found = tlsPolicy;
+                }
+            }
+        }
+        return found;
+    }
+
+    // follows the bits of the address and keeps the policy of the longest matching prefix
+    private TlsPolicy getBlock(String host, int port) {
+        long ip = parseIpv4(host);
+        if (ip < 0) {
+            return null;
+        }
+        TlsPolicy found = null;
+        AddressNode node = blocks;
+        for (int bit = 0; node != null; bit++) {
+            PortPolicies policies = node.policies;
+            if (policies != null) {
+                TlsPolicy tlsPolicy = policies.get(port);
+                if (tlsPolicy != null) {
+                    found = tlsPolicy;
+                }
+            }
+            if (bit == 32) {
+                break;
+            }
+            node = ((ip >>> (31 - bit)) & 1) == 0 ? node.zero : node.one;
+        }
+        return found;
+    }
+
+    /**
+     *
+     * @param text
+     * @return the address as an unsigned 32-bit value, or -1 if the text is not a dotted-decimal IPv4 address
+     */
+    private static long parseIpv4(String text) {
+        long ip = 0;
+        int octet = -1; // -1 until a digit is seen in the current octet
+        int dots = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    return -1;
+                }
+            } else if (c == '.' && octet >= 0 && dots < 3) {
+                ip = (ip << 8) | octet;
+                octet = -1;
+                dots++;
+            } else {
+                return -1;
+            }
+        }
+        if (dots != 3 || octet < 0) {
+            return -1;
+        }
+        return (ip << 8) | octet;
+    }
+
+    private static boolean hasUpperCase(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isUpperCase(text.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
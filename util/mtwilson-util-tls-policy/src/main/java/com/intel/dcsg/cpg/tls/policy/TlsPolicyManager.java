@@ -4,13 +4,10 @@
  */
 package com.intel.dcsg.cpg.tls.policy;
 
-import com.intel.dcsg.cpg.validation.RegexPatterns;
-import com.intel.dcsg.cpg.validation.ValidationUtil;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
-import java.util.concurrent.ConcurrentHashMap;
 import javax.net.ssl.HostnameVerifier;
 //import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLPeerUnverifiedException;
@@ -36,7 +33,7 @@ public class TlsPolicyManager implements HostnameVerifier {
         return singleton;
     }
     private static Logger log = LoggerFactory.getLogger(TlsPolicyManager.class);
-    private ConcurrentHashMap<String, TlsPolicy> map = new ConcurrentHashMap<>(32); // default capacity 16 but we're starting with 32, default load factor 0.75
+    private final TlsPolicyIndex index = new TlsPolicyIndex();
 
     /**
      * Address should be in one of these formats:
@@ -45,6 +42,10 @@ public class TlsPolicyManager implements HostnameVerifier {
      * host:protocol   (useful when the user hasn't specified a port and no default port is known for the given protocol)
      * host:*
      * host     (same as host:*)
+     * *.domain:port   (any host in the domain, port may also be * or omitted)
+     * address/prefix:port   (any IPv4 address in the block, port may also be * or omitted)
+     * 
+     * The address is validated when it is registered; see TlsPolicyIndex.
      * 
      * @param address
      * @param tlsPolicy 
@@ -61,7 +62,7 @@ public class TlsPolicyManager implements HostnameVerifier {
             log.warn("TlsPolicyManager: policy for address {} replaced {} with {}", address, previousValue.getClass().toString(), tlsPolicy.getClass().toString());
         }
         */
-         map.put(address, tlsPolicy);        
+         index.put(address, tlsPolicy);
     }
     
 //    @Override
@@ -96,62 +97,58 @@ public class TlsPolicyManager implements HostnameVerifier {
     */
     
     public TlsPolicy getTlsPolicy(String address, int port) {
-        TlsPolicy tlsPolicy;
-        String addressPort = String.format("%s:%d", address, port);
-        tlsPolicy = map.get(addressPort);
-        if( tlsPolicy != null ) { 
+        return index.get(address, port);
+    }
+    
+    /**
+     * Address should be in one of these formats:
+     * 
+     * host:port
+     * host:protocol
+     * host     (only policies registered for any port)
+     * 
+     * @param address
+     * @return the policy for the address, or null if there is none
+     */
+    public TlsPolicy getTlsPolicy(String address) {
+        TlsPolicy tlsPolicy = index.getExact(address);
+        if( tlsPolicy != null ) {
             return tlsPolicy;
         }
-        String addressAnyPort = String.format("%s:*", address);
-        tlsPolicy = map.get(addressAnyPort);
-        if( tlsPolicy != null ) { 
-            return tlsPolicy;
+        int colon = address.lastIndexOf(':');
+        if( colon == -1 ) {
+            log.debug("getTlsPolicy internet address {}:*", address);
+            return index.get(address, TlsPolicyIndex.ANY_PORT);
         }
-        return null;
-    }
-    public TlsPolicy getTlsPolicy(String address) {
-        if( ValidationUtil.isValidWithRegex(address, RegexPatterns.IPADDR_FQDN+":"+RegexPatterns.PORT) ) {
+        if( colon == address.indexOf(':') && isPortNumber(address, colon + 1) ) {
             log.debug("getTlsPolicy internet address with port {}", address);
-            TlsPolicy tlsPolicy = map.get(address); // already in host:port format
-            if(tlsPolicy != null) {
-                return tlsPolicy;
-            }
+            return index.get(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
         }
-        else if( ValidationUtil.isValidWithRegex(address, RegexPatterns.IPADDR_FQDN+":(?:[a-zA-Z]+)") ) {
-            log.debug("getTlsPolicy internet address {}:protocol", address);
-            TlsPolicy tlsPolicy = map.get(address); // already in host:protocol format
-            if(tlsPolicy != null) {
-                return tlsPolicy;
-            }
-        }
-        else if( ValidationUtil.isValidWithRegex(address, RegexPatterns.IPADDR_FQDN) ) {
-            log.debug("getTlsPolicy internet address {}:*", address);
-            String addressAnyPort = String.format("%s:*", address);
-            TlsPolicy tlsPolicy = map.get(addressAnyPort); // only host was given so we look for any port
-            if(tlsPolicy != null) {
-                return tlsPolicy;
-            }
+        log.debug("getTlsPolicy {}", address);
+        return null;
+    }
+    
+    private static boolean isPortNumber(String text, int start) {
+        int length = text.length() - start;
+        if( length < 1 || length > 5 ) {
+            return false;
         }
-        else {
-            log.debug("getTlsPolicy {}", address);
-            TlsPolicy tlsPolicy = map.get(address); 
-            if(tlsPolicy != null) {
-                return tlsPolicy;
+        for(int i=start; i<text.length(); i++) {
+            char c = text.charAt(i);
+            if( c < '0' || c > '9' ) {
+                return false;
             }
         }
-        return null;
+        return true;
     }
 
     public boolean verify(String address, SSLSession ssls) {
         log.debug("TlsPolicyManager: verify {}", address);
         // look up the TLS Policy for the host
         int port = ssls.getPeerPort();
-        TlsPolicy tlsPolicy = map.get(String.format("%s:%d",address,port));
-        if (tlsPolicy == null) {
-            tlsPolicy = map.get(String.format("%s:*", address));
-        }
+        TlsPolicy tlsPolicy = index.get(address, port);
         if( tlsPolicy == null ) {
-            tlsPolicy = map.get(address);
+            tlsPolicy = index.getExact(address);
         }
         if( tlsPolicy == null ) {
             throw new TlsPolicyException("No TLS policy for host", address, null, null);
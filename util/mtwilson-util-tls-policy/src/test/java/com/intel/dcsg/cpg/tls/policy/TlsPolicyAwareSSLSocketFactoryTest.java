@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.dcsg.cpg.tls.policy;
+
+import com.intel.dcsg.cpg.tls.policy.impl.InsecureTlsPolicy;
+import com.intel.dcsg.cpg.x509.X509Builder;
+import java.io.IOException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Connects to a local TLS server that completes the handshake, writes one
+ * byte, and closes the connection, to compare full handshakes with
+ * resumed sessions.
+ *
+ * The server only enables TLSv1.2 so a resumed session can be recognized
+ * by its session id.
+ *
+ * @author jbuhacoff
+ */
+public class TlsPolicyAwareSSLSocketFactoryTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TlsPolicyAwareSSLSocketFactoryTest.class);
+    private static final String address = "127.0.0.1";
+    private static final int CONNECTIONS = 200;
+    private static SSLServerSocket server;
+    private static Thread serverThread;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keys = generator.generateKeyPair();
+        X509Certificate cert = X509Builder.factory().selfSigned("CN=testserver", keys).dnsAlternativeName("localhost").expires(1, TimeUnit.DAYS).keyUsageDataEncipherment().build();
+        KeyStore keystore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keystore.load(null, null);
+        keystore.setKeyEntry("testserver", keys.getPrivate(), "password".toCharArray(), new X509Certificate[]{cert});
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keystore, "password".toCharArray());
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(kmf.getKeyManagers(), null, null);
+        server = (SSLServerSocket) serverContext.getServerSocketFactory().createServerSocket(0);
+        server.setEnabledProtocols(new String[]{"TLSv1.2"});
+        serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!server.isClosed()) {
+                    try (SSLSocket socket = (SSLSocket) server.accept()) {
+                        socket.setTcpNoDelay(true);
+                        socket.startHandshake();
+                        socket.getOutputStream().write(1);
+                        socket.getOutputStream().flush();
+                    } catch (IOException e) {
+                        log.debug("Server: {}", e.getMessage());
+                    }
+                }
+            }
+        }, "tls-stand-in-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        log.debug("Server listening on port {}", server.getLocalPort());
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        server.close();
+        serverThread.join(1000);
+    }
+
+    private SSLSession connect(TlsPolicyAwareSSLSocketFactory factory) throws IOException {
+        try (SSLSocket socket = (SSLSocket) factory.createSocket(address, server.getLocalPort())) {
+            socket.setTcpNoDelay(true); // otherwise delayed acknowledgements dominate the time of each connection
+            socket.startHandshake();
+            assertEquals(1, socket.getInputStream().read());
+            return socket.getSession();
+        }
+    }
+
+    @Test
+    public void testSessionResumption() throws IOException {
+        TlsPolicyAwareSSLSocketFactory.clearCache();
+        TlsPolicyManager.getInstance().setTlsPolicy(address + ":" + server.getLocalPort(), new InsecureTlsPolicy());
+        SSLSession first = connect(new TlsPolicyAwareSSLSocketFactory());
+        SSLSession second = connect(new TlsPolicyAwareSSLSocketFactory()); // a new factory instance shares the cached context
+        log.debug("Protocol {} first session {} second session {}", first.getProtocol(), first.getId(), second.getId());
+        assertTrue(Arrays.equals(first.getId(), second.getId()));
+        assertEquals(first.getCreationTime(), second.getCreationTime());
+        // a different policy for the same server has its own context and sessions
+        TlsPolicyManager.getInstance().setTlsPolicy(address + ":" + server.getLocalPort(), new InsecureTlsPolicy());
+        SSLSession third = connect(new TlsPolicyAwareSSLSocketFactory());
+        assertFalse(Arrays.equals(first.getId(), third.getId()));
+    }
+
+    /**
+     * Compares handshakes per second when every connection creates a new
+     * SSLContext, as before the cache was added, and with the cached
+     * context that resumes sessions.
+     */
+    @Test
+    public void testHandshakesPerSecond() throws IOException {
+        TlsPolicyManager.getInstance().setTlsPolicy(address + ":" + server.getLocalPort(), new InsecureTlsPolicy());
+        TlsPolicyAwareSSLSocketFactory factory = new TlsPolicyAwareSSLSocketFactory();
+        long start = System.nanoTime();
+        for (int i = 0; i < CONNECTIONS; i++) {
+            TlsPolicyAwareSSLSocketFactory.clearCache();
+            connect(factory);
+        }
+        long fullNanos = System.nanoTime() - start;
+        TlsPolicyAwareSSLSocketFactory.clearCache();
+        byte[] sessionId = connect(factory).getId();
+        int resumed = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < CONNECTIONS; i++) {
+            if (Arrays.equals(sessionId, connect(factory).getId())) {
+                resumed++;
+            }
+        }
+        long resumedNanos = System.nanoTime() - start;
+        assertEquals(CONNECTIONS, resumed);
+        log.debug("New context per connection: {} handshakes per second", CONNECTIONS * 1000000000L / fullNanos);
+        log.debug("Cached context: {} handshakes per second, {} resumed", CONNECTIONS * 1000000000L / resumedNanos, resumed);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 Intel Corporation
+ * All rights reserved.
+ */
+package com.intel.dcsg.cpg.tls.policy;
+
+import com.intel.dcsg.cpg.tls.policy.impl.InsecureTlsPolicy;
+import com.intel.dcsg.cpg.validation.RegexPatterns;
+import com.intel.dcsg.cpg.validation.ValidationUtil;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author jbuhacoff
+ */
+public class TlsPolicyIndexTest {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TlsPolicyIndexTest.class);
+    private static final int POLICIES = 10000;
+    private static final int LOOKUPS = 1000000;
+
+    @Test
+    public void testExactHostAndPort() {
+        TlsPolicyIndex index = new TlsPolicyIndex();
+        TlsPolicy anyPort = new InsecureTlsPolicy();
+        TlsPolicy port443 = new InsecureTlsPolicy();
+        TlsPolicy protocol = new InsecureTlsPolicy();
+        index.put("server.example.com", anyPort);
+        index.put("server.example.com:443", port443);
+        index.put("other.example.com:https", protocol);
+        assertSame(port443, index.get("server.example.com", 443));
+        assertSame(anyPort, index.get("server.example.com", 8443));
+        assertSame(anyPort, index.get("SERVER.example.com", 8443));
+        assertSame(anyPort, index.get("server.example.com", TlsPolicyIndex.ANY_PORT));
+        assertNull(index.get("other.example.com", 443)); // protocol names are only found by exact lookup
+        assertSame(protocol, index.getExact("other.example.com:https"));
+        assertNull(index.get("example.com", 443));
+    }
+
+    @Test
+    public void testWildcardDomain() {
+        TlsPolicyIndex index = new TlsPolicyIndex();
+        TlsPolicy domain = new InsecureTlsPolicy();
+        TlsPolicy subdomain = new InsecureTlsPolicy();
+        TlsPolicy host = new InsecureTlsPolicy();
+        index.put("*.example.com", domain);
+        index.put("*.lab.example.com:8443", subdomain);
+        index.put("server.lab.example.com", host);
+        assertSame(domain, index.get("www.example.com", 443));
+        assertSame(domain, index.get("a.b.example.com", 443));
+        assertSame(subdomain, index.get("test.lab.example.com", 8443));
+        assertSame(domain, index.get("test.lab.example.com", 443)); // the subdomain policy is only for port 8443
+        assertSame(host, index.get("server.lab.example.com", 8443)); // exact host wins over domain
+        assertNull(index.get("example.com", 443));
+        assertNull(index.get("badexample.com", 443));
+    }
+
+    @Test
+    public void testAddressBlock() {
+        TlsPolicyIndex index = new TlsPolicyIndex();
+        TlsPolicy wide = new InsecureTlsPolicy();
+        TlsPolicy narrow = new InsecureTlsPolicy();
+        TlsPolicy host = new InsecureTlsPolicy();
+        index.put("10.0.0.0/8", wide);
+        index.put("10.1.2.0/24:443", narrow);
+        index.put("10.1.2.3", host);
+        assertSame(wide, index.get("10.200.1.1", 443));
+        assertSame(narrow, index.get("10.1.2.200", 443));
+        assertSame(wide, index.get("10.1.2.200", 80));
+        assertSame(host, index.get("10.1.2.3", 443));
+        assertNull(index.get("11.1.2.3", 443));
+        assertNull(index.get("10.1.2", 443));
+        index.put("0.0.0.0/0", wide);
+        assertSame(wide, index.get("192.168.1.1", 443));
+    }
+
+    @Test
+    public void testInvalidAddressIsExactOnly() {
+        TlsPolicyIndex index = new TlsPolicyIndex();
+        TlsPolicy tlsPolicy = new InsecureTlsPolicy();
+        index.put("not a host name", tlsPolicy);
+        index.put("10.0.0.0/40", tlsPolicy);
+        assertSame(tlsPolicy, index.getExact("not a host name"));
+        assertNull(index.get("not a host name", TlsPolicyIndex.ANY_PORT));
+        assertNull(index.get("10.1.1.1", 443));
+    }
+
+    /**
+     * Compares the lookup that TlsPolicyManager used to do, with regular
+     * expressions and formatted keys, with the index, both with 10,000
+     * registered policies.
+     */
+    @Test
+    public void testLookupLatency() {
+        TlsPolicy tlsPolicy = new InsecureTlsPolicy();
+        ConcurrentHashMap<String, TlsPolicy> map = new ConcurrentHashMap<>(32);
+        TlsPolicyIndex index = new TlsPolicyIndex();
+        String[] hosts = new String[POLICIES];
+        for (int i = 0; i < POLICIES; i++) {
+            hosts[i] = i % 2 == 0 ? String.format("host%d.example.com", i) : String.format("10.%d.%d.%d", i / 65536, (i / 256) % 256, i % 256);
+            map.put(hosts[i] + ":443", tlsPolicy);
+            index.put(hosts[i] + ":443", tlsPolicy);
+        }
+        int found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            if (getTlsPolicyWithRegex(map, hosts[i % POLICIES] + ":443") != null) {
+                found++;
+            }
+        }
+        long regexNanos = (System.nanoTime() - start) / LOOKUPS;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocatedBefore = allocatedBytes(threads);
+        start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            if (index.get(hosts[i % POLICIES], 443) != null) {
+                found++;
+            }
+        }
+        long indexNanos = (System.nanoTime() - start) / LOOKUPS;
+        long allocated = allocatedBytes(threads) - allocatedBefore;
+        assertEquals(2 * LOOKUPS, found);
+        log.debug("Regex lookup: {} ns", regexNanos);
+        log.debug("Index lookup: {} ns, {} bytes allocated in {} lookups", indexNanos, allocated, LOOKUPS);
+    }
+
+    private long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    // the lookup in TlsPolicyManager before the index was added
+    private TlsPolicy getTlsPolicyWithRegex(ConcurrentHashMap<String, TlsPolicy> map, String address) {
+        if (ValidationUtil.isValidWithRegex(address, RegexPatterns.IPADDR_FQDN + ":" + RegexPatterns.PORT)) {
+            return map.get(address);
+        } else if (ValidationUtil.isValidWithRegex(address, RegexPatterns.IPADDR_FQDN)) {
+            return map.get(String.format("%s:*", address));
+        }
+        return map.get(address);
+    }
+}
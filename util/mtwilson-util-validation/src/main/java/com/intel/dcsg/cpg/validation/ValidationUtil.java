@@ -1,27 +1,150 @@
 package com.intel.dcsg.cpg.validation;
 
 import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Validates objects by following their public fields and accessor methods.
+ *
+ * The fields and methods of each class, with their annotations, compiled
+ * regular expressions and validator constructors, are resolved once into a
+ * validation plan that is kept for the life of the class, so validating
+ * another instance of the same class does not search for fields, methods,
+ * or annotations again.
+ *
+ * Validator instances are not shared because InputValidator keeps its
+ * input and faults in the instance; a new one is created for each value
+ * with the constructor resolved in the plan.
  *
  * @author jbuhacoff and ssbangal
  */
 public class ValidationUtil {
 
     private static Logger log = LoggerFactory.getLogger(ValidationUtil.class);
-    private static final HashMap<String, Pattern> patternMap = new HashMap<>();
+    private static final ConcurrentHashMap<String, Pattern> patternMap = new ConcurrentHashMap<>();
+    private static final ClassValue<ClassPlan> plans = new ClassValue<ClassPlan>() {
+        @Override
+        protected ClassPlan computeValue(Class<?> clazz) {
+            return new ClassPlan(clazz);
+        }
+    };
+
+    /**
+     * Annotations found on a field or method, resolved once.
+     */
+    private static class Rule {
+        private final boolean unchecked;
+        private final Class<?> validatorClass; // null if there is no @Validator
+        private final Constructor<?> validatorConstructor; // null if the validator class has no no-arg constructor
+        private final String regex; // null if there is no @Regex
+        private final Pattern pattern;
+
+        private Rule(AccessibleObject context) {
+            unchecked = context.isAnnotationPresent(Unchecked.class);
+            Validator validator = context.getAnnotation(Validator.class);
+            validatorClass = validator == null ? null : validator.value();
+            validatorConstructor = validatorClass == null ? null : getConstructor(validatorClass);
+            Regex regexAnnotation = context.getAnnotation(Regex.class);
+            regex = regexAnnotation == null ? null : regexAnnotation.value();
+            pattern = regex == null ? null : getPattern(regex);
+        }
+
+        private static Constructor<?> getConstructor(Class<?> validatorClass) {
+            try {
+                return validatorClass.getDeclaredConstructor();
+            } catch (NoSuchMethodException | SecurityException e) {
+                log.debug("Validator {} does not have an accessible no-arg constructor", validatorClass.getName());
+                return null;
+            }
+        }
+    }
+
+    /**
+     * A public field or accessor method and its rule.
+     */
+    private static class Accessor extends Rule {
+        private final String name;
+        private final Field field; // null for a method
+        private final Method method; // null for a field
+
+        private Accessor(Field field) {
+            super(field);
+            this.name = field.getName();
+            this.field = field;
+            this.method = null;
+        }
+
+        private Accessor(Method method) {
+            super(method);
+            this.name = method.getName();
+            this.field = null;
+            this.method = method;
+        }
+
+        private Object get(Object object) throws IllegalAccessException, InvocationTargetException {
+            return field != null ? field.get(object) : method.invoke(object);
+        }
+    }
+
+    /**
+     * What to validate in instances of one class.
+     */
+    private static class ClassPlan {
+        private final boolean builtIn;
+        private final boolean string;
+        private final boolean array;
+        private final boolean primitiveArray;
+        private final boolean collection;
+        private final Accessor[] accessors; // fields first, then methods; empty for built-in classes
+
+        private ClassPlan(Class<?> clazz) {
+            builtIn = isPrimitive(clazz);
+            string = String.class.isAssignableFrom(clazz);
+            array = clazz.isArray();
+            primitiveArray = array && clazz.getComponentType().isPrimitive();
+            collection = Collection.class.isAssignableFrom(clazz);
+            ArrayList<Accessor> list = new ArrayList<>();
+            if (!builtIn && !string) {
+                for (Field field : clazz.getFields()) {
+                    if (isPublicField(field)) {
+                        setAccessible(field);
+                        list.add(new Accessor(field));
+                    }
+                }
+                for (Method method : clazz.getMethods()) {
+                    if (isPublicMethod(method)) {
+                        setAccessible(method);
+                        list.add(new Accessor(method));
+                    }
+                }
+            }
+            accessors = list.toArray(new Accessor[list.size()]);
+            log.debug("Validation plan for class {} has {} fields and methods", clazz.getName(), accessors.length);
+        }
+
+        private static void setAccessible(AccessibleObject accessibleObject) {
+            try {
+                accessibleObject.setAccessible(true);
+            } catch (SecurityException e) {
+                log.debug("Cannot make {} accessible: {}", accessibleObject, e.getMessage());
+            }
+        }
+    }
 
     /**
      *
@@ -44,7 +167,7 @@ public class ValidationUtil {
      * @throws IllegalArgumentException if the object fails validation
      */
     public static void validate(Object object) {
-        validate(object, new ArrayList<Object>());
+        validate(object, Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()));
     }
 
     /**
@@ -69,10 +192,14 @@ public class ValidationUtil {
         }
     }
 
-    private static void validateWithValidatorClass(Object content, Class validatorClass) {
+    private static void validateWithValidatorClass(Object content, Rule rule) {
+        Class validatorClass = rule.validatorClass;
         log.debug("validateWithValidatorClass {}", validatorClass.getName());
         try {
-            Object validatorObject = validatorClass.newInstance();
+            if (rule.validatorConstructor == null) {
+                throw new InstantiationException(validatorClass.getName());
+            }
+            Object validatorObject = rule.validatorConstructor.newInstance();
             InputValidator validator = (InputValidator) validatorObject;
             validator.setInput(content);
             if (!validator.isValid()) {
@@ -82,27 +209,33 @@ public class ValidationUtil {
                 }
                 throw new IllegalArgumentException(); // XXX TODO maybe throw InputValidationException instead, with an argument new Report(validator) 
             }
-        } catch (IllegalAccessException | InstantiationException e) {
+        } catch (IllegalAccessException | InstantiationException | InvocationTargetException e) {
             log.error("Error during custom validation", e);
             throw new IllegalArgumentException(validatorClass.getName(), e);
         }
     }
 
-    private static void validateWithRegex(String content, String regex) {
-        log.debug("Regex annotation: {}", regex);
-        Pattern pattern = getPattern(regex);
-        validateWithRegex(content, pattern);
-    }
-
     private static Pattern getPattern(String regex) {
         Pattern pattern = patternMap.get(regex);
         if (pattern == null) {
             pattern = Pattern.compile("^" + regex + "$");
-            patternMap.put(regex, pattern);
+            Pattern existing = patternMap.putIfAbsent(regex, pattern);
+            if (existing != null) {
+                pattern = existing;
+            }
         }
         return pattern;
     }
 
+    // the context names are only used in log messages
+    private static String childName(String contextName, String name) {
+        return log.isDebugEnabled() ? String.format("%s.%s", contextName, name) : contextName;
+    }
+
+    private static String itemName(String contextName, int index) {
+        return log.isDebugEnabled() ? String.format("%s[%d]", contextName, index) : contextName;
+    }
+
     private static void validateWithRegex(String content, Pattern pattern) {
         if (content != null && !content.isEmpty()) {
             log.debug("Validating {} against regex {}", content, pattern.pattern());
@@ -128,8 +261,8 @@ public class ValidationUtil {
      * @param parent is the instance containing the Field or Method from which
      * we obtained the object instance
      */
-    private static void validateObjectArray(Object[] array, AccessibleObject context, String contextName, Object parent, ArrayList<Object> visited) {
-        if (context.isAnnotationPresent(Unchecked.class)) {
+    private static void validateObjectArray(Object[] array, Rule context, String contextName, Object parent, Set<Object> visited) {
+        if (context.unchecked) {
             log.debug("Object array of class {} in {} of {} is unchecked", array.getClass().getName(), contextName, parent.getClass().getName());
             return;
         }
@@ -145,7 +278,7 @@ public class ValidationUtil {
         // validate each item in the array
         for (int i = 0; i < array.length; i++) {
             Object object = array[i];
-            validateObject(object, context, String.format("%s[%d]", contextName, i), parent, visited);
+            validateObject(object, context, itemName(contextName, i), parent, visited);
         }
     }
     
@@ -157,8 +290,8 @@ public class ValidationUtil {
      * @param parent
      * @param visited 
      */
-    private static void validatePrimitiveArray(Object array, AccessibleObject context, String contextName, Object parent, ArrayList<Object> visited) {
-        if (context.isAnnotationPresent(Unchecked.class)) {
+    private static void validatePrimitiveArray(Object array, Rule context, String contextName, Object parent, Set<Object> visited) {
+        if (context.unchecked) {
             log.debug("Primitive array of class {} in {} of {} is unchecked", array.getClass().getComponentType().getName(), contextName, parent.getClass().getName());
             return;
         }
@@ -188,8 +321,8 @@ public class ValidationUtil {
      * @param parent is the instance containing the Field or Method from which
      * we obtained the object instance
      */
-    private static void validateObjectCollection(Collection<Object> collection, AccessibleObject context, String contextName, Object parent, ArrayList<Object> visited) {
-        if (context.isAnnotationPresent(Unchecked.class)) {
+    private static void validateObjectCollection(Collection<Object> collection, Rule context, String contextName, Object parent, Set<Object> visited) {
+        if (context.unchecked) {
             log.debug("Object collection of class {} in {} of {} is unchecked", collection.getClass().getName(), contextName, parent.getClass().getName());
             return;
         }
@@ -211,7 +344,7 @@ public class ValidationUtil {
          */
         int i = 0;
         for (Object object : collection) {
-            validateObject(object, context, String.format("%s[%d]", contextName, i), parent, visited);
+            validateObject(object, context, itemName(contextName, i), parent, visited);
             i++;
         }
     }
@@ -228,32 +361,29 @@ public class ValidationUtil {
      * @param parent is the instance containing the Field or Method from which
      * we obtained the object instance
      */
-    private static void validateObject(Object object, AccessibleObject context, String contextName, Object parent, ArrayList<Object> visited) {
+    private static void validateObject(Object object, Rule context, String contextName, Object parent, Set<Object> visited) {
         String parentName = (parent == null ? "(no parent)" : parent.getClass().getName());
         if (context != null) {
-            context.setAccessible(true);
             // if it's null, ignore it ;  TODO:  unless there is a non-null annotation which should cause a null value to fail!
             if (object == null) {
                 // if context.isAnnotationPresent(Notnull.class) { throw new IllegalArgumentException("cannot be null"); }
                 return;
             }
-            if (context.isAnnotationPresent(Unchecked.class)) {
+            if (context.unchecked) {
                 log.debug("Object of class {} in {} of {} is unchecked", object.getClass().getName(), contextName, parentName);
                 return;
             }
             // if it's annotated with a specific @Validator, use it directly    
-            if (context.isAnnotationPresent(Validator.class)) {
-                Class validatorClass = context.getAnnotation(Validator.class).value();
-                log.debug("Object of class {} in {} of {} has validator {}", object.getClass().getName(), contextName, parentName, validatorClass.getName());
-                validateWithValidatorClass(object, validatorClass);
+            if (context.validatorClass != null) {
+                log.debug("Object of class {} in {} of {} has validator {}", object.getClass().getName(), contextName, parentName, context.validatorClass.getName());
+                validateWithValidatorClass(object, context);
                 return;
             }
             // if it's any object annotated with a specific @Regex, use it directly  on the string representation 
-            if (context.isAnnotationPresent(Regex.class)) {
+            if (context.pattern != null) {
                 String content = object.toString();
-                String regex = context.getAnnotation(Regex.class).value();
-                log.debug("Object of class {} in {} of {} has regex {}", object.getClass().getName(), contextName, parentName, regex);
-                validateWithRegex(content, regex);
+                log.debug("Object of class {} in {} of {} has regex {}", object.getClass().getName(), contextName, parentName, context.regex);
+                validateWithRegex(content, context.pattern);
                 return;
             }
         }
@@ -266,92 +396,72 @@ public class ValidationUtil {
             return;
         }
 
+        ClassPlan plan = plans.get(object.getClass());
         // if it's a String, use the default regex (custom regex would have already been handled above via the annotation)
-        if (String.class.isAssignableFrom(object.getClass())) {
+        if (plan.string) {
             String content = (String) object;
             log.debug("Validating String in {} of class {} with default regex: {}", contextName, parentName, content);
-            validateWithRegex(content, RegexPatterns.DEFAULT);
+            validateWithRegex(content, getPattern(RegexPatterns.DEFAULT));
             return;
         }
         // if it's one of the 8 java primitives, ignore it
-        if (isPrimitive(object.getClass())) {
+        if (plan.builtIn) {
             log.debug("Skipping primitive type {} in {} of class {}", object.getClass().getName(), contextName, parentName);
             return;
         }
         // recursive deep validation for anything else
         log.debug("Recursive validation for object of type {} in {} of class {}, already visited {}", object.getClass().getName(), contextName, parentName, visited.size());
-        validateObjectRecursive(object, contextName, parent, visited);
+        validateObjectRecursive(object, plan, contextName, parent, visited);
     }
 
     /**
      *
      * @param object must not be null
+     * @param plan for the class of the object
      * @param contextName field or method name from which we got the object, or
      * empty string
      * @param parent object with the field or method name from which we got the
      * object; may be null if this is the initial object being validated
      * @param visited
      */
-    private static void validateObjectRecursive(Object object, String contextName, Object parent, ArrayList<Object> visited) {
+    private static void validateObjectRecursive(Object object, ClassPlan plan, String contextName, Object parent, Set<Object> visited) {
         String parentName = (parent == null ? "(no parent)" : parent.getClass().getName());
-        // first check if the object being requested is already in the visited list... if so we skip it to avoid infinite recursion
-        for (Object item : visited) {
-            if (object.equals(item)) {
-                return;
-            } // object instance equality is intentional here to prevent infinite recursion
+        // add the object to the visited set so we don't try to validate it again if it has a self-referential property ... this is not a stack beacuse we never remove from it
+        // object instance identity is intentional here to prevent infinite recursion
+        if (!visited.add(object)) {
+            return;
         }
-        // add the object to the visited list so we don't try to validate it again if it has a self-referential property ... this is not a stack beacuse we never pop it 
-        visited.add(object);
 
         log.debug("Starting recursive validation for object of type {} in {} of class {}", object.getClass().toString(), contextName, parentName);
 
-        // validate all the public member fields
-        Field[] fields = object.getClass().getFields();
-        for (Field field : fields) {
-            field.setAccessible(true);
-            if (isPublicField(field)) {
-                Object content;
-                try {
-                    content = field.get(object);
-                } catch (SecurityException | IllegalAccessException e) {
-                    log.warn("Cannot access field {} of class {}", field.getName(), object.getClass().getName(), e);
-                    continue;
-                }
-                validateAnyType(content, field, String.format("%s.%s", contextName,field.getName()), object, visited);
+        // validate all the public member fields and then all the public accessor methods
+        for (Accessor accessor : plan.accessors) {
+            Object content;
+            try {
+                content = accessor.get(object);
+            } catch (SecurityException | IllegalAccessException | InvocationTargetException e) {
+                log.warn("Cannot access {} of class {}", accessor.name, object.getClass().getName(), e);
+                continue;
             }
+            validateAnyType(content, accessor, childName(contextName, accessor.name), object, visited);
         }
-
-        // validate all the public accessor methods
-        Method[] methods = object.getClass().getMethods();
-        for (Method method : methods) {
-            method.setAccessible(true);
-            if (isPublicMethod(method)) {
-                Object content;
-                try {
-                    content = method.invoke(object);
-                } catch (SecurityException | IllegalAccessException | InvocationTargetException e) {
-                    log.warn("Cannot invoke method {} of class {}", method.getName(), object.getClass().getName(), e);
-                    continue;
-                }
-                validateAnyType(content, method, String.format("%s.%s", contextName, method.getName()), object, visited);
-            }
-        }
-
     }
 
     // figure out if it's a single object, or an array, or a collection, and call the appropriate specific function
-    private static void validateAnyType(Object object, AccessibleObject context, String contextName, Object parent, ArrayList<Object> visited) {
+    private static void validateAnyType(Object object, Rule context, String contextName, Object parent, Set<Object> visited) {
         if( object == null ) {
             validateObject(object, context, contextName, parent, visited); // validateObject allows null and may one day check for a non-null annotation
+            return;
         }
-        else if (object.getClass().isArray() && object.getClass().getComponentType().isPrimitive()) {
+        ClassPlan plan = plans.get(object.getClass());
+        if (plan.primitiveArray) {
             validatePrimitiveArray(object, context, contextName, parent, visited);
         } 
-        else if (object.getClass().isArray()) {
+        else if (plan.array) {
             Object[] array = (Object[]) object;
             validateObjectArray(array, context, contextName, parent, visited);
         } 
-        else if (Collection.class.isAssignableFrom(object.getClass())) {
+        else if (plan.collection) {
             Collection<Object> collection = (Collection<Object>) object;
             validateObjectCollection(collection, context, contextName, parent, visited);
         } 
@@ -378,7 +488,7 @@ public class ValidationUtil {
         return clazz.isPrimitive() || clazz.getName().startsWith("java.") || clazz.getName().startsWith("javax.");
     }
 
-    private static void validate(Object object, ArrayList<Object> visited) {
+    private static void validate(Object object, Set<Object> visited) {
         if (object == null) {
             return;
         }
@@ -5,6 +5,8 @@
 package com.intel.dcsg.cpg.validation;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -23,6 +25,148 @@ public class ValidationUtilTest {
         public byte[] data = null;
     }
     
+    // a JSON-API style document: { "data": [ { "id", "type", "attributes": {...}, "relationships": [...] } ], "meta": {...} }
+    public static class Document {
+        public List<Resource> data = new ArrayList<>();
+        public Meta meta = new Meta();
+    }
+    
+    public static class Meta {
+        public String version = "2.0";
+        public Integer total;
+        public String getGenerator() { return "mtwilson"; }
+    }
+    
+    public static class Resource {
+        @Regex(RegexPatterns.UUID)
+        public String id;
+        public String type = "hosts";
+        public Attributes attributes = new Attributes();
+        public Link[] relationships;
+    }
+    
+    public static class Attributes {
+        public String name;
+        public String description = "Test host with a description";
+        public List<String> tags = new ArrayList<>();
+        public int port = 1443;
+        @Validator(EvenLengthValidator.class)
+        public String code = "AB12";
+        @Unchecked
+        public String comment = "<anything goes>";
+        public byte[] aik = new byte[] { 0, 1, 2, 3 };
+    }
+    
+    public static class Link {
+        public String rel;
+        @Regex("[a-zA-Z0-9/_.-]+")
+        public String href;
+        public Resource parent; // back reference
+    }
+    
+    public static class EvenLengthValidator extends InputValidator<String> {
+        @Override
+        protected void validate() {
+            if (getInput().length() % 2 != 0) {
+                fault("Length is not even: %d", getInput().length());
+            }
+        }
+    }
+    
+    // all instances are equal to each other
+    public static class Node {
+        public String name;
+        public Node next;
+        @Override
+        public boolean equals(Object other) { return other instanceof Node; }
+        @Override
+        public int hashCode() { return 0; }
+    }
+    
+    private Document createDocument(int resources) {
+        Document document = new Document();
+        for (int i = 0; i < resources; i++) {
+            Resource resource = new Resource();
+            resource.id = String.format("c7da729e-b0de-4bc6-9487-%012d", i);
+            resource.attributes.name = "host" + i + ".example.com";
+            resource.attributes.tags.add("location:lab");
+            resource.attributes.tags.add("owner:team" + (i % 5));
+            Link self = new Link();
+            self.rel = "self";
+            self.href = "/v2/hosts/" + resource.id;
+            self.parent = resource;
+            Link attestations = new Link();
+            attestations.rel = "attestations";
+            attestations.href = "/v2/hosts/" + resource.id + "/attestations";
+            attestations.parent = resource;
+            resource.relationships = new Link[] { self, attestations };
+            document.data.add(resource);
+        }
+        document.meta.total = resources;
+        return document;
+    }
+    
+    @Test
+    public void testNestedDocument() {
+        ValidationUtil.validate(createDocument(3));
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testNestedDocumentInvalidString() {
+        Document document = createDocument(3);
+        document.data.get(2).attributes.tags.add("<script>");
+        ValidationUtil.validate(document);
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testNestedDocumentInvalidRegex() {
+        Document document = createDocument(3);
+        document.data.get(1).id = "not-a-uuid";
+        ValidationUtil.validate(document);
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testNestedDocumentInvalidValidator() {
+        Document document = createDocument(3);
+        document.data.get(0).attributes.code = "ABC";
+        ValidationUtil.validate(document);
+    }
+    
+    /**
+     * Objects are visited once by identity, so an object that is equal to
+     * one already visited is still validated.
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testEqualObjectsAreValidated() {
+        Node first = new Node();
+        first.name = "first";
+        Node second = new Node();
+        second.name = "<second>";
+        first.next = second;
+        second.next = first;
+        ValidationUtil.validate(first);
+    }
+    
+    /**
+     * Validates a document with 50 resources many times. The first
+     * validation also resolves the validation plans of the classes.
+     */
+    @Test
+    public void testNestedDocumentValidationCost() {
+        Document document = createDocument(50);
+        long start = System.nanoTime();
+        ValidationUtil.validate(document);
+        long firstMicros = (System.nanoTime() - start) / 1000;
+        int iterations = 2000;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            ValidationUtil.validate(document);
+        }
+        long micros = (System.nanoTime() - start) / 1000 / iterations;
+        log.debug("First validation of a document with 50 resources: {} us", firstMicros);
+        log.debug("Validation of a document with 50 resources: {} us", micros);
+    }
+    
     /**
      * Example output:
      * <pre>
@@ -4,11 +4,21 @@
  */
 package com.intel.dcsg.cpg.xml;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
-import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
@@ -17,7 +27,6 @@ import javax.xml.bind.Unmarshaller;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
-import javax.xml.transform.stream.StreamSource;
 import org.w3c.dom.Node;
 
 /**
@@ -34,11 +43,18 @@ import org.w3c.dom.Node;
  * A single codec instance can be used for reading and writing any number of
  * times and it does not keep any state.
  * 
+ * The JAXB context for each type is created once and shared by all codec
+ * instances and threads. Unmarshallers and marshallers are not thread-safe,
+ * so each context keeps a pool of them; a thread borrows one for the
+ * duration of a single read or write and then returns it. The pool grows
+ * to the number of threads using the context at the same time.
+ * 
  * @author jbuhacoff
  */
 public class JAXB {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(JAXB.class);
-    private static final HashMap<Class,JAXBContext> contexts = new HashMap<>();
+    private static final ConcurrentMap<Class,Future<ContextPool>> contexts = new ConcurrentHashMap<>();
+    private static final XMLInputFactory xmlInputFactory = createXMLInputFactory();
     
     private ClassLoader jaxbClassLoader = null;
     private Charset charset = Charset.forName("UTF-8");
@@ -70,19 +86,126 @@ public class JAXB {
     
     
 
-    protected JAXBContext getContextForType(Class valueType) throws JAXBException {
-        JAXBContext jc = contexts.get(valueType);
-        if( jc == null ) {
+    /**
+     * Does not allow XML External Entity (XXE) injection CWE-611
+     * http://cwe.mitre.org/data/definitions/611.html
+     * 
+     * The factory is configured once and only used to create readers
+     * afterwards, which is safe to do from multiple threads.
+     *
+     * @return 
+     */
+    private static XMLInputFactory createXMLInputFactory() {
+        XMLInputFactory xif = XMLInputFactory.newFactory();
+        xif.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false); // if true allows sender to include external files via entity declaration in the DTD, which is a security vulnerability
+        xif.setProperty(XMLInputFactory.SUPPORT_DTD, false); // if true allows sender to declare a DTD, and the DTD spec has security vulnerabilities so a reference implementation cannot be secure
+        xif.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true); // if true allows sender to encode &gt; &lt; &quot; &amp; and &apos;  but not custom-defined entity references because we disable dtd support ; http://en.wikipedia.org/wiki/List_of_XML_and_HTML_character_entity_references#Predefined_entities_in_XML
+        return xif;
+    }
+
+    /**
+     * A JAXB context with pools of its unmarshallers and marshallers.
+     */
+    private static class ContextPool {
+        private final JAXBContext context;
+        private final ConcurrentLinkedQueue<Unmarshaller> unmarshallers = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<Marshaller> marshallers = new ConcurrentLinkedQueue<>();
+
+        private ContextPool(JAXBContext context) {
+            this.context = context;
+        }
+
+        private Unmarshaller borrowUnmarshaller() throws JAXBException {
+            Unmarshaller u = unmarshallers.poll();
+            if (u == null) {
+                u = context.createUnmarshaller();
+            }
+            return u;
+        }
+
+        private void returnUnmarshaller(Unmarshaller u) {
+            unmarshallers.offer(u);
+        }
+
+        private Marshaller borrowMarshaller(Charset charset) throws JAXBException {
+            Marshaller m = marshallers.poll();
+            if (m == null) {
+                m = context.createMarshaller();
+            }
+            m.setProperty(Marshaller.JAXB_ENCODING, charset.name()); // set every time because the charset belongs to the codec instance and the pool is shared
+            return m;
+        }
+
+        private void returnMarshaller(Marshaller m) {
+            marshallers.offer(m);
+        }
+    }
+
+    /**
+     * Creates the context for the given type only once even when several
+     * threads ask for it at the same time; the other threads wait for the
+     * first one to finish. If creating the context fails it is removed from
+     * the cache so a later call can try again.
+     * 
+     * @param valueType
+     * @return
+     * @throws JAXBException 
+     */
+    private ContextPool getContextPoolForType(final Class valueType) throws JAXBException {
+        Future<ContextPool> future = contexts.get(valueType);
+        if (future == null) {
+            FutureTask<ContextPool> task = new FutureTask<>(new Callable<ContextPool>() {
+                @Override
+                public ContextPool call() throws JAXBException {
+                    return new ContextPool(createContextForType(valueType));
+                }
+            });
+            future = contexts.putIfAbsent(valueType, task);
+            if (future == null) {
+                future = task;
+                task.run();
+            }
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JAXBException("Interrupted while waiting for context: " + valueType.getName(), e);
+        } catch (ExecutionException e) {
+            contexts.remove(valueType, future);
+            Throwable cause = e.getCause();
+            if (cause instanceof JAXBException) {
+                throw (JAXBException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new JAXBException("Cannot create context: " + valueType.getName(), cause);
+        }
+    }
+
+    /**
+     * For tests that need to create a context for the first time.
+     */
+    static void clearContextCache() {
+        contexts.clear();
+    }
+
+    private JAXBContext createContextForType(Class valueType) throws JAXBException {
         if (jaxbClassLoader != null) {
             log.debug("getContextForType: {} with specified classloader: {}", valueType.getPackage().getName(), jaxbClassLoader);
-            jc = JAXBContext.newInstance(valueType.getPackage().getName(), jaxbClassLoader);
+            return JAXBContext.newInstance(valueType.getPackage().getName(), jaxbClassLoader);
         } else {
             log.debug("getContextForType: {} with default classloader: {}", valueType.getPackage().getName(), Thread.currentThread().getContextClassLoader());
-            jc = JAXBContext.newInstance(valueType.getPackage().getName()); // uses Thread.currentThread().getContextClassLoader()
+            return JAXBContext.newInstance(valueType.getPackage().getName()); // uses Thread.currentThread().getContextClassLoader()
         }
-        contexts.put(valueType, jc);
-        }
-        return jc;
+    }
+
+    protected JAXBContext getContextForType(Class valueType) throws JAXBException {
+        return getContextPoolForType(valueType).context;
     }
     protected JAXBContext getContextForObject(JAXBElement value) throws JAXBException {
         return getContextForType(value.getValue().getClass());
@@ -103,32 +226,108 @@ public class JAXB {
      * @throws JAXBException
      */
     public <T> T read(String document, Class<T> valueType) throws IOException, JAXBException, XMLStreamException {
-        JAXBContext jc = getContextForType(valueType);
-        // CWE-611 restrict XML external entity references
-        XMLInputFactory xif = XMLInputFactory.newFactory();
-        xif.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false); // if true allows sender to include external files via entity declaration in the DTD, which is a security vulnerability
-        xif.setProperty(XMLInputFactory.SUPPORT_DTD, false); // if true allows sender to declare a DTD, and the DTD spec has security vulnerabilities so a reference implementation cannot be secure
-        xif.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true); // if true allows sender to encode &gt; &lt; &quot; &amp; and &apos;  but not custom-defined entity references because we disable dtd support ; http://en.wikipedia.org/wiki/List_of_XML_and_HTML_character_entity_references#Predefined_entities_in_XML
-        XMLStreamReader xsr = xif.createXMLStreamReader(new StreamSource(new StringReader(document)));
-        Unmarshaller u = jc.createUnmarshaller();
-        JAXBElement<T> doc = u.unmarshal(xsr, valueType);
-        return doc.getValue();
+        return read(new StringReader(document), valueType);
+    }
+
+    /**
+     * Does not allow XML External Entity (XXE) injection CWE-611
+     * 
+     * The character encoding is detected from the document. The stream
+     * is not closed.
+     * 
+     * @param <T>
+     * @param in
+     * @param valueType
+     * @return
+     * @throws IOException
+     * @throws JAXBException
+     * @throws XMLStreamException 
+     */
+    public <T> T read(InputStream in, Class<T> valueType) throws IOException, JAXBException, XMLStreamException {
+        return read(xmlInputFactory.createXMLStreamReader(in), valueType);
+    }
+
+    /**
+     * Does not allow XML External Entity (XXE) injection CWE-611
+     * 
+     * The reader is not closed.
+     * 
+     * @param <T>
+     * @param in
+     * @param valueType
+     * @return
+     * @throws IOException
+     * @throws JAXBException
+     * @throws XMLStreamException 
+     */
+    public <T> T read(Reader in, Class<T> valueType) throws IOException, JAXBException, XMLStreamException {
+        return read(xmlInputFactory.createXMLStreamReader(in), valueType);
+    }
+
+    private <T> T read(XMLStreamReader xsr, Class<T> valueType) throws JAXBException, XMLStreamException {
+        try {
+            ContextPool pool = getContextPoolForType(valueType);
+            Unmarshaller u = pool.borrowUnmarshaller();
+            try {
+                JAXBElement<T> doc = u.unmarshal(xsr, valueType);
+                return doc.getValue();
+            } finally {
+                pool.returnUnmarshaller(u);
+            }
+        } finally {
+            xsr.close(); // releases the parser but does not close the underlying stream
+        }
     }
     
     public <T> T convert(Node fromDocument, Class<T> toValueType) throws JAXBException {
-        JAXBContext jc = getContextForType(toValueType);
-        Unmarshaller u = jc.createUnmarshaller();
-        JAXBElement<T> element = u.unmarshal(fromDocument, toValueType);
-        return element.getValue();
+        ContextPool pool = getContextPoolForType(toValueType);
+        Unmarshaller u = pool.borrowUnmarshaller();
+        try {
+            JAXBElement<T> element = u.unmarshal(fromDocument, toValueType);
+            return element.getValue();
+        } finally {
+            pool.returnUnmarshaller(u);
+        }
     }
     
     public String write(Object value) throws JAXBException {
-        JAXBContext jc = getContextForObject(value);
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        Marshaller m = jc.createMarshaller();
-        m.setProperty(Marshaller.JAXB_ENCODING, charset.name());
-        m.marshal(value, out);
-        byte[] xml = out.toByteArray();
-        return new String(xml, charset);
+        StringWriter out = new StringWriter();
+        write(value, out);
+        return out.toString();
+    }
+
+    /**
+     * Writes the document in the codec's charset. The stream is not closed.
+     * 
+     * @param value
+     * @param out
+     * @throws JAXBException 
+     */
+    public void write(Object value, OutputStream out) throws JAXBException {
+        ContextPool pool = getContextPoolForType(value.getClass());
+        Marshaller m = pool.borrowMarshaller(charset);
+        try {
+            m.marshal(value, out);
+        } finally {
+            pool.returnMarshaller(m);
+        }
+    }
+
+    /**
+     * The XML declaration names the codec's charset, which should match
+     * the encoding the writer uses. The writer is not closed.
+     * 
+     * @param value
+     * @param out
+     * @throws JAXBException 
+     */
+    public void write(Object value, Writer out) throws JAXBException {
+        ContextPool pool = getContextPoolForType(value.getClass());
+        Marshaller m = pool.borrowMarshaller(charset);
+        try {
+            m.marshal(value, out);
+        } finally {
+            pool.returnMarshaller(m);
+        }
     }
 }
@@ -4,8 +4,16 @@
  */
 package com.intel.dcsg.cpg.xml;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
@@ -15,6 +23,7 @@ import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.stream.StreamSource;
+import org.junit.Assume;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import test.xml.model.*;
@@ -188,4 +197,144 @@ ProductName.3082=Microsoft Visual C++ 2008 Redistributable
         return doc.getValue();
     }    
     
+    private static HostsTrustReportType createReport(int hosts) {
+        HostsTrustReportType report = new HostsTrustReportType();
+        for (int i = 0; i < hosts; i++) {
+            HostType host = new HostType();
+            host.setHostName("host" + i);
+            host.setMLEInfo("mle-4.3.2 >>");
+            host.setTrustStatus(i % 2);
+            report.getHost().add(host);
+        }
+        return report;
+    }
+
+    @Test
+    public void testReadWriteStream() throws IOException, JAXBException, XMLStreamException {
+        JAXB jaxb = new JAXB();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        jaxb.write(createReport(3), out);
+        HostsTrustReportType report = jaxb.read(new ByteArrayInputStream(out.toByteArray()), HostsTrustReportType.class);
+        assertEquals(3, report.getHost().size());
+        assertEquals("host2", report.getHost().get(2).getHostName());
+        assertEquals("mle-4.3.2 >>", report.getHost().get(2).getMLEInfo());
+        assertEquals(jaxb.write(createReport(3)), new String(out.toByteArray(), "UTF-8"));
+    }
+
+    @Test(expected=javax.xml.stream.XMLStreamException.class)
+    public void testPreventXmlEntityInjectionStream() throws IOException, JAXBException, XMLStreamException {
+        String xml = "<!DOCTYPE foo [<!ENTITY inc SYSTEM \"file:///etc/passwd\">]>\n" +
+                     "<hosts_trust_report><Host Host_Name=\"host123\" Trust_Status=\"1\"><mleInfo>&inc;</mleInfo></Host></hosts_trust_report>";
+        try {
+            new JAXB().read(new ByteArrayInputStream(xml.getBytes("UTF-8")), HostsTrustReportType.class);
+        }
+        catch(javax.xml.bind.UnmarshalException e) {
+            throw new XMLStreamException(e); // depending on the parser the DTD is rejected when the reader is created or while unmarshalling
+        }
+    }
+
+    /**
+     * Reads and writes a small document from 16 threads and logs the
+     * documents per second with the shared codec and with a new input
+     * factory, unmarshaller and marshaller for every document as it was
+     * done before they were pooled.
+     * 
+     * This takes several seconds, so it only runs with
+     * -Dmtwilson.test.performance=true
+     */
+    @Test
+    public void testConcurrentThroughput() throws Exception {
+        Assume.assumeTrue("set mtwilson.test.performance=true to run", Boolean.getBoolean("mtwilson.test.performance"));
+        final int threads = 16;
+        final int documents = 2000;
+        final JAXB jaxb = new JAXB();
+        final String xml = jaxb.write(createReport(10));
+        final JAXBContext jc = JAXBContext.newInstance(HostsTrustReportType.class.getPackage().getName());
+        Callable<Void> pooled = new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                for (int i = 0; i < documents; i++) {
+                    HostsTrustReportType report = jaxb.read(new ByteArrayInputStream(xml.getBytes("UTF-8")), HostsTrustReportType.class);
+                    ByteArrayOutputStream out = new ByteArrayOutputStream(xml.length());
+                    jaxb.write(report, out);
+                    assertEquals(10, report.getHost().size());
+                }
+                return null;
+            }
+        };
+        Callable<Void> fresh = new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                for (int i = 0; i < documents; i++) {
+                    XMLInputFactory xif = XMLInputFactory.newFactory();
+                    xif.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+                    xif.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+                    xif.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true);
+                    XMLStreamReader xsr = xif.createXMLStreamReader(new StreamSource(new StringReader(xml)));
+                    HostsTrustReportType report = jc.createUnmarshaller().unmarshal(xsr, HostsTrustReportType.class).getValue();
+                    Marshaller m = jc.createMarshaller();
+                    m.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+                    ByteArrayOutputStream out = new ByteArrayOutputStream(xml.length());
+                    m.marshal(report, out);
+                    assertEquals(10, report.getHost().size());
+                }
+                return null;
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < 2; round++) { // the first round warms up
+                for (String name : new String[] { "fresh", "pooled" }) {
+                    Callable<Void> task = name.equals("pooled") ? pooled : fresh;
+                    long start = System.nanoTime();
+                    ArrayList<Future<Void>> futures = new ArrayList<>();
+                    for (int i = 0; i < threads; i++) {
+                        futures.add(executor.submit(task));
+                    }
+                    for (Future<Void> future : futures) {
+                        future.get();
+                    }
+                    long elapsed = System.nanoTime() - start;
+                    if (round > 0) {
+                        log.info("{} threads {}: {} documents/sec", threads, name, (long) threads * documents * 1000000000L / elapsed);
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Many threads asking for the same new context at once all get the
+     * same instance. The context cache is shared with the other tests, so
+     * it is cleared first and the threads start together.
+     */
+    @Test
+    public void testConcurrentFirstUse() throws Exception {
+        final int threads = 16;
+        final JAXB jaxb = new JAXB();
+        final CyclicBarrier start = new CyclicBarrier(threads);
+        JAXB.clearContextCache();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<Future<JAXBContext>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(new Callable<JAXBContext>() {
+                    @Override
+                    public JAXBContext call() throws Exception {
+                        start.await();
+                        return jaxb.getContextForType(HostType.class);
+                    }
+                }));
+            }
+            JAXBContext first = futures.get(0).get();
+            for (Future<JAXBContext> future : futures) {
+                assertSame(first, future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
 }